@@ -0,0 +1,138 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.performance;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.KeyUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * A JMH benchmark of the throughput of KeyUtils.generateDigest as the number of threads grows.
+ * The input is the size of a typical certificate, as digested for a thumbprint reference. Run
+ * the main method to compare the throughput for 1, 4, 16 and 64 threads. The "baseline"
+ * benchmarks create a new MessageDigest for each digest instead of using the pooled instances,
+ * for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DigestBenchmark {
+
+    private final byte[] input = new String(new char[1024]).replace('\0', 'a').getBytes(StandardCharsets.UTF_8);
+
+    @Benchmark
+    @Threads(1)
+    public byte[] sha1Threads1() throws WSSecurityException {
+        return KeyUtils.generateDigest(input);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] sha1Threads4() throws WSSecurityException {
+        return KeyUtils.generateDigest(input);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public byte[] sha1Threads16() throws WSSecurityException {
+        return KeyUtils.generateDigest(input);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public byte[] sha1Threads64() throws WSSecurityException {
+        return KeyUtils.generateDigest(input);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public byte[] baselineSha1Threads1() throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance("SHA-1").digest(input);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] baselineSha1Threads4() throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance("SHA-1").digest(input);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public byte[] baselineSha1Threads16() throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance("SHA-1").digest(input);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public byte[] baselineSha1Threads64() throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance("SHA-1").digest(input);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public byte[] sha256Threads1() throws WSSecurityException {
+        return KeyUtils.generateDigestSHA256(input);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public byte[] sha256Threads64() throws WSSecurityException {
+        return KeyUtils.generateDigestSHA256(input);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public byte[] baselineSha256Threads1() throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance("SHA-256").digest(input);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public byte[] baselineSha256Threads64() throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance("SHA-256").digest(input);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+            .include(DigestBenchmark.class.getSimpleName())
+            .build();
+        new Runner(options).run();
+    }
+}
@@ -230,6 +230,35 @@ public class ConfigurationConstants {
      */
     public static final String PW_CALLBACK_REF = "passwordCallbackRef";
 
+    /**
+     * Whether to cache the passwords and keys that the CallbackHandler defined via
+     * {@link #PW_CALLBACK_CLASS} or {@link #PW_CALLBACK_REF} supplies, by wrapping it in a
+     * {@link org.apache.wss4j.common.ext.CachingCallbackHandler}. This avoids calling the
+     * CallbackHandler for every message, if it looks up passwords in a directory or secret store.
+     * <p/>
+     * The default value is "false".
+     */
+    public static final String PW_CALLBACK_CACHE = "passwordCallbackCache";
+
+    /**
+     * The time in seconds to cache a password or key supplied by the CallbackHandler for, if
+     * {@link #PW_CALLBACK_CACHE} is enabled. The default value is 300 seconds (5 minutes).
+     */
+    public static final String PW_CALLBACK_CACHE_TTL = "passwordCallbackCacheTTL";
+
+    /**
+     * The time in seconds to cache the absence of a password or key for, if
+     * {@link #PW_CALLBACK_CACHE} is enabled. A value of 0 disables negative caching. The default
+     * value is 30 seconds.
+     */
+    public static final String PW_CALLBACK_CACHE_NEGATIVE_TTL = "passwordCallbackCacheNegativeTTL";
+
+    /**
+     * The maximum number of passwords or keys to cache, if {@link #PW_CALLBACK_CACHE} is enabled.
+     * The default value is 1000.
+     */
+    public static final String PW_CALLBACK_CACHE_MAX_SIZE = "passwordCallbackCacheMaxSize";
+
     /**
      * This tag refers to the SAML CallbackHandler implementation class used to construct
      * SAML Assertions. The value of this tag must be the class name of a
@@ -888,6 +917,30 @@ public class ConfigurationConstants {
      */
     public static final String SAML_ONE_TIME_USE_CACHE_INSTANCE = "samlOneTimeUseCacheInstance";
 
+    /**
+     * This holds a reference to a ReplayCache instance used to cache the Authenticators of
+     * received Kerberos tokens, so that a replayed Kerberos token is rejected. There is no
+     * default instance, i.e. Kerberos tokens are not checked for replay unless this is set.
+     */
+    public static final String KERBEROS_CACHE_INSTANCE = "kerberosCacheInstance";
+
+    /**
+     * This holds a reference to a SecurityContextSessionStore instance, which is used to store the
+     * secrets of received SecurityContextTokens, and the keys derived from them. There is no default
+     * instance, i.e. the CallbackHandler is asked for the secret of each SecurityContextToken unless
+     * this is set. A stored secret is confirmed with the CallbackHandler once the default lifetime of
+     * the store has passed, and a cancelled security context should be removed from the store.
+     */
+    public static final String SECURITY_CONTEXT_SESSION_STORE_INSTANCE = "securityContextSessionStoreInstance";
+
+    /**
+     * This holds a reference to a ReplayCacheListener instance, such as a ReplayCacheMetrics, that
+     * the behaviour of the nonce, timestamp, SAML OneTimeUse and Kerberos replay caches is reported to. The
+     * default is not to report it. The listener of the caches themselves is not changed, so their internal
+     * events are only reported if they are wrapped in a MonitoredReplayCache when they are created.
+     */
+    public static final String REPLAY_CACHE_LISTENER_INSTANCE = "replayCacheListenerInstance";
+
     /**
      * This holds a reference to a PasswordEncryptor instance, which is used to encrypt or
      * decrypt passwords in the Merlin Crypto implementation (or any custom Crypto implementations).
@@ -0,0 +1,282 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A ReplayCache that decorates another ReplayCache with Bloom filters, so that a lookup (contains)
+ * of an identifier that is definitely not in the cache (which is the common case) is answered
+ * without going to the backing cache. This is worthwhile when the backing cache is remote or
+ * disk-backed. addIfAbsent always goes to the backing cache, as only the backing cache can add an
+ * identifier atomically, for example across the nodes of a cluster.
+ *
+ * There is a Bloom filter per window of expiry time, and each identifier is added to the filter of
+ * the window in which it expires, before it is added to the backing cache, so that a concurrent
+ * lookup never misses an identifier that the backing cache contains. Filters are discarded, rather than cleared, once their window has
+ * passed. The filters only know about the identifiers that are added through this decorator, so it
+ * must see every add to the backing cache. If the backing cache may already contain identifiers when
+ * the decorator is created (for example, if it is persistent), then a warm-up period can be given,
+ * during which all lookups go to the backing cache. The maximum TTL must be at least as long as the
+ * longest TTL that the backing cache applies.
+ */
+public class BloomFilterReplayCache implements ReplayCache {
+
+    public static final long DEFAULT_WINDOW = 300L;
+    public static final int DEFAULT_EXPECTED_INSERTIONS = 100000;
+
+    private final ReplayCache backingCache;
+    private final long windowMillis;
+    private final long maxTtlMillis;
+    private final long warmUpEnd;
+    private final int bits;
+    private final int hashes;
+    private final AtomicReferenceArray<Filter> filters;
+    private final AtomicLong filtered = new AtomicLong();
+
+    /**
+     * Create a decorator with the default window, expected insertions and maximum TTL, which
+     * assumes that the backing cache is empty.
+     * @param backingCache the cache to decorate
+     */
+    public BloomFilterReplayCache(ReplayCache backingCache) {
+        this(backingCache, Duration.ofSeconds(MemoryReplayCache.MAX_TTL), Duration.ofSeconds(DEFAULT_WINDOW),
+             DEFAULT_EXPECTED_INSERTIONS, 0.01, Duration.ZERO);
+    }
+
+    /**
+     * @param backingCache the cache to decorate
+     * @param maxTtl the longest TTL that the backing cache applies to an identifier
+     * @param window the expiry time window that is covered by each filter
+     * @param expectedInsertions the number of identifiers expected to be added per window
+     * @param falsePositiveProbability the desired false positive probability of each filter
+     * @param warmUp how long to look up all identifiers in the backing cache for
+     */
+    public BloomFilterReplayCache(ReplayCache backingCache, Duration maxTtl, Duration window,
+                                  int expectedInsertions, double falsePositiveProbability,
+                                  Duration warmUp) {
+        if (window.toMillis() <= 0 || expectedInsertions <= 0
+            || falsePositiveProbability <= 0.0 || falsePositiveProbability >= 1.0) {
+            throw new IllegalArgumentException("Invalid Bloom filter parameters");
+        }
+        this.backingCache = backingCache;
+        this.windowMillis = window.toMillis();
+        this.maxTtlMillis = maxTtl.toMillis();
+        this.warmUpEnd = System.currentTimeMillis() + warmUp.toMillis();
+
+        // m = -n ln(p) / (ln 2)^2, rounded up to a power of two, and k = (m / n) ln 2
+        double optimalBits =
+            -expectedInsertions * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2));
+        int size = 64;
+        while (size < optimalBits && size < (1 << 30)) {
+            size <<= 1;
+        }
+        this.bits = size;
+        this.hashes = Math.max(1, (int)Math.round((double)size / expectedInsertions * Math.log(2)));
+
+        // Enough filters for every window from now until the maximum TTL, plus the current one
+        this.filters = new AtomicReferenceArray<>((int)(maxTtlMillis / windowMillis) + 2);
+    }
+
+    /**
+     * Add the given identifier to the cache. It will be cached for a default amount of time.
+     * @param identifier The identifier to be added
+     */
+    public void add(String identifier) {
+        if (identifier == null || "".equals(identifier)) {
+            return;
+        }
+        put(hash(identifier), null);
+        backingCache.add(identifier);
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time
+     * @param identifier The identifier to be added
+     * @param expiry A custom expiry time for the identifier
+     */
+    public void add(String identifier, Instant expiry) {
+        if (identifier == null || "".equals(identifier)) {
+            return;
+        }
+        put(hash(identifier), expiry);
+        backingCache.add(identifier, expiry);
+    }
+
+    /**
+     * Return true if the given identifier is contained in the cache
+     * @param identifier The identifier to check
+     */
+    public boolean contains(String identifier) {
+        if (identifier == null || "".equals(identifier)) {
+            return false;
+        }
+        if (isDefinitelyAbsent(hash(identifier))) {
+            filtered.incrementAndGet();
+            return false;
+        }
+        return backingCache.contains(identifier);
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time, if it is not already
+     * contained in the cache. This is always decided by the backing cache.
+     * @param identifier The identifier to be added
+     * @param expiry A custom expiry time for the identifier, or null to cache it for a default amount of time
+     * @return true if the identifier was added, or false if it was already contained in the cache
+     */
+    @Override
+    public boolean addIfAbsent(String identifier, Instant expiry) {
+        if (identifier == null || "".equals(identifier)) {
+            return true;
+        }
+        // Adding a replayed identifier to the filters is harmless, as it is already in them
+        put(hash(identifier), expiry);
+        return backingCache.addIfAbsent(identifier, expiry);
+    }
+
+    /**
+     * @return the number of lookups that were answered by the filters, without the backing cache
+     */
+    public long getFilteredCount() {
+        return filtered.get();
+    }
+
+    @Override
+    public int size() {
+        return backingCache.size();
+    }
+
+    @Override
+    public void setListener(ReplayCacheListener listener, String role) {
+        backingCache.setListener(listener, role);
+    }
+
+    public ReplayCache getBackingCache() {
+        return backingCache;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (int i = 0; i < filters.length(); i++) {
+            filters.set(i, null);
+        }
+        backingCache.close();
+    }
+
+    private boolean isDefinitelyAbsent(long hash) {
+        long now = System.currentTimeMillis();
+        if (now < warmUpEnd) {
+            return false;
+        }
+        long currentWindow = now / windowMillis;
+        for (int i = 0; i < filters.length(); i++) {
+            Filter filter = filters.get(i);
+            if (filter != null && filter.window >= currentWindow && filter.mightContain(hash)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void put(long hash, Instant expiry) {
+        long now = System.currentTimeMillis();
+        // Be conservative about when the backing cache expires the identifier
+        long expiryMillis = now + maxTtlMillis;
+        if (expiry != null && !expiry.isBefore(Instant.ofEpochMilli(now))
+            && expiry.toEpochMilli() < expiryMillis) {
+            expiryMillis = expiry.toEpochMilli();
+        }
+        getFilter(expiryMillis / windowMillis).put(hash);
+    }
+
+    private Filter getFilter(long window) {
+        int index = (int)(window % filters.length());
+        while (true) {
+            Filter filter = filters.get(index);
+            if (filter != null && filter.window == window) {
+                return filter;
+            }
+            // The slot holds a filter for a window that has passed, so replace it
+            Filter newFilter = new Filter(window, bits, hashes);
+            if (filters.compareAndSet(index, filter, newFilter)) {
+                return newFilter;
+            }
+        }
+    }
+
+    /**
+     * A 64-bit FNV-1a hash of the identifier, which is split into two 32-bit hashes for the filters
+     */
+    private static long hash(String identifier) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < identifier.length(); i++) {
+            hash ^= identifier.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        // Finalize the hash, so that all of the bits depend on all of the input
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static final class Filter {
+        private final long window;
+        private final AtomicLongArray words;
+        private final int mask;
+        private final int hashes;
+
+        Filter(long window, int bits, int hashes) {
+            this.window = window;
+            this.words = new AtomicLongArray(bits / 64);
+            this.mask = bits - 1;
+            this.hashes = hashes;
+        }
+
+        boolean mightContain(long hash) {
+            int hash1 = (int)hash;
+            int hash2 = (int)(hash >>> 32);
+            for (int i = 1; i <= hashes; i++) {
+                int bit = (hash1 + i * hash2) & mask;
+                if ((words.get(bit >>> 6) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void put(long hash) {
+            int hash1 = (int)hash;
+            int hash2 = (int)(hash >>> 32);
+            for (int i = 1; i <= hashes; i++) {
+                int bit = (hash1 + i * hash2) & mask;
+                words.accumulateAndGet(bit >>> 6, 1L << bit, (a, b) -> a | b);
+            }
+        }
+    }
+}
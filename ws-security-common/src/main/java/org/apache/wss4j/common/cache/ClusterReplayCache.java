@@ -0,0 +1,359 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A ReplayCache that shares identifiers between the nodes of a cluster, using a ReplayCacheBackend
+ * for a remote key-value store. The identifiers are prefixed with the cache key, so that several
+ * caches can share a store.
+ *
+ * Requests to the backend are batched: the operations that are requested while a batch is being
+ * sent to the backend are sent together in the next batch. Identifiers that are known to be in the
+ * store are kept in a local near-cache, so that a replay that reaches the same node again is
+ * detected without a request to the backend.
+ *
+ * In write-behind mode, which is meant for timestamp caches, addIfAbsent only waits to look up an
+ * identifier in the backend, and the identifier is then written to the backend asynchronously. This
+ * saves latency at the cost of a short window in which the same message, sent to two nodes at the
+ * same time, is accepted by both.
+ *
+ * If the backend fails, or does not answer in time, then the cache fails closed: identifiers are
+ * reported as contained in the cache, so that the message is rejected. Only the answers of the
+ * backend are kept in the near-cache, so that a message that was rejected because of a failure is
+ * accepted once the backend is available again.
+ */
+public class ClusterReplayCache implements ReplayCache {
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final long DEFAULT_TIMEOUT = 5000L;
+    public static final int DEFAULT_NEAR_CACHE_SIZE = 10000;
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(ClusterReplayCache.class);
+
+    private static final ExecutorService BATCH_EXECUTOR =
+        Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "wss4j-replay-cache-backend");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    private enum OperationType { CONTAINS, PUT_IF_ABSENT, PUT }
+
+    private final String keyPrefix;
+    private final ReplayCacheBackend backend;
+    private final MemoryReplayCache nearCache;
+    private final Queue<Operation> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private boolean writeBehind;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private long timeout = DEFAULT_TIMEOUT;
+
+    /**
+     * @param key the cache key, which prefixes the identifiers in the backend
+     * @param backend the remote key-value store
+     */
+    public ClusterReplayCache(String key, ReplayCacheBackend backend) {
+        this(key, backend, DEFAULT_NEAR_CACHE_SIZE);
+    }
+
+    /**
+     * @param key the cache key, which prefixes the identifiers in the backend
+     * @param backend the remote key-value store
+     * @param nearCacheSize the maximum number of identifiers to keep in the near-cache
+     */
+    public ClusterReplayCache(String key, ReplayCacheBackend backend, int nearCacheSize) {
+        this.keyPrefix = key + ":";
+        this.backend = backend;
+        this.nearCache = new MemoryReplayCache(nearCacheSize, MemoryReplayCache.OverloadPolicy.SHORTEN_TTL);
+    }
+
+    /**
+     * Add the given identifier to the cache. It will be cached for a default amount of time.
+     * @param identifier The identifier to be added
+     */
+    public void add(String identifier) {
+        add(identifier, null);
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time
+     * @param identifier The identifier to be added
+     * @param expiry A custom expiry time for the identifier
+     */
+    public void add(String identifier, Instant expiry) {
+        if (identifier == null || "".equals(identifier)) {
+            return;
+        }
+        long expiryMillis = FingerprintReplayCache.getExpiryMillis(expiry);
+        nearCache.add(identifier, Instant.ofEpochMilli(expiryMillis));
+        CompletableFuture<Boolean> result = submit(OperationType.PUT, identifier, expiryMillis);
+        if (!writeBehind) {
+            await(result, true);
+        }
+    }
+
+    /**
+     * Return true if the given identifier is contained in the cache
+     * @param identifier The identifier to check
+     */
+    public boolean contains(String identifier) {
+        if (identifier == null || "".equals(identifier)) {
+            return false;
+        }
+        return nearCache.contains(identifier)
+            || await(submit(OperationType.CONTAINS, identifier, 0L), true);
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time, if it is not already
+     * contained in the cache.
+     * @param identifier The identifier to be added
+     * @param expiry A custom expiry time for the identifier, or null to cache it for a default amount of time
+     * @return true if the identifier was added, or false if it was already contained in the cache
+     */
+    @Override
+    public boolean addIfAbsent(String identifier, Instant expiry) {
+        if (identifier == null || "".equals(identifier)) {
+            return true;
+        }
+        if (nearCache.contains(identifier)) {
+            return false;
+        }
+
+        long expiryMillis = FingerprintReplayCache.getExpiryMillis(expiry);
+        Instant nearCacheExpiry = Instant.ofEpochMilli(expiryMillis);
+        if (writeBehind) {
+            Boolean contained = await(submit(OperationType.CONTAINS, identifier, 0L));
+            if (contained == null) {
+                return false;
+            }
+            if (contained) {
+                nearCache.add(identifier, nearCacheExpiry);
+                return false;
+            }
+            if (!nearCache.addIfAbsent(identifier, nearCacheExpiry)) {
+                return false;
+            }
+            submit(OperationType.PUT_IF_ABSENT, identifier, expiryMillis).thenAccept(added -> {
+                if (!added) {
+                    LOG.debug("Identifier {} was added by another node at the same time", identifier);
+                }
+            });
+            return true;
+        }
+
+        Boolean added = await(submit(OperationType.PUT_IF_ABSENT, identifier, expiryMillis));
+        if (added == null) {
+            return false;
+        }
+        // The identifier is in the store now, whether it was added here or not
+        nearCache.add(identifier, nearCacheExpiry);
+        return added;
+    }
+
+    /**
+     * Set whether to write identifiers to the backend asynchronously. The default is false.
+     */
+    public void setWriteBehind(boolean writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+
+    public boolean isWriteBehind() {
+        return writeBehind;
+    }
+
+    /**
+     * Set the maximum number of operations to send to the backend in a single batch
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("The batch size must be greater than zero");
+        }
+        this.batchSize = batchSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set the time in milliseconds to wait for an answer from the backend, before failing closed
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public ReplayCacheBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Wait for the pending (write-behind) operations to be sent to the backend and close the
+     * near-cache. The backend is not closed, as it may be shared with other caches.
+     */
+    @Override
+    public void close() throws IOException {
+        long deadline = System.currentTimeMillis() + timeout;
+        try {
+            while ((!pending.isEmpty() || draining.get()) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        nearCache.close();
+    }
+
+    private CompletableFuture<Boolean> submit(OperationType type, String identifier, long expiry) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        pending.add(new Operation(type, keyPrefix + identifier, expiry, result));
+        scheduleDrain();
+        return result;
+    }
+
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            BATCH_EXECUTOR.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            List<Operation> batch = new ArrayList<>();
+            Operation operation = pending.poll();
+            while (operation != null) {
+                batch.add(operation);
+                if (batch.size() >= batchSize) {
+                    process(batch);
+                    batch.clear();
+                }
+                operation = pending.poll();
+            }
+            if (!batch.isEmpty()) {
+                process(batch);
+            }
+        } finally {
+            draining.set(false);
+            // Pick up any operation that was added after the last poll
+            if (!pending.isEmpty()) {
+                scheduleDrain();
+            }
+        }
+    }
+
+    private void process(List<Operation> batch) {
+        for (OperationType type : OperationType.values()) {
+            List<Operation> operations = new ArrayList<>();
+            for (Operation operation : batch) {
+                if (operation.type == type) {
+                    operations.add(operation);
+                }
+            }
+            if (!operations.isEmpty()) {
+                process(type, operations);
+            }
+        }
+    }
+
+    private void process(OperationType type, List<Operation> operations) {
+        String[] keys = new String[operations.size()];
+        long[] expiries = new long[operations.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = operations.get(i).key;
+            expiries[i] = operations.get(i).expiry;
+        }
+
+        try {
+            boolean[] results;
+            if (type == OperationType.CONTAINS) {
+                results = backend.contains(keys);
+            } else if (type == OperationType.PUT_IF_ABSENT) {
+                results = backend.putIfAbsent(keys, expiries);
+            } else {
+                backend.put(keys, expiries);
+                results = new boolean[keys.length];
+            }
+            for (int i = 0; i < keys.length; i++) {
+                operations.get(i).result.complete(results[i]);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Error accessing the replay cache backend: {}", e.getMessage());
+            for (Operation operation : operations) {
+                operation.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Wait for the result of an operation, or return the given (fail closed) value if it fails
+     */
+    private boolean await(CompletableFuture<Boolean> result, boolean failureValue) {
+        Boolean value = await(result);
+        return value == null ? failureValue : value;
+    }
+
+    /**
+     * Wait for the result of an operation, or return null if it fails or times out
+     */
+    private Boolean await(CompletableFuture<Boolean> result) {
+        try {
+            return result.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | TimeoutException e) {
+            LOG.debug(e.getMessage(), e);
+            return null;
+        }
+    }
+
+    private static final class Operation {
+        private final OperationType type;
+        private final String key;
+        private final long expiry;
+        private final CompletableFuture<Boolean> result;
+
+        Operation(OperationType type, String key, long expiry, CompletableFuture<Boolean> result) {
+            this.type = type;
+            this.key = key;
+            this.expiry = expiry;
+            this.result = result;
+        }
+    }
+}
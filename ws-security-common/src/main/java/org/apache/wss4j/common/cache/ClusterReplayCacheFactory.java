@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.Loader;
+
+/**
+ * A factory to return a ClusterReplayCache instance. The configuration is either a
+ * ReplayCacheBackend, or a Map (such as a Properties object) with the following keys:
+ * <ul>
+ * <li>BACKEND - a ReplayCacheBackend, or the name of a ReplayCacheBackend class with a
+ * no-argument constructor. A single instance of each class is created and shared by the caches.</li>
+ * <li>WRITE_BEHIND - whether to write identifiers to the backend asynchronously</li>
+ * <li>BATCH_SIZE - the maximum number of operations to send to the backend at once</li>
+ * <li>TIMEOUT - the time in milliseconds to wait for the backend</li>
+ * <li>NEAR_CACHE_SIZE - the maximum number of identifiers to keep in the near-cache</li>
+ * </ul>
+ * Any other configuration (such as the URL of an EH-Cache configuration file, which is what
+ * WSHandler passes) uses the system properties of the same names instead, so that the cluster
+ * cache can be selected with the FACTORY system property alone. A backend must be configured, as a
+ * cluster cache without a shared store would silently stop detecting replays across the nodes.
+ */
+public class ClusterReplayCacheFactory extends ReplayCacheFactory {
+
+    public static final String BACKEND = "org.apache.wss4j.cache.cluster.backend";
+    public static final String WRITE_BEHIND = "org.apache.wss4j.cache.cluster.writeBehind";
+    public static final String BATCH_SIZE = "org.apache.wss4j.cache.cluster.batchSize";
+    public static final String TIMEOUT = "org.apache.wss4j.cache.cluster.timeout";
+    public static final String NEAR_CACHE_SIZE = "org.apache.wss4j.cache.cluster.nearCacheSize";
+
+    private static final Map<String, ReplayCacheBackend> BACKENDS = new ConcurrentHashMap<>();
+
+    public ReplayCache newReplayCache(String key, Object configuration) throws WSSecurityException {
+        if (configuration instanceof ReplayCacheBackend) {
+            return new ClusterReplayCache(key, (ReplayCacheBackend)configuration);
+        }
+
+        Map<?, ?> map = configuration instanceof Map ? (Map<?, ?>)configuration : null;
+        ReplayCacheBackend backend = getBackend(getValue(map, BACKEND));
+        try {
+            Object nearCacheSize = getValue(map, NEAR_CACHE_SIZE);
+            ClusterReplayCache cache = new ClusterReplayCache(
+                key, backend,
+                nearCacheSize == null ? ClusterReplayCache.DEFAULT_NEAR_CACHE_SIZE
+                    : Integer.parseInt(nearCacheSize.toString().trim())
+            );
+            Object writeBehind = getValue(map, WRITE_BEHIND);
+            if (writeBehind != null) {
+                cache.setWriteBehind(Boolean.parseBoolean(writeBehind.toString().trim()));
+            }
+            Object batchSize = getValue(map, BATCH_SIZE);
+            if (batchSize != null) {
+                cache.setBatchSize(Integer.parseInt(batchSize.toString().trim()));
+            }
+            Object timeout = getValue(map, TIMEOUT);
+            if (timeout != null) {
+                cache.setTimeout(Long.parseLong(timeout.toString().trim()));
+            }
+            return cache;
+        } catch (IllegalArgumentException e) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.FAILURE, e, "empty",
+                new Object[] {"Invalid cluster replay cache configuration: " + e.getMessage()}
+            );
+        }
+    }
+
+    private static Object getValue(Map<?, ?> map, String key) {
+        return map == null ? System.getProperty(key) : map.get(key);
+    }
+
+    private static ReplayCacheBackend getBackend(Object backend) throws WSSecurityException {
+        if (backend instanceof ReplayCacheBackend) {
+            return (ReplayCacheBackend)backend;
+        }
+        if (backend == null || "".equals(backend.toString().trim())) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.FAILURE, "empty",
+                new Object[] {"No replay cache backend is configured, set " + BACKEND}
+            );
+        }
+        String className = backend.toString().trim();
+        ReplayCacheBackend cachedBackend = BACKENDS.get(className);
+        if (cachedBackend != null) {
+            return cachedBackend;
+        }
+        try {
+            ReplayCacheBackend newBackend = Loader.loadClass(className, ReplayCacheBackend.class).newInstance();
+            cachedBackend = BACKENDS.putIfAbsent(className, newBackend);
+            return cachedBackend == null ? newBackend : cachedBackend;
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.FAILURE, e, "empty",
+                new Object[] {"Cannot create the replay cache backend " + className}
+            );
+        }
+    }
+
+}
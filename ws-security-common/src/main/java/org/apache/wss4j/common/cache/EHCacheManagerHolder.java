@@ -21,13 +21,13 @@ package org.apache.wss4j.common.cache;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Method;
 import java.net.URL;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import net.sf.ehcache.CacheException;
 import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Status;
 import net.sf.ehcache.config.CacheConfiguration;
 import net.sf.ehcache.config.Configuration;
 import net.sf.ehcache.config.ConfigurationFactory;
@@ -35,36 +35,21 @@ import net.sf.ehcache.config.ConfigurationFactory;
 import org.apache.wss4j.common.util.Loader;
 
 /**
- * We need to reference count the EHCacheManager things
+ * We need to reference count the EHCacheManager things. The references are counted per CacheManager
+ * name, so that getting and releasing different CacheManagers does not contend on a global lock.
+ * CacheManagers are created and shut down outside of the map operations that count the references.
+ * While the last reference to a CacheManager is released, its count is held at zero until it has
+ * been shut down, and getCacheManager waits for the shutdown (on a future per CacheManager name)
+ * before creating a new one.
  */
 public final class EHCacheManagerHolder {
     private static final org.slf4j.Logger LOG =
         org.slf4j.LoggerFactory.getLogger(EHCacheManagerHolder.class);
-    private static final ConcurrentHashMap<String, AtomicInteger> COUNTS
+    private static final ConcurrentHashMap<String, Integer> COUNTS
+        = new ConcurrentHashMap<>(8, 0.75f, 2);
+    // The shutdowns in progress, which are completed once the count has been removed
+    private static final ConcurrentHashMap<String, CompletableFuture<Void>> SHUTDOWNS
         = new ConcurrentHashMap<>(8, 0.75f, 2);
-
-    private static Method cacheManagerCreateMethodNoArg;
-    private static Method createMethodURLArg;
-    private static Method cacheManagerCreateMethodConfigurationArg;
-    static {
-        // these methods are either completely available or absent (valid assumption from ehcache 2.5.0 to 2.7.2 so far)
-        try {
-            // from 2.5.2
-            cacheManagerCreateMethodNoArg = CacheManager.class.getMethod("newInstance", (Class<?>[])null);
-            createMethodURLArg = CacheManager.class.getMethod("newInstance", URL.class);
-            cacheManagerCreateMethodConfigurationArg = CacheManager.class.getMethod("newInstance", Configuration.class);
-        } catch (NoSuchMethodException e) {
-            try {
-                // before 2.5.2
-                cacheManagerCreateMethodNoArg = CacheManager.class.getMethod("create", (Class<?>[])null);
-                createMethodURLArg = CacheManager.class.getMethod("create", URL.class);
-                cacheManagerCreateMethodConfigurationArg = CacheManager.class.getMethod("create", Configuration.class);
-            } catch (Throwable t) {
-                // ignore
-                LOG.warn(t.getMessage());
-            }
-        }
-    }
 
     private EHCacheManagerHolder() {
         //utility
@@ -90,7 +75,38 @@ public final class EHCacheManagerHolder {
         return cc;
     }
 
-    public static synchronized CacheManager getCacheManager(String confName, URL configFileURL) {
+    public static CacheManager getCacheManager(String confName, URL configFileURL) {
+        CacheManager cacheManager = findCacheManager(confName, configFileURL);
+        if (cacheManager == null || cacheManager.getName() == null) {
+            LOG.warn("The CacheManager or CacheManager name was null");
+            return cacheManager;
+        }
+
+        while (true) {
+            // Don't take a reference while the CacheManager is being shut down (a count of zero)
+            int count = COUNTS.compute(cacheManager.getName(),
+                                       (name, current) -> current == null ? 1 : current == 0 ? 0 : current + 1);
+            if (count > 0) {
+                if (cacheManager.getStatus() == Status.STATUS_ALIVE) {
+                    return cacheManager;
+                }
+                // A concurrent release has shut the CacheManager down in the meantime
+                releaseCacheManger(cacheManager);
+            } else {
+                CompletableFuture<Void> shutdown = SHUTDOWNS.get(cacheManager.getName());
+                if (shutdown != null) {
+                    shutdown.join();
+                }
+            }
+            cacheManager = findCacheManager(confName, configFileURL);
+            if (cacheManager == null || cacheManager.getName() == null) {
+                LOG.warn("The CacheManager or CacheManager name was null");
+                return cacheManager;
+            }
+        }
+    }
+
+    private static CacheManager findCacheManager(String confName, URL configFileURL) {
         CacheManager cacheManager = null;
         if (configFileURL == null) {
             //using the default
@@ -103,19 +119,6 @@ public final class EHCacheManagerHolder {
                 cacheManager = findDefaultCacheManager(confName, configFileURL);
             }
         }
-        if (cacheManager != null && cacheManager.getName() != null) {
-            AtomicInteger a = COUNTS.get(cacheManager.getName());
-            if (a == null) {
-                COUNTS.putIfAbsent(cacheManager.getName(), new AtomicInteger());
-                a = COUNTS.get(cacheManager.getName());
-            }
-            a.incrementAndGet();
-            // if (a.incrementAndGet() == 1) {
-                //System.out.println("Create!! " + cacheManager.getName());
-            // }
-        } else {
-            LOG.warn("The CacheManager or CacheManager name was null");
-        }
         return cacheManager;
     }
 
@@ -151,38 +154,39 @@ public final class EHCacheManagerHolder {
     }
 
 
-    public static synchronized void releaseCacheManger(CacheManager cacheManager) {
-        AtomicInteger a = COUNTS.get(cacheManager.getName());
-        if (a == null) {
-            return;
-        }
-        if (a.decrementAndGet() == 0) {
-            //System.out.println("Shutdown!! " + cacheManager.getName());
-            cacheManager.shutdown();
+    public static void releaseCacheManger(CacheManager cacheManager) {
+        String name = cacheManager.getName();
+        // Only the release of the last reference shuts the CacheManager down
+        CompletableFuture<Void> newShutdown = new CompletableFuture<>();
+        COUNTS.computeIfPresent(name, (n, current) -> {
+            if (current > 1) {
+                return current - 1;
+            }
+            if (current == 1) {
+                SHUTDOWNS.put(n, newShutdown);
+            }
+            return 0;
+        });
+        if (SHUTDOWNS.get(name) == newShutdown) {
+            try {
+                cacheManager.shutdown();
+            } finally {
+                COUNTS.remove(name, 0);
+                SHUTDOWNS.remove(name, newShutdown);
+                newShutdown.complete(null);
+            }
         }
     }
 
     static CacheManager createCacheManager() throws CacheException {
-        try {
-            return (CacheManager)cacheManagerCreateMethodNoArg.invoke(null, (Object[])null);
-        } catch (Exception e) {
-            throw new CacheException(e);
-        }
+        return CacheManager.newInstance();
     }
 
     static CacheManager createCacheManager(URL url) throws CacheException {
-        try {
-            return (CacheManager)createMethodURLArg.invoke(null, new Object[]{url});
-        } catch (Exception e) {
-            throw new CacheException(e);
-        }
+        return CacheManager.newInstance(url);
     }
 
     static CacheManager createCacheManager(Configuration conf) throws CacheException {
-        try {
-            return (CacheManager)cacheManagerCreateMethodConfigurationArg.invoke(null, new Object[]{conf});
-        } catch (Exception e) {
-            throw new CacheException(e);
-        }
+        return CacheManager.newInstance(conf);
     }
 }
@@ -114,7 +114,36 @@ public class EHCacheReplayCache implements ReplayCache {
             return;
         }
 
-        int parsedTTL = (int)(expiry.getEpochSecond() - Instant.now().getEpochSecond());
+        cache.put(createElement(identifier, expiry));
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time, if it is not already
+     * contained in the cache. An identifier that has expired but has not been evicted yet is replaced.
+     * @param identifier The identifier to be added
+     * @param expiry A custom expiry time for the identifier, or null to cache it for the default TTL
+     * @return true if the identifier was added, or false if it was already contained in the cache
+     */
+    @Override
+    public boolean addIfAbsent(String identifier, Instant expiry) {
+        if (identifier == null || "".equals(identifier)) {
+            return true;
+        }
+
+        Element cacheElement = createElement(identifier, expiry);
+        Element existing = cache.putIfAbsent(cacheElement);
+        if (existing != null && cache.isExpired(existing)) {
+            // Only remove the expired element itself - if another thread has replaced it first,
+            // then this identifier is a replay
+            cache.removeElement(existing);
+            existing = cache.putIfAbsent(cacheElement);
+        }
+        return existing == null;
+    }
+
+    private Element createElement(String identifier, Instant expiry) {
+        int parsedTTL = expiry == null
+            ? -1 : (int)(expiry.getEpochSecond() - Instant.now().getEpochSecond());
         if (parsedTTL < 0 || parsedTTL > MAX_TTL) {
             // Default to configured value
             parsedTTL = (int)ttl;
@@ -126,7 +155,7 @@ public class EHCacheReplayCache implements ReplayCache {
 
         Element cacheElement = new Element(identifier, identifier, parsedTTL, parsedTTL);
         cacheElement.resetAccessStatistics();
-        cache.put(cacheElement);
+        return cacheElement;
     }
 
     /**
@@ -148,6 +177,12 @@ public class EHCacheReplayCache implements ReplayCache {
         return false;
     }
 
+    @Override
+    public int size() {
+        Ehcache currentCache = cache;
+        return currentCache == null ? -1 : currentCache.getSize();
+    }
+
     @Override
     public synchronized void close() {
         if (cacheManager != null) {
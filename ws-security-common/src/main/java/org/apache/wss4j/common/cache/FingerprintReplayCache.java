@@ -0,0 +1,264 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.KeyUtils;
+
+/**
+ * An in-memory ReplayCache that stores a 128-bit fingerprint of each identifier, rather than the
+ * identifier itself. The fingerprint is the first 128 bits of the SHA-256 digest of the (UTF-8
+ * encoded) identifier. The fingerprints and their expiry times are kept in open-addressed tables of
+ * primitive longs, so that each entry takes a few dozen bytes, and no object is retained per
+ * entry. Hashing an identifier still allocates its encoded bytes and digest, which are short-lived
+ * and not retained by the cache. The default TTL is 5 minutes and the max TTL is 60 minutes, as
+ * for the MemoryReplayCache.
+ *
+ * The tables are split into segments, each guarded by its own lock. Expired entries are not looked
+ * up, and their slots are reused by new entries, or dropped when a segment is resized.
+ */
+public class FingerprintReplayCache implements ReplayCache {
+
+    private static final int SEGMENTS = 16;
+    private static final int INITIAL_SEGMENT_CAPACITY = 64;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    public FingerprintReplayCache() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Add the given identifier to the cache. It will be cached for a default amount of time.
+     * @param identifier The identifier to be added
+     */
+    public void add(String identifier) {
+        add(identifier, null);
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time
+     * @param identifier The identifier to be added
+     * @param expiry A custom expiry time for the identifier
+     */
+    public void add(String identifier, Instant expiry) {
+        if (identifier == null || "".equals(identifier)) {
+            return;
+        }
+        byte[] digest = digest(identifier);
+        long hi = toLong(digest, 0);
+        long lo = toLong(digest, 8);
+        getSegment(hi).put(hi, lo, getExpiryMillis(expiry), System.currentTimeMillis(), true);
+    }
+
+    /**
+     * Return true if the given identifier is contained in the cache
+     * @param identifier The identifier to check
+     */
+    public boolean contains(String identifier) {
+        if (identifier == null || "".equals(identifier)) {
+            return false;
+        }
+        byte[] digest = digest(identifier);
+        long hi = toLong(digest, 0);
+        long lo = toLong(digest, 8);
+        return getSegment(hi).contains(hi, lo, System.currentTimeMillis());
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time, if it is not already
+     * contained in the cache.
+     * @param identifier The identifier to be added
+     * @param expiry A custom expiry time for the identifier, or null to cache it for a default amount of time
+     * @return true if the identifier was added, or false if it was already contained in the cache
+     */
+    @Override
+    public boolean addIfAbsent(String identifier, Instant expiry) {
+        if (identifier == null || "".equals(identifier)) {
+            return true;
+        }
+        byte[] digest = digest(identifier);
+        long hi = toLong(digest, 0);
+        long lo = toLong(digest, 8);
+        return getSegment(hi).put(hi, lo, getExpiryMillis(expiry), System.currentTimeMillis(), false);
+    }
+
+    /**
+     * @return the number of fingerprints in the cache, including expired fingerprints whose slots
+     * have not been reused yet
+     */
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.occupied;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void close() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.allocate(INITIAL_SEGMENT_CAPACITY);
+            }
+        }
+    }
+
+    private Segment getSegment(long hi) {
+        return segments[(int)(hi >>> 60) & (SEGMENTS - 1)];
+    }
+
+    static long getExpiryMillis(Instant expiry) {
+        Instant now = Instant.now();
+        Instant maxTTL = now.plusSeconds(MemoryReplayCache.MAX_TTL);
+        if (expiry == null || expiry.isBefore(now) || expiry.isAfter(maxTTL)) {
+            expiry = now.plusSeconds(MemoryReplayCache.DEFAULT_TTL);
+        }
+        return expiry.toEpochMilli();
+    }
+
+    static byte[] digest(String identifier) {
+        try {
+            return KeyUtils.generateDigestSHA256(identifier.getBytes(StandardCharsets.UTF_8));
+        } catch (WSSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static long toLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = (value << 8) | (bytes[i] & 0xFFL);
+        }
+        return value;
+    }
+
+    /**
+     * An open-addressed (linear probing) table of fingerprints. A slot with an expiry time of 0 is
+     * empty. Slots are only emptied by a resize, so a probe sequence always ends at an empty slot.
+     */
+    private static final class Segment {
+        private long[] his;
+        private long[] los;
+        private long[] expiries;
+        private int occupied;
+
+        Segment() {
+            allocate(INITIAL_SEGMENT_CAPACITY);
+        }
+
+        void allocate(int capacity) {
+            his = new long[capacity];
+            los = new long[capacity];
+            expiries = new long[capacity];
+            occupied = 0;
+        }
+
+        synchronized boolean contains(long hi, long lo, long now) {
+            int mask = expiries.length - 1;
+            for (int i = (int)lo & mask; expiries[i] != 0; i = (i + 1) & mask) {
+                if (his[i] == hi && los[i] == lo) {
+                    return expiries[i] > now;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Add the fingerprint, or update its expiry time if it has expired or replace is true.
+         * @return false if the fingerprint was already contained and has not been replaced
+         */
+        synchronized boolean put(long hi, long lo, long expiry, long now, boolean replace) {
+            int mask = expiries.length - 1;
+            int free = -1;
+            int i = (int)lo & mask;
+            for (; expiries[i] != 0; i = (i + 1) & mask) {
+                if (his[i] == hi && los[i] == lo) {
+                    if (expiries[i] > now && !replace) {
+                        return false;
+                    }
+                    expiries[i] = expiry;
+                    return true;
+                }
+                if (free < 0 && expiries[i] <= now) {
+                    free = i;
+                }
+            }
+
+            if (free >= 0) {
+                // Reuse the slot of an expired fingerprint
+                his[free] = hi;
+                los[free] = lo;
+                expiries[free] = expiry;
+                return true;
+            }
+
+            his[i] = hi;
+            los[i] = lo;
+            expiries[i] = expiry;
+            occupied++;
+            // Keep the load factor at or below 1/2
+            if (occupied * 2 > expiries.length) {
+                resize(now);
+            }
+            return true;
+        }
+
+        private void resize(long now) {
+            long[] oldHis = his;
+            long[] oldLos = los;
+            long[] oldExpiries = expiries;
+
+            int live = 0;
+            for (long expiry : oldExpiries) {
+                if (expiry > now) {
+                    live++;
+                }
+            }
+            int capacity = INITIAL_SEGMENT_CAPACITY;
+            while (capacity < live * 4) {
+                capacity <<= 1;
+            }
+
+            allocate(capacity);
+            int mask = capacity - 1;
+            for (int j = 0; j < oldExpiries.length; j++) {
+                if (oldExpiries[j] > now) {
+                    int i = (int)oldLos[j] & mask;
+                    while (expiries[i] != 0) {
+                        i = (i + 1) & mask;
+                    }
+                    his[i] = oldHis[j];
+                    los[i] = oldLos[j];
+                    expiries[i] = oldExpiries[j];
+                    occupied++;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process ReplayCacheBackend, which stands in for a remote key-value store in tests. Several
+ * ClusterReplayCache instances that share an instance of this class behave like the nodes of a
+ * cluster that share a remote store.
+ */
+public class InMemoryReplayCacheBackend implements ReplayCacheBackend {
+
+    private static final int PURGE_INTERVAL = 1024;
+
+    private final Map<String, Long> store = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    private int putsSincePurge;
+
+    @Override
+    public boolean[] contains(String[] keys) {
+        requests.incrementAndGet();
+        long now = System.currentTimeMillis();
+        boolean[] results = new boolean[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            Long expiry = store.get(keys[i]);
+            results[i] = expiry != null && expiry > now;
+        }
+        return results;
+    }
+
+    @Override
+    public synchronized boolean[] putIfAbsent(String[] keys, long[] expiries) {
+        requests.incrementAndGet();
+        long now = System.currentTimeMillis();
+        boolean[] results = new boolean[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            Long expiry = store.get(keys[i]);
+            if (expiry == null || expiry <= now) {
+                store.put(keys[i], expiries[i]);
+                results[i] = true;
+            }
+        }
+        purgeExpired(keys.length, now);
+        return results;
+    }
+
+    @Override
+    public synchronized void put(String[] keys, long[] expiries) {
+        requests.incrementAndGet();
+        for (int i = 0; i < keys.length; i++) {
+            store.put(keys[i], expiries[i]);
+        }
+        purgeExpired(keys.length, System.currentTimeMillis());
+    }
+
+    private void purgeExpired(int added, long now) {
+        putsSincePurge += added;
+        if (putsSincePurge >= PURGE_INTERVAL) {
+            putsSincePurge = 0;
+            Iterator<Long> iterator = store.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next() <= now) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of (batched) requests that have been made to this backend
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public int size() {
+        return store.size();
+    }
+
+    @Override
+    public void close() {
+        store.clear();
+    }
+}
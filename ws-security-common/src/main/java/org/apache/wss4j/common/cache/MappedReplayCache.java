@@ -0,0 +1,378 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A ReplayCache that stores a 128-bit fingerprint of each identifier (see FingerprintReplayCache)
+ * in a memory-mapped file, rather than on the heap. The contents of the cache survive a restart of
+ * the process, and several processes on the same host can share a cache by using the same file.
+ *
+ * The file is a fixed-size table of slots, split into stripes of STRIPE_SLOTS slots. A fingerprint
+ * is stored in a stripe chosen by its hash, at the first empty or expired slot within MAX_PROBES
+ * slots of its home slot. If there is no such slot, the slot that is closest to expiry is
+ * overwritten, so that a full cache behaves as a ring that shortens the TTL of the oldest entries
+ * rather than growing. Such evictions are counted (see getEvictionCount) and reported to the
+ * ReplayCacheListener, as a cache that evicts often is too small. Each operation locks its stripe,
+ * both within this process and, with a FileLock, against other processes.
+ */
+public class MappedReplayCache implements ReplayCache {
+
+    public static final int DEFAULT_CAPACITY = 1 << 18;
+    public static final int STRIPE_SLOTS = 4096;
+    public static final int MAX_PROBES = 64;
+
+    private static final int MAGIC = 0x57535243;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_SIZE = 24;
+
+    // The results of MappedTable.put
+    private static final int PRESENT = 0;
+    private static final int ADDED = 1;
+    private static final int EVICTED = 2;
+
+    // FileLocks are held by the process, so all instances for the same file must share them
+    private static final Map<Path, MappedTable> TABLES = new HashMap<>();
+
+    private final Path file;
+    private volatile MappedTable table;
+    private volatile ReplayCacheListener listener;
+    private volatile String role;
+
+    /**
+     * Open (or create) a cache in the given file, with the default capacity.
+     * @param file the file to store the cache in
+     */
+    public MappedReplayCache(Path file) {
+        this(file, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Open (or create) a cache in the given file. If the file already contains a cache, then its
+     * existing capacity is used.
+     * @param file the file to store the cache in
+     * @param capacity the number of slots of a new cache, which is rounded up to a multiple of
+     * STRIPE_SLOTS
+     */
+    public MappedReplayCache(Path file, int capacity) {
+        this.file = file.toAbsolutePath().normalize();
+        this.table = acquire(this.file, capacity);
+    }
+
+    /**
+     * Add the given identifier to the cache. It will be cached for a default amount of time.
+     * @param identifier The identifier to be added
+     */
+    public void add(String identifier) {
+        add(identifier, null);
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time
+     * @param identifier The identifier to be added
+     * @param expiry A custom expiry time for the identifier
+     */
+    public void add(String identifier, Instant expiry) {
+        if (identifier != null && !"".equals(identifier)) {
+            put(identifier, expiry, true);
+        }
+    }
+
+    /**
+     * Return true if the given identifier is contained in the cache
+     * @param identifier The identifier to check
+     */
+    public boolean contains(String identifier) {
+        if (identifier == null || "".equals(identifier)) {
+            return false;
+        }
+        byte[] digest = FingerprintReplayCache.digest(identifier);
+        return getTable().contains(
+            FingerprintReplayCache.toLong(digest, 0), FingerprintReplayCache.toLong(digest, 8),
+            System.currentTimeMillis()
+        );
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time, if it is not already
+     * contained in the cache.
+     * @param identifier The identifier to be added
+     * @param expiry A custom expiry time for the identifier, or null to cache it for a default amount of time
+     * @return true if the identifier was added, or false if it was already contained in the cache
+     */
+    @Override
+    public boolean addIfAbsent(String identifier, Instant expiry) {
+        if (identifier == null || "".equals(identifier)) {
+            return true;
+        }
+        return put(identifier, expiry, false);
+    }
+
+    private boolean put(String identifier, Instant expiry, boolean replace) {
+        byte[] digest = FingerprintReplayCache.digest(identifier);
+        int result = getTable().put(
+            FingerprintReplayCache.toLong(digest, 0), FingerprintReplayCache.toLong(digest, 8),
+            FingerprintReplayCache.getExpiryMillis(expiry), System.currentTimeMillis(), replace
+        );
+        ReplayCacheListener currentListener = listener;
+        if (result == EVICTED && currentListener != null) {
+            currentListener.onEviction(role, 1);
+        }
+        return result != PRESENT;
+    }
+
+    @Override
+    public void setListener(ReplayCacheListener listener, String role) {
+        this.role = role;
+        this.listener = listener;
+    }
+
+    /**
+     * @return the number of identifiers that this process has overwritten in the file before their
+     * expiry time, because there was no free slot for a new identifier. The count is shared by all
+     * of the instances of this process for the file.
+     */
+    public long getEvictionCount() {
+        return getTable().evictions.get();
+    }
+
+    /**
+     * @return the number of slots in the file
+     */
+    public int getCapacity() {
+        return getTable().capacity;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    private MappedTable getTable() {
+        MappedTable currentTable = table;
+        if (currentTable == null) {
+            throw new IllegalStateException("The replay cache has been closed");
+        }
+        return currentTable;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (table != null) {
+            release(file, table);
+            table = null;
+        }
+    }
+
+    private static MappedTable acquire(Path file, int capacity) {
+        synchronized (TABLES) {
+            MappedTable table = TABLES.get(file);
+            if (table == null) {
+                try {
+                    table = new MappedTable(file, capacity);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                TABLES.put(file, table);
+            }
+            table.references++;
+            return table;
+        }
+    }
+
+    private static void release(Path file, MappedTable table) throws IOException {
+        synchronized (TABLES) {
+            if (--table.references == 0) {
+                TABLES.remove(file);
+                table.buffer.force();
+                table.channel.close();
+            }
+        }
+    }
+
+    /**
+     * The mapped file, shared by all of the MappedReplayCache instances of this process for a file.
+     */
+    private static final class MappedTable {
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final int capacity;
+        private final int stripes;
+        private final Object[] stripeLocks;
+        private final AtomicLong evictions = new AtomicLong();
+        private int references;
+
+        // The FileLocks are only held for the duration of the try blocks
+        @SuppressWarnings("try")
+        MappedTable(Path file, int requestedCapacity) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                       StandardOpenOption.WRITE);
+            try (FileLock lock = channel.lock(0, HEADER_SIZE, false)) {
+                capacity = readOrWriteHeader(requestedCapacity);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long)capacity * SLOT_SIZE);
+            stripes = capacity / STRIPE_SLOTS;
+            stripeLocks = new Object[stripes];
+            for (int i = 0; i < stripes; i++) {
+                stripeLocks[i] = new Object();
+            }
+        }
+
+        private int readOrWriteHeader(int requestedCapacity) throws IOException {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            if (header.getInt(0) == MAGIC) {
+                if (header.getInt(4) != VERSION) {
+                    throw new IOException("Unsupported replay cache file version: " + header.getInt(4));
+                }
+                return header.getInt(8);
+            }
+            if (channel.size() > HEADER_SIZE) {
+                throw new IOException("The file is not a replay cache file");
+            }
+
+            long stripeCount = Math.max(1L, ((long)requestedCapacity + STRIPE_SLOTS - 1) / STRIPE_SLOTS);
+            if (HEADER_SIZE + stripeCount * STRIPE_SLOTS * SLOT_SIZE > Integer.MAX_VALUE) {
+                throw new IOException("The replay cache capacity is too large: " + requestedCapacity);
+            }
+            int newCapacity = (int)stripeCount * STRIPE_SLOTS;
+            // Mapping the full size extends the file with zeroes, i.e. empty slots
+            channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long)newCapacity * SLOT_SIZE);
+            header.putInt(4, VERSION);
+            header.putInt(8, newCapacity);
+            // Write the magic number last, so that a partially written header is not used
+            header.putInt(0, MAGIC);
+            header.force();
+            return newCapacity;
+        }
+
+        @SuppressWarnings("try")
+        boolean contains(long hi, long lo, long now) {
+            int stripe = getStripe(hi);
+            synchronized (stripeLocks[stripe]) {
+                try (FileLock lock = lockStripe(stripe)) {
+                    int slot = find(stripe, hi, lo);
+                    return slot >= 0 && getExpiry(slot) > now;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        @SuppressWarnings("try")
+        int put(long hi, long lo, long expiry, long now, boolean replace) {
+            int stripe = getStripe(hi);
+            synchronized (stripeLocks[stripe]) {
+                try (FileLock lock = lockStripe(stripe)) {
+                    return put(stripe, hi, lo, expiry, now, replace);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        private int put(int stripe, long hi, long lo, long expiry, long now, boolean replace) {
+            int free = -1;
+            int earliest = -1;
+            int home = (int)lo & (STRIPE_SLOTS - 1);
+            for (int i = 0; i < MAX_PROBES; i++) {
+                int slot = stripe * STRIPE_SLOTS + ((home + i) & (STRIPE_SLOTS - 1));
+                long slotExpiry = getExpiry(slot);
+                if (slotExpiry == 0) {
+                    if (free < 0) {
+                        free = slot;
+                    }
+                    break;
+                }
+                if (buffer.getLong(getOffset(slot)) == hi && buffer.getLong(getOffset(slot) + 8) == lo) {
+                    if (slotExpiry > now && !replace) {
+                        return PRESENT;
+                    }
+                    buffer.putLong(getOffset(slot) + 16, expiry);
+                    return ADDED;
+                }
+                if (free < 0 && slotExpiry <= now) {
+                    free = slot;
+                }
+                if (earliest < 0 || slotExpiry < getExpiry(earliest)) {
+                    earliest = slot;
+                }
+            }
+
+            // Overwrite the slot that is closest to expiry if there is no free slot
+            int slot = free >= 0 ? free : earliest;
+            int offset = getOffset(slot);
+            buffer.putLong(offset, hi);
+            buffer.putLong(offset + 8, lo);
+            buffer.putLong(offset + 16, expiry);
+            if (free < 0) {
+                evictions.incrementAndGet();
+                return EVICTED;
+            }
+            return ADDED;
+        }
+
+        /**
+         * An empty slot ends the probe sequence, as slots are never emptied once they are used.
+         */
+        private int find(int stripe, long hi, long lo) {
+            int home = (int)lo & (STRIPE_SLOTS - 1);
+            for (int i = 0; i < MAX_PROBES; i++) {
+                int slot = stripe * STRIPE_SLOTS + ((home + i) & (STRIPE_SLOTS - 1));
+                if (getExpiry(slot) == 0) {
+                    return -1;
+                }
+                if (buffer.getLong(getOffset(slot)) == hi && buffer.getLong(getOffset(slot) + 8) == lo) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        private FileLock lockStripe(int stripe) throws IOException {
+            return channel.lock(getOffset(stripe * STRIPE_SLOTS), (long)STRIPE_SLOTS * SLOT_SIZE, false);
+        }
+
+        private int getStripe(long hi) {
+            return (int)((hi >>> 1) % stripes);
+        }
+
+        private long getExpiry(int slot) {
+            return buffer.getLong(getOffset(slot) + 16);
+        }
+
+        private static int getOffset(int slot) {
+            return HEADER_SIZE + slot * SLOT_SIZE;
+        }
+    }
+}
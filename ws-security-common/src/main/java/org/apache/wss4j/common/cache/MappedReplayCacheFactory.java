@@ -0,0 +1,145 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+
+/**
+ * A factory to return a MappedReplayCache instance. Each cache is stored in a file named after
+ * the cache key, in a directory that is given by the configuration. The configuration is either the
+ * directory (as a String, File or Path), or a Map (such as a Properties object) with the DIRECTORY
+ * and CAPACITY keys. Any other configuration (such as the URL of an EH-Cache configuration file)
+ * uses the directory and capacity given by the DIRECTORY and CAPACITY system properties. There is
+ * no default directory - a cache in a shared location such as the temporary directory could be
+ * created or modified by another user to disable replay detection.
+ *
+ * On a POSIX file system the directory is created so that only its owner can access it. An existing
+ * directory must be owned by the user that runs this process, and must not be writable by other
+ * users, as they could otherwise replace the cache files.
+ */
+public class MappedReplayCacheFactory extends ReplayCacheFactory {
+
+    /**
+     * The directory to store the cache files in, as a configuration key or a system property.
+     */
+    public static final String DIRECTORY = "org.apache.wss4j.cache.mapped.directory";
+
+    /**
+     * The number of slots of a new cache file, as a configuration key or a system property. The
+     * default is MappedReplayCache.DEFAULT_CAPACITY.
+     */
+    public static final String CAPACITY = "org.apache.wss4j.cache.mapped.capacity";
+
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rwx------");
+
+    public ReplayCache newReplayCache(String key, Object configuration) throws WSSecurityException {
+        Object directory;
+        Object configuredCapacity;
+        if (configuration instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>)configuration;
+            directory = map.get(DIRECTORY);
+            configuredCapacity = map.get(CAPACITY);
+        } else if (configuration instanceof Path || configuration instanceof File
+            || configuration instanceof String) {
+            directory = configuration;
+            configuredCapacity = System.getProperty(CAPACITY);
+        } else {
+            directory = System.getProperty(DIRECTORY);
+            configuredCapacity = System.getProperty(CAPACITY);
+        }
+
+        Path directoryPath;
+        if (directory instanceof Path) {
+            directoryPath = (Path)directory;
+        } else if (directory instanceof File) {
+            directoryPath = ((File)directory).toPath();
+        } else if (directory instanceof String && !"".equals(((String)directory).trim())) {
+            directoryPath = Paths.get(((String)directory).trim());
+        } else {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.FAILURE, "empty",
+                new Object[] {"No directory is configured for the mapped replay cache, set " + DIRECTORY}
+            );
+        }
+
+        try {
+            int capacity = MappedReplayCache.DEFAULT_CAPACITY;
+            if (configuredCapacity != null) {
+                capacity = Integer.parseInt(configuredCapacity.toString().trim());
+            }
+            createPrivateDirectory(directoryPath);
+            String fileName = key.replaceAll("[^A-Za-z0-9._-]", "_") + ".cache";
+            return new MappedReplayCache(directoryPath.resolve(fileName), capacity);
+        } catch (IOException | UncheckedIOException | IllegalArgumentException e) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.FAILURE, e, "empty",
+                new Object[] {"Cannot create the mapped replay cache in " + directoryPath + ": " + e.getMessage()}
+            );
+        }
+    }
+
+    private static void createPrivateDirectory(Path directory) throws IOException {
+        if (!directory.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Files.createDirectories(directory);
+            return;
+        }
+
+        Path absoluteDirectory = directory.toAbsolutePath();
+        if (!Files.isDirectory(absoluteDirectory)) {
+            if (absoluteDirectory.getParent() != null) {
+                Files.createDirectories(absoluteDirectory.getParent());
+            }
+            try {
+                Files.createDirectory(absoluteDirectory, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+            } catch (FileAlreadyExistsException e) { //NOPMD
+                // Created concurrently, so check it below like any other existing directory
+            }
+        }
+
+        UserPrincipal user = absoluteDirectory.getFileSystem().getUserPrincipalLookupService()
+            .lookupPrincipalByName(System.getProperty("user.name"));
+        if (!user.equals(Files.getOwner(absoluteDirectory))) {
+            throw new IOException(
+                "The replay cache directory " + absoluteDirectory + " is not owned by " + user.getName()
+            );
+        }
+        Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(absoluteDirectory);
+        if (permissions.contains(PosixFilePermission.GROUP_WRITE)
+            || permissions.contains(PosixFilePermission.OTHERS_WRITE)) {
+            throw new IOException(
+                "The replay cache directory " + absoluteDirectory + " can be written by other users"
+            );
+        }
+    }
+
+}
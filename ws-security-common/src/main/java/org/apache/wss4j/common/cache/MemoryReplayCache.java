@@ -20,27 +20,104 @@
 package org.apache.wss4j.common.cache;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
- * A simple in-memory HashSet based cache to prevent against replay attacks. The default TTL is 5 minutes
+ * A simple in-memory cache to prevent against replay attacks. The default TTL is 5 minutes
  * and the max TTL is 60 minutes.
+ *
+ * The identifiers are kept in a ConcurrentHashMap, which is lock-striped internally, so that adding
+ * and looking up identifiers does not contend on a single lock. Expired identifiers are removed by a
+ * background sweeper, using a timer wheel with a slot per second of expiry time, so that a lookup
+ * never has to process expired identifiers. An identifier is never reported as contained in the
+ * cache after its expiry time, even if it has not been swept yet.
+ *
+ * The cache can be bounded to a maximum number of entries. Once the cache is full, and no expired
+ * identifiers can be swept, the OverloadPolicy decides whether new identifiers are rejected, or
+ * whether the TTL of the identifiers that are closest to expiry is cut short to make room. A rejected
+ * identifier is not added, and a ReplayCacheFullException is thrown, so that a full cache is not
+ * mistaken for a replay. While the cache is full, expired identifiers are swept inline at most once
+ * a second. The bound is a soft one - concurrent adds may exceed it by the number of concurrent
+ * callers.
+ *
+ * Closing the cache stops the sweeper and clears the cache. Identifiers can no longer be added to a
+ * closed cache, as they would never expire.
  */
 public class MemoryReplayCache implements ReplayCache {
 
     public static final long DEFAULT_TTL = 60L * 5L;
     public static final long MAX_TTL = DEFAULT_TTL * 12L;
-    private final SortedMap<Instant, List<String>> cache = new TreeMap<>();
-    private final Set<String> ids = Collections.synchronizedSet(new HashSet<>());
+
+    // The wheel covers more than MAX_TTL seconds, so that each identifier is swept in a single pass
+    private static final int WHEEL_SLOTS = 4096;
+
+    private static final ScheduledExecutorService EXPIRY_EXECUTOR =
+        Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "wss4j-replay-cache-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    /**
+     * What to do when a bounded cache is full.
+     */
+    public enum OverloadPolicy {
+        /**
+         * Reject new identifiers - add and addIfAbsent throw a ReplayCacheFullException, so that
+         * the message is rejected.
+         */
+        REJECT,
+        /**
+         * Evict the identifiers that are closest to expiry, so that they are cached for less than
+         * their requested TTL.
+         */
+        SHORTEN_TTL
+    }
+
+    // Evict (at least) this fraction of the maximum number of entries at once, when shortening TTLs
+    private static final int EVICTION_BATCH_DIVISOR = 64;
+
+    private final Map<String, Long> ids = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<Queue<String>> wheel = new AtomicReferenceArray<>(WHEEL_SLOTS);
+    private final ScheduledFuture<?> expiryTask;
+    private volatile long lastSweptSecond = System.currentTimeMillis() / 1000L;
+    private final int maxEntries;
+    private final OverloadPolicy overloadPolicy;
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+    private volatile ReplayCacheListener listener;
+    private volatile String role;
+    private volatile boolean closed;
+
+    public MemoryReplayCache() {
+        this(0, OverloadPolicy.REJECT);
+    }
+
+    /**
+     * @param maxEntries the maximum number of identifiers to cache, or 0 for no limit
+     * @param overloadPolicy what to do when the maximum number of identifiers is reached
+     */
+    public MemoryReplayCache(int maxEntries, OverloadPolicy overloadPolicy) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("The maximum number of entries must not be negative");
+        }
+        this.maxEntries = maxEntries;
+        this.overloadPolicy = overloadPolicy == null ? OverloadPolicy.REJECT : overloadPolicy;
+        expiryTask = EXPIRY_EXECUTOR.scheduleWithFixedDelay(
+            new ExpiryTask(this), 1L, 1L, TimeUnit.SECONDS
+        );
+    }
 
     /**
      * Add the given identifier to the cache. It will be cached for a default amount of time.
@@ -51,66 +128,289 @@ public class MemoryReplayCache implements ReplayCache {
     }
 
     /**
-     * Add the given identifier to the cache to be cached for the given time
+     * Add the given identifier to the cache to be cached for the given time.
      * @param identifier The identifier to be added
      * @param expiry A custom expiry time for the identifier
+     * @throws ReplayCacheFullException if the cache is full and the OverloadPolicy is REJECT, in
+     * which case the identifier is not added
+     * @throws IllegalStateException if the cache has been closed
      */
     public void add(String identifier, Instant expiry) {
+        checkNotClosed();
         if (identifier == null || "".equals(identifier)) {
             return;
         }
+        ensureCapacity(identifier);
+
+        long expiryMillis = getExpiryMillis(expiry);
+        ids.put(identifier, expiryMillis);
+        schedule(identifier, expiryMillis);
+    }
+
+    /**
+     * Return true if the given identifier is contained in the cache
+     * @param identifier The identifier to check
+     */
+    public boolean contains(String identifier) {
+        if (identifier != null && !"".equals(identifier)) {
+            Long expiry = ids.get(identifier);
+            return expiry != null && expiry > System.currentTimeMillis();
+        }
+        return false;
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time, if it is not already
+     * contained in the cache. An identifier that has expired but has not been swept yet is replaced.
+     * @param identifier The identifier to be added
+     * @param expiry A custom expiry time for the identifier, or null to cache it for a default amount of time
+     * @return true if the identifier was added, or false if it was already contained in the cache
+     * @throws ReplayCacheFullException if the identifier is not contained in the cache, but the
+     * cache is full and the OverloadPolicy is REJECT
+     * @throws IllegalStateException if the cache has been closed
+     */
+    @Override
+    public boolean addIfAbsent(String identifier, Instant expiry) {
+        checkNotClosed();
+        if (identifier == null || "".equals(identifier)) {
+            return true;
+        }
+        ensureCapacity(identifier);
+
+        long expiryMillis = getExpiryMillis(expiry);
+        long now = System.currentTimeMillis();
+        Long existing = ids.putIfAbsent(identifier, expiryMillis);
+        while (existing != null) {
+            if (existing > now) {
+                return false;
+            }
+            if (ids.replace(identifier, existing, expiryMillis)) {
+                break;
+            }
+            existing = ids.putIfAbsent(identifier, expiryMillis);
+        }
+        schedule(identifier, expiryMillis);
+        return true;
+    }
+
+    private void checkNotClosed() {
+        if (closed) {
+            throw new IllegalStateException("The replay cache has been closed");
+        }
+    }
+
+    /**
+     * Make sure that there is room in the cache to add the given identifier, according to the
+     * OverloadPolicy.
+     * @throws ReplayCacheFullException if the identifier must be rejected
+     */
+    private void ensureCapacity(String identifier) {
+        if (maxEntries == 0 || ids.size() < maxEntries || ids.containsKey(identifier)) {
+            return;
+        }
+
+        // The sweep takes the wheel lock, so only sweep once a second while the cache is full
+        if (System.currentTimeMillis() / 1000L > lastSweptSecond) {
+            processTokenExpiry();
+        }
+        int excess = ids.size() - maxEntries + 1;
+        if (excess <= 0) {
+            return;
+        }
+        if (overloadPolicy == OverloadPolicy.SHORTEN_TTL) {
+            evictEarliest(Math.max(excess, maxEntries / EVICTION_BATCH_DIVISOR));
+            return;
+        }
+        rejections.incrementAndGet();
+        ReplayCacheListener currentListener = listener;
+        if (currentListener != null) {
+            currentListener.onRejection(role);
+        }
+        throw new ReplayCacheFullException("The replay cache is full");
+    }
+
+    /**
+     * Evict the given number of identifiers that are closest to expiry, by walking the timer wheel
+     * forward from the current second.
+     */
+    private void evictEarliest(int count) {
+        int evicted = 0;
+        ReplayCacheListener currentListener = listener;
+        long lockStart = currentListener == null ? 0L : System.nanoTime();
+        synchronized (wheel) {
+            if (currentListener != null) {
+                currentListener.onLockWait(role, System.nanoTime() - lockStart);
+            }
+            for (int i = 0; i < WHEEL_SLOTS && evicted < count; i++) {
+                int slot = getSlot(lastSweptSecond + i);
+                Queue<String> queue = wheel.get(slot);
+                String identifier = queue == null ? null : queue.poll();
+                while (identifier != null) {
+                    Long expiry = ids.get(identifier);
+                    // Skip identifiers that have been re-added to a later slot
+                    if (expiry != null && getSlot(expiry / 1000L) == slot
+                        && ids.remove(identifier, expiry)) {
+                        evicted++;
+                    }
+                    identifier = evicted < count ? queue.poll() : null;
+                }
+            }
+        }
+        evictions.addAndGet(evicted);
+        if (currentListener != null && evicted > 0) {
+            currentListener.onEviction(role, evicted);
+        }
+    }
 
+    /**
+     * Get the expiry time to use for the given (requested) expiry time, in milliseconds
+     */
+    protected long getExpiryMillis(Instant expiry) {
         Instant now = Instant.now();
         Instant maxTTL = now.plusSeconds(MAX_TTL);
         if (expiry == null || expiry.isBefore(now) || expiry.isAfter(maxTTL)) {
             expiry = now.plusSeconds(DEFAULT_TTL);
         }
+        return expiry.toEpochMilli();
+    }
 
-        synchronized (cache) {
-            List<String> list = cache.get(expiry);
-            if (list == null) {
-                list = new ArrayList<>(1);
-                cache.put(expiry, list);
-            }
-            list.add(identifier);
+    /**
+     * Add the identifier to the slot of the timer wheel for its expiry time
+     */
+    protected void schedule(String identifier, long expiryMillis) {
+        int slot = getSlot(expiryMillis / 1000L);
+        Queue<String> queue = wheel.get(slot);
+        if (queue == null) {
+            wheel.compareAndSet(slot, null, new ConcurrentLinkedQueue<>());
+            queue = wheel.get(slot);
         }
-        ids.add(identifier);
+        queue.add(identifier);
     }
 
     /**
-     * Return true if the given identifier is contained in the cache
-     * @param identifier The identifier to check
+     * Remove the identifiers that have expired since the last sweep. This is called periodically
+     * by a background thread.
      */
-    public boolean contains(String identifier) {
-        processTokenExpiry();
-
-        if (identifier != null && !"".equals(identifier)) {
-            return ids.contains(identifier);
+    protected void processTokenExpiry() {
+        ReplayCacheListener currentListener = listener;
+        long start = currentListener == null ? 0L : System.nanoTime();
+        long now = System.currentTimeMillis();
+        long currentSecond = now / 1000L;
+        int removed = 0;
+        synchronized (wheel) {
+            if (currentListener != null) {
+                currentListener.onLockWait(role, System.nanoTime() - start);
+            }
+            // Don't go round the wheel more than once after a long pause
+            long second = Math.max(lastSweptSecond, currentSecond - WHEEL_SLOTS);
+            for (; second <= currentSecond; second++) {
+                Queue<String> queue = wheel.get(getSlot(second));
+                if (queue != null) {
+                    removed += sweep(queue, now);
+                }
+            }
+            lastSweptSecond = currentSecond;
+        }
+        if (currentListener != null) {
+            currentListener.onExpirySweep(role, removed, System.nanoTime() - start);
         }
-        return false;
     }
 
-    protected void processTokenExpiry() {
-        Instant current = Instant.now();
-        synchronized (cache) {
-            Iterator<Entry<Instant, List<String>>> it = cache.entrySet().iterator();
-            while (it.hasNext()) {
-                Entry<Instant, List<String>> entry = it.next();
-                if (entry.getKey().isBefore(current)) {
-                    for (String id : entry.getValue()) {
-                        ids.remove(id);
-                    }
-                    it.remove();
-                } else {
-                    break;
+    private int sweep(Queue<String> queue, long now) {
+        int removed = 0;
+        int size = queue.size();
+        for (int i = 0; i < size; i++) {
+            String identifier = queue.poll();
+            if (identifier == null) {
+                break;
+            }
+            Long expiry = ids.get(identifier);
+            if (expiry != null && expiry <= now) {
+                if (ids.remove(identifier, expiry)) {
+                    removed++;
                 }
+            } else if (expiry != null && getSlot(expiry / 1000L) == getSlot(now / 1000L)) {
+                // Expires later in the current second, so check it again on the next pass
+                queue.add(identifier);
             }
+            // Otherwise the identifier has been removed, or re-added with a later expiry time
+            // and so is in a later slot
         }
+        return removed;
+    }
+
+    private static int getSlot(long second) {
+        return (int)(second % WHEEL_SLOTS);
     }
 
     @Override
-    public synchronized void close() throws IOException {
-        cache.clear();
+    public void setListener(ReplayCacheListener listener, String role) {
+        this.role = role;
+        this.listener = listener;
+    }
+
+    /**
+     * @return the number of identifiers in the cache, including expired identifiers that have not
+     * been swept yet
+     */
+    @Override
+    public int size() {
+        return ids.size();
+    }
+
+    /**
+     * @return the maximum number of identifiers to cache, or 0 if there is no limit
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public OverloadPolicy getOverloadPolicy() {
+        return overloadPolicy;
+    }
+
+    /**
+     * @return the number of identifiers that were evicted before their expiry time, to make room
+     * for new identifiers
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of identifiers that were rejected because the cache was full
+     */
+    public long getRejectionCount() {
+        return rejections.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        expiryTask.cancel(false);
         ids.clear();
+        for (int i = 0; i < WHEEL_SLOTS; i++) {
+            wheel.set(i, null);
+        }
+    }
+
+    /**
+     * Sweeps a cache until the cache is closed or no longer referenced.
+     */
+    private static final class ExpiryTask implements Runnable {
+        private final WeakReference<MemoryReplayCache> cacheRef;
+
+        ExpiryTask(MemoryReplayCache cache) {
+            this.cacheRef = new WeakReference<>(cache);
+        }
+
+        @Override
+        public void run() {
+            MemoryReplayCache cache = cacheRef.get();
+            if (cache == null) {
+                throw new IllegalStateException("The replay cache is no longer referenced");
+            }
+            cache.processTokenExpiry();
+        }
     }
 }
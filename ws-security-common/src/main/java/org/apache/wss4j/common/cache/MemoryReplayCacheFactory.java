@@ -19,13 +19,50 @@
 
 package org.apache.wss4j.common.cache;
 
+import java.util.Map;
 
 /**
- * A factory to return a MemoryReplayCache instance.
+ * A factory to return a MemoryReplayCache instance. If the configuration is a Map (such as a
+ * Properties object), then the maximum number of entries and the overload policy of the cache
+ * can be configured with the MAX_ENTRIES and OVERLOAD_POLICY keys, and a FingerprintReplayCache can
+ * be requested with the FINGERPRINT key.
  */
 public class MemoryReplayCacheFactory extends ReplayCacheFactory {
 
+    /**
+     * The maximum number of identifiers to cache. The default is 0, which means no limit.
+     */
+    public static final String MAX_ENTRIES = "org.apache.wss4j.cache.memory.maxEntries";
+
+    /**
+     * What to do when the cache is full, either "REJECT" (the default) or "SHORTEN_TTL".
+     */
+    public static final String OVERLOAD_POLICY = "org.apache.wss4j.cache.memory.overloadPolicy";
+
+    /**
+     * Whether to store a 128-bit fingerprint of each identifier in a FingerprintReplayCache, rather
+     * than the identifier itself. The default is "false". The other keys are ignored if this is
+     * "true", as a FingerprintReplayCache is not bounded.
+     */
+    public static final String FINGERPRINT = "org.apache.wss4j.cache.memory.fingerprint";
+
     public ReplayCache newReplayCache(String key, Object configuration) {
+        if (configuration instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>)configuration;
+            Object fingerprint = map.get(FINGERPRINT);
+            if (fingerprint != null && Boolean.parseBoolean(fingerprint.toString().trim())) {
+                return new FingerprintReplayCache();
+            }
+            Object maxEntries = map.get(MAX_ENTRIES);
+            Object overloadPolicy = map.get(OVERLOAD_POLICY);
+            if (maxEntries != null) {
+                return new MemoryReplayCache(
+                    Integer.parseInt(maxEntries.toString().trim()),
+                    overloadPolicy == null ? null
+                        : MemoryReplayCache.OverloadPolicy.valueOf(overloadPolicy.toString().trim())
+                );
+            }
+        }
         return new MemoryReplayCache();
     }
 
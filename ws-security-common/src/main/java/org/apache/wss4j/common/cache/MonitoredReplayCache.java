@@ -0,0 +1,144 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.io.IOException;
+import java.time.Instant;
+
+/**
+ * A ReplayCache that reports the operations of another ReplayCache to a ReplayCacheListener,
+ * labelled with the role of the cache. A cache that is monitored with the constructor, once when
+ * it is created or configured, also reports its internal events, such as expiry sweeps, to the
+ * listener. The per-request setters of the replay caches use monitor(), which never changes the
+ * listener of the (shared) cache itself.
+ */
+public class MonitoredReplayCache implements ReplayCache {
+
+    private final ReplayCache delegate;
+    private final String role;
+    private final ReplayCacheListener listener;
+    private final boolean registered;
+
+    /**
+     * Monitor the given cache, including its internal events. This sets the listener of the cache,
+     * so it should be called once, when the cache is created or configured.
+     * @param delegate the cache
+     * @param role the role of the cache
+     * @param listener the listener
+     */
+    public MonitoredReplayCache(ReplayCache delegate, String role, ReplayCacheListener listener) {
+        this(delegate, role, listener, true);
+    }
+
+    private MonitoredReplayCache(ReplayCache delegate, String role, ReplayCacheListener listener,
+                                 boolean register) {
+        this.delegate = delegate;
+        this.role = role;
+        this.listener = listener;
+        this.registered = register;
+        if (register) {
+            delegate.setListener(listener, role);
+            listener.onRegister(role, delegate);
+        }
+    }
+
+    /**
+     * Report the operations on the given cache to the given listener. A cache that is already
+     * monitored with the listener and role is returned as it is, so monitoring the cache once
+     * when it is created avoids any work per call. Otherwise the operations are reported by a
+     * lightweight wrapper, which leaves the listener of the cache itself untouched.
+     * @param cache the cache, which may be null
+     * @param role the role of the cache
+     * @param listener the listener, or null to stop reporting the operations on the cache, other
+     * than through a MonitoredReplayCache that was created with the constructor
+     * @return the monitored cache
+     */
+    public static ReplayCache monitor(ReplayCache cache, String role, ReplayCacheListener listener) {
+        if (listener == null) {
+            return cache instanceof MonitoredReplayCache && !((MonitoredReplayCache)cache).registered
+                ? ((MonitoredReplayCache)cache).delegate : cache;
+        }
+        if (cache == null) {
+            return null;
+        }
+        ReplayCache unwrapped = cache;
+        if (cache instanceof MonitoredReplayCache) {
+            MonitoredReplayCache monitoredCache = (MonitoredReplayCache)cache;
+            if (monitoredCache.listener == listener && monitoredCache.role.equals(role)) {
+                return cache;
+            }
+            unwrapped = monitoredCache.delegate;
+        }
+        return new MonitoredReplayCache(unwrapped, role, listener, false);
+    }
+
+    @Override
+    public void add(String identifier) {
+        long start = System.nanoTime();
+        delegate.add(identifier);
+        listener.onAdd(role, true, System.nanoTime() - start);
+    }
+
+    @Override
+    public void add(String identifier, Instant expiry) {
+        long start = System.nanoTime();
+        delegate.add(identifier, expiry);
+        listener.onAdd(role, true, System.nanoTime() - start);
+    }
+
+    @Override
+    public boolean contains(String identifier) {
+        long start = System.nanoTime();
+        boolean found = delegate.contains(identifier);
+        listener.onLookup(role, found, System.nanoTime() - start);
+        return found;
+    }
+
+    @Override
+    public boolean addIfAbsent(String identifier, Instant expiry) {
+        long start = System.nanoTime();
+        boolean added = delegate.addIfAbsent(identifier, expiry);
+        listener.onAdd(role, added, System.nanoTime() - start);
+        return added;
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    public void setListener(ReplayCacheListener newListener, String newRole) {
+        delegate.setListener(newListener, newRole);
+    }
+
+    public ReplayCache getDelegate() {
+        return delegate;
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+}
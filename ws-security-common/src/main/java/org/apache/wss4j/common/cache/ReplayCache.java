@@ -47,4 +47,53 @@ public interface ReplayCache extends Closeable {
      */
     boolean contains(String identifier);
 
+    /**
+     * Add the given identifier to the cache, if it is not already contained in the cache. It will
+     * be cached for a default amount of time.
+     * @param identifier The identifier to be added
+     * @return true if the identifier was added, or false if it was already contained in the cache
+     */
+    default boolean addIfAbsent(String identifier) {
+        return addIfAbsent(identifier, null);
+    }
+
+    /**
+     * Add the given identifier to the cache to be cached for the given time, if it is not already
+     * contained in the cache. Implementations should override this method to check and add the
+     * identifier atomically - the default implementation is only atomic with respect to other
+     * calls to addIfAbsent on the same instance.
+     * @param identifier The identifier to be added
+     * @param expiry A custom expiry time for the identifier, or null to cache it for a default amount of time
+     * @return true if the identifier was added, or false if it was already contained in the cache
+     */
+    default boolean addIfAbsent(String identifier, Instant expiry) {
+        synchronized (this) {
+            if (contains(identifier)) {
+                return false;
+            }
+            if (expiry == null) {
+                add(identifier);
+            } else {
+                add(identifier, expiry);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return the number of identifiers in the cache, or -1 if it is not known
+     */
+    default int size() {
+        return -1;
+    }
+
+    /**
+     * Set a listener to report internal events of the cache to, such as expiry sweeps. Caches that
+     * have no such events can ignore the listener.
+     * @param listener the listener, or null to stop reporting
+     * @param role the role of the cache, which labels the events
+     */
+    default void setListener(ReplayCacheListener listener, String role) {
+    }
+
 }
@@ -0,0 +1,56 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A service provider interface for a remote key-value store that is used by a ClusterReplayCache to
+ * share replay identifiers between the nodes of a cluster. Each operation works on a batch of keys,
+ * so that an implementation can send a batch in a single request. The keys of a batch are processed
+ * in order, so a key that appears twice in a batch of putIfAbsent is only added once. Expiry times
+ * are in milliseconds since the epoch, and a key must not be reported as present after its expiry
+ * time.
+ */
+public interface ReplayCacheBackend extends Closeable {
+
+    /**
+     * @param keys the keys to look up
+     * @return whether each key is present in the store
+     */
+    boolean[] contains(String[] keys) throws IOException;
+
+    /**
+     * Atomically add each key to the store, if it is not already present.
+     * @param keys the keys to add
+     * @param expiries the expiry time of each key
+     * @return whether each key was added, i.e. it was not already present
+     */
+    boolean[] putIfAbsent(String[] keys, long[] expiries) throws IOException;
+
+    /**
+     * Add each key to the store, replacing the expiry time of keys that are already present.
+     * @param keys the keys to add
+     * @param expiries the expiry time of each key
+     */
+    void put(String[] keys, long[] expiries) throws IOException;
+
+}
@@ -22,43 +22,86 @@ package org.apache.wss4j.common.cache;
 import java.io.IOException;
 import java.net.URL;
 
+import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.util.Loader;
 
 /**
- * An abstract factory to return a ReplayCache instance. It returns an EHCacheReplayCacheFactory
- * if EH-Cache is available. Otherwise it returns a MemoryReplayCacheFactory.
+ * An abstract factory to return a ReplayCache instance. The factory can be selected by setting the
+ * FACTORY system property to "memory", "ehcache", "mapped", "cluster", or the name of a
+ * ReplayCacheFactory class. Otherwise it returns an EHCacheReplayCacheFactory if EH-Cache is
+ * available, and a MemoryReplayCacheFactory if not. The "mapped" and "cluster" factories need more
+ * configuration than the URL that WSHandler passes them, which they then read from system properties
+ * (see MappedReplayCacheFactory.DIRECTORY and ClusterReplayCacheFactory.BACKEND).
+ *
+ * The "memory" factory returns a MemoryReplayCache, which supports per-entry expiry, a size bound
+ * and an atomic addIfAbsent without any global lock, and so keeps EH-Cache off the message
+ * processing path even when it is installed.
  */
 public abstract class ReplayCacheFactory {
 
+    /**
+     * The system property that selects the ReplayCacheFactory implementation
+     */
+    public static final String FACTORY = "org.apache.wss4j.cache.factory";
+
     private static final org.slf4j.Logger LOG =
         org.slf4j.LoggerFactory.getLogger(ReplayCacheFactory.class);
-    private static boolean ehCacheInstalled;
+    private static final boolean EH_CACHE_INSTALLED;
 
     static {
+        boolean installed = false;
         try {
             Class<?> cacheManagerClass = Class.forName("net.sf.ehcache.CacheManager");
             if (cacheManagerClass != null) {
-                ehCacheInstalled = true;
+                installed = true;
             }
         } catch (Exception e) {
             //ignore
             LOG.debug(e.getMessage());
         }
+        EH_CACHE_INSTALLED = installed;
     }
 
-    public static synchronized boolean isEhCacheInstalled() {
-        return ehCacheInstalled;
+    public static boolean isEhCacheInstalled() {
+        return EH_CACHE_INSTALLED;
     }
 
     public static ReplayCacheFactory newInstance() {
-        if (isEhCacheInstalled()) {
-            return new EHCacheReplayCacheFactory();
+        return newInstance(System.getProperty(FACTORY));
+    }
+
+    /**
+     * Return a ReplayCacheFactory instance for the given name.
+     * @param factory "memory", "ehcache", "mapped", "cluster", the name of a ReplayCacheFactory
+     * class, or null for the default factory
+     */
+    public static ReplayCacheFactory newInstance(String factory) {
+        if (factory == null || "".equals(factory.trim())) {
+            if (isEhCacheInstalled()) {
+                return new EHCacheReplayCacheFactory();
+            }
+            return new MemoryReplayCacheFactory();
         }
 
-        return new MemoryReplayCacheFactory();
+        switch (factory.trim()) {
+        case "memory":
+            return new MemoryReplayCacheFactory();
+        case "ehcache":
+            return new EHCacheReplayCacheFactory();
+        case "mapped":
+            return new MappedReplayCacheFactory();
+        case "cluster":
+            return new ClusterReplayCacheFactory();
+        default:
+            try {
+                return Loader.loadClass(factory.trim(), ReplayCacheFactory.class).newInstance();
+            } catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
+                throw new IllegalArgumentException("Cannot create the ReplayCacheFactory " + factory, e);
+            }
+        }
     }
 
-    public abstract ReplayCache newReplayCache(String key, Object configuration);
+    public abstract ReplayCache newReplayCache(String key, Object configuration) throws WSSecurityException;
 
     protected URL getConfigFileURL(Object o) {
         if (o instanceof String) {
@@ -0,0 +1,35 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+/**
+ * Thrown when an identifier cannot be added to a ReplayCache because the cache is full. This is
+ * distinct from a replay - the identifier has not been seen before, but it cannot be remembered, so
+ * the message must be rejected without reporting it as a replay. The processors and validators that
+ * check for replays report it as a WSSecurityException with the "replayCacheFull" message.
+ */
+public class ReplayCacheFullException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ReplayCacheFullException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+/**
+ * A listener for the behaviour of ReplayCache instances, such as ReplayCacheMetrics. Each event is
+ * labelled with the role of the cache that it came from, such as ROLE_TIMESTAMP. The methods are
+ * called on the message processing path, so implementations must be fast and thread-safe.
+ */
+public interface ReplayCacheListener {
+
+    /**
+     * The role of a cache of Timestamp Created/Signature value identifiers
+     */
+    String ROLE_TIMESTAMP = "timestamp";
+
+    /**
+     * The role of a cache of UsernameToken nonces
+     */
+    String ROLE_NONCE = "nonce";
+
+    /**
+     * The role of a cache of the identifiers of SAML2 Assertions with a OneTimeUse Condition
+     */
+    String ROLE_SAML_ONE_TIME_USE = "samlOneTimeUse";
+
+    /**
+     * The role of a cache of Kerberos AP-REQ Authenticator identifiers
+     */
+    String ROLE_KERBEROS = "kerberos";
+
+    /**
+     * A cache has started to report to this listener
+     * @param role the role of the cache
+     * @param cache the cache
+     */
+    default void onRegister(String role, ReplayCache cache) {
+    }
+
+    /**
+     * An identifier was looked up in the cache
+     * @param role the role of the cache
+     * @param found whether the identifier was contained in the cache
+     * @param nanos how long the lookup took, in nanoseconds
+     */
+    default void onLookup(String role, boolean found, long nanos) {
+    }
+
+    /**
+     * An identifier was added to the cache, or was found to be a replay
+     * @param role the role of the cache
+     * @param added whether the identifier was added, i.e. false if a replay was detected
+     * @param nanos how long the operation took, in nanoseconds
+     */
+    default void onAdd(String role, boolean added, long nanos) {
+    }
+
+    /**
+     * Expired identifiers were swept from the cache
+     * @param role the role of the cache
+     * @param removed the number of identifiers that were removed
+     * @param nanos how long the sweep took, in nanoseconds
+     */
+    default void onExpirySweep(String role, int removed, long nanos) {
+    }
+
+    /**
+     * A thread had to wait for a lock of the cache
+     * @param role the role of the cache
+     * @param nanos how long the thread waited, in nanoseconds
+     */
+    default void onLockWait(String role, long nanos) {
+    }
+
+    /**
+     * Identifiers were evicted from a full cache before their expiry time
+     * @param role the role of the cache
+     * @param count the number of identifiers that were evicted
+     */
+    default void onEviction(String role, int count) {
+    }
+
+    /**
+     * An identifier was rejected because the cache was full
+     * @param role the role of the cache
+     */
+    default void onRejection(String role) {
+    }
+
+}
@@ -0,0 +1,180 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A ReplayCacheListener that collects ReplayCacheStatistics per cache role. The statistics can
+ * also be published as MBeans in the platform MBeanServer, with an ObjectName of
+ * "org.apache.wss4j:type=ReplayCache,name=&lt;name&gt;,role=&lt;role&gt;". If an MBean with the
+ * same name and role is already registered, for example by an instance that was not unregistered
+ * before a redeployment, it is replaced by the statistics of the new instance.
+ */
+public class ReplayCacheMetrics implements ReplayCacheListener {
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(ReplayCacheMetrics.class);
+
+    /**
+     * The statistics registered under each ObjectName, so that an instance only unregisters its own MBeans
+     */
+    private static final Map<ObjectName, ReplayCacheStatistics> REGISTERED = new ConcurrentHashMap<>();
+
+    private final Map<String, ReplayCacheStatistics> statistics = new ConcurrentHashMap<>();
+    private final String name;
+    private final boolean jmxEnabled;
+
+    /**
+     * Collect the statistics without publishing them through JMX.
+     */
+    public ReplayCacheMetrics() {
+        this("default", false);
+    }
+
+    /**
+     * @param name the name of this set of statistics, which distinguishes the MBeans
+     * @param jmxEnabled whether to publish the statistics through JMX
+     */
+    public ReplayCacheMetrics(String name, boolean jmxEnabled) {
+        this.name = name;
+        this.jmxEnabled = jmxEnabled;
+    }
+
+    /**
+     * @param role the role of a cache
+     * @return the statistics for the role, which are created if they don't exist yet
+     */
+    public ReplayCacheStatistics getStatistics(String role) {
+        ReplayCacheStatistics roleStatistics = statistics.get(role);
+        if (roleStatistics != null) {
+            return roleStatistics;
+        }
+        ReplayCacheStatistics newStatistics = new ReplayCacheStatistics(role);
+        roleStatistics = statistics.putIfAbsent(role, newStatistics);
+        if (roleStatistics != null) {
+            return roleStatistics;
+        }
+        if (jmxEnabled) {
+            register(role, newStatistics);
+        }
+        return newStatistics;
+    }
+
+    public Map<String, ReplayCacheStatistics> getAllStatistics() {
+        return statistics;
+    }
+
+    @Override
+    public void onRegister(String role, ReplayCache cache) {
+        getStatistics(role).setCache(cache);
+    }
+
+    @Override
+    public void onLookup(String role, boolean found, long nanos) {
+        getStatistics(role).recordLookup(found, nanos);
+    }
+
+    @Override
+    public void onAdd(String role, boolean added, long nanos) {
+        getStatistics(role).recordAdd(added, nanos);
+    }
+
+    @Override
+    public void onExpirySweep(String role, int removed, long nanos) {
+        getStatistics(role).recordExpirySweep(removed, nanos);
+    }
+
+    @Override
+    public void onLockWait(String role, long nanos) {
+        getStatistics(role).recordLockWait(nanos);
+    }
+
+    @Override
+    public void onEviction(String role, int count) {
+        getStatistics(role).recordEviction(count);
+    }
+
+    @Override
+    public void onRejection(String role) {
+        getStatistics(role).recordRejection();
+    }
+
+    /**
+     * Unregister the MBeans of this set of statistics
+     */
+    public void unregister() {
+        if (jmxEnabled) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            for (Map.Entry<String, ReplayCacheStatistics> roleStatistics : statistics.entrySet()) {
+                try {
+                    ObjectName objectName = getObjectName(roleStatistics.getKey());
+                    // The MBean may have been replaced by the statistics of another instance
+                    synchronized (REGISTERED) {
+                        if (REGISTERED.remove(objectName, roleStatistics.getValue())) {
+                            server.unregisterMBean(objectName);
+                        }
+                    }
+                } catch (InstanceNotFoundException e) {
+                    LOG.debug("The replay cache statistics MBean was already unregistered", e);
+                } catch (JMException e) {
+                    LOG.debug(e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param role the role of a cache
+     * @return the ObjectName of the MBean for the statistics of the role
+     */
+    public ObjectName getObjectName(String role) throws JMException {
+        return new ObjectName("org.apache.wss4j:type=ReplayCache,name=" + ObjectName.quote(name)
+                              + ",role=" + ObjectName.quote(role));
+    }
+
+    private void register(String role, ReplayCacheStatistics roleStatistics) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = getObjectName(role);
+            synchronized (REGISTERED) {
+                try {
+                    server.registerMBean(roleStatistics, objectName);
+                } catch (InstanceAlreadyExistsException e) {
+                    LOG.warn("Replacing the replay cache statistics MBean {}, which is already registered",
+                             objectName);
+                    server.unregisterMBean(objectName);
+                    server.registerMBean(roleStatistics, objectName);
+                }
+                REGISTERED.put(objectName, roleStatistics);
+            }
+        } catch (JMException e) {
+            LOG.warn("Error registering the replay cache statistics MBean: {}", e.getMessage());
+        }
+    }
+}
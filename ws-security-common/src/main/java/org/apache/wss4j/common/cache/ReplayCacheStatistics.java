@@ -0,0 +1,174 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The statistics that ReplayCacheMetrics collects for a cache role.
+ */
+public class ReplayCacheStatistics implements ReplayCacheStatisticsMBean {
+
+    private final String role;
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder adds = new LongAdder();
+    private final LongAdder replays = new LongAdder();
+    private final LongAdder operationNanos = new LongAdder();
+    private final LongAdder sweeps = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder sweepNanos = new LongAdder();
+    private final LongAdder lockWaitNanos = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private volatile WeakReference<ReplayCache> cache;
+
+    public ReplayCacheStatistics(String role) {
+        this.role = role;
+    }
+
+    void setCache(ReplayCache replayCache) {
+        cache = new WeakReference<>(replayCache);
+    }
+
+    void recordLookup(boolean found, long nanos) {
+        lookups.increment();
+        if (found) {
+            hits.increment();
+        }
+        operationNanos.add(nanos);
+    }
+
+    void recordAdd(boolean added, long nanos) {
+        adds.increment();
+        if (!added) {
+            replays.increment();
+        }
+        operationNanos.add(nanos);
+    }
+
+    void recordExpirySweep(int removed, long nanos) {
+        sweeps.increment();
+        expired.add(removed);
+        sweepNanos.add(nanos);
+    }
+
+    void recordLockWait(long nanos) {
+        lockWaitNanos.add(nanos);
+    }
+
+    void recordEviction(int count) {
+        evictions.add(count);
+    }
+
+    void recordRejection() {
+        rejections.increment();
+    }
+
+    @Override
+    public String getRole() {
+        return role;
+    }
+
+    @Override
+    public int getSize() {
+        WeakReference<ReplayCache> reference = cache;
+        ReplayCache replayCache = reference == null ? null : reference.get();
+        return replayCache == null ? -1 : replayCache.size();
+    }
+
+    @Override
+    public long getLookupCount() {
+        return lookups.sum();
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    @Override
+    public double getHitRate() {
+        long lookupCount = lookups.sum();
+        return lookupCount == 0 ? 0.0 : (double)hits.sum() / lookupCount;
+    }
+
+    @Override
+    public long getAddCount() {
+        return adds.sum();
+    }
+
+    @Override
+    public long getReplayCount() {
+        return replays.sum();
+    }
+
+    @Override
+    public long getMeanOperationTimeNanos() {
+        long operations = lookups.sum() + adds.sum();
+        return operations == 0 ? 0 : operationNanos.sum() / operations;
+    }
+
+    @Override
+    public long getExpirySweepCount() {
+        return sweeps.sum();
+    }
+
+    @Override
+    public long getExpiredCount() {
+        return expired.sum();
+    }
+
+    @Override
+    public long getExpirySweepTimeNanos() {
+        return sweepNanos.sum();
+    }
+
+    @Override
+    public long getLockWaitTimeNanos() {
+        return lockWaitNanos.sum();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public long getRejectionCount() {
+        return rejections.sum();
+    }
+
+    @Override
+    public void reset() {
+        lookups.reset();
+        hits.reset();
+        adds.reset();
+        replays.reset();
+        operationNanos.reset();
+        sweeps.reset();
+        expired.reset();
+        sweepNanos.reset();
+        lockWaitNanos.reset();
+        evictions.reset();
+        rejections.reset();
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+/**
+ * The JMX view of the ReplayCacheStatistics of a cache role.
+ */
+public interface ReplayCacheStatisticsMBean {
+
+    String getRole();
+
+    /**
+     * @return the number of identifiers in the cache, or -1 if it is not known
+     */
+    int getSize();
+
+    long getLookupCount();
+
+    long getHitCount();
+
+    /**
+     * @return the fraction of lookups that found the identifier in the cache
+     */
+    double getHitRate();
+
+    long getAddCount();
+
+    long getReplayCount();
+
+    /**
+     * @return the mean time taken by a lookup or add, in nanoseconds
+     */
+    long getMeanOperationTimeNanos();
+
+    long getExpirySweepCount();
+
+    long getExpiredCount();
+
+    long getExpirySweepTimeNanos();
+
+    long getLockWaitTimeNanos();
+
+    long getEvictionCount();
+
+    long getRejectionCount();
+
+    /**
+     * Reset all of the counters
+     */
+    void reset();
+
+}
@@ -0,0 +1,361 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.PublicKey;
+import java.security.SignatureException;
+import java.security.cert.CRL;
+import java.security.cert.CRLReason;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * An index of the revoked serial numbers of a set of CRLs, hashed per issuer. The index is built
+ * once when the CRLs are loaded, so that checking whether a certificate is revoked is a hash lookup
+ * rather than a scan of every CRL entry. The indexed entries never change after construction; the
+ * only other state is a thread-safe record of which CRLs each issuer key has been verified to sign.
+ *
+ * Only the current CRLs of each signing key of an issuer are indexed, as the PKIX CertPathValidator
+ * does: the newest complete CRL, and the delta CRLs (CRLs with a Delta CRL Indicator extension)
+ * that are newer than it and whose base CRL is at most as new as it. The delta CRLs are applied on
+ * top of the complete CRL in order of CRL number, and an entry of a delta CRL with a reason code of
+ * "removeFromCRL" removes the serial number from the index. Superseded CRLs are not indexed, so a
+ * certificate that has been released from "certificateHold" is not reported as revoked by an older
+ * CRL. The signing key of a CRL is identified by its Authority Key Identifier extension; the CRLs
+ * of an issuer without that extension are treated as signed by the same key.
+ */
+public final class CRLIndex {
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(CRLIndex.class);
+
+    private static final String CRL_NUMBER_OID = "2.5.29.20";  //NOPMD - not an IP address
+    private static final String DELTA_CRL_INDICATOR_OID = "2.5.29.27";  //NOPMD - not an IP address
+    private static final String AUTHORITY_KEY_IDENTIFIER_OID = "2.5.29.35";  //NOPMD - not an IP address
+
+    private final Map<X500Principal, IssuerEntry> issuers;
+    private final int entryCount;
+    private final long buildTimeNanos;
+
+    /**
+     * Build an index of the given CRLs. CRLs that are not X.509 CRLs are ignored.
+     *
+     * @param crls the CRLs to index
+     */
+    public CRLIndex(Collection<? extends CRL> crls) {
+        long start = System.nanoTime();
+
+        Map<X500Principal, List<X509CRL>> completeCRLs = new HashMap<>();
+        Map<X500Principal, List<X509CRL>> deltaCRLs = new HashMap<>();
+        for (CRL crl : crls) {
+            if (crl instanceof X509CRL) {
+                X509CRL x509CRL = (X509CRL) crl;
+                Map<X500Principal, List<X509CRL>> target =
+                    x509CRL.getExtensionValue(DELTA_CRL_INDICATOR_OID) != null ? deltaCRLs : completeCRLs;
+                target.computeIfAbsent(x509CRL.getIssuerX500Principal(), k -> new ArrayList<>()).add(x509CRL);
+            }
+        }
+
+        Map<X500Principal, IssuerEntry> builtIssuers = new HashMap<>();
+        int count = 0;
+        for (Map.Entry<X500Principal, List<X509CRL>> issuerCRLs : completeCRLs.entrySet()) {
+            List<X509CRL> issuerCompleteCRLs = issuerCRLs.getValue();
+            List<X509CRL> issuerDeltaCRLs =
+                deltaCRLs.getOrDefault(issuerCRLs.getKey(), Collections.emptyList());
+            IssuerEntry entry = new IssuerEntry(issuerCompleteCRLs, issuerDeltaCRLs);
+            builtIssuers.put(issuerCRLs.getKey(), entry);
+            count += entry.revokedSerials.size();
+        }
+        for (X500Principal issuer : deltaCRLs.keySet()) {
+            if (!builtIssuers.containsKey(issuer)) {
+                LOG.warn("Ignoring the delta CRLs of {} as no complete CRL is available", issuer);
+            }
+        }
+
+        this.issuers = builtIssuers;
+        this.entryCount = count;
+        this.buildTimeNanos = System.nanoTime() - start;
+        LOG.debug("Indexed {} revoked certificates of {} issuers in {} ms",
+                  entryCount, issuers.size(), getBuildTimeMillis());
+    }
+
+    /**
+     * Get the revocation entry for the certificate with the given issuer and serial number.
+     *
+     * @param issuer the issuer of the certificate
+     * @param serialNumber the serial number of the certificate
+     * @return the revocation entry, or null if the certificate is not revoked by an indexed CRL
+     */
+    public X509CRLEntry getRevokedEntry(X500Principal issuer, BigInteger serialNumber) {
+        IssuerEntry entry = issuers.get(issuer);
+        return entry == null ? null : entry.revokedSerials.get(serialNumber);
+    }
+
+    /**
+     * @param issuer the issuer of a certificate
+     * @return whether a CRL of the given issuer has been indexed
+     */
+    public boolean hasCRL(X500Principal issuer) {
+        return issuers.containsKey(issuer);
+    }
+
+    /**
+     * Check that the given issuer key signs a current CRL of the given issuer. The CRLs of an issuer
+     * name may be signed by several keys (for example after a key rollover), so only the CRLs that
+     * are signed by the given key are considered, and of those only the newest complete CRL, and the
+     * newest delta CRL that is newer than it, must be valid at the given date. Older CRLs are
+     * superseded and are not checked. The CRLs signed by a key are remembered for the key.
+     *
+     * @param issuer the issuer of a certificate
+     * @param issuerKey the public key of the issuer
+     * @param date the date at which the CRLs must be valid
+     * @throws GeneralSecurityException if no CRL of the issuer is signed by the key
+     * @return whether CRLs are available for the issuer that are valid at the given date
+     */
+    public boolean verifyCRLs(X500Principal issuer, PublicKey issuerKey, Date date)
+        throws GeneralSecurityException {
+        IssuerEntry entry = issuers.get(issuer);
+        if (entry == null) {
+            return false;
+        }
+        List<X509CRL> signedCRLs = entry.getCRLsSignedBy(issuerKey);
+        if (signedCRLs.isEmpty()) {
+            throw new SignatureException("No CRL of " + issuer.getName() + " is signed by the issuer key");
+        }
+
+        X509CRL latestCRL = null;
+        X509CRL latestDeltaCRL = null;
+        for (X509CRL crl : signedCRLs) {
+            if (crl.getExtensionValue(DELTA_CRL_INDICATOR_OID) != null) {
+                latestDeltaCRL = newer(latestDeltaCRL, crl);
+            } else {
+                latestCRL = newer(latestCRL, crl);
+            }
+        }
+        if (latestCRL == null || !isValid(latestCRL, date)) {
+            return false;
+        }
+        // A delta CRL that is not newer than the complete CRL has been superseded by it
+        return latestDeltaCRL == null || newer(latestCRL, latestDeltaCRL) == latestCRL
+            || isValid(latestDeltaCRL, date);
+    }
+
+    /**
+     * @return the issuers for which CRLs have been indexed
+     */
+    public Set<X500Principal> getIssuers() {
+        return Collections.unmodifiableSet(issuers.keySet());
+    }
+
+    /**
+     * @return the number of revoked certificates in this index
+     */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * @return the time taken to build this index, in milliseconds
+     */
+    public long getBuildTimeMillis() {
+        return buildTimeNanos / 1_000_000L;
+    }
+
+    private static boolean isValid(X509CRL crl, Date date) {
+        return !crl.getThisUpdate().after(date)
+            && (crl.getNextUpdate() == null || !crl.getNextUpdate().before(date));
+    }
+
+    /**
+     * Get the newer of two CRLs, by CRL number and then by the date they were issued.
+     */
+    private static X509CRL newer(X509CRL crl, X509CRL other) {
+        if (crl == null) {
+            return other;
+        }
+        int compare = getIntegerExtension(crl, CRL_NUMBER_OID).compareTo(getIntegerExtension(other, CRL_NUMBER_OID));
+        if (compare == 0) {
+            compare = crl.getThisUpdate().compareTo(other.getThisUpdate());
+        }
+        return compare >= 0 ? crl : other;
+    }
+
+    /**
+     * Get the value of an INTEGER extension of the CRL, such as the CRL number or the base CRL
+     * number of a delta CRL, or zero if the CRL does not have the extension.
+     */
+    private static BigInteger getIntegerExtension(X509CRL crl, String oid) {
+        byte[] extensionValue = crl.getExtensionValue(oid);
+        if (extensionValue == null) {
+            return BigInteger.ZERO;
+        }
+        try {
+            // The extension value is an OCTET STRING wrapping a DER encoded INTEGER
+            int[] octetString = readHeader(extensionValue, 0, 0x04);
+            int[] integer = readHeader(extensionValue, octetString[0], 0x02);
+            return new BigInteger(Arrays.copyOfRange(extensionValue, integer[0], integer[0] + integer[1]));
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException ex) {
+            LOG.debug("Error parsing extension {} of the CRL of {}", oid, crl.getIssuerX500Principal(), ex);
+            return BigInteger.ZERO;
+        }
+    }
+
+    /**
+     * Read a DER header with the expected tag at the given offset.
+     * @return the offset of the content, and the length of the content
+     */
+    private static int[] readHeader(byte[] der, int offset, int expectedTag) {
+        if ((der[offset] & 0xff) != expectedTag) {
+            throw new IllegalArgumentException("Unexpected DER tag " + der[offset]);
+        }
+        int length = der[offset + 1] & 0xff;
+        if (length < 0x80) {
+            return new int[] {offset + 2, length};
+        }
+        int lengthBytes = length & 0x7f;
+        if (lengthBytes > 3) {
+            throw new IllegalArgumentException("Unsupported DER length");
+        }
+        length = 0;
+        for (int i = 0; i < lengthBytes; i++) {
+            length = (length << 8) | (der[offset + 2 + i] & 0xff);
+        }
+        return new int[] {offset + 2 + lengthBytes, length};
+    }
+
+    /**
+     * The revoked serial numbers of a single issuer, from the newest complete CRL of each of its
+     * signing keys and the delta CRLs that apply to it.
+     */
+    private static final class IssuerEntry {
+        private static final int MAX_VERIFIED_KEYS = 16;
+
+        private final List<X509CRL> crls = new ArrayList<>();
+        private final Map<BigInteger, X509CRLEntry> revokedSerials = new HashMap<>();
+        private final ConcurrentMap<PublicKey, List<X509CRL>> crlsByKey = new ConcurrentHashMap<>();
+
+        IssuerEntry(List<X509CRL> completeCRLs, List<X509CRL> deltaCRLs) {
+            Map<ByteBuffer, X509CRL> latestCRLs = new HashMap<>();
+            for (X509CRL crl : completeCRLs) {
+                crls.add(crl);
+                latestCRLs.merge(getAuthorityKeyIdentifier(crl), crl, CRLIndex::newer);
+            }
+
+            List<X509CRL> sortedDeltaCRLs = new ArrayList<>(deltaCRLs);
+            sortedDeltaCRLs.sort(Comparator.comparing(crl -> getIntegerExtension(crl, CRL_NUMBER_OID)));
+            Map<ByteBuffer, Map<BigInteger, X509CRLEntry>> keyEntries = new HashMap<>();
+            for (Map.Entry<ByteBuffer, X509CRL> latestCRL : latestCRLs.entrySet()) {
+                Map<BigInteger, X509CRLEntry> entries = new HashMap<>();
+                addEntries(latestCRL.getValue(), entries);
+                keyEntries.put(latestCRL.getKey(), entries);
+            }
+
+            for (X509CRL deltaCRL : sortedDeltaCRLs) {
+                ByteBuffer keyIdentifier = getAuthorityKeyIdentifier(deltaCRL);
+                X509CRL latestCRL = latestCRLs.get(keyIdentifier);
+                BigInteger deltaBaseNumber = getIntegerExtension(deltaCRL, DELTA_CRL_INDICATOR_OID);
+                // A delta CRL only applies to a complete CRL that is at least as new as its base CRL
+                if (latestCRL == null
+                    || deltaBaseNumber.compareTo(getIntegerExtension(latestCRL, CRL_NUMBER_OID)) > 0) {
+                    LOG.warn("Ignoring a delta CRL of {} as its base CRL {} is not available",
+                             deltaCRL.getIssuerX500Principal(), deltaBaseNumber);
+                    continue;
+                }
+                crls.add(deltaCRL);
+                if (newer(latestCRL, deltaCRL) == latestCRL) {
+                    LOG.debug("The entries of a delta CRL of {} are superseded by its complete CRL",
+                              deltaCRL.getIssuerX500Principal());
+                } else {
+                    addEntries(deltaCRL, keyEntries.get(keyIdentifier));
+                }
+            }
+
+            for (Map<BigInteger, X509CRLEntry> entries : keyEntries.values()) {
+                revokedSerials.putAll(entries);
+            }
+        }
+
+        /**
+         * Get the CRLs of this issuer that are signed by the given key.
+         */
+        List<X509CRL> getCRLsSignedBy(PublicKey key) throws GeneralSecurityException {
+            List<X509CRL> signedCRLs = crlsByKey.get(key);
+            if (signedCRLs != null) {
+                return signedCRLs;
+            }
+            signedCRLs = new ArrayList<>(crls.size());
+            for (X509CRL crl : crls) {
+                try {
+                    crl.verify(key);
+                    signedCRLs.add(crl);
+                } catch (SignatureException | InvalidKeyException ex) {
+                    LOG.debug("A CRL of {} is not signed by the given key", crl.getIssuerX500Principal(), ex);
+                }
+            }
+            signedCRLs = Collections.unmodifiableList(signedCRLs);
+            // Only a few keys are expected per issuer, so stop remembering them beyond a small bound
+            if (crlsByKey.size() < MAX_VERIFIED_KEYS) {
+                crlsByKey.putIfAbsent(key, signedCRLs);
+            }
+            return signedCRLs;
+        }
+
+        private static void addEntries(X509CRL crl, Map<BigInteger, X509CRLEntry> revokedEntries) {
+            Set<? extends X509CRLEntry> entries = crl.getRevokedCertificates();
+            if (entries == null) {
+                return;
+            }
+            for (X509CRLEntry entry : entries) {
+                if (entry.getRevocationReason() == CRLReason.REMOVE_FROM_CRL) {
+                    revokedEntries.remove(entry.getSerialNumber());
+                } else {
+                    revokedEntries.put(entry.getSerialNumber(), entry);
+                }
+            }
+        }
+
+        /**
+         * Get the encoded Authority Key Identifier of the CRL, which identifies the key that
+         * signed it, or an empty buffer if the CRL does not have the extension.
+         */
+        private static ByteBuffer getAuthorityKeyIdentifier(X509CRL crl) {
+            byte[] extensionValue = crl.getExtensionValue(AUTHORITY_KEY_IDENTIFIER_OID);
+            return ByteBuffer.wrap(extensionValue == null ? new byte[0] : extensionValue);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.cert.CRLReason;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.Certificate;
+import java.security.cert.PKIXCertPathChecker;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509CRLEntry;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * A PKIXCertPathChecker that checks each certificate of a path for revocation against a
+ * {@link CRLIndex}. It is used instead of the revocation checking of the PKIX CertPathValidator,
+ * which scans the CRLs of a CertStore for every certificate. As with the default revocation
+ * checking, a certificate is rejected if no currently valid CRL of its issuer is available.
+ *
+ * Only reverse checking (from the trust anchor towards the target certificate) is supported.
+ */
+public class CRLRevocationChecker extends PKIXCertPathChecker {
+
+    private final CRLIndex crlIndex;
+    private final Set<TrustAnchor> trustAnchors;
+    private PublicKey issuerKey;
+
+    /**
+     * @param crlIndex the index of the CRLs to check against
+     * @param trustAnchors the trust anchors of the paths that will be checked
+     */
+    public CRLRevocationChecker(CRLIndex crlIndex, Set<TrustAnchor> trustAnchors) {
+        this.crlIndex = crlIndex;
+        this.trustAnchors = trustAnchors;
+    }
+
+    @Override
+    public void init(boolean forward) throws CertPathValidatorException {
+        if (forward) {
+            throw new CertPathValidatorException("Forward checking is not supported");
+        }
+        issuerKey = null;
+    }
+
+    @Override
+    public boolean isForwardCheckingSupported() {
+        return false;
+    }
+
+    @Override
+    public Set<String> getSupportedExtensions() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public void check(Certificate cert, Collection<String> unresolvedCritExts)
+        throws CertPathValidatorException {
+        X509Certificate x509Cert = (X509Certificate) cert;
+        X500Principal issuer = x509Cert.getIssuerX500Principal();
+
+        PublicKey key = issuerKey;
+        if (key == null) {
+            key = getTrustAnchorKey(x509Cert);
+        }
+        // The issuer of the next certificate in the path is this certificate
+        issuerKey = x509Cert.getPublicKey();
+
+        Date now = new Date();
+        try {
+            if (key == null || !crlIndex.verifyCRLs(issuer, key, now)) {
+                throw new CertPathValidatorException(
+                    "Could not determine revocation status", null, null, -1,
+                    CertPathValidatorException.BasicReason.UNDETERMINED_REVOCATION_STATUS
+                );
+            }
+        } catch (GeneralSecurityException ex) {
+            throw new CertPathValidatorException(
+                "The CRL of " + issuer.getName() + " could not be verified", ex, null, -1,
+                CertPathValidatorException.BasicReason.UNDETERMINED_REVOCATION_STATUS
+            );
+        }
+
+        X509CRLEntry entry = crlIndex.getRevokedEntry(issuer, x509Cert.getSerialNumber());
+        if (entry != null && !entry.getRevocationDate().after(now)) {
+            CRLReason reason = entry.getRevocationReason();
+            throw new CertPathValidatorException(
+                "Certificate has been revoked, reason: " + (reason == null ? CRLReason.UNSPECIFIED : reason)
+                    + ", revocation date: " + entry.getRevocationDate(),
+                null, null, -1, CertPathValidatorException.BasicReason.REVOKED
+            );
+        }
+    }
+
+    /**
+     * Get the key of the trust anchor that issued the given certificate. If several trust anchors
+     * have the issuer name of the certificate, the one whose key verifies the certificate is used.
+     */
+    private PublicKey getTrustAnchorKey(X509Certificate cert) {
+        X500Principal issuer = cert.getIssuerX500Principal();
+        List<PublicKey> anchorKeys = new ArrayList<>(1);
+        for (TrustAnchor trustAnchor : trustAnchors) {
+            X509Certificate trustedCert = trustAnchor.getTrustedCert();
+            if (trustedCert != null && issuer.equals(trustedCert.getSubjectX500Principal())) {
+                anchorKeys.add(trustedCert.getPublicKey());
+            } else if (trustedCert == null && issuer.equals(trustAnchor.getCA())) {
+                anchorKeys.add(trustAnchor.getCAPublicKey());
+            }
+        }
+        if (anchorKeys.size() == 1) {
+            return anchorKeys.get(0);
+        }
+        for (PublicKey anchorKey : anchorKeys) {
+            if (verifies(cert, anchorKey)) {
+                return anchorKey;
+            }
+        }
+        return null;
+    }
+
+    private static boolean verifies(X509Certificate cert, PublicKey key) {
+        try {
+            cert.verify(key);
+            return true;
+        } catch (GeneralSecurityException ex) {
+            return false;
+        }
+    }
+}
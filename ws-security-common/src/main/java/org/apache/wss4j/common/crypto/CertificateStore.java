@@ -20,18 +20,18 @@
 package org.apache.wss4j.common.crypto;
 
 import java.math.BigInteger;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.cert.CertPath;
 import java.security.cert.CertPathValidator;
-import java.security.cert.CertificateEncodingException;
+import java.security.cert.Certificate;
 import java.security.cert.PKIXParameters;
 import java.security.cert.TrustAnchor;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -45,19 +45,38 @@ import org.apache.wss4j.common.ext.WSSecurityException;
 /**
  * A Crypto implementation based on a simple array of X509Certificate(s). PrivateKeys are not
  * supported, so this cannot be used for signature creation, or decryption.
+ *
+ * The certificates are indexed by issuer and serial number, SKI, SHA-1 and SHA-256 thumbprint,
+ * subject DN and public key when the CertificateStore is constructed, and the trust anchors are
+ * built once, so that lookups do not have to scan or re-hash the certificates.
  */
 public class CertificateStore extends CryptoBase {
 
     private static final org.slf4j.Logger LOG =
         org.slf4j.LoggerFactory.getLogger(CertificateStore.class);
 
-    private X509Certificate[] trustedCerts;
+    private final X509Certificate[] trustedCerts;
+    private final Set<TrustAnchor> trustAnchors;
+    private volatile KeyStoreIndex index;
 
     /**
      * Constructor
      */
     public CertificateStore(X509Certificate[] trustedCerts) {
-        this.trustedCerts = trustedCerts;
+        this.trustedCerts = trustedCerts != null ? trustedCerts.clone() : new X509Certificate[0];
+
+        Set<TrustAnchor> set = new HashSet<>();
+        for (X509Certificate cert : this.trustedCerts) {
+            set.add(new TrustAnchor(cert, null));
+        }
+        this.trustAnchors = Collections.unmodifiableSet(set);
+
+        try {
+            index = new KeyStoreIndex(this.trustedCerts, this);
+        } catch (WSSecurityException ex) {
+            // The index is built again on first use, so that the error is reported to the caller
+            LOG.debug("Error indexing the trusted certificates", ex);
+        }
     }
 
     /**
@@ -220,15 +239,6 @@ public class CertificateStore extends CryptoBase {
         );
 
         try {
-            Set<TrustAnchor> set = new HashSet<>();
-            if (trustedCerts != null) {
-                for (X509Certificate cert : trustedCerts) {
-                    TrustAnchor anchor =
-                        new TrustAnchor(cert, null);
-                    set.add(anchor);
-                }
-            }
-
             // Verify the trust path using the above settings
             String provider = getCryptoProvider();
             CertPathValidator validator = null;
@@ -238,7 +248,7 @@ public class CertificateStore extends CryptoBase {
                 validator = CertPathValidator.getInstance("PKIX", provider);
             }
 
-            PKIXParameters param = new PKIXParameters(set);
+            PKIXParameters param = new PKIXParameters(trustAnchors);
             param.setRevocationEnabled(enableRevocation);
 
             if (foundCerts.length > 0) {
@@ -303,14 +313,39 @@ public class CertificateStore extends CryptoBase {
         //
         // Search the trusted certs for the transmitted public key (direct trust)
         //
-        for (X509Certificate trustedCert : trustedCerts) {
-            if (publicKey.equals(trustedCert.getPublicKey())) {
-                return;
-            }
+        if (getIndex().getAlias(publicKey) != null) {
+            return;
         }
         throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_AUTHENTICATION);
     }
 
+    /**
+     * Get an X509 Certificate (chain) according to a given SHA-256 thumbprint.
+     *
+     * @param thumb The SHA-256 thumbprint bytes
+     * @return the X509 certificate (chain) that was found (can be null)
+     * @throws WSSecurityException
+     */
+    public X509Certificate[] getX509CertificatesSHA256Thumbprint(byte[] thumb) throws WSSecurityException {
+        return toX509Certificates(getIndex().getCertificatesBySHA256Thumbprint(thumb));
+    }
+
+    private KeyStoreIndex getIndex() throws WSSecurityException {
+        KeyStoreIndex currentIndex = index;
+        if (currentIndex == null) {
+            currentIndex = new KeyStoreIndex(trustedCerts, this);
+            index = currentIndex;
+        }
+        return currentIndex;
+    }
+
+    private static X509Certificate[] toX509Certificates(Certificate[] certs) {
+        if (certs == null) {
+            return null;
+        }
+        return new X509Certificate[]{(X509Certificate) certs[0]};
+    }
+
     /**
      * Get an X509 Certificate (chain) according to a given serial number and issuer string.
      *
@@ -339,17 +374,7 @@ public class CertificateStore extends CryptoBase {
             issuerName = createBCX509Name(issuer);
         }
 
-        for (X509Certificate trustedCert : trustedCerts) {
-            if (trustedCert.getSerialNumber().compareTo(serialNumber) == 0) {
-                Object certName =
-                    createBCX509Name(trustedCert.getIssuerX500Principal().getName());
-                if (certName.equals(issuerName)) {
-                    return new X509Certificate[]{trustedCert};
-                }
-            }
-        }
-
-        return null;
+        return toX509Certificates(getIndex().getCertificates(issuerName, serialNumber));
     }
 
     /**
@@ -360,34 +385,7 @@ public class CertificateStore extends CryptoBase {
      * @throws WSSecurityException if problems during keystore handling or wrong certificate
      */
     private X509Certificate[] getX509Certificates(byte[] thumb) throws WSSecurityException {
-        MessageDigest sha = null;
-
-        if (trustedCerts == null) {
-            return null;
-        }
-
-        try {
-            sha = MessageDigest.getInstance("SHA1");
-        } catch (NoSuchAlgorithmException e) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.FAILURE, e, "decoding.general"
-            );
-        }
-        for (X509Certificate trustedCert : trustedCerts) {
-            try {
-                sha.update(trustedCert.getEncoded());
-            } catch (CertificateEncodingException ex) {
-                throw new WSSecurityException(
-                    WSSecurityException.ErrorCode.SECURITY_TOKEN_UNAVAILABLE, ex, "encodeError"
-                );
-            }
-            byte[] data = sha.digest();
-
-            if (Arrays.equals(data, thumb)) {
-                return new X509Certificate[]{trustedCert};
-            }
-        }
-        return null;
+        return toX509Certificates(getIndex().getCertificatesByThumbprint(thumb));
     }
 
     /**
@@ -397,16 +395,7 @@ public class CertificateStore extends CryptoBase {
      * @return the X509 certificate (chain) that was found (can be null)
      */
     private X509Certificate[] getX509CertificatesSKI(byte[] skiBytes) throws WSSecurityException {
-        if (trustedCerts == null) {
-            return null;
-        }
-        for (X509Certificate trustedCert : trustedCerts) {
-            byte[] data = getSKIBytesFromCert(trustedCert);
-            if (data.length == skiBytes.length && Arrays.equals(data, skiBytes)) {
-                return new X509Certificate[]{trustedCert};
-            }
-        }
-        return null;
+        return toX509Certificates(getIndex().getCertificatesBySKI(skiBytes));
     }
 
     /**
@@ -434,18 +423,8 @@ public class CertificateStore extends CryptoBase {
             subject = createBCX509Name(subjectDN);
         }
 
-        if (trustedCerts != null) {
-            for (X509Certificate trustedCert : trustedCerts) {
-                X500Principal foundRDN = trustedCert.getSubjectX500Principal();
-                Object certName = createBCX509Name(foundRDN.getName());
-
-                if (subject.equals(certName)) {
-                    return new X509Certificate[]{trustedCert};
-                }
-            }
-        }
-
-        return null;
+        List<Certificate[]> certs = getIndex().getCertificatesBySubject(subject);
+        return certs.isEmpty() ? null : toX509Certificates(certs.get(0));
     }
 
 }
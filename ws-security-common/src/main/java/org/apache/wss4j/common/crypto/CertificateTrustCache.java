@@ -0,0 +1,200 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+
+/**
+ * A bounded, in-memory cache of positive certificate trust decisions. An entry is keyed on a
+ * SHA-256 hash of the encoded certificate chain, the revocation flag and the subject/issuer DN
+ * constraints that were used to validate it. An entry expires after a configurable TTL, or when
+ * any certificate of the chain expires, whichever comes first. Negative decisions are
+ * never cached.
+ *
+ * The cache must be cleared whenever the trust material (keystore, truststore or CRLs) changes.
+ */
+public class CertificateTrustCache {
+
+    public static final long DEFAULT_TTL = 60L * 5L;
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    private final Map<ByteBuffer, Instant> cache = new ConcurrentHashMap<>();
+    private final int maxSize;
+    private final long ttl;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public CertificateTrustCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TTL);
+    }
+
+    /**
+     * @param maxSize the maximum number of trust decisions to cache
+     * @param ttl the maximum time in seconds for which to cache a trust decision
+     */
+    public CertificateTrustCache(int maxSize, long ttl) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("The maximum size must be greater than zero");
+        }
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("The TTL must be greater than zero");
+        }
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Check whether the given certificate chain has been trusted before, using the same
+     * revocation flag and constraints.
+     *
+     * @return true if a valid trust decision is cached for the certificate chain
+     * @throws WSSecurityException if the certificate chain cannot be encoded
+     */
+    public boolean isTrusted(
+        X509Certificate[] certs,
+        boolean enableRevocation,
+        Collection<Pattern> subjectCertConstraints,
+        Collection<Pattern> issuerCertConstraints
+    ) throws WSSecurityException {
+        ByteBuffer key = createKey(certs, enableRevocation, subjectCertConstraints, issuerCertConstraints);
+        Instant expiry = cache.get(key);
+        if (expiry != null) {
+            if (expiry.isAfter(Instant.now())) {
+                hits.incrementAndGet();
+                return true;
+            }
+            cache.remove(key, expiry);
+        }
+        misses.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Record that the given certificate chain has been trusted using the given revocation flag
+     * and constraints.
+     *
+     * @throws WSSecurityException if the certificate chain cannot be encoded
+     */
+    public void addTrusted(
+        X509Certificate[] certs,
+        boolean enableRevocation,
+        Collection<Pattern> subjectCertConstraints,
+        Collection<Pattern> issuerCertConstraints
+    ) throws WSSecurityException {
+        Instant now = Instant.now();
+        Instant expiry = now.plusSeconds(ttl);
+        for (X509Certificate cert : certs) {
+            Instant notAfter = cert.getNotAfter().toInstant();
+            if (notAfter.isBefore(expiry)) {
+                expiry = notAfter;
+            }
+        }
+        if (!expiry.isAfter(now)) {
+            return;
+        }
+
+        if (cache.size() >= maxSize) {
+            makeRoom(now);
+        }
+        cache.put(createKey(certs, enableRevocation, subjectCertConstraints, issuerCertConstraints), expiry);
+    }
+
+    /**
+     * Remove all cached trust decisions.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    private void makeRoom(Instant now) {
+        cache.values().removeIf(expiry -> !expiry.isAfter(now));
+        Iterator<ByteBuffer> iterator = cache.keySet().iterator();
+        while (cache.size() >= maxSize && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private static ByteBuffer createKey(
+        X509Certificate[] certs,
+        boolean enableRevocation,
+        Collection<Pattern> subjectCertConstraints,
+        Collection<Pattern> issuerCertConstraints
+    ) throws WSSecurityException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (X509Certificate cert : certs) {
+                digest.update(cert.getEncoded());
+            }
+            digest.update(enableRevocation ? (byte)1 : (byte)0);
+            updatePatterns(digest, subjectCertConstraints);
+            updatePatterns(digest, issuerCertConstraints);
+            return ByteBuffer.wrap(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.FAILURE, e, "decoding.general"
+            );
+        } catch (CertificateEncodingException e) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.SECURITY_TOKEN_UNAVAILABLE, e, "encodeError"
+            );
+        }
+    }
+
+    private static void updatePatterns(MessageDigest digest, Collection<Pattern> patterns) {
+        // Separate the constraint sets, so that moving a pattern from one set to the other
+        // results in a different key
+        digest.update((byte)0);
+        if (patterns != null) {
+            for (Pattern pattern : patterns) {
+                digest.update(pattern.pattern().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte)'\n');
+                digest.update(Integer.toString(pattern.flags()).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte)0);
+            }
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+
+/**
+ * An immutable, in-memory index over the entries of a KeyStore. The index is built once by
+ * walking the aliases of the KeyStore, and afterwards allows constant-time lookups of a
+ * certificate (chain) by issuer and serial number, SubjectKeyIdentifier bytes, SHA-1 or SHA-256
+ * thumbprint, subject name, certificate or public key. An index can also be built over an array
+ * of certificates, in which case each certificate is a chain of its own. When several aliases match the same key, the first
+ * alias returned by the KeyStore wins, which mirrors the behaviour of a linear alias scan.
+ *
+ * The index does not observe changes to the underlying KeyStore. Use {@link #isCurrent(KeyStore)}
+ * to check whether it still reflects a given KeyStore, and build a new index otherwise.
+ */
+final class KeyStoreIndex {
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(KeyStoreIndex.class);
+
+    private final KeyStore keyStore;
+    private final int size;
+    private final Map<IssuerSerial, Certificate[]> issuerSerialMap = new HashMap<>();
+    private final Map<ByteBuffer, Certificate[]> skiMap = new HashMap<>();
+    private final Map<ByteBuffer, Certificate[]> thumbprintMap = new HashMap<>();
+    private final Map<ByteBuffer, Certificate[]> sha256ThumbprintMap = new HashMap<>();
+    private final Map<Object, List<Certificate[]>> subjectMap = new HashMap<>();
+    private final Map<Certificate, String> certificateMap = new HashMap<>();
+    private final Map<PublicKey, String> publicKeyMap = new HashMap<>();
+
+    /**
+     * Build a new index over the given KeyStore.
+     *
+     * @param keyStore the KeyStore to index
+     * @param crypto the CryptoBase instance used to normalise names and compute SKI bytes
+     * @throws WSSecurityException if the KeyStore cannot be read
+     */
+    KeyStoreIndex(KeyStore keyStore, CryptoBase crypto) throws WSSecurityException {
+        this.keyStore = keyStore;
+        MessageDigest sha = getMessageDigest("SHA-1");
+        MessageDigest sha256 = getMessageDigest("SHA-256");
+
+        try {
+            this.size = keyStore.size();
+            for (Enumeration<String> e = keyStore.aliases(); e.hasMoreElements();) {
+                String alias = e.nextElement();
+                Certificate[] certs = keyStore.getCertificateChain(alias);
+                if (certs == null || certs.length == 0) {
+                    // no cert chain, so lets check if getCertificate gives us a result.
+                    Certificate cert = keyStore.getCertificate(alias);
+                    if (cert != null) {
+                        certs = new Certificate[]{cert};
+                    }
+                }
+
+                if (certs != null && certs.length > 0) {
+                    certificateMap.putIfAbsent(certs[0], alias);
+                    publicKeyMap.putIfAbsent(certs[0].getPublicKey(), alias);
+                    if (certs[0] instanceof X509Certificate) {
+                        addX509Certificate(alias, certs, crypto, sha, sha256);
+                    }
+                }
+            }
+        } catch (KeyStoreException e) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.FAILURE, e, "keystore"
+            );
+        }
+    }
+
+    /**
+     * Build a new index over the given certificates. The alias of each certificate is its
+     * subject DN.
+     *
+     * @param certificates the certificates to index
+     * @param crypto the CryptoBase instance used to normalise names and compute SKI bytes
+     * @throws WSSecurityException if a certificate cannot be encoded
+     */
+    KeyStoreIndex(X509Certificate[] certificates, CryptoBase crypto) throws WSSecurityException {
+        this.keyStore = null;
+        this.size = certificates.length;
+        MessageDigest sha = getMessageDigest("SHA-1");
+        MessageDigest sha256 = getMessageDigest("SHA-256");
+        for (X509Certificate certificate : certificates) {
+            String alias = certificate.getSubjectX500Principal().getName();
+            Certificate[] certs = new Certificate[]{certificate};
+            certificateMap.putIfAbsent(certificate, alias);
+            publicKeyMap.putIfAbsent(certificate.getPublicKey(), alias);
+            addX509Certificate(alias, certs, crypto, sha, sha256);
+        }
+    }
+
+    private static MessageDigest getMessageDigest(String algorithm) throws WSSecurityException {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.FAILURE, e, "decoding.general"
+            );
+        }
+    }
+
+    private void addX509Certificate(
+        String alias, Certificate[] certs, CryptoBase crypto, MessageDigest sha, MessageDigest sha256
+    ) throws WSSecurityException {
+        X509Certificate x509cert = (X509Certificate) certs[0];
+
+        Object issuerName = crypto.createBCX509Name(x509cert.getIssuerX500Principal().getName());
+        issuerSerialMap.putIfAbsent(new IssuerSerial(issuerName, x509cert.getSerialNumber()), certs);
+
+        Object subjectName = crypto.createBCX509Name(x509cert.getSubjectX500Principal().getName());
+        subjectMap.computeIfAbsent(subjectName, k -> new ArrayList<>(1)).add(certs);
+
+        try {
+            byte[] encoded = x509cert.getEncoded();
+            thumbprintMap.putIfAbsent(ByteBuffer.wrap(sha.digest(encoded)), certs);
+            sha256ThumbprintMap.putIfAbsent(ByteBuffer.wrap(sha256.digest(encoded)), certs);
+        } catch (CertificateEncodingException ex) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.SECURITY_TOKEN_UNAVAILABLE, ex, "encodeError"
+            );
+        }
+
+        try {
+            byte[] skiBytes = crypto.getSKIBytesFromCert(x509cert);
+            skiMap.putIfAbsent(ByteBuffer.wrap(skiBytes), certs);
+        } catch (WSSecurityException ex) {
+            LOG.debug("Cannot compute the SKI bytes of the certificate with alias {}", alias, ex);
+        }
+    }
+
+    /**
+     * @return true if this index was built from the given KeyStore, and the KeyStore has not
+     *         changed in size since then.
+     */
+    boolean isCurrent(KeyStore store) {
+        if (store != keyStore) {
+            return false;
+        }
+        try {
+            return store.size() == size;
+        } catch (KeyStoreException e) {
+            return false;
+        }
+    }
+
+    Certificate[] getCertificates(Object issuerName, BigInteger serialNumber) {
+        return issuerSerialMap.get(new IssuerSerial(issuerName, serialNumber));
+    }
+
+    Certificate[] getCertificatesBySKI(byte[] skiBytes) {
+        return skiMap.get(ByteBuffer.wrap(skiBytes));
+    }
+
+    Certificate[] getCertificatesByThumbprint(byte[] thumbprint) {
+        return thumbprintMap.get(ByteBuffer.wrap(thumbprint));
+    }
+
+    Certificate[] getCertificatesBySHA256Thumbprint(byte[] thumbprint) {
+        return sha256ThumbprintMap.get(ByteBuffer.wrap(thumbprint));
+    }
+
+    List<Certificate[]> getCertificatesBySubject(Object subjectName) {
+        List<Certificate[]> certs = subjectMap.get(subjectName);
+        if (certs == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(certs);
+    }
+
+    String getAlias(Certificate cert) {
+        return certificateMap.get(cert);
+    }
+
+    String getAlias(PublicKey publicKey) {
+        return publicKeyMap.get(publicKey);
+    }
+
+    private static final class IssuerSerial {
+        private final Object issuer;
+        private final BigInteger serial;
+
+        IssuerSerial(Object issuer, BigInteger serial) {
+            this.issuer = issuer;
+            this.serial = serial;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(issuer, serial);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof IssuerSerial)) {
+                return false;
+            }
+            IssuerSerial other = (IssuerSerial) obj;
+            return Objects.equals(issuer, other.issuer) && Objects.equals(serial, other.serial);
+        }
+    }
+}
@@ -29,7 +29,6 @@ import java.security.InvalidAlgorithmParameterException;
 import java.security.Key;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.PrivateKey;
@@ -38,8 +37,8 @@ import java.security.UnrecoverableKeyException;
 import java.security.cert.CertPath;
 import java.security.cert.CertPathValidator;
 import java.security.cert.CertStore;
+import java.security.cert.CertStoreException;
 import java.security.cert.Certificate;
-import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateExpiredException;
 import java.security.cert.CertificateFactory;
@@ -53,10 +52,22 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import javax.security.auth.callback.Callback;
@@ -101,6 +112,7 @@ public class Merlin extends CryptoBase {
     public static final String KEYSTORE_TYPE = "keystore.type";
     public static final String KEYSTORE_ALIAS = "keystore.alias";
     public static final String KEYSTORE_PRIVATE_PASSWORD = "keystore.private.password";
+    public static final String KEYSTORE_PRIVATE_CACHE_SIZE = "keystore.private.cache.size";
 
     /*
      * TrustStore configuration types
@@ -115,10 +127,43 @@ public class Merlin extends CryptoBase {
      * CRL configuration
      */
     public static final String X509_CRL_FILE = "x509crl.file";
+    /*
+     * Whether to check revocation against an index of the CRLs built when they are loaded, instead
+     * of the revocation checking of the PKIX CertPathValidator. The default is "false".
+     */
+    public static final String X509_CRL_INDEX = "x509crl.index";
+
+    /*
+     * Trust decision cache configuration
+     */
+    public static final String TRUST_CACHE_SIZE = "trust.cache.size";
+    public static final String TRUST_CACHE_TTL = "trust.cache.ttl";
+
+    /*
+     * The number of threads to use to validate several candidate issuing chains concurrently.
+     * Candidate chains are validated one after another if this is not set.
+     */
+    public static final String TRUST_VERIFY_THREADS = "trust.verify.threads";
 
     private static final org.slf4j.Logger LOG =
         org.slf4j.LoggerFactory.getLogger(Merlin.class);
     private static final String COMMA_SEPARATOR = ",";
+    private static final Map<Integer, ExecutorService> SHARED_TRUST_VERIFICATION_EXECUTORS =
+        new ConcurrentHashMap<>();
+    private static final ClassValue<Boolean> CREATE_PKIX_PARAMETERS_OVERRIDDEN = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            for (Class<?> c = type; c != null && c != Merlin.class; c = c.getSuperclass()) {
+                for (java.lang.reflect.Method method : c.getDeclaredMethods()) {
+                    if ("createPKIXParameters".equals(method.getName())
+                        && Arrays.equals(method.getParameterTypes(), new Class<?>[] {Set.class, boolean.class})) {
+                        return Boolean.TRUE;
+                    }
+                }
+            }
+            return Boolean.FALSE;
+        }
+    };
 
     protected Properties properties;
     protected KeyStore keystore;
@@ -129,6 +174,17 @@ public class Merlin extends CryptoBase {
     protected PasswordEncryptor passwordEncryptor;
 
     private boolean certProviderHandlesNameConstraints = false;
+    private volatile KeyStoreIndex keystoreIndex;
+    private volatile KeyStoreIndex truststoreIndex;
+    private volatile TrustAnchorCache trustAnchorCache;
+    private volatile CertificateTrustCache certificateTrustCache;
+    private volatile PrivateKeyCache privateKeyCache;
+    private volatile ExecutorService trustVerificationExecutor;
+    private volatile boolean crlIndexEnabled;
+    private volatile CRLIndex crlIndex;
+    private final boolean createPKIXParametersOverridden = CREATE_PKIX_PARAMETERS_OVERRIDDEN.get(getClass());
+    private final ThreadLocal<Map<String, CertPathValidator>> certPathValidators =
+        ThreadLocal.withInitial(HashMap::new);
 
     public Merlin() {
         // default constructor
@@ -335,6 +391,82 @@ public class Merlin extends CryptoBase {
             }
             LOG.debug("The CRL files {} have been loaded", crlLocations);
         }
+
+        loadCacheProperties(prefix);
+        loadTrustVerificationProperties(prefix);
+
+        String crlIndexProperty = properties.getProperty(prefix + X509_CRL_INDEX);
+        if (crlIndexProperty != null) {
+            setCRLIndexEnabled(Boolean.parseBoolean(crlIndexProperty.trim()));
+        }
+        rebuildIndex();
+    }
+
+    /**
+     * Configure the private key and trust decision caches
+     */
+    private void loadCacheProperties(String prefix) throws WSSecurityException {
+        String privateKeyCacheSize = properties.getProperty(prefix + KEYSTORE_PRIVATE_CACHE_SIZE);
+        if (privateKeyCacheSize != null && privateKeyCacheSize.trim().length() > 0) {
+            try {
+                int size = Integer.parseInt(privateKeyCacheSize.trim());
+                privateKeyCache = size > 0 ? new PrivateKeyCache(size) : null;
+            } catch (NumberFormatException e) {
+                LOG.debug(e.getMessage(), e);
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "empty",
+                                              new Object[] {"Invalid private key cache size"});
+            }
+        }
+
+        String trustCacheSize = properties.getProperty(prefix + TRUST_CACHE_SIZE);
+        if (trustCacheSize != null && trustCacheSize.trim().length() > 0) {
+            String trustCacheTTL = properties.getProperty(prefix + TRUST_CACHE_TTL);
+            try {
+                long ttl = CertificateTrustCache.DEFAULT_TTL;
+                if (trustCacheTTL != null && trustCacheTTL.trim().length() > 0) {
+                    ttl = Long.parseLong(trustCacheTTL.trim());
+                }
+                certificateTrustCache = new CertificateTrustCache(Integer.parseInt(trustCacheSize.trim()), ttl);
+            } catch (IllegalArgumentException e) {
+                LOG.debug(e.getMessage(), e);
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "empty",
+                                              new Object[] {"Invalid trust cache configuration"});
+            }
+            LOG.debug("The trust decision cache has been enabled with a size of {}", trustCacheSize);
+        }
+    }
+
+    private void loadTrustVerificationProperties(String prefix) throws WSSecurityException {
+        String trustVerifyThreads = properties.getProperty(prefix + TRUST_VERIFY_THREADS);
+        if (trustVerifyThreads != null && trustVerifyThreads.trim().length() > 0) {
+            int threads = 0;
+            try {
+                threads = Integer.parseInt(trustVerifyThreads.trim());
+            } catch (NumberFormatException e) {
+                LOG.debug(e.getMessage(), e);
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "empty",
+                                              new Object[] {"Invalid number of trust verification threads"});
+            }
+            if (threads > 0) {
+                // The executors are shared by all Merlin instances with the same number of threads, so
+                // that replacing or discarding a Merlin instance does not leave an executor behind
+                trustVerificationExecutor =
+                    SHARED_TRUST_VERIFICATION_EXECUTORS.computeIfAbsent(threads, Merlin::createTrustVerificationExecutor);
+                LOG.debug("Candidate certificate chains will be validated using {} threads", threads);
+            }
+        }
+    }
+
+    private static ExecutorService createTrustVerificationExecutor(int threads) {
+        // Idle threads are released, so that an unused executor does not hold on to them
+        ThreadPoolExecutor executor =
+            new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread thread = new Thread(r, "wss4j-merlin-verify");
+                thread.setDaemon(true);
+                return thread;
+            });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     /**
@@ -393,6 +525,9 @@ public class Merlin extends CryptoBase {
      */
     public void setKeyStore(KeyStore keyStore) {
         keystore = keyStore;
+        keystoreIndex = null;
+        clearCertificateTrustCache();
+        clearPrivateKeyCache();
     }
 
     /**
@@ -411,6 +546,42 @@ public class Merlin extends CryptoBase {
      */
     public void setTrustStore(KeyStore trustStore) {
         truststore = trustStore;
+        truststoreIndex = null;
+        clearCertificateTrustCache();
+    }
+
+    /**
+     * Rebuild the in-memory index of the keystore and truststore entries that is used to look up
+     * certificates, public keys and aliases. The index is rebuilt automatically when a new
+     * keystore or truststore is set, or when the number of entries in a store changes. This
+     * method must be called explicitly if an existing entry of a loaded store is replaced.
+     *
+     * @throws WSSecurityException if a store cannot be read
+     */
+    public void rebuildIndex() throws WSSecurityException {
+        keystoreIndex = keystore != null ? new KeyStoreIndex(keystore, this) : null;
+        truststoreIndex = truststore != null ? new KeyStoreIndex(truststore, this) : null;
+        clearCertificateTrustCache();
+        clearPrivateKeyCache();
+    }
+
+    /**
+     * Get the index for the given store, (re)building it if it is missing or out of date.
+     */
+    private KeyStoreIndex getIndex(KeyStore store, boolean truststore) throws WSSecurityException {
+        KeyStoreIndex index = truststore ? truststoreIndex : keystoreIndex;
+        if (index == null || !index.isCurrent(store)) {
+            LOG.debug("Building the index of the {}", truststore ? "truststore" : "keystore");
+            index = new KeyStoreIndex(store, this);
+            if (truststore) {
+                truststoreIndex = index;
+            } else {
+                keystoreIndex = index;
+                clearPrivateKeyCache();
+            }
+            clearCertificateTrustCache();
+        }
+        return index;
     }
 
     /**
@@ -421,6 +592,48 @@ public class Merlin extends CryptoBase {
      */
     public void setCRLCertStore(CertStore crlCertStore) {
         this.crlCertStore = crlCertStore;
+        crlIndex = crlIndexEnabled ? buildCRLIndex(crlCertStore) : null;
+        clearCertificateTrustCache();
+    }
+
+    /**
+     * Set whether to check revocation against a {@link CRLIndex} of the CRLs of the CRL CertStore,
+     * instead of the revocation checking of the PKIX CertPathValidator. The index is built when
+     * this is enabled, and rebuilt every time the CRL CertStore is set. If the CRLs cannot be
+     * obtained from the CertStore, the revocation checking of the CertPathValidator is used.
+     * @param crlIndexEnabled whether to check revocation against an index of the CRLs
+     */
+    public void setCRLIndexEnabled(boolean crlIndexEnabled) {
+        this.crlIndexEnabled = crlIndexEnabled;
+        crlIndex = crlIndexEnabled ? buildCRLIndex(crlCertStore) : null;
+        // The PKIXParameters template depends on whether the index is used
+        trustAnchorCache = null;
+        clearCertificateTrustCache();
+    }
+
+    public boolean isCRLIndexEnabled() {
+        return crlIndexEnabled;
+    }
+
+    /**
+     * Get the index of the CRLs of the CRL CertStore, if revocation is checked against an index.
+     * @return the index of the CRLs, or null
+     */
+    public CRLIndex getCRLIndex() {
+        return crlIndex;
+    }
+
+    private static CRLIndex buildCRLIndex(CertStore crlCertStore) {
+        if (crlCertStore == null) {
+            return null;
+        }
+        try {
+            return new CRLIndex(crlCertStore.getCRLs(null));
+        } catch (CertStoreException e) {
+            // Fall back to the revocation checking of the CertPathValidator
+            LOG.warn("The CRLs could not be indexed: " + e.getMessage(), e);
+            return null;
+        }
     }
 
     /**
@@ -433,6 +646,80 @@ public class Merlin extends CryptoBase {
         return crlCertStore;
     }
 
+    /**
+     * Set the cache of positive trust decisions to use in
+     * {@link #verifyTrust(X509Certificate[], boolean, Collection, Collection)}. If the cache is
+     * null (the default) then every certificate chain is validated in full.
+     * @param certificateTrustCache the cache of trust decisions
+     */
+    public void setCertificateTrustCache(CertificateTrustCache certificateTrustCache) {
+        this.certificateTrustCache = certificateTrustCache;
+    }
+
+    /**
+     * Get the cache of positive trust decisions, if any.
+     * @return the cache of trust decisions
+     */
+    public CertificateTrustCache getCertificateTrustCache() {
+        return certificateTrustCache;
+    }
+
+    /**
+     * Set the ExecutorService to use to validate several candidate issuing chains of a certificate
+     * concurrently, in {@link #verifyTrust(X509Certificate[], boolean, Collection)}. The first chain
+     * that validates successfully is used, and the validation of the remaining chains is cancelled.
+     * If the ExecutorService is null (the default) then the candidate chains are validated one
+     * after another.
+     * @param trustVerificationExecutor the ExecutorService to validate candidate chains on
+     */
+    public void setTrustVerificationExecutor(ExecutorService trustVerificationExecutor) {
+        this.trustVerificationExecutor = trustVerificationExecutor;
+    }
+
+    /**
+     * Get the ExecutorService used to validate candidate issuing chains concurrently, if any.
+     * @return the ExecutorService used to validate candidate chains
+     */
+    public ExecutorService getTrustVerificationExecutor() {
+        return trustVerificationExecutor;
+    }
+
+    private void clearCertificateTrustCache() {
+        CertificateTrustCache cache = certificateTrustCache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Set the cache of private keys recovered from the keystore. If the cache is null, then
+     * every private key is recovered from the keystore on each call to getPrivateKey. There is no
+     * cache by default - it can also be enabled via the {@link #KEYSTORE_PRIVATE_CACHE_SIZE} property.
+     * @param privateKeyCache the cache of private keys
+     */
+    public void setPrivateKeyCache(PrivateKeyCache privateKeyCache) {
+        this.privateKeyCache = privateKeyCache;
+    }
+
+    /**
+     * Get the cache of private keys recovered from the keystore, if any.
+     * @return the cache of private keys
+     */
+    public PrivateKeyCache getPrivateKeyCache() {
+        return privateKeyCache;
+    }
+
+    /**
+     * Remove all private keys from the private key cache. This is done automatically when the
+     * keystore is changed.
+     */
+    public void clearPrivateKeyCache() {
+        PrivateKeyCache cache = privateKeyCache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
     /**
      * Singleton certificate factory for this Crypto instance.
      * <p/>
@@ -582,11 +869,11 @@ public class Merlin extends CryptoBase {
         String identifier = null;
 
         if (keystore != null) {
-            identifier = getIdentifier(cert, keystore);
+            identifier = getIdentifier(cert, keystore, false);
         }
 
         if (identifier == null && truststore != null) {
-            identifier = getIdentifier(cert, truststore);
+            identifier = getIdentifier(cert, truststore, true);
         }
 
         return identifier;
@@ -612,7 +899,7 @@ public class Merlin extends CryptoBase {
                                           new Object[] {"The CallbackHandler is null"});
         }
 
-        String identifier = getIdentifier(certificate, keystore);
+        String identifier = getIdentifier(certificate, keystore, false);
         if (identifier == null) {
             try {
                 String msg = "Cannot find key for certificate";
@@ -651,7 +938,7 @@ public class Merlin extends CryptoBase {
                                           new Object[] {"The CallbackHandler is null"});
         }
 
-        String identifier = getIdentifier(publicKey, keystore);
+        String identifier = getIdentifier(publicKey, keystore, false);
         if (identifier == null) {
             try {
                 String msg = "Cannot find key for corresponding public key";
@@ -704,6 +991,14 @@ public class Merlin extends CryptoBase {
                     pwd = decryptPassword(pwd, passwordEncryptor);
                 }
             }
+            PrivateKeyCache cache = privateKeyCache;
+            if (cache != null) {
+                PrivateKey cachedKey = cache.get(identifier, pwd);
+                if (cachedKey != null) {
+                    return cachedKey;
+                }
+            }
+
             Key keyTmp = keystore.getKey(identifier, pwd == null
                                          ? new char[]{} : pwd.toCharArray());
             if (!(keyTmp instanceof PrivateKey)) {
@@ -713,6 +1008,9 @@ public class Merlin extends CryptoBase {
                 throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, "empty",
                                               new Object[] {msg});
             }
+            if (cache != null) {
+                cache.put(identifier, pwd, (PrivateKey) keyTmp);
+            }
             return (PrivateKey) keyTmp;
         } catch (KeyStoreException | UnrecoverableKeyException | NoSuchAlgorithmException ex) {
             throw new WSSecurityException(
@@ -806,42 +1104,23 @@ public class Merlin extends CryptoBase {
         );
 
         try {
-            Set<TrustAnchor> set = new HashSet<>();
-            if (truststore != null) {
-                addTrustAnchors(set, truststore);
-            }
-
-            //
-            // Add certificates from the keystore - only if there is no TrustStore, apart from
-            // the case that the truststore is the JDK CA certs. This behaviour is preserved
-            // for backwards compatibility reasons
-            //
-            if (keystore != null && (truststore == null || loadCACerts)) {
-                addTrustAnchors(set, keystore);
-            }
-
-            // Verify the trust path using the above settings
-            String provider = getCryptoProvider();
-            CertPathValidator validator = null;
-            if (provider == null || provider.length() == 0) {
-                validator = CertPathValidator.getInstance("PKIX");
-            } else {
-                validator = CertPathValidator.getInstance("PKIX", provider);
-            }
-
-            PKIXParameters param = createPKIXParameters(set, enableRevocation);
+            // Verify the trust path using the cached trust anchors
+            CertPathValidator validator = getCertPathValidator();
+            PKIXParameters param = getPKIXParameters(enableRevocation);
 
             // Generate cert path
-            if (foundIssuingCertChains != null && !foundIssuingCertChains.isEmpty()) {
+            ExecutorService executor = trustVerificationExecutor;
+            if (foundIssuingCertChains != null && foundIssuingCertChains.size() > 1 && executor != null) {
+                List<CertPath> paths = new ArrayList<>(foundIssuingCertChains.size());
+                for (Certificate[] foundCertChain : foundIssuingCertChains) {
+                    paths.add(generateCertPath(certs[0], foundCertChain));
+                }
+                validateConcurrently(paths, param, executor);
+            } else if (foundIssuingCertChains != null && !foundIssuingCertChains.isEmpty()) {
                 java.security.cert.CertPathValidatorException validatorException = null;
                 // Try each potential issuing cert path for a match
                 for (Certificate[] foundCertChain : foundIssuingCertChains) {
-                    X509Certificate[] x509certs = new X509Certificate[foundCertChain.length + 1];
-                    x509certs[0] = certs[0];
-                    System.arraycopy(foundCertChain, 0, x509certs, 1, foundCertChain.length);
-
-                    List<X509Certificate> certList = Arrays.asList(x509certs);
-                    CertPath path = getCertificateFactory().generateCertPath(certList);
+                    CertPath path = generateCertPath(certs[0], foundCertChain);
 
                     try {
                         validator.validate(path, param);
@@ -877,21 +1156,179 @@ public class Merlin extends CryptoBase {
         }
     }
 
+    private CertPath generateCertPath(X509Certificate cert, Certificate[] issuingCertChain)
+        throws WSSecurityException, CertificateException {
+        X509Certificate[] x509certs = new X509Certificate[issuingCertChain.length + 1];
+        x509certs[0] = cert;
+        System.arraycopy(issuingCertChain, 0, x509certs, 1, issuingCertChain.length);
+
+        List<X509Certificate> certList = Arrays.asList(x509certs);
+        return getCertificateFactory().generateCertPath(certList);
+    }
+
+    /**
+     * Validate the candidate cert paths concurrently, returning as soon as one of them validates
+     * successfully. The validation of the remaining paths is then cancelled. If none of the paths
+     * validates, the exception of the last path to fail is thrown.
+     */
+    private void validateConcurrently(List<CertPath> paths, PKIXParameters param, ExecutorService executor)
+        throws java.security.cert.CertPathValidatorException, WSSecurityException {
+        CompletionService<CertPath> completionService = new ExecutorCompletionService<>(executor);
+        List<Future<CertPath>> futures = new ArrayList<>(paths.size());
+        try {
+            for (CertPath path : paths) {
+                // PKIXParameters is not thread-safe, so each task gets its own copy
+                final PKIXParameters taskParam = (PKIXParameters) param.clone();
+                futures.add(completionService.submit(() -> {
+                    getCertPathValidator().validate(path, taskParam);
+                    return path;
+                }));
+            }
+
+            java.security.cert.CertPathValidatorException validatorException = null;
+            for (int i = 0; i < paths.size(); i++) {
+                try {
+                    CertPath validPath = completionService.take().get();
+                    LOG.debug("Validated certificate path with {} certificates", validPath.getCertificates().size());
+                    return;
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof java.security.cert.CertPathValidatorException) {
+                        validatorException = (java.security.cert.CertPathValidatorException) e.getCause();
+                    } else {
+                        throw new WSSecurityException(
+                            WSSecurityException.ErrorCode.FAILURE, e, "certpath"
+                        );
+                    }
+                }
+            }
+            throw validatorException;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "certpath");
+        } catch (RejectedExecutionException e) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "certpath");
+        } finally {
+            for (Future<CertPath> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
     @Override
     public void verifyTrust(X509Certificate[] certs, boolean enableRevocation,
                             Collection<Pattern> subjectCertConstraints,
                             Collection<Pattern> issuerCertConstraints) throws WSSecurityException {
+        CertificateTrustCache cache = certificateTrustCache;
+        if (cache != null
+            && cache.isTrusted(certs, enableRevocation, subjectCertConstraints, issuerCertConstraints)) {
+            LOG.debug(
+                "Cached trust for certificate with {}", certs[0].getSubjectX500Principal().getName()
+            );
+            return;
+        }
+
         verifyTrust(certs, enableRevocation, subjectCertConstraints);
         if (!matchesIssuerDnPattern(certs[0], issuerCertConstraints)) {
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_AUTHENTICATION);
         }
+
+        if (cache != null) {
+            cache.addTrusted(certs, enableRevocation, subjectCertConstraints, issuerCertConstraints);
+        }
+    }
+
+    /**
+     * Get the PKIXParameters to use to validate a certificate path. The trust anchors are
+     * built once from the truststore and keystore, and a PKIXParameters template is created
+     * from them via {@link #createPKIXParameters(Set, boolean)}. The template is rebuilt when
+     * the keystore, truststore or CRL CertStore changes. A copy of the template is returned,
+     * so the caller is free to modify it.
+     *
+     * If a subclass overrides {@link #createPKIXParameters(Set, boolean)}, then no template is
+     * cached and the override is called for every verification with the cached trust anchors,
+     * so that an override that depends on per-call state is honoured.
+     *
+     * @param enableRevocation whether to enable CRL verification or not
+     * @return a copy of the cached PKIXParameters template
+     */
+    protected PKIXParameters getPKIXParameters(boolean enableRevocation)
+        throws WSSecurityException, KeyStoreException, InvalidAlgorithmParameterException {
+        KeyStoreIndex ksIndex = keystore != null ? getIndex(keystore, false) : null;
+        KeyStoreIndex tsIndex = truststore != null ? getIndex(truststore, true) : null;
+
+        TrustAnchorCache cache = trustAnchorCache;
+        if (cache == null || !cache.isCurrent(ksIndex, tsIndex, crlCertStore, loadCACerts)) {
+            LOG.debug("Building the trust anchors from the truststore/keystore");
+            Set<TrustAnchor> set = new HashSet<>();
+            if (truststore != null) {
+                addTrustAnchors(set, truststore);
+            }
+
+            //
+            // Add certificates from the keystore - only if there is no TrustStore, apart from
+            // the case that the truststore is the JDK CA certs. This behaviour is preserved
+            // for backwards compatibility reasons
+            //
+            if (keystore != null && (truststore == null || loadCACerts)) {
+                addTrustAnchors(set, keystore);
+            }
+
+            if (createPKIXParametersOverridden) {
+                cache = new TrustAnchorCache(ksIndex, tsIndex, crlCertStore, loadCACerts, set, null, null);
+            } else {
+                cache = new TrustAnchorCache(ksIndex, tsIndex, crlCertStore, loadCACerts, set,
+                                             createPKIXParameters(set, false),
+                                             createPKIXParameters(set, true));
+            }
+            trustAnchorCache = cache;
+        }
+
+        if (createPKIXParametersOverridden) {
+            return createPKIXParameters(cache.trustAnchors, enableRevocation);
+        }
+        return (PKIXParameters) cache.getParameters(enableRevocation).clone();
+    }
+
+    /**
+     * Get a "PKIX" CertPathValidator for the configured crypto provider. CertPathValidator
+     * instances are not guaranteed to be thread-safe, so an instance is cached per thread.
+     *
+     * @return a CertPathValidator for the current thread
+     */
+    protected CertPathValidator getCertPathValidator()
+        throws NoSuchAlgorithmException, NoSuchProviderException {
+        String provider = getCryptoProvider();
+        if (provider == null) {
+            provider = "";
+        }
+        Map<String, CertPathValidator> validators = certPathValidators.get();
+        CertPathValidator validator = validators.get(provider);
+        if (validator == null) {
+            if (provider.length() == 0) {
+                validator = CertPathValidator.getInstance("PKIX");
+            } else {
+                validator = CertPathValidator.getInstance("PKIX", provider);
+            }
+            validators.put(provider, validator);
+        }
+        return validator;
     }
 
-    // Separated out to allow subclasses to override it
+    /**
+     * Create the PKIXParameters to validate a certificate path with. Separated out to allow subclasses
+     * to override it. The result of this implementation is cached as a template by
+     * {@link #getPKIXParameters(boolean)}, whereas an override is called for every verification.
+     */
     protected PKIXParameters createPKIXParameters(
         Set<TrustAnchor> trustAnchors, boolean enableRevocation
     ) throws InvalidAlgorithmParameterException {
         PKIXParameters param = new PKIXParameters(trustAnchors);
+        CRLIndex index = crlIndex;
+        if (enableRevocation && index != null) {
+            param.setRevocationEnabled(false);
+            param.addCertPathChecker(new CRLRevocationChecker(index, trustAnchors));
+            return param;
+        }
         param.setRevocationEnabled(enableRevocation);
         if (enableRevocation && crlCertStore != null) {
             param.addCertStore(crlCertStore);
@@ -986,36 +1423,10 @@ public class Merlin extends CryptoBase {
             keystore = "truststore";
         }
         LOG.debug("Searching {} for cert with issuer {} and serial {}", keystore, issuerRDN, serialNumber);
-        try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a result.
-                    Certificate cert = store.getCertificate(alias);
-                    if (cert != null) {
-                        certs = new Certificate[]{cert};
-                    }
-                }
-
-                if (certs != null && certs.length > 0 && certs[0] instanceof X509Certificate) {
-                    X509Certificate x509cert = (X509Certificate) certs[0];
-                    LOG.debug("Keystore alias {} has issuer {} and serial {}", alias,
-                              x509cert.getIssuerX500Principal().getName(), x509cert.getSerialNumber());
-                    if (x509cert.getSerialNumber().compareTo(serialNumber) == 0) {
-                        Object certName =
-                            createBCX509Name(x509cert.getIssuerX500Principal().getName());
-                        if (certName.equals(issuerRDN)) {
-                            LOG.debug("Issuer Serial match found using keystore alias {}", alias);
-                            return certs;
-                        }
-                    }
-                }
-            }
-        } catch (KeyStoreException e) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.FAILURE, e, "keystore"
-            );
+        Certificate[] certs = getIndex(store, truststore).getCertificates(issuerRDN, serialNumber);
+        if (certs != null) {
+            LOG.debug("Issuer Serial match found in {}", keystore);
+            return certs;
         }
 
         LOG.debug("No issuer serial match found in {}", keystore);
@@ -1030,23 +1441,14 @@ public class Merlin extends CryptoBase {
      * @throws WSSecurityException if problems during keystore handling or wrong certificate
      */
     private X509Certificate[] getX509Certificates(byte[] thumbprint) throws WSSecurityException {
-        MessageDigest sha = null;
-
-        try {
-            sha = MessageDigest.getInstance("SHA1");
-        } catch (NoSuchAlgorithmException e) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.FAILURE, e, "decoding.general"
-            );
-        }
         Certificate[] certs = null;
         if (keystore != null) {
-            certs = getCertificates(thumbprint, keystore, sha, false);
+            certs = getCertificatesByThumbprint(thumbprint, keystore, false);
         }
 
         //If we can't find the issuer in the keystore then look at the truststore
         if ((certs == null || certs.length == 0) && truststore != null) {
-            certs = getCertificates(thumbprint, truststore, sha, true);
+            certs = getCertificatesByThumbprint(thumbprint, truststore, true);
         }
 
         if (certs == null || certs.length == 0) {
@@ -1063,10 +1465,9 @@ public class Merlin extends CryptoBase {
      * @return an X509 Certificate (chain)
      * @throws WSSecurityException
      */
-    private Certificate[] getCertificates(
+    private Certificate[] getCertificatesByThumbprint(
         byte[] thumbprint,
         KeyStore store,
-        MessageDigest sha,
         boolean truststore
     ) throws WSSecurityException {
         String keystore = "keystore";
@@ -1074,39 +1475,10 @@ public class Merlin extends CryptoBase {
             keystore = "truststore";
         }
         LOG.debug("Searching {} for cert using a SHA-1 thumbprint", keystore);
-        try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a result.
-                    Certificate cert = store.getCertificate(alias);
-                    if (cert != null) {
-                        certs = new Certificate[]{cert};
-                    }
-                }
-
-                if (certs != null && certs.length > 0 && certs[0] instanceof X509Certificate) {
-                    X509Certificate x509cert = (X509Certificate) certs[0];
-                    try {
-                        sha.update(x509cert.getEncoded());
-                    } catch (CertificateEncodingException ex) {
-                        throw new WSSecurityException(
-                            WSSecurityException.ErrorCode.SECURITY_TOKEN_UNAVAILABLE, ex, "encodeError"
-                        );
-                    }
-                    byte[] data = sha.digest();
-
-                    if (Arrays.equals(data, thumbprint)) {
-                        LOG.debug("Thumbprint match found using keystore alias {}", alias);
-                        return certs;
-                    }
-                }
-            }
-        } catch (KeyStoreException e) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.FAILURE, e, "keystore"
-            );
+        Certificate[] certs = getIndex(store, truststore).getCertificatesByThumbprint(thumbprint);
+        if (certs != null) {
+            LOG.debug("Thumbprint match found in {}", keystore);
+            return certs;
         }
 
         LOG.debug("No thumbprint match found in {}", keystore);
@@ -1154,31 +1526,10 @@ public class Merlin extends CryptoBase {
             keystore = "truststore";
         }
         LOG.debug("Searching {} for cert using Subject Key Identifier bytes", keystore);
-        try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a result.
-                    Certificate cert = store.getCertificate(alias);
-                    if (cert != null) {
-                        certs = new Certificate[]{cert};
-                    }
-                }
-
-                if (certs != null && certs.length > 0 && certs[0] instanceof X509Certificate) {
-                    X509Certificate x509cert = (X509Certificate) certs[0];
-                    byte[] data = getSKIBytesFromCert(x509cert);
-                    if (data.length == skiBytes.length && Arrays.equals(data, skiBytes)) {
-                        LOG.debug("SKI match found using keystore alias {}", alias);
-                        return certs;
-                    }
-                }
-            }
-        } catch (KeyStoreException e) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.FAILURE, e, "keystore"
-            );
+        Certificate[] certs = getIndex(store, truststore).getCertificatesBySKI(skiBytes);
+        if (certs != null) {
+            LOG.debug("SKI match found in {}", keystore);
+            return certs;
         }
 
         LOG.debug("No SKI match found in {}", keystore);
@@ -1289,24 +1640,12 @@ public class Merlin extends CryptoBase {
         }
         LOG.debug("Searching {} for public key {}", keystore, publicKey);
         try {
-            for (Enumeration<String> e = keyStoreToSearch.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-                Certificate[] certs = keyStoreToSearch.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a result.
-                    Certificate cert = keyStoreToSearch.getCertificate(alias);
-                    if (cert != null) {
-                        certs = new Certificate[]{cert};
-                    }
-                }
-
-                if (certs != null && certs.length > 0 && certs[0] instanceof X509Certificate
-                    && publicKey.equals(((X509Certificate)certs[0]).getPublicKey())) {
-                    LOG.debug("PublicKey match found using keystore alias {}", alias);
-                    return true;
-                }
+            String alias = getIndex(keyStoreToSearch, truststore).getAlias(publicKey);
+            if (alias != null) {
+                LOG.debug("PublicKey match found using keystore alias {}", alias);
+                return true;
             }
-        } catch (KeyStoreException e) {
+        } catch (WSSecurityException e) {
             return false;
         }
 
@@ -1329,33 +1668,7 @@ public class Merlin extends CryptoBase {
             keystore = "truststore";
         }
         LOG.debug("Searching {} for cert with Subject {}", keystore, subjectRDN);
-        List<Certificate[]> foundCerts = new ArrayList<>();
-        try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a result.
-                    Certificate cert = store.getCertificate(alias);
-                    if (cert != null) {
-                        certs = new Certificate[]{cert};
-                    }
-                }
-                if (certs != null && certs.length > 0 && certs[0] instanceof X509Certificate) {
-                    X500Principal foundRDN = ((X509Certificate)certs[0]).getSubjectX500Principal();
-                    Object certName = createBCX509Name(foundRDN.getName());
-
-                    if (subjectRDN.equals(certName)) {
-                        LOG.debug("Subject certificate match found using keystore alias {}", alias);
-                        foundCerts.add(certs);
-                    }
-                }
-            }
-        } catch (KeyStoreException e) {
-            throw new WSSecurityException(
-                WSSecurityException.ErrorCode.FAILURE, e, "keystore"
-            );
-        }
+        List<Certificate[]> foundCerts = getIndex(store, truststore).getCertificatesBySubject(subjectRDN);
 
         if (foundCerts.isEmpty()) {
             LOG.debug("No Subject match found in {}", keystore);
@@ -1424,54 +1737,14 @@ public class Merlin extends CryptoBase {
      * @param store The KeyStore to search
      * @return An implementation-specific identifier that corresponds to the X509Certificate
      */
-    private String getIdentifier(X509Certificate cert, KeyStore store)
+    private String getIdentifier(X509Certificate cert, KeyStore store, boolean truststore)
         throws WSSecurityException {
-        try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a  result.
-                    Certificate retrievedCert = store.getCertificate(alias);
-                    if (retrievedCert != null) {
-                        certs = new Certificate[]{retrievedCert};
-                    }
-                }
-
-                if (certs != null && certs.length > 0 && certs[0].equals(cert)) {
-                    return alias;
-                }
-            }
-        } catch (KeyStoreException e) {
-            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "keystore");
-        }
-        return null;
+        return getIndex(store, truststore).getAlias(cert);
     }
 
-    private String getIdentifier(PublicKey publicKey, KeyStore store)
+    private String getIdentifier(PublicKey publicKey, KeyStore store, boolean truststore)
         throws WSSecurityException {
-        try {
-            for (Enumeration<String> e = store.aliases(); e.hasMoreElements();) {
-                String alias = e.nextElement();
-
-                Certificate[] certs = store.getCertificateChain(alias);
-                if (certs == null || certs.length == 0) {
-                    // no cert chain, so lets check if getCertificate gives us a  result.
-                    Certificate retrievedCert = store.getCertificate(alias);
-                    if (retrievedCert != null) {
-                        certs = new Certificate[]{retrievedCert};
-                    }
-                }
-
-                if (certs != null && certs.length > 0 && certs[0].getPublicKey().equals(publicKey)) {
-                    return alias;
-                }
-            }
-        } catch (KeyStoreException e) {
-            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "keystore");
-        }
-        return null;
+        return getIndex(store, truststore).getAlias(publicKey);
     }
 
     /**
@@ -1519,4 +1792,40 @@ public class Merlin extends CryptoBase {
     public void setPasswordEncryptor(PasswordEncryptor passwordEncryptor) {
         this.passwordEncryptor = passwordEncryptor;
     }
+
+    /**
+     * The trust anchors and PKIXParameters templates built from a given state of the keystore,
+     * truststore and CRL CertStore.
+     */
+    private static final class TrustAnchorCache {
+        private final KeyStoreIndex keystoreIndex;
+        private final KeyStoreIndex truststoreIndex;
+        private final CertStore crlCertStore;
+        private final boolean loadCACerts;
+        private final Set<TrustAnchor> trustAnchors;
+        private final PKIXParameters parameters;
+        private final PKIXParameters revocationParameters;
+
+        TrustAnchorCache(KeyStoreIndex keystoreIndex, KeyStoreIndex truststoreIndex,
+                         CertStore crlCertStore, boolean loadCACerts, Set<TrustAnchor> trustAnchors,
+                         PKIXParameters parameters, PKIXParameters revocationParameters) {
+            this.keystoreIndex = keystoreIndex;
+            this.truststoreIndex = truststoreIndex;
+            this.crlCertStore = crlCertStore;
+            this.loadCACerts = loadCACerts;
+            this.trustAnchors = trustAnchors;
+            this.parameters = parameters;
+            this.revocationParameters = revocationParameters;
+        }
+
+        boolean isCurrent(KeyStoreIndex currentKeystoreIndex, KeyStoreIndex currentTruststoreIndex,
+                          CertStore currentCrlCertStore, boolean currentLoadCACerts) {
+            return keystoreIndex == currentKeystoreIndex && truststoreIndex == currentTruststoreIndex
+                && crlCertStore == currentCrlCertStore && loadCACerts == currentLoadCACerts;
+        }
+
+        PKIXParameters getParameters(boolean enableRevocation) {
+            return enableRevocation ? revocationParameters : parameters;
+        }
+    }
 }
@@ -34,15 +34,12 @@ import java.security.cert.CertificateException;
 import java.security.cert.CertificateExpiredException;
 import java.security.cert.CertificateNotYetValidException;
 import java.security.cert.PKIXParameters;
-import java.security.cert.TrustAnchor;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Enumeration;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
-import java.util.Set;
 import java.util.regex.Pattern;
 
 import org.apache.wss4j.common.ext.WSSecurityException;
@@ -166,30 +163,9 @@ public class MerlinAKI extends Merlin {
             List<X509Certificate> certList = Arrays.asList(x509certs);
             CertPath path = getCertificateFactory().generateCertPath(certList);
 
-            Set<TrustAnchor> set = new HashSet<>();
-            if (truststore != null) {
-                addTrustAnchors(set, truststore);
-            }
-
-            //
-            // Add certificates from the keystore - only if there is no TrustStore, apart from
-            // the case that the truststore is the JDK CA certs. This behaviour is preserved
-            // for backwards compatibility reasons
-            //
-            if (keystore != null && (truststore == null || loadCACerts)) {
-                addTrustAnchors(set, keystore);
-            }
-
-            // Verify the trust path using the above settings
-            String provider = getCryptoProvider();
-            CertPathValidator validator = null;
-            if (provider == null || provider.length() == 0) {
-                validator = CertPathValidator.getInstance("PKIX");
-            } else {
-                validator = CertPathValidator.getInstance("PKIX", provider);
-            }
-
-            PKIXParameters param = createPKIXParameters(set, enableRevocation);
+            // Verify the trust path using the cached trust anchors
+            CertPathValidator validator = getCertPathValidator();
+            PKIXParameters param = getPKIXParameters(enableRevocation);
             validator.validate(path, param);
         } catch (NoSuchProviderException | NoSuchAlgorithmException
             | CertificateException | InvalidAlgorithmParameterException
@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.xml.security.exceptions.XMLSecurityException;
+import org.apache.xml.security.stax.ext.XMLSecurityConstants;
+
+/**
+ * A bounded, in-memory cache of the private keys that have been recovered from a KeyStore, keyed
+ * by alias. Recovering a key from a PKCS12 or JCEKS KeyStore involves an expensive password-based
+ * decryption, which this cache avoids for repeated use of the same key.
+ *
+ * A cached key is only returned if the password that is supplied matches the password that was
+ * used to recover it. Passwords are not stored - only a salted SHA-256 digest of each password is
+ * kept, using a random salt per cache instance.
+ */
+public class PrivateKeyCache {
+
+    public static final int DEFAULT_MAX_SIZE = 100;
+
+    private final Map<String, CachedKey> cache = new ConcurrentHashMap<>();
+    private final int maxSize;
+    private final byte[] salt;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+
+    public PrivateKeyCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize the maximum number of private keys to cache
+     */
+    public PrivateKeyCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("The maximum size must be greater than zero");
+        }
+        this.maxSize = maxSize;
+        try {
+            this.salt = XMLSecurityConstants.generateBytes(16);
+        } catch (XMLSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Get the cached private key for the given alias, if the given password matches the password
+     * it was recovered with.
+     *
+     * @param alias the KeyStore alias of the key
+     * @param password the password of the key
+     * @return the cached private key, or null if no key is cached for the alias and password
+     */
+    public PrivateKey get(String alias, String password) throws WSSecurityException {
+        CachedKey cachedKey = cache.get(alias);
+        if (cachedKey != null
+            && MessageDigest.isEqual(cachedKey.passwordDigest, digest(password))) {
+            hits.incrementAndGet();
+            return cachedKey.privateKey;
+        }
+        return null;
+    }
+
+    /**
+     * Add a private key that has just been recovered from the KeyStore with the given password.
+     *
+     * @param alias the KeyStore alias of the key
+     * @param password the password of the key
+     * @param privateKey the recovered private key
+     */
+    public void put(String alias, String password, PrivateKey privateKey) throws WSSecurityException {
+        loads.incrementAndGet();
+        if (cache.size() >= maxSize && !cache.containsKey(alias)) {
+            Iterator<String> iterator = cache.keySet().iterator();
+            while (cache.size() >= maxSize && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        cache.put(alias, new CachedKey(digest(password), privateKey));
+    }
+
+    /**
+     * Remove all cached private keys.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * @return the number of times a private key was served from this cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of times a private key had to be recovered from the KeyStore
+     */
+    public long getLoadCount() {
+        return loads.get();
+    }
+
+    private byte[] digest(String password) throws WSSecurityException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(salt);
+            if (password != null) {
+                digest.update(password.getBytes(StandardCharsets.UTF_8));
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.FAILURE, e, "decoding.general"
+            );
+        }
+    }
+
+    private static final class CachedKey {
+        private final byte[] passwordDigest;
+        private final PrivateKey privateKey;
+
+        CachedKey(byte[] passwordDigest, PrivateKey privateKey) {
+            this.passwordDigest = passwordDigest;
+            this.privateKey = privateKey;
+        }
+    }
+}
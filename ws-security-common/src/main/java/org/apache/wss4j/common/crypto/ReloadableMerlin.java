@@ -0,0 +1,481 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.CertStore;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import javax.security.auth.callback.CallbackHandler;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.Loader;
+
+/**
+ * A Merlin implementation that reloads its keystore, truststore and CRL files when they change.
+ * The configured files are polled in the background at a configurable interval (see
+ * {@link #RELOAD_INTERVAL}). When a change is detected, a new Merlin instance is loaded from the
+ * same properties, and then published atomically. Each operation on this Crypto instance is
+ * delegated to the Merlin instance that is current when the operation starts, so an operation
+ * never blocks on a reload and never sees a partially loaded store. If the new material cannot be
+ * loaded, the current instance is kept.
+ *
+ * Only files that are on the file system (either directly or via a "file" URL or classpath
+ * resource) are watched. Caches that are attached to the loaded material, such as the trust
+ * decision and private key caches, are recreated with each reload.
+ *
+ * The setters of this class are applied to the current Merlin instance, and are re-applied to
+ * each reloaded instance before it is published. In particular, a keystore, truststore or CRL
+ * CertStore that is set directly replaces the corresponding file-based material for good. A
+ * cache that is set directly is kept across reloads, but is cleared with each reload.
+ */
+public class ReloadableMerlin extends Merlin implements Closeable {
+
+    /*
+     * The interval in seconds at which to check the configured files for changes. A value of
+     * zero or less disables polling. The default is 60 seconds.
+     */
+    public static final String RELOAD_INTERVAL = "reload.interval";
+    public static final long DEFAULT_RELOAD_INTERVAL = 60L;
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(ReloadableMerlin.class);
+
+    private static final ScheduledExecutorService RELOAD_EXECUTOR =
+        Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "wss4j-merlin-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    private volatile Merlin current;
+    private ClassLoader loader;
+    private List<Path> watchedFiles = new ArrayList<>();
+    private List<String> fileStates = new ArrayList<>();
+    private ScheduledFuture<?> reloadTask;
+    private final Map<String, Consumer<Merlin>> settings = new LinkedHashMap<>();
+
+    public ReloadableMerlin(Properties properties, ClassLoader loader, PasswordEncryptor passwordEncryptor)
+        throws WSSecurityException, IOException {
+        super();
+        loadProperties(properties, loader, passwordEncryptor);
+    }
+
+    @Override
+    public synchronized void loadProperties(
+        Properties properties,
+        ClassLoader loader,
+        PasswordEncryptor passwordEncryptor
+    ) throws WSSecurityException, IOException {
+        if (properties == null) {
+            return;
+        }
+        this.properties = properties;
+        this.loader = loader;
+        this.passwordEncryptor = passwordEncryptor;
+
+        watchedFiles = new ArrayList<>();
+        addWatchedFile(getProperty(KEYSTORE_FILE));
+        addWatchedFile(getProperty(OLD_KEYSTORE_FILE));
+        addWatchedFile(getProperty(TRUSTSTORE_FILE));
+        String crlLocations = getProperty(X509_CRL_FILE);
+        if (crlLocations != null) {
+            for (String crlLocation : crlLocations.split(",")) {
+                addWatchedFile(crlLocation);
+            }
+        }
+
+        fileStates = getFileStates();
+        current = loadMerlin();
+
+        long interval = DEFAULT_RELOAD_INTERVAL;
+        String reloadInterval = getProperty(RELOAD_INTERVAL);
+        if (reloadInterval != null && reloadInterval.trim().length() > 0) {
+            try {
+                interval = Long.parseLong(reloadInterval.trim());
+            } catch (NumberFormatException e) {
+                LOG.debug(e.getMessage(), e);
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "empty",
+                                              new Object[] {"Invalid reload interval: " + reloadInterval});
+            }
+        }
+
+        if (reloadTask != null) {
+            reloadTask.cancel(false);
+            reloadTask = null;
+        }
+        if (interval > 0 && !watchedFiles.isEmpty()) {
+            reloadTask =
+                RELOAD_EXECUTOR.scheduleWithFixedDelay(this::checkForChanges, interval, interval, TimeUnit.SECONDS);
+            LOG.debug("Checking {} for changes every {} seconds", watchedFiles, interval);
+        }
+    }
+
+    /**
+     * Reload the keystore, truststore and CRL files now, whether they have changed or not.
+     * The current material is kept if the new material cannot be loaded.
+     *
+     * @throws WSSecurityException if the new material cannot be loaded
+     */
+    public synchronized void reload() throws WSSecurityException {
+        List<String> newFileStates = getFileStates();
+        current = loadMerlin();
+        fileStates = newFileStates;
+        LOG.debug("The keystore, truststore and CRL files have been reloaded");
+    }
+
+    /**
+     * Stop checking the configured files for changes.
+     */
+    @Override
+    public synchronized void close() {
+        if (reloadTask != null) {
+            reloadTask.cancel(false);
+            reloadTask = null;
+        }
+    }
+
+    private synchronized void checkForChanges() {
+        try {
+            if (!fileStates.equals(getFileStates())) {
+                reload();
+            }
+        } catch (Exception e) {
+            LOG.warn("The keystore, truststore or CRL files could not be reloaded: " + e.getMessage(), e);
+        }
+    }
+
+    private Merlin loadMerlin() throws WSSecurityException {
+        Merlin merlin = null;
+        try {
+            merlin = new Merlin(properties, loader, passwordEncryptor);
+        } catch (IOException e) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "ioError00");
+        }
+
+        // Re-apply anything that has been set directly on this instance
+        for (Consumer<Merlin> setting : settings.values()) {
+            setting.accept(merlin);
+        }
+
+        // Build the trust anchors before the new material is published
+        if (merlin.getKeyStore() != null || merlin.getTrustStore() != null) {
+            try {
+                merlin.getPKIXParameters(false);
+            } catch (KeyStoreException | InvalidAlgorithmParameterException e) {
+                // e.g. no trust anchors are available - this is reported when validating
+                LOG.debug(e.getMessage(), e);
+            }
+        }
+        return merlin;
+    }
+
+    private String getProperty(String key) {
+        String value = properties.getProperty(PREFIX + key);
+        if (value == null) {
+            value = properties.getProperty(OLD_PREFIX + key);
+        }
+        return value;
+    }
+
+    private void addWatchedFile(String location) {
+        if (location == null || location.trim().length() == 0) {
+            return;
+        }
+        String trimmedLocation = location.trim();
+        Path path = null;
+        try {
+            URL url = null;
+            try {
+                url = new URL(trimmedLocation);
+            } catch (MalformedURLException ex) { //NOPMD
+                // skip
+            }
+            if (url == null) {
+                url = Loader.getResource(loader, trimmedLocation);
+            }
+            if (url != null) {
+                if ("file".equals(url.getProtocol())) {
+                    path = Paths.get(url.toURI());
+                }
+            } else {
+                path = Paths.get(trimmedLocation);
+            }
+        } catch (java.net.URISyntaxException | IllegalArgumentException e) {
+            LOG.debug(e.getMessage(), e);
+        }
+
+        if (path == null) {
+            LOG.debug("{} is not on the file system and will not be checked for changes", trimmedLocation);
+        } else {
+            watchedFiles.add(path);
+        }
+    }
+
+    private List<String> getFileStates() {
+        List<String> states = new ArrayList<>(watchedFiles.size());
+        for (Path path : watchedFiles) {
+            try {
+                states.add(Files.getLastModifiedTime(path).toMillis() + ":" + Files.size(path));
+            } catch (IOException e) {
+                states.add("missing");
+            }
+        }
+        return states;
+    }
+
+    /**
+     * Apply a setting to the current Merlin instance, and remember it so that it is re-applied to
+     * each reloaded instance. A later setting with the same name replaces an earlier one.
+     */
+    private synchronized void applySetting(String name, Consumer<Merlin> setting) {
+        settings.put(name, setting);
+        setting.accept(current);
+    }
+
+    /**
+     * @return the Merlin instance holding the currently loaded material
+     */
+    protected Merlin getCurrent() {
+        return current;
+    }
+
+    //
+    // Delegate all operations that depend on the loaded material to the current instance
+    //
+
+    @Override
+    public KeyStore getKeyStore() {
+        return current.getKeyStore();
+    }
+
+    @Override
+    public void setKeyStore(KeyStore keyStore) {
+        applySetting("keyStore", merlin -> merlin.setKeyStore(keyStore));
+    }
+
+    @Override
+    public KeyStore getTrustStore() {
+        return current.getTrustStore();
+    }
+
+    @Override
+    public void setTrustStore(KeyStore trustStore) {
+        applySetting("trustStore", merlin -> merlin.setTrustStore(trustStore));
+    }
+
+    @Override
+    public CertStore getCRLCertStore() {
+        return current.getCRLCertStore();
+    }
+
+    @Override
+    public void setCRLCertStore(CertStore crlCertStore) {
+        applySetting("crlCertStore", merlin -> merlin.setCRLCertStore(crlCertStore));
+    }
+
+    @Override
+    public void setCRLIndexEnabled(boolean crlIndexEnabled) {
+        applySetting("crlIndexEnabled", merlin -> merlin.setCRLIndexEnabled(crlIndexEnabled));
+    }
+
+    @Override
+    public boolean isCRLIndexEnabled() {
+        return current.isCRLIndexEnabled();
+    }
+
+    @Override
+    public CRLIndex getCRLIndex() {
+        return current.getCRLIndex();
+    }
+
+    @Override
+    public void rebuildIndex() throws WSSecurityException {
+        current.rebuildIndex();
+    }
+
+    @Override
+    public void setCertificateTrustCache(CertificateTrustCache certificateTrustCache) {
+        applySetting("certificateTrustCache", merlin -> {
+            if (certificateTrustCache != null) {
+                certificateTrustCache.clear();
+            }
+            merlin.setCertificateTrustCache(certificateTrustCache);
+        });
+    }
+
+    @Override
+    public CertificateTrustCache getCertificateTrustCache() {
+        return current.getCertificateTrustCache();
+    }
+
+    @Override
+    public void setPrivateKeyCache(PrivateKeyCache privateKeyCache) {
+        applySetting("privateKeyCache", merlin -> {
+            if (privateKeyCache != null) {
+                privateKeyCache.clear();
+            }
+            merlin.setPrivateKeyCache(privateKeyCache);
+        });
+    }
+
+    @Override
+    public PrivateKeyCache getPrivateKeyCache() {
+        return current.getPrivateKeyCache();
+    }
+
+    @Override
+    public void clearPrivateKeyCache() {
+        current.clearPrivateKeyCache();
+    }
+
+    @Override
+    public void setTrustVerificationExecutor(ExecutorService trustVerificationExecutor) {
+        applySetting("trustVerificationExecutor",
+            merlin -> merlin.setTrustVerificationExecutor(trustVerificationExecutor));
+    }
+
+    @Override
+    public ExecutorService getTrustVerificationExecutor() {
+        return current.getTrustVerificationExecutor();
+    }
+
+    @Override
+    public void setPasswordEncryptor(PasswordEncryptor passwordEncryptor) {
+        // Also used to decrypt the passwords of the reloaded material
+        synchronized (this) {
+            super.setPasswordEncryptor(passwordEncryptor);
+        }
+        applySetting("passwordEncryptor", merlin -> merlin.setPasswordEncryptor(passwordEncryptor));
+    }
+
+    @Override
+    public void setCryptoProvider(String provider) {
+        applySetting("cryptoProvider", merlin -> merlin.setCryptoProvider(provider));
+    }
+
+    @Override
+    public String getCryptoProvider() {
+        return current.getCryptoProvider();
+    }
+
+    @Override
+    public void setTrustProvider(String provider) {
+        applySetting("trustProvider", merlin -> merlin.setTrustProvider(provider));
+    }
+
+    @Override
+    public String getTrustProvider() {
+        return current.getTrustProvider();
+    }
+
+    @Override
+    public void setCertificateFactory(CertificateFactory certFactory) {
+        applySetting("certificateFactory", merlin -> merlin.setCertificateFactory(certFactory));
+    }
+
+    @Override
+    public CertificateFactory getCertificateFactory() throws WSSecurityException {
+        return current.getCertificateFactory();
+    }
+
+    @Override
+    public void setDefaultX509Identifier(String identifier) {
+        applySetting("defaultX509Identifier", merlin -> merlin.setDefaultX509Identifier(identifier));
+    }
+
+    @Override
+    public String getDefaultX509Identifier() throws WSSecurityException {
+        return current.getDefaultX509Identifier();
+    }
+
+    @Override
+    public X509Certificate[] getX509Certificates(CryptoType cryptoType) throws WSSecurityException {
+        return current.getX509Certificates(cryptoType);
+    }
+
+    @Override
+    public String getX509Identifier(X509Certificate cert) throws WSSecurityException {
+        return current.getX509Identifier(cert);
+    }
+
+    @Override
+    public PrivateKey getPrivateKey(X509Certificate certificate, CallbackHandler callbackHandler)
+        throws WSSecurityException {
+        return current.getPrivateKey(certificate, callbackHandler);
+    }
+
+    @Override
+    public PrivateKey getPrivateKey(PublicKey publicKey, CallbackHandler callbackHandler)
+        throws WSSecurityException {
+        return current.getPrivateKey(publicKey, callbackHandler);
+    }
+
+    @Override
+    public PrivateKey getPrivateKey(String identifier, String password) throws WSSecurityException {
+        return current.getPrivateKey(identifier, password);
+    }
+
+    @Override
+    protected void verifyTrust(
+        X509Certificate[] certs,
+        boolean enableRevocation,
+        Collection<Pattern> subjectCertConstraints
+    ) throws WSSecurityException {
+        current.verifyTrust(certs, enableRevocation, subjectCertConstraints);
+    }
+
+    @Override
+    public void verifyTrust(X509Certificate[] certs, boolean enableRevocation,
+                            Collection<Pattern> subjectCertConstraints,
+                            Collection<Pattern> issuerCertConstraints) throws WSSecurityException {
+        current.verifyTrust(certs, enableRevocation, subjectCertConstraints, issuerCertConstraints);
+    }
+
+    @Override
+    public void verifyTrust(PublicKey publicKey) throws WSSecurityException {
+        current.verifyTrust(publicKey);
+    }
+}
@@ -44,21 +44,24 @@ import javax.crypto.spec.SecretKeySpec;
 import javax.security.auth.DestroyFailedException;
 
 import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.CryptoPrimitivePool;
 
 import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
 
 public class P_SHA1 implements DerivationAlgorithm {
 
     private static final org.slf4j.Logger LOG =
         org.slf4j.LoggerFactory.getLogger(P_SHA1.class);
 
+    private static final String HMAC_SHA1 = "HmacSHA1";
+
     @Override
     public byte[] createKey(byte[] secret, byte[] seed, int offset, long length)
             throws WSSecurityException {
 
+        Mac mac = null;
         try {
-            Mac mac = Mac.getInstance("HmacSHA1");
+            mac = CryptoPrimitivePool.getMac(HMAC_SHA1, null);
 
             byte[] tempBytes = pHash(secret, seed, mac, offset + (int) length);
 
@@ -67,8 +70,10 @@ public class P_SHA1 implements DerivationAlgorithm {
             System.arraycopy(tempBytes, offset, key, 0, key.length);
 
             return key;
-        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+        } catch (WSSecurityException | InvalidKeyException e) {
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "errorInKeyDerivation");
+        } finally {
+            CryptoPrimitivePool.releaseMac(HMAC_SHA1, null, mac);
         }
     }
 
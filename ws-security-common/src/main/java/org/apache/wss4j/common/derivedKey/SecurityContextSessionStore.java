@@ -0,0 +1,359 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.derivedKey;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.CryptoPrimitivePool;
+import org.apache.xml.security.exceptions.XMLSecurityException;
+import org.apache.xml.security.stax.ext.XMLSecurityConstants;
+
+/**
+ * A bounded, in-memory store of WS-SecureConversation sessions, i.e. the secrets of the
+ * SecurityContextTokens that are in use, keyed by the SecurityContextToken identifier. It avoids
+ * asking the CallbackHandler for the secret on every message, and it memoizes the keys that are
+ * derived from a session secret per algorithm, label, nonce, offset and length, so that P_SHA-1 is
+ * not run again for a DerivedKeyToken that has already been seen.
+ *
+ * A session expires at the time it was stored with (typically the expiry of the security context),
+ * or after the default lifetime of the store. The secret of a session that is stored without an
+ * expiry is therefore confirmed with the CallbackHandler at least once per default lifetime, so
+ * that a security context that the CallbackHandler no longer knows stops being accepted. A
+ * security context that is cancelled should be removed with {@link #removeSession(String)} to
+ * stop accepting it at once. The derived keys of a session expire with it.
+ *
+ * Keys are only derived from the secret of a session that is in the store - any other secret is
+ * passed straight through to {@link DerivedKeyUtils}. Secrets and derived keys are only handed out
+ * as copies, and are overwritten when a session is removed from the store. A session is locked
+ * while it is copied from or overwritten, so that a removed session is never handed out.
+ */
+public class SecurityContextSessionStore {
+
+    public static final int DEFAULT_MAX_SESSIONS = 1000;
+    public static final int DEFAULT_MAX_DERIVED_KEYS = 100;
+    public static final Duration DEFAULT_LIFETIME = Duration.ofMinutes(5L);
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final Map<ByteBuffer, Session> sessionsBySecret = new ConcurrentHashMap<>();
+    private final int maxSessions;
+    private final int maxDerivedKeys;
+    private final long defaultLifetime;
+    private final byte[] storeSalt;
+    private final AtomicLong secretHits = new AtomicLong();
+    private final AtomicLong secretMisses = new AtomicLong();
+    private final AtomicLong derivedKeyHits = new AtomicLong();
+    private final AtomicLong derivedKeyMisses = new AtomicLong();
+
+    public SecurityContextSessionStore() {
+        this(DEFAULT_MAX_SESSIONS, DEFAULT_MAX_DERIVED_KEYS, DEFAULT_LIFETIME);
+    }
+
+    /**
+     * @param maxSessions the maximum number of sessions to store
+     * @param maxDerivedKeys the maximum number of derived keys to memoize per session
+     * @param defaultLifetime how long to store a session for, if it is stored without an expiry, i.e.
+     *        how often its secret is confirmed with the CallbackHandler
+     */
+    public SecurityContextSessionStore(int maxSessions, int maxDerivedKeys, Duration defaultLifetime) {
+        if (maxSessions <= 0 || maxDerivedKeys <= 0) {
+            throw new IllegalArgumentException("The maximum size must be greater than zero");
+        }
+        this.maxSessions = maxSessions;
+        this.maxDerivedKeys = maxDerivedKeys;
+        this.defaultLifetime = defaultLifetime.toMillis();
+        try {
+            this.storeSalt = XMLSecurityConstants.generateBytes(16);
+        } catch (XMLSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Store a copy of the secret of the given security context, for the default lifetime. After
+     * that the CallbackHandler has to be asked for the secret again.
+     *
+     * @param identifier the identifier of the SecurityContextToken
+     * @param secret the secret of the security context
+     */
+    public void putSession(String identifier, byte[] secret) throws WSSecurityException {
+        putSession(identifier, secret, null);
+    }
+
+    /**
+     * Store a copy of the secret of the given security context, until the given expiry.
+     *
+     * @param identifier the identifier of the SecurityContextToken
+     * @param secret the secret of the security context
+     * @param expires when the security context expires, or null to use the default lifetime
+     */
+    public void putSession(String identifier, byte[] secret, Instant expires) throws WSSecurityException {
+        if (identifier == null || secret == null || secret.length == 0) {
+            return;
+        }
+        long expiry = expires != null
+            ? expires.toEpochMilli() : System.currentTimeMillis() + defaultLifetime;
+        if (expiry <= System.currentTimeMillis()) {
+            return;
+        }
+        if (!sessions.containsKey(identifier) && sessions.size() >= maxSessions) {
+            evict();
+        }
+        ByteBuffer secretDigest = digestSecret(secret);
+        Session session = new Session(identifier, secret.clone(), secretDigest, expiry);
+        Session previous = sessions.put(identifier, session);
+        if (previous != null) {
+            destroy(previous);
+        }
+        sessionsBySecret.put(secretDigest, session);
+    }
+
+    /**
+     * Get a copy of the secret of the given security context.
+     *
+     * @param identifier the identifier of the SecurityContextToken
+     * @return a copy of the secret, or null if the session is not stored or has expired
+     */
+    public byte[] getSecret(String identifier) {
+        if (identifier != null) {
+            Session session = getValidSession(sessions.get(identifier));
+            if (session != null) {
+                synchronized (session) {
+                    if (!session.destroyed) {
+                        secretHits.incrementAndGet();
+                        return session.secret.clone();
+                    }
+                }
+            }
+        }
+        secretMisses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Derive a key from the given secret, in the same way as
+     * {@link DerivedKeyUtils#deriveKey(String, String, int, byte[], byte[], int)}. If the secret
+     * belongs to a stored session then the derived key is memoized in the session.
+     *
+     * @return the derived key, which the caller is free to modify
+     */
+    public byte[] deriveKey(String algorithm, String label, int length, byte[] secret, byte[] nonce, int offset)
+        throws WSSecurityException {
+        Session session = getValidSession(sessionsBySecret.get(digestSecret(secret)));
+        if (session == null) {
+            return DerivedKeyUtils.deriveKey(algorithm, label, length, secret, nonce, offset);
+        }
+
+        ByteBuffer key = digestDerivation(algorithm, label, length, nonce, offset);
+        synchronized (session) {
+            if (session.destroyed || !MessageDigest.isEqual(session.secret, secret)) {
+                return DerivedKeyUtils.deriveKey(algorithm, label, length, secret, nonce, offset);
+            }
+            byte[] derivedKey = session.derivedKeys.get(key);
+            if (derivedKey != null) {
+                derivedKeyHits.incrementAndGet();
+                return derivedKey.clone();
+            }
+        }
+
+        // Derive the key outside of the lock, as it is the expensive part
+        derivedKeyMisses.incrementAndGet();
+        byte[] derivedKey = DerivedKeyUtils.deriveKey(algorithm, label, length, secret, nonce, offset);
+        synchronized (session) {
+            if (!session.destroyed) {
+                Iterator<byte[]> iterator = session.derivedKeys.values().iterator();
+                while (session.derivedKeys.size() >= maxDerivedKeys && iterator.hasNext()) {
+                    byte[] evicted = iterator.next();
+                    iterator.remove();
+                    Arrays.fill(evicted, (byte)0);
+                }
+                byte[] previous = session.derivedKeys.put(key, derivedKey.clone());
+                if (previous != null) {
+                    Arrays.fill(previous, (byte)0);
+                }
+            }
+        }
+        return derivedKey;
+    }
+
+    /**
+     * Remove the given security context, e.g. when it is cancelled.
+     *
+     * @param identifier the identifier of the SecurityContextToken
+     */
+    public void removeSession(String identifier) {
+        Session session = sessions.get(identifier);
+        if (session != null) {
+            remove(session);
+        }
+    }
+
+    /**
+     * Remove all stored sessions.
+     */
+    public void clear() {
+        for (Session session : sessions.values()) {
+            remove(session);
+        }
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * @return the number of times a secret was served from this store
+     */
+    public long getSecretHitCount() {
+        return secretHits.get();
+    }
+
+    /**
+     * @return the number of times a secret was not found in this store
+     */
+    public long getSecretMissCount() {
+        return secretMisses.get();
+    }
+
+    /**
+     * @return the number of times a derived key was served from this store
+     */
+    public long getDerivedKeyHitCount() {
+        return derivedKeyHits.get();
+    }
+
+    /**
+     * @return the number of times a key had to be derived from the secret of a stored session
+     */
+    public long getDerivedKeyMissCount() {
+        return derivedKeyMisses.get();
+    }
+
+    private Session getValidSession(Session session) {
+        if (session != null && session.expiry <= System.currentTimeMillis()) {
+            remove(session);
+            return null;
+        }
+        return session;
+    }
+
+    private void evict() {
+        // Remove the expired sessions first, then any sessions until there is room for a new one
+        long now = System.currentTimeMillis();
+        for (Session session : sessions.values()) {
+            if (session.expiry <= now) {
+                remove(session);
+            }
+        }
+        Iterator<Session> iterator = sessions.values().iterator();
+        while (sessions.size() >= maxSessions && iterator.hasNext()) {
+            remove(iterator.next());
+        }
+    }
+
+    private void remove(Session session) {
+        if (sessions.remove(session.identifier, session)) {
+            destroy(session);
+        }
+    }
+
+    private void destroy(Session session) {
+        sessionsBySecret.remove(session.secretDigest, session);
+        synchronized (session) {
+            session.destroyed = true;
+            for (byte[] derivedKey : session.derivedKeys.values()) {
+                Arrays.fill(derivedKey, (byte)0);
+            }
+            session.derivedKeys.clear();
+            Arrays.fill(session.secret, (byte)0);
+        }
+    }
+
+    private ByteBuffer digestSecret(byte[] secret) throws WSSecurityException {
+        MessageDigest digest = CryptoPrimitivePool.getMessageDigest(DIGEST_ALGORITHM, null);
+        try {
+            digest.update(storeSalt);
+            digest.update(secret);
+            return ByteBuffer.wrap(digest.digest());
+        } finally {
+            CryptoPrimitivePool.releaseMessageDigest(DIGEST_ALGORITHM, null, digest);
+        }
+    }
+
+    private static ByteBuffer digestDerivation(String algorithm, String label, int length, byte[] nonce, int offset)
+        throws WSSecurityException {
+        MessageDigest digest = CryptoPrimitivePool.getMessageDigest(DIGEST_ALGORITHM, null);
+        try {
+            update(digest, algorithm == null ? null : algorithm.getBytes(StandardCharsets.UTF_8));
+            update(digest, label == null ? null : label.getBytes(StandardCharsets.UTF_8));
+            update(digest, nonce);
+            update(digest, length);
+            update(digest, offset);
+            return ByteBuffer.wrap(digest.digest());
+        } finally {
+            CryptoPrimitivePool.releaseMessageDigest(DIGEST_ALGORITHM, null, digest);
+        }
+    }
+
+    private static void update(MessageDigest digest, byte[] value) {
+        if (value == null) {
+            update(digest, -1);
+        } else {
+            update(digest, value.length);
+            digest.update(value);
+        }
+    }
+
+    private static void update(MessageDigest digest, int value) {
+        digest.update((byte)(value >>> 24));
+        digest.update((byte)(value >>> 16));
+        digest.update((byte)(value >>> 8));
+        digest.update((byte)value);
+    }
+
+    private static final class Session {
+        private final String identifier;
+        private final byte[] secret;
+        private final ByteBuffer secretDigest;
+        private final long expiry;
+        // Guarded by the session itself
+        private final Map<ByteBuffer, byte[]> derivedKeys = new HashMap<>();
+        private boolean destroyed;
+
+        Session(String identifier, byte[] secret, ByteBuffer secretDigest, long expiry) {
+            this.identifier = identifier;
+            this.secret = secret;
+            this.secretDigest = secretDigest;
+            this.expiry = expiry;
+        }
+    }
+}
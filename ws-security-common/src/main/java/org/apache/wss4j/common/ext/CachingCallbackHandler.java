@@ -0,0 +1,357 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.ext;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.security.Key;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.UnsupportedCallbackException;
+
+/**
+ * A CallbackHandler that caches the passwords and keys that another CallbackHandler supplies for
+ * WSPasswordCallbacks, keyed by the identifier, usage, type and algorithm of the callback. This
+ * avoids calling the application CallbackHandler (which may look up a directory or a secret store)
+ * for every message.
+ *
+ * - A password or key is cached for a time to live. The absence of a password or key is cached
+ *   as well, for a (typically shorter) negative time to live.
+ * - Only one lookup is made at a time for the same key. Concurrent callbacks for the same key wait
+ *   for it, rather than calling the application CallbackHandler themselves.
+ * - Only pure lookups are cached, i.e. WSPasswordCallbacks that don't carry a password, key, custom
+ *   token or KeyInfo reference of their own. All other callbacks are passed on to the application
+ *   CallbackHandler.
+ * - The cached results are held by a {@link Cache}, which does not reference the application
+ *   CallbackHandler. It can be shared by several CachingCallbackHandlers, e.g. for CallbackHandlers
+ *   that are created for every request.
+ */
+public class CachingCallbackHandler implements CallbackHandler {
+
+    public static final Duration DEFAULT_TTL = Duration.ofMinutes(5L);
+    public static final Duration DEFAULT_NEGATIVE_TTL = Duration.ofSeconds(30L);
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    private final CallbackHandler delegate;
+    private final Cache sharedCache;
+    private final Map<String, CachedResult> cache;
+    private final Map<String, CompletableFuture<CachedResult>> loads;
+
+    public CachingCallbackHandler(CallbackHandler delegate) {
+        this(delegate, DEFAULT_TTL, DEFAULT_NEGATIVE_TTL, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param delegate the application CallbackHandler
+     * @param ttl how long to cache a password or key for
+     * @param negativeTtl how long to cache the absence of a password or key for. If it is zero, then
+     *        the absence of a password or key is not cached.
+     * @param maxSize the maximum number of results to cache
+     */
+    public CachingCallbackHandler(CallbackHandler delegate, Duration ttl, Duration negativeTtl, int maxSize) {
+        this(delegate, new Cache(ttl, negativeTtl, maxSize));
+    }
+
+    /**
+     * @param delegate the application CallbackHandler
+     * @param cache the cache to store the results of the application CallbackHandler in, which may
+     *        be shared with other CachingCallbackHandlers
+     */
+    public CachingCallbackHandler(CallbackHandler delegate, Cache cache) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("The CallbackHandler must not be null");
+        }
+        if (cache == null) {
+            throw new IllegalArgumentException("The cache must not be null");
+        }
+        this.delegate = delegate;
+        this.sharedCache = cache;
+        this.cache = cache.results;
+        this.loads = cache.loads;
+    }
+
+    @Override
+    public void handle(Callback[] callbacks) throws IOException, UnsupportedCallbackException {
+        List<Callback> uncachedCallbacks = null;
+        for (Callback callback : callbacks) {
+            if (isCacheable(callback)) {
+                handle((WSPasswordCallback)callback);
+            } else {
+                if (uncachedCallbacks == null) {
+                    uncachedCallbacks = new ArrayList<>(callbacks.length);
+                }
+                uncachedCallbacks.add(callback);
+            }
+        }
+        if (uncachedCallbacks != null) {
+            delegate.handle(uncachedCallbacks.toArray(new Callback[0]));
+        }
+    }
+
+    /**
+     * Remove the cached results for the given identifier, e.g. after its password has changed.
+     */
+    public void remove(String identifier) {
+        cache.entrySet().removeIf(entry -> entry.getKey().endsWith('\u0000' + identifier));
+    }
+
+    /**
+     * Remove all cached results.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public CallbackHandler getDelegate() {
+        return delegate;
+    }
+
+    public Cache getCache() {
+        return sharedCache;
+    }
+
+    /**
+     * @return the number of times a password or key was served from this cache
+     */
+    public long getHitCount() {
+        return sharedCache.hits.get();
+    }
+
+    /**
+     * @return the number of times the cached absence of a password or key was served from this cache
+     */
+    public long getNegativeHitCount() {
+        return sharedCache.negativeHits.get();
+    }
+
+    /**
+     * @return the number of times the application CallbackHandler was called for a cacheable callback
+     */
+    public long getMissCount() {
+        return sharedCache.misses.get();
+    }
+
+    /**
+     * @return the number of times a callback waited for a concurrent call of the application
+     *         CallbackHandler for the same key
+     */
+    public long getWaitCount() {
+        return sharedCache.waits.get();
+    }
+
+    /**
+     * @return the number of times the application CallbackHandler failed for a cacheable callback
+     */
+    public long getLoadFailureCount() {
+        return sharedCache.loadFailures.get();
+    }
+
+    /**
+     * @return the number of results that were removed from this cache to stay within its maximum size
+     */
+    public long getEvictionCount() {
+        return sharedCache.evictions.get();
+    }
+
+    private void handle(WSPasswordCallback callback) throws IOException, UnsupportedCallbackException {
+        String key = getKey(callback);
+        while (true) {
+            CachedResult result = cache.get(key);
+            if (result != null) {
+                if (result.expiry > System.currentTimeMillis()) {
+                    if (result.isNegative()) {
+                        sharedCache.negativeHits.incrementAndGet();
+                    } else {
+                        sharedCache.hits.incrementAndGet();
+                    }
+                    result.apply(callback);
+                    return;
+                }
+                cache.remove(key, result);
+            }
+
+            CompletableFuture<CachedResult> load = new CompletableFuture<>();
+            CompletableFuture<CachedResult> existingLoad = loads.putIfAbsent(key, load);
+            if (existingLoad == null) {
+                load(callback, key, load);
+                return;
+            }
+
+            sharedCache.waits.incrementAndGet();
+            try {
+                existingLoad.get().apply(callback);
+                return;
+            } catch (ExecutionException e) { //NOPMD
+                // The other lookup failed or could not be cached, so try again
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a password lookup");
+            }
+        }
+    }
+
+    private void load(WSPasswordCallback callback, String key, CompletableFuture<CachedResult> load)
+        throws IOException, UnsupportedCallbackException {
+        sharedCache.misses.incrementAndGet();
+        try {
+            delegate.handle(new Callback[] {callback});
+            boolean negative = callback.getPassword() == null && callback.getKey() == null
+                && callback.getKeyObject() == null;
+            long timeToLive = negative ? sharedCache.negativeTtl : sharedCache.ttl;
+            if (callback.getCustomToken() != null || timeToLive <= 0) {
+                // Let any waiting callbacks call the application CallbackHandler themselves
+                load.completeExceptionally(new IllegalStateException("The result can't be cached"));
+                return;
+            }
+            CachedResult result = new CachedResult(callback, System.currentTimeMillis() + timeToLive);
+            put(key, result);
+            load.complete(result);
+        } catch (IOException | UnsupportedCallbackException | RuntimeException e) {
+            sharedCache.loadFailures.incrementAndGet();
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loads.remove(key, load);
+        }
+    }
+
+    private void put(String key, CachedResult result) {
+        if (cache.size() >= sharedCache.maxSize && !cache.containsKey(key)) {
+            long now = System.currentTimeMillis();
+            cache.values().removeIf(cachedResult -> cachedResult.expiry <= now);
+            Iterator<String> iterator = cache.keySet().iterator();
+            while (cache.size() >= sharedCache.maxSize && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+                sharedCache.evictions.incrementAndGet();
+            }
+        }
+        cache.put(key, result);
+    }
+
+    private static boolean isCacheable(Callback callback) {
+        if (!(callback instanceof WSPasswordCallback)) {
+            return false;
+        }
+        WSPasswordCallback passwordCallback = (WSPasswordCallback)callback;
+        switch (passwordCallback.getUsage()) {
+        case WSPasswordCallback.DECRYPT:
+        case WSPasswordCallback.USERNAME_TOKEN:
+        case WSPasswordCallback.SIGNATURE:
+        case WSPasswordCallback.SECURITY_CONTEXT_TOKEN:
+        case WSPasswordCallback.SECRET_KEY:
+        case WSPasswordCallback.PASSWORD_ENCRYPTOR_PASSWORD:
+            return passwordCallback.getIdentifier() != null
+                && passwordCallback.getPassword() == null
+                && passwordCallback.getKey() == null
+                && passwordCallback.getKeyObject() == null
+                && passwordCallback.getCustomToken() == null
+                && passwordCallback.getKeyInfoReference() == null;
+        default:
+            return false;
+        }
+    }
+
+    private static String getKey(WSPasswordCallback callback) {
+        return callback.getUsage() + "\u0000" + callback.getType() + '\u0000' + callback.getAlgorithm()
+            + '\u0000' + callback.getIdentifier();
+    }
+
+    /**
+     * The cached results of one or more CachingCallbackHandlers, together with the statistics about them.
+     */
+    public static final class Cache {
+        private final long ttl;
+        private final long negativeTtl;
+        private final int maxSize;
+        private final Map<String, CachedResult> results = new ConcurrentHashMap<>();
+        private final Map<String, CompletableFuture<CachedResult>> loads = new ConcurrentHashMap<>();
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong negativeHits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong waits = new AtomicLong();
+        private final AtomicLong loadFailures = new AtomicLong();
+        private final AtomicLong evictions = new AtomicLong();
+
+        /**
+         * @param ttl how long to cache a password or key for
+         * @param negativeTtl how long to cache the absence of a password or key for. If it is zero,
+         *        then the absence of a password or key is not cached.
+         * @param maxSize the maximum number of results to cache
+         */
+        public Cache(Duration ttl, Duration negativeTtl, int maxSize) {
+            if (maxSize <= 0) {
+                throw new IllegalArgumentException("The maximum size must be greater than zero");
+            }
+            this.ttl = ttl.toMillis();
+            this.negativeTtl = negativeTtl.toMillis();
+            this.maxSize = maxSize;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+    }
+
+    private static final class CachedResult {
+        private final String identifier;
+        private final String password;
+        private final byte[] secret;
+        private final Key key;
+        private final long expiry;
+
+        CachedResult(WSPasswordCallback callback, long expiry) {
+            this.identifier = callback.getIdentifier();
+            this.password = callback.getPassword();
+            this.secret = callback.getKey() == null ? null : callback.getKey().clone();
+            this.key = callback.getKeyObject();
+            this.expiry = expiry;
+        }
+
+        boolean isNegative() {
+            return password == null && secret == null && key == null;
+        }
+
+        void apply(WSPasswordCallback callback) {
+            callback.setIdentifier(identifier);
+            callback.setPassword(password);
+            if (secret != null) {
+                callback.setKey(secret.clone());
+            }
+            if (key != null) {
+                callback.setKey(key);
+            }
+        }
+    }
+}
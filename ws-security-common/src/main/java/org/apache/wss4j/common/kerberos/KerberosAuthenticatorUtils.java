@@ -0,0 +1,238 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.kerberos;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+
+import org.apache.wss4j.common.cache.ReplayCache;
+import org.apache.wss4j.common.cache.ReplayCacheFullException;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.KeyUtils;
+import org.apache.xml.security.utils.XMLUtils;
+
+/**
+ * Utility methods to detect replayed Kerberos AP-REQ tokens with a ReplayCache, instead of the
+ * replay cache of the JDK. An AP-REQ is identified by a digest of its encrypted Authenticator,
+ * which is unique for each request, so that a replayed Authenticator is detected no matter how the
+ * AP-REQ is wrapped (as a GSS-API token or in a SPNEGO token).
+ */
+public final class KerberosAuthenticatorUtils {
+
+    /**
+     * The default time to remember an Authenticator for. Kerberos accepts an Authenticator
+     * whose time is within the (five minute by default) clock skew either side of the current time.
+     */
+    public static final Duration DEFAULT_REPLAY_WINDOW = Duration.ofMinutes(10L);
+
+    private static final int MAX_DEPTH = 8;
+
+    private static final int TAG_OCTET_STRING = 0x04;
+    private static final int TAG_OID = 0x06;
+    private static final int TAG_SEQUENCE = 0x30;
+    private static final int TAG_GSS_TOKEN = 0x60;
+    private static final int TAG_AP_REQ = 0x6E;
+    private static final int TAG_AUTHENTICATOR = 0xA4;
+    private static final int TAG_CIPHER = 0xA2;
+
+    private KerberosAuthenticatorUtils() {
+        // complete
+    }
+
+    /**
+     * Check that the Authenticator of the given token has not been seen before, and add it to the
+     * cache.
+     *
+     * @param replayCache the cache of Authenticators
+     * @param token the (GSS-API or SPNEGO wrapped) AP-REQ token
+     * @param replayWindow the time to remember the Authenticator for
+     * @throws WSSecurityException if the Authenticator has been seen before
+     */
+    public static void checkReplay(ReplayCache replayCache, byte[] token, Duration replayWindow)
+        throws WSSecurityException {
+        String identifier = getReplayIdentifier(token);
+        boolean added;
+        try {
+            added = replayCache.addIfAbsent(identifier, Instant.now().plus(replayWindow));
+        } catch (ReplayCacheFullException ex) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, ex, "replayCacheFull");
+        }
+        if (!added) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.INVALID_SECURITY_TOKEN, "kerberosReplay"
+            );
+        }
+    }
+
+    /**
+     * Get the identifier of the given token to store in a ReplayCache. This is a digest of the
+     * encrypted Authenticator of the AP-REQ, or of the whole token if the Authenticator can't be
+     * found.
+     *
+     * @param token the (GSS-API or SPNEGO wrapped) AP-REQ token
+     * @return the identifier of the token
+     */
+    public static String getReplayIdentifier(byte[] token) throws WSSecurityException {
+        byte[] authenticator = getAuthenticatorCipher(token);
+        byte[] digest = KeyUtils.generateDigestSHA256(authenticator != null ? authenticator : token);
+        return "krb5:" + XMLUtils.encodeToString(digest);
+    }
+
+    /**
+     * Get the cipher text of the encrypted Authenticator of the AP-REQ in the given token.
+     *
+     * @param token the (GSS-API or SPNEGO wrapped) AP-REQ token
+     * @return the cipher text of the Authenticator, or null if the token is not a well-formed AP-REQ
+     */
+    public static byte[] getAuthenticatorCipher(byte[] token) {
+        if (token == null) {
+            return null;
+        }
+        int[] range = findAuthenticator(token, 0, token.length, 0);
+        return range == null ? null : Arrays.copyOfRange(token, range[0], range[1]);
+    }
+
+    /**
+     * Find the cipher text of the Authenticator in the DER elements between start and end.
+     * @return the start and end of the cipher text, or null if it was not found
+     */
+    private static int[] findAuthenticator(byte[] der, int start, int end, int depth) {
+        if (depth > MAX_DEPTH) {
+            return null;
+        }
+        int offset = start;
+        while (offset < end) {
+            int[] element = readElement(der, offset, end);
+            if (element == null) {
+                return null;
+            }
+            int tag = element[0];
+            int contentStart = element[1];
+            int contentEnd = element[2];
+
+            int[] cipher = null;
+            if (tag == TAG_AP_REQ) {
+                return findCipher(der, contentStart, contentEnd);
+            } else if (tag == TAG_GSS_TOKEN) {
+                cipher = findInGssToken(der, contentStart, contentEnd, depth);
+            } else if ((tag & 0x20) != 0 || tag == TAG_OCTET_STRING) {
+                // A constructed element, or an octet string that may hold a (SPNEGO) mechanism token
+                cipher = findAuthenticator(der, contentStart, contentEnd, depth + 1);
+            }
+            if (cipher != null) {
+                return cipher;
+            }
+            offset = contentEnd;
+        }
+        return null;
+    }
+
+    private static int[] findInGssToken(byte[] der, int start, int end, int depth) {
+        // The mechanism OID, followed for Kerberos by a two byte token identifier (0x0100 for an AP-REQ)
+        int[] oid = readElement(der, start, end);
+        if (oid == null || oid[0] != TAG_OID) {
+            return null;
+        }
+        int offset = oid[2];
+        if (offset + 2 <= end && der[offset] == 0x01 && der[offset + 1] == 0x00) {
+            offset += 2;
+        }
+        return findAuthenticator(der, offset, end, depth + 1);
+    }
+
+    private static int[] findCipher(byte[] der, int start, int end) {
+        // AP-REQ ::= [APPLICATION 14] SEQUENCE { ..., [4] authenticator EncryptedData }
+        int[] sequence = readElement(der, start, end);
+        if (sequence == null || sequence[0] != TAG_SEQUENCE) {
+            return null;
+        }
+        int[] authenticator = findChild(der, sequence[1], sequence[2], TAG_AUTHENTICATOR);
+        if (authenticator == null) {
+            return null;
+        }
+        // EncryptedData ::= SEQUENCE { [0] etype, [1] kvno OPTIONAL, [2] cipher OCTET STRING }
+        int[] encryptedData = readElement(der, authenticator[1], authenticator[2]);
+        if (encryptedData == null || encryptedData[0] != TAG_SEQUENCE) {
+            return null;
+        }
+        int[] cipher = findChild(der, encryptedData[1], encryptedData[2], TAG_CIPHER);
+        if (cipher == null) {
+            return null;
+        }
+        int[] octetString = readElement(der, cipher[1], cipher[2]);
+        if (octetString == null || octetString[0] != TAG_OCTET_STRING) {
+            return null;
+        }
+        return new int[] {octetString[1], octetString[2]};
+    }
+
+    private static int[] findChild(byte[] der, int start, int end, int tag) {
+        int offset = start;
+        while (offset < end) {
+            int[] element = readElement(der, offset, end);
+            if (element == null) {
+                return null;
+            }
+            if (element[0] == tag) {
+                return element;
+            }
+            offset = element[2];
+        }
+        return null;
+    }
+
+    /**
+     * Read the DER element at the given offset.
+     * @return the tag, the start of the content and the end of the content of the element, or null
+     *         if the element is malformed
+     */
+    private static int[] readElement(byte[] der, int offset, int end) {
+        if (offset + 2 > end) {
+            return null;
+        }
+        int tag = der[offset] & 0xFF;
+        if ((tag & 0x1F) == 0x1F) {
+            // Multi-byte tags are not used in Kerberos or SPNEGO tokens
+            return null;
+        }
+        int length = der[offset + 1] & 0xFF;
+        int contentStart = offset + 2;
+        if (length > 0x80) {
+            int lengthBytes = length & 0x7F;
+            if (lengthBytes > 3 || contentStart + lengthBytes > end) {
+                return null;
+            }
+            length = 0;
+            for (int i = 0; i < lengthBytes; i++) {
+                length = (length << 8) | (der[contentStart + i] & 0xFF);
+            }
+            contentStart += lengthBytes;
+        } else if (length == 0x80) {
+            // Indefinite lengths are not allowed in DER
+            return null;
+        }
+        int contentEnd = contentStart + length;
+        if (contentEnd > end) {
+            return null;
+        }
+        return new int[] {tag, contentStart, contentEnd};
+    }
+}
@@ -0,0 +1,270 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.kerberos;
+
+import java.security.Principal;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.security.auth.Subject;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.kerberos.KerberosTicket;
+import javax.security.auth.login.Configuration;
+import javax.security.auth.login.LoginContext;
+import javax.security.auth.login.LoginException;
+
+/**
+ * A thread-safe cache of the Subjects that a service logs in with via JAAS to accept Kerberos
+ * tokens, keyed by JAAS login context name and service name. This avoids reading the keytab and
+ * logging in again for every message. A client can cache the Subject (holding the TGT and the
+ * service ticket) that it initiates Kerberos tokens with for a service in the same way, by setting
+ * its own instance on KerberosSecurity or SpnegoTokenContext. As the CallbackHandler is not part
+ * of the key, a client cache must only be shared by clients that log in with the same credentials.
+ *
+ * A cached Subject is refreshed in the background of a request (the current Subject is still
+ * returned to other requests while one request logs in again) once it comes within the refresh
+ * margin of its expiry. The expiry is the earliest end time of the Kerberos tickets of the Subject,
+ * bounded by a maximum lifetime so that a changed keytab is picked up.
+ */
+public class KerberosServiceCredentialCache {
+
+    public static final Duration DEFAULT_MAX_LIFETIME = Duration.ofHours(1L);
+    public static final Duration DEFAULT_REFRESH_MARGIN = Duration.ofMinutes(5L);
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(KerberosServiceCredentialCache.class);
+
+    // Logins of different keys only contend if their keys hash to the same stripe
+    private static final int LOCK_STRIPES = 64;
+
+    private static final KerberosServiceCredentialCache INSTANCE = new KerberosServiceCredentialCache();
+
+    private final Map<String, CachedSubject> subjects = new ConcurrentHashMap<>();
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final long maxLifetime;
+    private final long refreshMargin;
+    private final Configuration configuration;
+    private final AtomicLong logins = new AtomicLong();
+
+    public KerberosServiceCredentialCache() {
+        this(DEFAULT_MAX_LIFETIME, DEFAULT_REFRESH_MARGIN, null);
+    }
+
+    /**
+     * @param maxLifetime the maximum time to cache a Subject for
+     * @param refreshMargin how long before its expiry to refresh a Subject
+     * @param configuration the JAAS Configuration to log in with, or null for the default
+     */
+    public KerberosServiceCredentialCache(Duration maxLifetime, Duration refreshMargin,
+                                          Configuration configuration) {
+        if (maxLifetime.isNegative() || maxLifetime.isZero() || refreshMargin.isNegative()) {
+            throw new IllegalArgumentException("The lifetime must be positive and the margin not negative");
+        }
+        this.maxLifetime = maxLifetime.toMillis();
+        this.refreshMargin = refreshMargin.toMillis();
+        this.configuration = configuration;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * @return the cache that is shared by default by the Kerberos token validators
+     */
+    public static KerberosServiceCredentialCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get a SubjectInitializer that obtains a service ticket for the given service, so that the
+     * ticket is stored in the Subject before it is shared between concurrent clients.
+     *
+     * @param serviceName the service name
+     * @param isUsernameServiceNameForm whether the service name is in the "username" form
+     * @return the SubjectInitializer
+     */
+    public static SubjectInitializer serviceTicketInitializer(String serviceName, boolean isUsernameServiceNameForm) {
+        return subject -> {
+            Set<Principal> principals = subject.getPrincipals();
+            if (principals.isEmpty()) {
+                throw new LoginException("No Client principals found after login");
+            }
+            KerberosClientExceptionAction action =
+                new KerberosClientExceptionAction(principals.iterator().next(), serviceName,
+                                                  isUsernameServiceNameForm, false);
+            KerberosContext krbCtx = Subject.doAs(subject, action);
+            krbCtx.dispose();
+        };
+    }
+
+    /**
+     * Get the Subject for the given JAAS login context and service, logging in if it is not cached
+     * or has expired.
+     *
+     * @param contextName the JAAS login context name
+     * @param serviceName the service name, which may be null
+     * @param callbackHandler the CallbackHandler to log in with, which may be null. It is not part
+     *        of the key of the cache.
+     * @return the Subject of the service
+     * @throws LoginException if logging in fails
+     */
+    public Subject getSubject(String contextName, String serviceName, CallbackHandler callbackHandler)
+        throws LoginException {
+        return getSubject(contextName, serviceName, callbackHandler, null);
+    }
+
+    /**
+     * Get the Subject for the given JAAS login context and service, logging in if it is not cached
+     * or has expired.
+     *
+     * @param contextName the JAAS login context name
+     * @param serviceName the service name, which may be null
+     * @param callbackHandler the CallbackHandler to log in with, which may be null. It is not part
+     *        of the key of the cache.
+     * @param initializer the SubjectInitializer to apply to a Subject after logging in, which may
+     *        be null. It is not part of the key of the cache.
+     * @return the Subject
+     * @throws LoginException if logging in or initializing the Subject fails
+     */
+    public Subject getSubject(String contextName, String serviceName, CallbackHandler callbackHandler,
+                              SubjectInitializer initializer) throws LoginException {
+        String key = contextName + '\u0000' + (serviceName == null ? "" : serviceName);
+        long now = System.currentTimeMillis();
+        CachedSubject cachedSubject = subjects.get(key);
+        if (cachedSubject != null && now < cachedSubject.refreshTime) {
+            return cachedSubject.subject;
+        }
+
+        if (cachedSubject != null && now < cachedSubject.expiryTime) {
+            // Only one request refreshes the Subject, the others carry on with the current one
+            if (cachedSubject.refreshing.compareAndSet(false, true)) {
+                try {
+                    CachedSubject refreshedSubject = login(contextName, callbackHandler, initializer);
+                    subjects.put(key, refreshedSubject);
+                    return refreshedSubject.subject;
+                } catch (LoginException ex) {
+                    LOG.debug("Error refreshing the Kerberos login of " + contextName, ex);
+                    cachedSubject.refreshing.set(false);
+                }
+            }
+            return cachedSubject.subject;
+        }
+
+        synchronized (locks[(key.hashCode() & 0x7fffffff) % LOCK_STRIPES]) {
+            cachedSubject = subjects.get(key);
+            if (cachedSubject != null && System.currentTimeMillis() < cachedSubject.expiryTime) {
+                return cachedSubject.subject;
+            }
+            CachedSubject newSubject = login(contextName, callbackHandler, initializer);
+            subjects.put(key, newSubject);
+            return newSubject.subject;
+        }
+    }
+
+    /**
+     * Remove the Subject for the given JAAS login context and service from the cache.
+     */
+    public void remove(String contextName, String serviceName) {
+        subjects.remove(contextName + '\u0000' + (serviceName == null ? "" : serviceName));
+    }
+
+    /**
+     * Remove all Subjects from the cache.
+     */
+    public void clear() {
+        subjects.clear();
+    }
+
+    public int size() {
+        return subjects.size();
+    }
+
+    /**
+     * @return the number of times this cache has logged in
+     */
+    public long getLoginCount() {
+        return logins.get();
+    }
+
+    private CachedSubject login(String contextName, CallbackHandler callbackHandler,
+                                SubjectInitializer initializer) throws LoginException {
+        LoginContext loginContext;
+        if (configuration != null) {
+            loginContext = new LoginContext(contextName, null, callbackHandler, configuration);
+        } else if (callbackHandler != null) {
+            loginContext = new LoginContext(contextName, callbackHandler);
+        } else {
+            loginContext = new LoginContext(contextName);
+        }
+        loginContext.login();
+        logins.incrementAndGet();
+
+        Subject subject = loginContext.getSubject();
+        if (initializer != null) {
+            try {
+                initializer.initialize(subject);
+            } catch (Exception ex) {
+                LoginException loginException = new LoginException(ex.getMessage());
+                loginException.initCause(ex);
+                throw loginException;
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        long expiryTime = now + maxLifetime;
+        for (KerberosTicket ticket : subject.getPrivateCredentials(KerberosTicket.class)) {
+            if (ticket.getEndTime() != null) {
+                expiryTime = Math.min(expiryTime, ticket.getEndTime().getTime());
+            }
+        }
+        // Refresh within the margin, but not before half of the lifetime has passed
+        long refreshTime = Math.max(expiryTime - refreshMargin, now + (expiryTime - now) / 2);
+        return new CachedSubject(subject, refreshTime, expiryTime);
+    }
+
+    /**
+     * Performs one-off work with a Subject after logging in, before the Subject is cached.
+     */
+    public interface SubjectInitializer {
+
+        /**
+         * @param subject the Subject that has just logged in
+         * @throws Exception if the Subject can't be initialized, in which case it is not cached
+         */
+        void initialize(Subject subject) throws Exception;
+    }
+
+    private static final class CachedSubject {
+        private final Subject subject;
+        private final long refreshTime;
+        private final long expiryTime;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        CachedSubject(Subject subject, long refreshTime, long expiryTime) {
+            this.subject = subject;
+            this.refreshTime = refreshTime;
+            this.expiryTime = expiryTime;
+        }
+    }
+}
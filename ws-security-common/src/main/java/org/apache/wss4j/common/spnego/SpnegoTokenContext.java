@@ -33,6 +33,7 @@ import org.apache.wss4j.common.ext.WSSecurityException.ErrorCode;
 import org.apache.wss4j.common.kerberos.KerberosClientExceptionAction;
 import org.apache.wss4j.common.kerberos.KerberosContext;
 import org.apache.wss4j.common.kerberos.KerberosServiceContext;
+import org.apache.wss4j.common.kerberos.KerberosServiceCredentialCache;
 import org.apache.wss4j.common.kerberos.KerberosServiceExceptionAction;
 import org.ietf.jgss.GSSContext;
 import org.ietf.jgss.GSSCredential;
@@ -54,6 +55,7 @@ public class SpnegoTokenContext {
     private SpnegoServiceAction serviceAction;
     private GSSCredential delegationCredential;
     private Principal spnegoPrincipal;
+    private KerberosServiceCredentialCache credentialCache;
 
     /**
      * Retrieve a service ticket from a KDC using the Kerberos JAAS module, and set it in this
@@ -111,15 +113,24 @@ public class SpnegoTokenContext {
         GSSCredential delegationCredential
     ) throws WSSecurityException {
 
-        // Get a TGT from the KDC using JAAS
-        LoginContext loginContext = null;
+        // Get a TGT from the KDC using JAAS, or reuse the cached TGT and service ticket
+        Subject clientSubject = null;
         try {
-            if (callbackHandler == null) {
-                loginContext = new LoginContext(jaasLoginModuleName);
+            if (credentialCache != null) {
+                clientSubject =
+                    credentialCache.getSubject(jaasLoginModuleName, serviceName, callbackHandler,
+                        KerberosServiceCredentialCache.serviceTicketInitializer(serviceName,
+                                                                                isUsernameServiceNameForm));
             } else {
-                loginContext = new LoginContext(jaasLoginModuleName, callbackHandler);
+                LoginContext loginContext = null;
+                if (callbackHandler == null) {
+                    loginContext = new LoginContext(jaasLoginModuleName);
+                } else {
+                    loginContext = new LoginContext(jaasLoginModuleName, callbackHandler);
+                }
+                loginContext.login();
+                clientSubject = loginContext.getSubject();
             }
-            loginContext.login();
         } catch (LoginException ex) {
             LOG.debug(ex.getMessage(), ex);
             throw new WSSecurityException(
@@ -128,7 +139,6 @@ public class SpnegoTokenContext {
         }
         LOG.debug("Successfully authenticated to the TGT");
 
-        Subject clientSubject = loginContext.getSubject();
         Set<Principal> clientPrincipals = clientSubject.getPrincipals();
         if (clientPrincipals.isEmpty()) {
             throw new WSSecurityException(
@@ -356,6 +366,21 @@ public class SpnegoTokenContext {
         this.serviceAction = spnegoServiceAction;
     }
 
+    /**
+     * Set the cache of the Subjects (holding the TGT and service ticket) that are used to retrieve
+     * service tickets, keyed by JAAS login context name and service name. The default is null, i.e.
+     * every call to retrieveServiceTicket logs in and obtains a new service ticket from the KDC. The
+     * CallbackHandler is not part of the key, so a cache must only be shared by clients that log in
+     * with the same credentials.
+     */
+    public void setCredentialCache(KerberosServiceCredentialCache credentialCache) {
+        this.credentialCache = credentialCache;
+    }
+
+    public KerberosServiceCredentialCache getCredentialCache() {
+        return credentialCache;
+    }
+
     public void clear() {
         token = null;
         mutualAuth = false;
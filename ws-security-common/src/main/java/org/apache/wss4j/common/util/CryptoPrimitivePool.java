@@ -0,0 +1,216 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.util;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.xml.security.algorithms.JCEMapper;
+
+/**
+ * A per-thread pool of JCA primitives (Cipher, Mac and MessageDigest objects), keyed by
+ * algorithm and provider. Looking up a primitive via the JCA involves a search of the registered
+ * providers, which is a noticeable part of the cost of processing a small message. A primitive that
+ * is obtained from this pool must be returned via the matching release method once the caller has
+ * finished with it, typically in a finally block. A primitive that is not released is simply
+ * garbage collected.
+ *
+ * Each thread has its own pool, so that no locking is required. A primitive is removed from the
+ * pool while it is in use, so nested use of the same algorithm on a thread gets distinct instances.
+ * Ciphers are keyed by algorithm URI, and the other primitives are keyed by JCE algorithm name. A
+ * null provider means the provider that is configured via JCEMapper.getProviderId(), or the JCA
+ * default if none is configured.
+ *
+ * A released Cipher or Mac is re-initialized with a dummy key, so that an idle instance does not
+ * keep the caller's key material alive. If that fails, the instance is not pooled.
+ */
+public final class CryptoPrimitivePool {
+
+    /**
+     * The maximum number of idle instances of each primitive that are kept per thread
+     */
+    public static final int MAX_IDLE_PER_KEY = 4;
+
+    private static final ThreadLocal<Map<String, ArrayDeque<Object>>> POOL =
+        ThreadLocal.withInitial(HashMap::new);
+
+    private static final org.slf4j.Logger LOG =
+        org.slf4j.LoggerFactory.getLogger(CryptoPrimitivePool.class);
+
+    private static final Key DUMMY_RSA_KEY = createDummyRSAKey();
+
+    private CryptoPrimitivePool() {
+        // complete
+    }
+
+    /**
+     * Get a Cipher for the given algorithm URI. The Cipher must be initialized by the caller before
+     * use. Return it via {@link #releaseCipher(String, String, Cipher)}.
+     *
+     * @param cipherAlgo The cipher in it's WSS URI form, ref. https://www.w3.org/TR/xmlenc-core1/#sec-Algorithms
+     * @param provider The provider which shall instantiate the cipher, or null for the default
+     */
+    public static Cipher getCipher(String cipherAlgo, String provider) throws WSSecurityException {
+        Cipher cipher = (Cipher)borrow(getKey("Cipher", cipherAlgo, provider));
+        if (cipher == null) {
+            cipher = KeyUtils.getCipherInstance(cipherAlgo, provider);
+        }
+        return cipher;
+    }
+
+    public static void releaseCipher(String cipherAlgo, String provider, Cipher cipher) {
+        if (cipher != null && clearKey(cipherAlgo, cipher)) {
+            release(getKey("Cipher", cipherAlgo, provider), cipher);
+        }
+    }
+
+    /**
+     * Get a Mac for the given JCE algorithm name (e.g. "HmacSHA1"). The Mac must be initialized by
+     * the caller before use. Return it via {@link #releaseMac(String, String, Mac)}.
+     */
+    public static Mac getMac(String algorithm, String provider) throws WSSecurityException {
+        Mac mac = (Mac)borrow(getKey("Mac", algorithm, provider));
+        if (mac == null) {
+            try {
+                String resolvedProvider = resolveProvider(provider);
+                mac = resolvedProvider == null
+                    ? Mac.getInstance(algorithm) : Mac.getInstance(algorithm, resolvedProvider);
+            } catch (GeneralSecurityException e) {
+                throw new WSSecurityException(WSSecurityException.ErrorCode.UNSUPPORTED_ALGORITHM, e);
+            }
+        }
+        return mac;
+    }
+
+    public static void releaseMac(String algorithm, String provider, Mac mac) {
+        if (mac == null) {
+            return;
+        }
+        try {
+            mac.init(new SecretKeySpec(new byte[32], mac.getAlgorithm()));
+        } catch (GeneralSecurityException | RuntimeException e) {
+            LOG.debug("The key of a Mac cannot be cleared, so it is not pooled: {}", e.getMessage());
+            return;
+        }
+        release(getKey("Mac", algorithm, provider), mac);
+    }
+
+    /**
+     * Get a MessageDigest for the given JCE algorithm name (e.g. "SHA-256"). Return it via
+     * {@link #releaseMessageDigest(String, String, MessageDigest)}.
+     */
+    public static MessageDigest getMessageDigest(String algorithm, String provider) throws WSSecurityException {
+        MessageDigest digest = (MessageDigest)borrow(getKey("MessageDigest", algorithm, provider));
+        if (digest == null) {
+            try {
+                String resolvedProvider = resolveProvider(provider);
+                digest = resolvedProvider == null
+                    ? MessageDigest.getInstance(algorithm) : MessageDigest.getInstance(algorithm, resolvedProvider);
+            } catch (GeneralSecurityException e) {
+                throw new WSSecurityException(WSSecurityException.ErrorCode.UNSUPPORTED_ALGORITHM, e);
+            }
+        }
+        return digest;
+    }
+
+    public static void releaseMessageDigest(String algorithm, String provider, MessageDigest digest) {
+        if (digest != null) {
+            digest.reset();
+        }
+        release(getKey("MessageDigest", algorithm, provider), digest);
+    }
+
+    /**
+     * Remove all idle primitives from the pool of the current thread.
+     */
+    public static void clear() {
+        POOL.remove();
+    }
+
+    /**
+     * Re-initialize the given Cipher with a dummy key, to drop the reference to the caller's key.
+     */
+    private static boolean clearKey(String cipherAlgo, Cipher cipher) {
+        try {
+            Key dummyKey;
+            if (cipher.getAlgorithm().toUpperCase().startsWith("RSA")) {
+                dummyKey = DUMMY_RSA_KEY;
+            } else {
+                int keyLength = JCEMapper.getKeyLengthFromURI(cipherAlgo) / 8;
+                dummyKey = new SecretKeySpec(new byte[keyLength > 0 ? keyLength : 16],
+                                             JCEMapper.getJCEKeyAlgorithmFromURI(cipherAlgo));
+            }
+            if (dummyKey != null) {
+                cipher.init(Cipher.WRAP_MODE, dummyKey);
+                return true;
+            }
+        } catch (GeneralSecurityException | RuntimeException e) {
+            LOG.debug("The key of a Cipher cannot be cleared, so it is not pooled: {}", e.getMessage());
+        }
+        return false;
+    }
+
+    private static Key createDummyRSAKey() {
+        // Any odd 2048 bit modulus will do, as the key is never used
+        BigInteger modulus = BigInteger.ONE.shiftLeft(2047).setBit(0);
+        try {
+            return KeyFactory.getInstance("RSA").generatePublic(
+                new RSAPublicKeySpec(modulus, BigInteger.valueOf(65537L)));
+        } catch (GeneralSecurityException e) {
+            LOG.debug("RSA Ciphers will not be pooled: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static String resolveProvider(String provider) {
+        return provider == null ? JCEMapper.getProviderId() : provider;
+    }
+
+    private static String getKey(String type, String algorithm, String provider) {
+        return type + ':' + algorithm + ':' + resolveProvider(provider);
+    }
+
+    private static Object borrow(String key) {
+        ArrayDeque<Object> idle = POOL.get().get(key);
+        return idle == null ? null : idle.pollFirst();
+    }
+
+    private static void release(String key, Object primitive) {
+        if (primitive == null) {
+            return;
+        }
+        ArrayDeque<Object> idle = POOL.get().computeIfAbsent(key, k -> new ArrayDeque<>(MAX_IDLE_PER_KEY));
+        if (idle.size() < MAX_IDLE_PER_KEY) {
+            idle.addFirst(primitive);
+        }
+    }
+}
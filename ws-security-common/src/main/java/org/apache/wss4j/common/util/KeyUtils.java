@@ -45,9 +45,11 @@ public final class KeyUtils {
     public static final String RSA_ECB_OAEPWITH_SHA1_AND_MGF1_PADDING = "RSA/ECB/OAEPWithSHA1AndMGF1Padding";
 
     /**
-     * A cached MessageDigest object
+     * Cached MessageDigest objects, one per thread, so that generating a digest does not contend
+     * on a shared lock
      */
-    private static MessageDigest digest;
+    private static final ThreadLocal<MessageDigest> SHA1_DIGEST = new ThreadLocal<>();
+    private static final ThreadLocal<MessageDigest> SHA256_DIGEST = new ThreadLocal<>();
 
     static {
         DEFAULT_DERIVED_KEY_LENGTHS.put(XMLSignature.ALGO_ID_MAC_HMAC_NOT_RECOMMENDED_MD5, 128);
@@ -228,16 +230,36 @@ public final class KeyUtils {
 
     /**
      * Generate a (SHA1) digest of the input bytes. The MessageDigest instance that backs this
-     * method is cached for efficiency.
+     * method is cached per thread for efficiency.
      * @param inputBytes the bytes to digest
      * @return the digest of the input bytes
      * @throws WSSecurityException
      */
-    public static synchronized byte[] generateDigest(byte[] inputBytes) throws WSSecurityException {
+    public static byte[] generateDigest(byte[] inputBytes) throws WSSecurityException {
+        return generateDigest(inputBytes, SHA1_DIGEST, "SHA-1");
+    }
+
+    /**
+     * Generate a (SHA-256) digest of the input bytes. The MessageDigest instance that backs this
+     * method is cached per thread for efficiency.
+     * @param inputBytes the bytes to digest
+     * @return the digest of the input bytes
+     * @throws WSSecurityException
+     */
+    public static byte[] generateDigestSHA256(byte[] inputBytes) throws WSSecurityException {
+        return generateDigest(inputBytes, SHA256_DIGEST, "SHA-256");
+    }
+
+    private static byte[] generateDigest(
+        byte[] inputBytes, ThreadLocal<MessageDigest> cachedDigest, String algorithm
+    ) throws WSSecurityException {
         try {
+            MessageDigest digest = cachedDigest.get();
             if (digest == null) {
-                digest = MessageDigest.getInstance("SHA-1");
+                digest = MessageDigest.getInstance(algorithm);
+                cachedDigest.set(digest);
             }
+            // digest() resets the MessageDigest, so it can be reused by the next call on this thread
             return digest.digest(inputBytes);
         } catch (Exception e) {
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e, "empty",
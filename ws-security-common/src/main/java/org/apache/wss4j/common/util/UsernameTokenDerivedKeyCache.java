@@ -0,0 +1,201 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.util;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.xml.security.exceptions.XMLSecurityException;
+import org.apache.xml.security.stax.ext.XMLSecurityConstants;
+
+/**
+ * A bounded, short-lived, in-memory cache of the keys derived from UsernameToken passwords, keyed
+ * by password, salt and iteration count. Deriving a key involves (by default) 1000 rounds of SHA-1,
+ * which this cache avoids for repeated messages that use the same UsernameToken.
+ *
+ * Passwords are not stored - the cache is keyed on a SHA-256 digest of the password, salt and
+ * iteration count, using a random salt per cache instance. The cached keys are only handed out as
+ * copies, and are overwritten when they are removed from the cache. A cached key is locked while it
+ * is copied or overwritten, so that a key that has been removed is never handed out.
+ */
+public class UsernameTokenDerivedKeyCache {
+
+    public static final int DEFAULT_MAX_SIZE = 1000;
+    public static final Duration DEFAULT_TTL = Duration.ofMinutes(5L);
+
+    private final Map<ByteBuffer, CachedKey> cache = new ConcurrentHashMap<>();
+    private final int maxSize;
+    private final long ttl;
+    private final byte[] cacheSalt;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public UsernameTokenDerivedKeyCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TTL);
+    }
+
+    /**
+     * @param maxSize the maximum number of derived keys to cache
+     * @param ttl how long to cache a derived key for
+     */
+    public UsernameTokenDerivedKeyCache(int maxSize, Duration ttl) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("The maximum size must be greater than zero");
+        }
+        this.maxSize = maxSize;
+        this.ttl = ttl.toMillis();
+        try {
+            this.cacheSalt = XMLSecurityConstants.generateBytes(16);
+        } catch (XMLSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Get a copy of the cached key derived from the given password, salt and iteration count.
+     *
+     * @return a copy of the derived key, or null if it is not cached
+     */
+    public byte[] get(byte[] password, byte[] salt, int iteration) throws WSSecurityException {
+        ByteBuffer key = getKey(password, salt, iteration);
+        CachedKey cachedKey = cache.get(key);
+        if (cachedKey != null) {
+            if (cachedKey.expiry > System.currentTimeMillis()) {
+                synchronized (cachedKey) {
+                    if (!cachedKey.destroyed) {
+                        hits.incrementAndGet();
+                        return cachedKey.derivedKey.clone();
+                    }
+                }
+            } else {
+                remove(key, cachedKey);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Cache a copy of the key derived from the given password, salt and iteration count.
+     */
+    public void put(byte[] password, byte[] salt, int iteration, byte[] derivedKey) throws WSSecurityException {
+        if (cache.size() >= maxSize) {
+            evict();
+        }
+        CachedKey previous = cache.put(getKey(password, salt, iteration),
+                                       new CachedKey(derivedKey.clone(), System.currentTimeMillis() + ttl));
+        if (previous != null) {
+            previous.destroy();
+        }
+    }
+
+    /**
+     * Remove all cached keys.
+     */
+    public void clear() {
+        Iterator<CachedKey> iterator = cache.values().iterator();
+        while (iterator.hasNext()) {
+            CachedKey cachedKey = iterator.next();
+            iterator.remove();
+            cachedKey.destroy();
+        }
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * @return the number of times a derived key was served from this cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of times a derived key was not found in this cache
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    private void evict() {
+        // Remove the expired keys first, then any keys until there is room for a new one
+        long now = System.currentTimeMillis();
+        cache.forEach((key, cachedKey) -> {
+            if (cachedKey.expiry <= now) {
+                remove(key, cachedKey);
+            }
+        });
+        Iterator<Map.Entry<ByteBuffer, CachedKey>> iterator = cache.entrySet().iterator();
+        while (cache.size() >= maxSize && iterator.hasNext()) {
+            Map.Entry<ByteBuffer, CachedKey> entry = iterator.next();
+            remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void remove(ByteBuffer key, CachedKey cachedKey) {
+        if (cache.remove(key, cachedKey)) {
+            cachedKey.destroy();
+        }
+    }
+
+    private ByteBuffer getKey(byte[] password, byte[] salt, int iteration) throws WSSecurityException {
+        MessageDigest digest = CryptoPrimitivePool.getMessageDigest("SHA-256", null);
+        try {
+            digest.update(cacheSalt);
+            digest.update((byte)(iteration >>> 24));
+            digest.update((byte)(iteration >>> 16));
+            digest.update((byte)(iteration >>> 8));
+            digest.update((byte)iteration);
+            digest.update((byte)(salt.length >>> 8));
+            digest.update((byte)salt.length);
+            digest.update(salt);
+            digest.update(password);
+            return ByteBuffer.wrap(digest.digest());
+        } finally {
+            CryptoPrimitivePool.releaseMessageDigest("SHA-256", null, digest);
+        }
+    }
+
+    private static final class CachedKey {
+        private final byte[] derivedKey;
+        private final long expiry;
+        // Guarded by the CachedKey itself
+        private boolean destroyed;
+
+        CachedKey(byte[] derivedKey, long expiry) {
+            this.derivedKey = derivedKey;
+            this.expiry = expiry;
+        }
+
+        synchronized void destroy() {
+            destroyed = true;
+            Arrays.fill(derivedKey, (byte)0);
+        }
+    }
+}
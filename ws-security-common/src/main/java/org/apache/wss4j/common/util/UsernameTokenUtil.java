@@ -21,8 +21,8 @@ package org.apache.wss4j.common.util;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 
 import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.CallbackHandler;
@@ -38,13 +38,18 @@ public final class UsernameTokenUtil {
     private static final org.slf4j.Logger LOG =
             org.slf4j.LoggerFactory.getLogger(UsernameTokenUtil.class);
 
+    private static final int SHA1_LENGTH = 20;
+
+    private static volatile UsernameTokenDerivedKeyCache derivedKeyCache = new UsernameTokenDerivedKeyCache();
+
     private UsernameTokenUtil() {
         // complete
     }
 
     /**
      * This static method generates a derived key as defined in WSS Username
-     * Token Profile.
+     * Token Profile. The key is served from the derived key cache (if any) if it was
+     * derived recently.
      *
      * @param password The password to include in the key generation
      * @param salt The Salt value
@@ -58,36 +63,91 @@ public final class UsernameTokenUtil {
         byte[] salt,
         int iteration
     ) throws WSSecurityException {
-        byte[] pwSalt = new byte[salt.length + password.length];
-        System.arraycopy(password, 0, pwSalt, 0, password.length);
-        System.arraycopy(salt, 0, pwSalt, password.length, salt.length);
+        return generateDerivedKey(password, salt, iteration, derivedKeyCache);
+    }
+
+    /**
+     * This static method generates a derived key as defined in WSS Username
+     * Token Profile.
+     *
+     * @param password The password to include in the key generation
+     * @param salt The Salt value
+     * @param iteration The Iteration value. If zero (0) is given the method uses the
+     *                  default value
+     * @param cache The cache of derived keys to use, which may be null
+     * @return Returns the derived key a byte array
+     * @throws WSSecurityException
+     */
+    public static byte[] generateDerivedKey(
+        byte[] password,
+        byte[] salt,
+        int iteration,
+        UsernameTokenDerivedKeyCache cache
+    ) throws WSSecurityException {
+        int iter = iteration;
+        if (iter <= 0) {
+            iter = DEFAULT_ITERATION;
+        }
+        if (cache != null) {
+            byte[] cachedKey = cache.get(password, salt, iter);
+            if (cachedKey != null) {
+                return cachedKey;
+            }
+        }
 
         MessageDigest sha = null;
         try {
-            sha = MessageDigest.getInstance("SHA1");
-        } catch (NoSuchAlgorithmException e) {
+            sha = CryptoPrimitivePool.getMessageDigest("SHA1", null);
+        } catch (WSSecurityException e) {
             LOG.debug(e.getMessage(), e);
             throw new WSSecurityException(
                 WSSecurityException.ErrorCode.FAILURE, e, "decoding.general"
             );
         }
-        //
-        // Make the first hash round with start value
-        //
-        byte[] k = sha.digest(pwSalt);
-        //
-        // Perform the 1st up to iteration-1 hash rounds
-        //
-        int iter = iteration;
-        if (iter <= 0) {
-            iter = DEFAULT_ITERATION;
+        byte[] k = new byte[SHA1_LENGTH];
+        try {
+            //
+            // Make the first hash round with start value
+            //
+            sha.update(password);
+            sha.update(salt);
+            sha.digest(k, 0, k.length);
+            //
+            // Perform the 1st up to iteration-1 hash rounds, in place
+            //
+            for (int i = 1; i < iter; i++) {
+                sha.update(k);
+                sha.digest(k, 0, k.length);
+            }
+        } catch (DigestException e) {
+            throw new WSSecurityException(
+                WSSecurityException.ErrorCode.FAILURE, e, "decoding.general"
+            );
+        } finally {
+            CryptoPrimitivePool.releaseMessageDigest("SHA1", null, sha);
         }
-        for (int i = 1; i < iter; i++) {
-            k = sha.digest(k);
+
+        if (cache != null) {
+            cache.put(password, salt, iter, k);
         }
         return k;
     }
 
+    /**
+     * Get the cache of derived keys that is used by default when generating a derived key.
+     */
+    public static UsernameTokenDerivedKeyCache getDerivedKeyCache() {
+        return derivedKeyCache;
+    }
+
+    /**
+     * Set the cache of derived keys that is used by default when generating a derived key.
+     * If it is null, then derived keys are not cached.
+     */
+    public static void setDerivedKeyCache(UsernameTokenDerivedKeyCache cache) {
+        derivedKeyCache = cache;
+    }
+
     /**
      * This static method generates a derived key as defined in WSS Username
      * Token Profile.
@@ -0,0 +1,162 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.cache;
+
+import java.io.IOException;
+import java.net.URL;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Some unit tests for sharing a ClusterReplayCache between nodes using an in-process backend
+ */
+public class ClusterReplayCacheTest {
+
+    @Test
+    public void testReplayAcrossNodes() throws IOException {
+        InMemoryReplayCacheBackend backend = new InMemoryReplayCacheBackend();
+        try (ReplayCache node1 = new ClusterReplayCache("nonce", backend);
+            ReplayCache node2 = new ClusterReplayCache("nonce", backend);
+            ReplayCache otherCache = new ClusterReplayCache("timestamp", backend)) {
+            String id = UUID.randomUUID().toString();
+            assertTrue(node1.addIfAbsent(id, Instant.now().plusSeconds(100L)));
+            assertFalse(node2.addIfAbsent(id));
+            assertTrue(node2.contains(id));
+
+            // A replay to the same node is detected by the near-cache
+            long requests = backend.getRequestCount();
+            assertFalse(node1.addIfAbsent(id));
+            assertEquals(requests, backend.getRequestCount());
+
+            // Caches with a different key do not share identifiers
+            assertFalse(otherCache.contains(id));
+        }
+    }
+
+    @Test
+    public void testBatching() throws Exception {
+        InMemoryReplayCacheBackend backend = new InMemoryReplayCacheBackend();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (ReplayCache cache = new ClusterReplayCache("nonce", backend)) {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                String id = UUID.randomUUID().toString();
+                results.add(executor.submit(() -> cache.addIfAbsent(id)));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+            assertEquals(1000, backend.size());
+            assertTrue(backend.getRequestCount() <= 1000);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testWriteBehind() throws IOException {
+        InMemoryReplayCacheBackend backend = new InMemoryReplayCacheBackend();
+        ClusterReplayCache node1 = new ClusterReplayCache("timestamp", backend);
+        node1.setWriteBehind(true);
+        String id = UUID.randomUUID().toString();
+        assertTrue(node1.addIfAbsent(id));
+        assertFalse(node1.addIfAbsent(id));
+
+        // Closing the cache flushes the pending writes
+        node1.close();
+        assertEquals(1, backend.size());
+        try (ReplayCache node2 = new ClusterReplayCache("timestamp", backend)) {
+            assertFalse(node2.addIfAbsent(id));
+        }
+    }
+
+    @Test
+    public void testFailClosed() throws IOException {
+        AtomicBoolean available = new AtomicBoolean();
+        ReplayCacheBackend failingBackend = new InMemoryReplayCacheBackend() {
+            @Override
+            public synchronized boolean[] putIfAbsent(String[] keys, long[] expiries) {
+                if (!available.get()) {
+                    throw new IllegalStateException("The backend is not available");
+                }
+                return super.putIfAbsent(keys, expiries);
+            }
+        };
+        try (ReplayCache cache = new ClusterReplayCache("nonce", failingBackend)) {
+            String id = UUID.randomUUID().toString();
+            assertFalse(cache.addIfAbsent(id));
+
+            // The failure is not remembered, so the identifier is accepted once the backend is back
+            available.set(true);
+            assertTrue(cache.addIfAbsent(id));
+            assertFalse(cache.addIfAbsent(id));
+        }
+    }
+
+    @Test
+    public void testFactorySelection() throws IOException, WSSecurityException {
+        assertTrue(ReplayCacheFactory.newInstance("cluster") instanceof ClusterReplayCacheFactory);
+        assertTrue(ReplayCacheFactory.newInstance("mapped") instanceof MappedReplayCacheFactory);
+        assertTrue(ReplayCacheFactory.newInstance("memory") instanceof MemoryReplayCacheFactory);
+        assertTrue(ReplayCacheFactory.newInstance(MemoryReplayCacheFactory.class.getName())
+            instanceof MemoryReplayCacheFactory);
+
+        Properties properties = new Properties();
+        properties.put(ClusterReplayCacheFactory.BACKEND, InMemoryReplayCacheBackend.class.getName());
+        properties.put(ClusterReplayCacheFactory.WRITE_BEHIND, "true");
+        properties.put(ClusterReplayCacheFactory.BATCH_SIZE, "10");
+        try (ClusterReplayCache cache = (ClusterReplayCache)
+            ReplayCacheFactory.newInstance("cluster").newReplayCache("nonce", properties)) {
+            assertTrue(cache.getBackend() instanceof InMemoryReplayCacheBackend);
+            assertTrue(cache.isWriteBehind());
+            assertEquals(10, cache.getBatchSize());
+        }
+
+        // A cluster cache needs a shared backend
+        assertThrows(WSSecurityException.class,
+            () -> ReplayCacheFactory.newInstance("cluster").newReplayCache("nonce", new Properties()));
+        assertThrows(WSSecurityException.class,
+            () -> ReplayCacheFactory.newInstance("cluster").newReplayCache("nonce", new URL("file:ehcache.xml")));
+
+        // The backend can be named with a system property, for the URL configuration that WSHandler passes
+        System.setProperty(ClusterReplayCacheFactory.BACKEND, InMemoryReplayCacheBackend.class.getName());
+        try (ClusterReplayCache cache = (ClusterReplayCache)
+            ReplayCacheFactory.newInstance("cluster").newReplayCache("nonce", new URL("file:ehcache.xml"))) {
+            assertTrue(cache.getBackend() instanceof InMemoryReplayCacheBackend);
+        } finally {
+            System.clearProperty(ClusterReplayCacheFactory.BACKEND);
+        }
+    }
+}
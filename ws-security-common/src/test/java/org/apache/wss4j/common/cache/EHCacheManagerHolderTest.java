@@ -19,6 +19,13 @@
 
 package org.apache.wss4j.common.cache;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.Status;
 import net.sf.ehcache.config.CacheConfiguration;
@@ -29,6 +36,7 @@ import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 /**
  *
@@ -80,4 +88,49 @@ public class EHCacheManagerHolderTest {
         assertEquals(3600, cacheConfig3.getTimeToIdleSeconds());
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testReferenceCounting() {
+        CacheManager cacheManager1 =
+            EHCacheManagerHolder.getCacheManager("testCache3",
+                                                 EHCacheManagerHolder.class.getResource("/test-ehcache2.xml"));
+        CacheManager cacheManager2 =
+            EHCacheManagerHolder.getCacheManager("testCache3",
+                                                 EHCacheManagerHolder.class.getResource("/test-ehcache2.xml"));
+        assertSame(cacheManager1, cacheManager2);
+
+        EHCacheManagerHolder.releaseCacheManger(cacheManager1);
+        assertEquals(Status.STATUS_ALIVE, cacheManager2.getStatus());
+        EHCacheManagerHolder.releaseCacheManger(cacheManager2);
+        assertEquals(Status.STATUS_SHUTDOWN, cacheManager2.getStatus());
+
+        // A CacheManager that has been shut down is replaced
+        CacheManager cacheManager3 =
+            EHCacheManagerHolder.getCacheManager("testCache3",
+                                                 EHCacheManagerHolder.class.getResource("/test-ehcache2.xml"));
+        assertEquals(Status.STATUS_ALIVE, cacheManager3.getStatus());
+        EHCacheManagerHolder.releaseCacheManger(cacheManager3);
+    }
+
+    @Test
+    public void testConcurrentGetAndRelease() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(executor.submit(() -> {
+                for (int j = 0; j < 50; j++) {
+                    CacheManager cacheManager =
+                        EHCacheManagerHolder.getCacheManager("testCache4",
+                                                             EHCacheManagerHolder.class.getResource("/test-ehcache2.xml"));
+                    // A CacheManager that is handed out is never shut down by a concurrent release
+                    assertEquals(Status.STATUS_ALIVE, cacheManager.getStatus());
+                    EHCacheManagerHolder.releaseCacheManger(cacheManager);
+                }
+            }));
+        }
+        executor.shutdown();
+        for (Future<?> future : futures) {
+            future.get(60L, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.wss4j.common.cache;
+
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.UUID;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Some unit tests for reporting the behaviour of the replay caches
+ */
+public class ReplayCacheMetricsTest {
+
+    @Test
+    public void testMonitoredReplayCache() throws Exception {
+        ReplayCacheMetrics metrics = new ReplayCacheMetrics();
+        MemoryReplayCache memoryCache = new MemoryReplayCache();
+        ReplayCache cache = new MonitoredReplayCache(memoryCache, ReplayCacheListener.ROLE_NONCE, metrics);
+
+        String id = UUID.randomUUID().toString();
+        assertFalse(cache.contains(id));
+        assertTrue(cache.addIfAbsent(id));
+        assertTrue(cache.contains(id));
+        assertFalse(cache.addIfAbsent(id));
+
+        ReplayCacheStatistics statistics = metrics.getStatistics(ReplayCacheListener.ROLE_NONCE);
+        assertEquals(ReplayCacheListener.ROLE_NONCE, statistics.getRole());
+        assertEquals(2, statistics.getLookupCount());
+        assertEquals(1, statistics.getHitCount());
+        assertEquals(0.5, statistics.getHitRate(), 0.001);
+        assertEquals(2, statistics.getAddCount());
+        assertEquals(1, statistics.getReplayCount());
+        assertEquals(1, statistics.getSize());
+        assertEquals(0, metrics.getStatistics(ReplayCacheListener.ROLE_TIMESTAMP).getLookupCount());
+
+        // Monitoring the same cache again is a no-op, as is monitoring it without a listener
+        assertSame(cache, MonitoredReplayCache.monitor(cache, ReplayCacheListener.ROLE_NONCE, metrics));
+        assertSame(cache, MonitoredReplayCache.monitor(cache, ReplayCacheListener.ROLE_NONCE, null));
+        assertSame(memoryCache, MonitoredReplayCache.monitor(memoryCache, ReplayCacheListener.ROLE_NONCE, null));
+
+        statistics.reset();
+        assertEquals(0, statistics.getLookupCount());
+        cache.close();
+    }
+
+    @Test
+    public void testExpiryAndRejectionReporting() throws Exception {
+        ReplayCacheMetrics metrics = new ReplayCacheMetrics();
+        MemoryReplayCache memoryCache = new MemoryReplayCache(1, MemoryReplayCache.OverloadPolicy.REJECT);
+        ReplayCache cache = new MonitoredReplayCache(memoryCache, ReplayCacheListener.ROLE_TIMESTAMP, metrics);
+
+        // Monitoring the shared cache per request, with another or no listener, does not take its
+        // internal events away from the listener it was configured with
+        ReplayCacheMetrics requestMetrics = new ReplayCacheMetrics();
+        ReplayCache requestCache =
+            MonitoredReplayCache.monitor(memoryCache, ReplayCacheListener.ROLE_TIMESTAMP, requestMetrics);
+        assertSame(memoryCache, MonitoredReplayCache.monitor(requestCache, ReplayCacheListener.ROLE_TIMESTAMP, null));
+        assertFalse(requestCache.contains("a"));
+        assertEquals(1, requestMetrics.getStatistics(ReplayCacheListener.ROLE_TIMESTAMP).getLookupCount());
+
+        assertTrue(cache.addIfAbsent("a", Instant.now().plusSeconds(1L)));
+        assertThrows(ReplayCacheFullException.class, () -> cache.addIfAbsent("b", Instant.now().plusSeconds(60L)));
+
+        ReplayCacheStatistics statistics = metrics.getStatistics(ReplayCacheListener.ROLE_TIMESTAMP);
+        assertEquals(1, statistics.getRejectionCount());
+
+        Thread.sleep(2100L);
+        memoryCache.processTokenExpiry();
+        assertTrue(statistics.getExpirySweepCount() > 0);
+        assertEquals(1, statistics.getExpiredCount());
+        cache.close();
+    }
+
+    @Test
+    public void testJMX() throws Exception {
+        ReplayCacheMetrics metrics = new ReplayCacheMetrics("test-" + UUID.randomUUID(), true);
+        ReplayCache cache = new MonitoredReplayCache(
+            new MemoryReplayCache(), ReplayCacheListener.ROLE_SAML_ONE_TIME_USE, metrics);
+        cache.add("a");
+        cache.contains("a");
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = metrics.getObjectName(ReplayCacheListener.ROLE_SAML_ONE_TIME_USE);
+        assertTrue(server.isRegistered(objectName));
+        assertEquals(1L, server.getAttribute(objectName, "HitCount"));
+        assertEquals(1, server.getAttribute(objectName, "Size"));
+
+        metrics.unregister();
+        assertFalse(server.isRegistered(objectName));
+        cache.close();
+    }
+
+    @Test
+    public void testJMXReplacesStaleMBean() throws Exception {
+        String name = "test-" + UUID.randomUUID();
+        String role = ReplayCacheListener.ROLE_NONCE;
+        ReplayCacheMetrics staleMetrics = new ReplayCacheMetrics(name, true);
+        staleMetrics.onLookup(role, true, 1L);
+
+        // A second instance with the same name, for example after a redeployment without unregister()
+        ReplayCacheMetrics metrics = new ReplayCacheMetrics(name, true);
+        metrics.onLookup(role, false, 1L);
+        metrics.onLookup(role, false, 1L);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = metrics.getObjectName(role);
+        assertEquals(2L, server.getAttribute(objectName, "LookupCount"));
+
+        // The stale instance does not unregister the MBean of the new instance
+        staleMetrics.unregister();
+        assertTrue(server.isRegistered(objectName));
+        assertEquals(2L, server.getAttribute(objectName, "LookupCount"));
+
+        metrics.unregister();
+        assertFalse(server.isRegistered(objectName));
+    }
+}
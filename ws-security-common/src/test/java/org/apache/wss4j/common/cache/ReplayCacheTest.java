@@ -21,12 +21,28 @@ package org.apache.wss4j.common.cache;
 
 import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.wss4j.common.ext.WSSecurityException;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
@@ -34,6 +50,9 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
  */
 public class ReplayCacheTest {
 
+    @TempDir
+    Path tempDir;
+
     @Test
     public void testMemoryReplayCache() throws InterruptedException, IOException {
         ReplayCache replayCache = new MemoryReplayCache();
@@ -43,6 +62,293 @@ public class ReplayCacheTest {
         replayCache.close();
     }
 
+    @Test
+    public void testMemoryReplayCacheBackgroundExpiry() throws InterruptedException, IOException {
+        MemoryReplayCache replayCache = new MemoryReplayCache();
+
+        String id = UUID.randomUUID().toString();
+        replayCache.add(id, Instant.now().plusSeconds(1L));
+        replayCache.add(UUID.randomUUID().toString());
+        assertEquals(2, replayCache.size());
+
+        // The expired identifier is removed by the sweeper, without calling contains()
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (replayCache.size() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100L);
+        }
+        assertEquals(1, replayCache.size());
+        assertFalse(replayCache.contains(id));
+
+        replayCache.close();
+    }
+
+    @Test
+    public void testMemoryReplayCacheConcurrentAccess() throws Exception {
+        MemoryReplayCache replayCache = new MemoryReplayCache();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(executor.submit(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    String id = UUID.randomUUID().toString();
+                    replayCache.add(id);
+                    assertTrue(replayCache.contains(id));
+                    assertFalse(replayCache.addIfAbsent(id));
+                }
+            }));
+        }
+        executor.shutdown();
+        // Rethrow any assertion failure of the tasks
+        for (Future<?> future : futures) {
+            future.get(30L, TimeUnit.SECONDS);
+        }
+        assertEquals(4000, replayCache.size());
+
+        replayCache.close();
+        assertEquals(0, replayCache.size());
+
+        // A closed cache would never expire new identifiers, so it does not accept them
+        assertThrows(IllegalStateException.class, () -> replayCache.add(UUID.randomUUID().toString()));
+        assertThrows(IllegalStateException.class, () -> replayCache.addIfAbsent(UUID.randomUUID().toString()));
+    }
+
+    @Test
+    public void testBoundedMemoryReplayCacheReject() throws IOException {
+        MemoryReplayCache replayCache = new MemoryReplayCache(2, MemoryReplayCache.OverloadPolicy.REJECT);
+
+        String id = UUID.randomUUID().toString();
+        assertTrue(replayCache.addIfAbsent(id));
+        assertTrue(replayCache.addIfAbsent(UUID.randomUUID().toString()));
+
+        // The cache is full, so new identifiers are rejected, which is not reported as a replay
+        String rejectedId = UUID.randomUUID().toString();
+        assertThrows(ReplayCacheFullException.class, () -> replayCache.addIfAbsent(rejectedId));
+        assertThrows(ReplayCacheFullException.class, () -> replayCache.add(rejectedId));
+        assertFalse(replayCache.contains(rejectedId));
+        assertFalse(replayCache.addIfAbsent(id));
+        assertEquals(2, replayCache.getRejectionCount());
+        assertEquals(0, replayCache.getEvictionCount());
+
+        // Re-adding an existing identifier does not need more room
+        replayCache.add(id);
+        assertEquals(2, replayCache.size());
+        assertEquals(2, replayCache.getRejectionCount());
+
+        replayCache.close();
+    }
+
+    @Test
+    public void testBoundedMemoryReplayCacheShortenTTL() throws IOException {
+        MemoryReplayCache replayCache =
+            new MemoryReplayCache(2, MemoryReplayCache.OverloadPolicy.SHORTEN_TTL);
+
+        String earliestId = UUID.randomUUID().toString();
+        replayCache.add(earliestId, Instant.now().plusSeconds(10L));
+        String latestId = UUID.randomUUID().toString();
+        replayCache.add(latestId, Instant.now().plusSeconds(100L));
+
+        // The identifier that is closest to expiry makes room for the new one
+        String id = UUID.randomUUID().toString();
+        assertTrue(replayCache.addIfAbsent(id));
+        assertFalse(replayCache.contains(earliestId));
+        assertTrue(replayCache.contains(latestId));
+        assertTrue(replayCache.contains(id));
+        assertEquals(2, replayCache.size());
+        assertEquals(1, replayCache.getEvictionCount());
+        assertEquals(0, replayCache.getRejectionCount());
+
+        replayCache.close();
+    }
+
+    @Test
+    public void testMemoryReplayCacheFactory() throws IOException {
+        Properties properties = new Properties();
+        properties.put(MemoryReplayCacheFactory.MAX_ENTRIES, "100");
+        properties.put(MemoryReplayCacheFactory.OVERLOAD_POLICY, "SHORTEN_TTL");
+
+        try (MemoryReplayCache replayCache =
+            (MemoryReplayCache)new MemoryReplayCacheFactory().newReplayCache("xyz", properties)) {
+            assertEquals(100, replayCache.getMaxEntries());
+            assertEquals(MemoryReplayCache.OverloadPolicy.SHORTEN_TTL, replayCache.getOverloadPolicy());
+        }
+    }
+
+    @Test
+    public void testFingerprintReplayCache() throws InterruptedException, IOException {
+        ReplayCache replayCache = new FingerprintReplayCache();
+
+        testReplayCacheInstance(replayCache);
+
+        replayCache.close();
+    }
+
+    @Test
+    public void testFingerprintReplayCacheResize() throws IOException {
+        FingerprintReplayCache replayCache = new FingerprintReplayCache();
+
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            String id = UUID.randomUUID().toString();
+            ids.add(id);
+            assertTrue(replayCache.addIfAbsent(id));
+        }
+        assertEquals(10000, replayCache.size());
+        for (String id : ids) {
+            assertTrue(replayCache.contains(id));
+            assertFalse(replayCache.addIfAbsent(id));
+        }
+        assertFalse(replayCache.contains(UUID.randomUUID().toString()));
+
+        replayCache.close();
+        assertEquals(0, replayCache.size());
+        assertFalse(replayCache.contains(ids.get(0)));
+    }
+
+    @Test
+    public void testFingerprintReplayCacheFactory() throws IOException {
+        Properties properties = new Properties();
+        properties.put(MemoryReplayCacheFactory.FINGERPRINT, "true");
+
+        try (ReplayCache replayCache = new MemoryReplayCacheFactory().newReplayCache("xyz", properties)) {
+            assertTrue(replayCache instanceof FingerprintReplayCache);
+        }
+    }
+
+    @Test
+    public void testMappedReplayCache() throws InterruptedException, IOException {
+        ReplayCache replayCache = new MappedReplayCache(tempDir.resolve("replay.cache"), 1);
+
+        testReplayCacheInstance(replayCache);
+
+        replayCache.close();
+    }
+
+    @Test
+    public void testMappedReplayCacheSurvivesReopen() throws IOException, WSSecurityException {
+        Properties properties = new Properties();
+        properties.put(MappedReplayCacheFactory.DIRECTORY, tempDir.toString());
+        properties.put(MappedReplayCacheFactory.CAPACITY, "10000");
+        ReplayCacheFactory factory = new MappedReplayCacheFactory();
+
+        String id = UUID.randomUUID().toString();
+        try (MappedReplayCache replayCache = (MappedReplayCache)factory.newReplayCache("abc", properties)) {
+            assertEquals(3 * MappedReplayCache.STRIPE_SLOTS, replayCache.getCapacity());
+            assertTrue(replayCache.addIfAbsent(id));
+
+            // A second instance for the same file shares the entries
+            try (ReplayCache sharedCache = factory.newReplayCache("abc", properties)) {
+                assertFalse(sharedCache.addIfAbsent(id));
+            }
+        }
+
+        // The entries are kept in the file after it is closed, and the existing capacity is used
+        properties.put(MappedReplayCacheFactory.CAPACITY, "1");
+        try (MappedReplayCache replayCache = (MappedReplayCache)factory.newReplayCache("abc", properties)) {
+            assertEquals(3 * MappedReplayCache.STRIPE_SLOTS, replayCache.getCapacity());
+            assertTrue(replayCache.contains(id));
+            assertFalse(replayCache.contains(UUID.randomUUID().toString()));
+        }
+    }
+
+    @Test
+    public void testMappedReplayCacheDirectory() throws IOException, WSSecurityException {
+        ReplayCacheFactory factory = new MappedReplayCacheFactory();
+
+        // There is no default directory
+        assertThrows(WSSecurityException.class,
+            () -> factory.newReplayCache("abc", new URL("file:ehcache.xml")));
+
+        if (!tempDir.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            return;
+        }
+
+        // A new directory can only be accessed by its owner
+        Path directory = tempDir.resolve("replay");
+        try (ReplayCache replayCache = factory.newReplayCache("abc", directory)) {
+            assertEquals(PosixFilePermissions.fromString("rwx------"), Files.getPosixFilePermissions(directory));
+        }
+
+        // An existing directory that other users can write to is rejected
+        Path sharedDirectory = Files.createDirectory(tempDir.resolve("shared"));
+        Files.setPosixFilePermissions(sharedDirectory, PosixFilePermissions.fromString("rwxrwxrwx"));
+        assertThrows(WSSecurityException.class, () -> factory.newReplayCache("abc", sharedDirectory));
+    }
+
+    @Test
+    public void testMappedReplayCacheFull() throws IOException {
+        try (MappedReplayCache replayCache = new MappedReplayCache(tempDir.resolve("full.cache"), 1)) {
+            AtomicInteger reportedEvictions = new AtomicInteger();
+            replayCache.setListener(new ReplayCacheListener() {
+                @Override
+                public void onEviction(String role, int count) {
+                    reportedEvictions.addAndGet(count);
+                }
+            }, ReplayCacheListener.ROLE_TIMESTAMP);
+
+            // Adding more identifiers than slots overwrites the oldest ones, rather than failing
+            List<String> ids = new ArrayList<>();
+            for (int i = 0; i < 2 * MappedReplayCache.STRIPE_SLOTS; i++) {
+                String id = UUID.randomUUID().toString();
+                ids.add(id);
+                assertTrue(replayCache.addIfAbsent(id, Instant.now().plusSeconds(100L + i)));
+            }
+            assertTrue(replayCache.contains(ids.get(ids.size() - 1)));
+            assertTrue(replayCache.getEvictionCount() >= MappedReplayCache.STRIPE_SLOTS);
+            assertEquals(replayCache.getEvictionCount(), reportedEvictions.get());
+        }
+    }
+
+    @Test
+    public void testBloomFilterReplayCache() throws InterruptedException, IOException {
+        ReplayCache replayCache = new BloomFilterReplayCache(new MemoryReplayCache());
+
+        testReplayCacheInstance(replayCache);
+
+        replayCache.close();
+    }
+
+    @Test
+    public void testBloomFilterSkipsBackingCache() throws IOException {
+        MemoryReplayCache backingCache = new MemoryReplayCache();
+        BloomFilterReplayCache replayCache = new BloomFilterReplayCache(backingCache);
+
+        String id = UUID.randomUUID().toString();
+        assertFalse(replayCache.contains(id));
+        assertTrue(replayCache.addIfAbsent(id));
+        assertTrue(backingCache.contains(id));
+        assertEquals(1, replayCache.getFilteredCount());
+
+        // A replay has to be confirmed by the backing cache
+        assertFalse(replayCache.addIfAbsent(id));
+        assertTrue(replayCache.contains(id));
+        assertEquals(1, replayCache.getFilteredCount());
+
+        // addIfAbsent is left to the backing cache, even if the filters have not seen the identifier
+        String otherId = UUID.randomUUID().toString();
+        backingCache.add(otherId);
+        assertFalse(replayCache.addIfAbsent(otherId));
+
+        replayCache.close();
+    }
+
+    @Test
+    public void testBloomFilterWarmUp() throws IOException {
+        MemoryReplayCache backingCache = new MemoryReplayCache();
+        String id = UUID.randomUUID().toString();
+        backingCache.add(id);
+
+        // The identifier was added before the filters existed, so they must not be trusted yet
+        BloomFilterReplayCache replayCache =
+            new BloomFilterReplayCache(backingCache, Duration.ofHours(1L), Duration.ofMinutes(5L),
+                                       1000, 0.01, Duration.ofHours(1L));
+        assertTrue(replayCache.contains(id));
+        assertFalse(replayCache.addIfAbsent(id));
+        assertEquals(0, replayCache.getFilteredCount());
+
+        replayCache.close();
+    }
+
     @Test
     public void testEhCacheReplayCache() throws InterruptedException, IOException {
         ReplayCache replayCache = new EHCacheReplayCache("xyz", (URL)null);
@@ -70,5 +376,18 @@ public class ReplayCacheTest {
         Thread.sleep(1250L);
         assertFalse(replayCache.contains(id));
 
+        // Test adding if absent
+        id = UUID.randomUUID().toString();
+        assertTrue(replayCache.addIfAbsent(id));
+        assertFalse(replayCache.addIfAbsent(id));
+        assertTrue(replayCache.contains(id));
+
+        id = UUID.randomUUID().toString();
+        assertTrue(replayCache.addIfAbsent(id, Instant.now().plusSeconds(1L)));
+        assertFalse(replayCache.addIfAbsent(id, Instant.now().plusSeconds(1L)));
+        // EhCache rounds the creation time of an element added with putIfAbsent up to the next second
+        Thread.sleep(2250L);
+        assertTrue(replayCache.addIfAbsent(id, Instant.now().plusSeconds(100L)));
+        assertTrue(replayCache.contains(id));
     }
 }
\ No newline at end of file
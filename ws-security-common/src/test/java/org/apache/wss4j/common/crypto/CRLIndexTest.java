@@ -0,0 +1,300 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.CertPathValidator;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.CertStore;
+import java.security.cert.CertificateFactory;
+import java.security.cert.CollectionCertStoreParameters;
+import java.security.cert.PKIXParameters;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.Loader;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.CRLNumber;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CRLConverter;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Some tests for checking revocation against an index of the CRLs.
+ */
+public class CRLIndexTest {
+
+    private static final long DAY = 24L * 60L * 60L * 1000L;
+
+    @Test
+    public void testMerlinCRLIndex() throws Exception {
+        Properties properties = new Properties();
+        properties.put(Merlin.PREFIX + Merlin.TRUSTSTORE_FILE, "keys/wss40CA.jks");
+        properties.put(Merlin.PREFIX + Merlin.TRUSTSTORE_PASSWORD, "security");
+        properties.put(Merlin.PREFIX + Merlin.X509_CRL_FILE, "keys/wss40CACRL.pem");
+        properties.put(Merlin.PREFIX + Merlin.X509_CRL_INDEX, "true");
+
+        Merlin crypto = new Merlin(properties, Loader.getClassLoader(getClass()), null);
+        CRLIndex index = crypto.getCRLIndex();
+        assertNotNull(index);
+        assertEquals(3, index.getEntryCount());
+        assertTrue(index.getBuildTimeMillis() >= 0);
+
+        X509Certificate[] certs = new X509Certificate[] {getCertificate("keys/wss40.jks", "wss40")};
+        crypto.verifyTrust(certs, true, null, null);
+
+        X509Certificate[] revokedCerts = new X509Certificate[] {getCertificate("keys/wss40rev.jks", "wss40rev")};
+        crypto.verifyTrust(revokedCerts, false, null, null);
+        assertThrows(WSSecurityException.class, () -> crypto.verifyTrust(revokedCerts, true, null, null));
+
+        // Without any CRLs the revocation status cannot be determined
+        crypto.setCRLCertStore(
+            CertStore.getInstance("Collection", new CollectionCertStoreParameters(Collections.emptyList())));
+        assertThrows(WSSecurityException.class, () -> crypto.verifyTrust(certs, true, null, null));
+    }
+
+    @Test
+    public void testDeltaCRL() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        KeyPair caKeyPair = keyPairGenerator.generateKeyPair();
+        X500Principal caName = new X500Principal("CN=CRL Test CA");
+        X509Certificate caCert = createCertificate(caName, caName, BigInteger.ONE, caKeyPair, caKeyPair.getPrivate(), true);
+
+        X509Certificate cert5 = createCertificate(
+            caName, new X500Principal("CN=Five"), BigInteger.valueOf(5),
+            keyPairGenerator.generateKeyPair(), caKeyPair.getPrivate(), false);
+        X509Certificate cert6 = createCertificate(
+            caName, new X500Principal("CN=Six"), BigInteger.valueOf(6),
+            keyPairGenerator.generateKeyPair(), caKeyPair.getPrivate(), false);
+
+        // The complete CRL revokes 5, the delta CRL removes 5 and revokes 6
+        X509CRL baseCRL = createCRL(caName, caKeyPair.getPrivate(), BigInteger.ONE, null, 5, CRLReason.keyCompromise);
+        X509CRL deltaCRL = createCRL(caName, caKeyPair.getPrivate(), BigInteger.valueOf(2), BigInteger.ONE,
+                                     5, CRLReason.removeFromCRL, 6, CRLReason.keyCompromise);
+
+        CRLIndex baseIndex = new CRLIndex(Collections.singletonList(baseCRL));
+        assertNotNull(baseIndex.getRevokedEntry(caName, BigInteger.valueOf(5)));
+        assertNull(baseIndex.getRevokedEntry(caName, BigInteger.valueOf(6)));
+
+        CRLIndex index = new CRLIndex(Arrays.asList(deltaCRL, baseCRL));
+        assertNull(index.getRevokedEntry(caName, BigInteger.valueOf(5)));
+        assertNotNull(index.getRevokedEntry(caName, BigInteger.valueOf(6)));
+        assertEquals(1, index.getEntryCount());
+
+        // A delta CRL without its complete CRL is ignored
+        CRLIndex deltaIndex = new CRLIndex(Collections.singletonList(deltaCRL));
+        assertTrue(deltaIndex.getIssuers().isEmpty());
+
+        Set<TrustAnchor> trustAnchors = Collections.singleton(new TrustAnchor(caCert, null));
+        validate(cert5, index, trustAnchors);
+        CertPathValidatorException ex =
+            assertThrows(CertPathValidatorException.class, () -> validate(cert6, index, trustAnchors));
+        assertEquals(CertPathValidatorException.BasicReason.REVOKED, ex.getReason());
+    }
+
+    @Test
+    public void testIssuerKeyRollover() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        KeyPair oldKeyPair = keyPairGenerator.generateKeyPair();
+        KeyPair newKeyPair = keyPairGenerator.generateKeyPair();
+        X500Principal caName = new X500Principal("CN=CRL Rollover CA");
+        X509Certificate oldCACert =
+            createCertificate(caName, caName, BigInteger.ONE, oldKeyPair, oldKeyPair.getPrivate(), true);
+        X509Certificate newCACert =
+            createCertificate(caName, caName, BigInteger.valueOf(2), newKeyPair, newKeyPair.getPrivate(), true);
+
+        X509Certificate cert = createCertificate(
+            caName, new X500Principal("CN=Seven"), BigInteger.valueOf(7),
+            keyPairGenerator.generateKeyPair(), newKeyPair.getPrivate(), false);
+
+        // The old key only signed an expired CRL, and the new key signed an expired CRL that has
+        // been superseded by a current one
+        Date expired = new Date(System.currentTimeMillis() - 3 * DAY);
+        X509CRL oldKeyCRL = createCRL(caName, oldKeyPair.getPrivate(), expired, BigInteger.ONE, null);
+        X509CRL supersededCRL = createCRL(caName, newKeyPair.getPrivate(), expired, BigInteger.valueOf(2), null);
+        X509CRL currentCRL = createCRL(caName, newKeyPair.getPrivate(), BigInteger.valueOf(3), null);
+        CRLIndex index = new CRLIndex(Arrays.asList(oldKeyCRL, currentCRL, supersededCRL));
+
+        validate(cert, index, Collections.singleton(new TrustAnchor(newCACert, null)));
+
+        CertPathValidatorException ex = assertThrows(CertPathValidatorException.class,
+            () -> validate(cert, new CRLIndex(Arrays.asList(oldKeyCRL, supersededCRL)),
+                           Collections.singleton(new TrustAnchor(newCACert, null))));
+        assertEquals(CertPathValidatorException.BasicReason.UNDETERMINED_REVOCATION_STATUS, ex.getReason());
+
+        // No CRL is signed by an unrelated key of the same name
+        KeyPair otherKeyPair = keyPairGenerator.generateKeyPair();
+        assertThrows(GeneralSecurityException.class,
+            () -> index.verifyCRLs(caName, otherKeyPair.getPublic(), new Date()));
+        assertFalse(index.verifyCRLs(caName, oldCACert.getPublicKey(), new Date()));
+        assertTrue(index.verifyCRLs(caName, newCACert.getPublicKey(), new Date()));
+    }
+
+    @Test
+    public void testSupersededCRL() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        KeyPair caKeyPair = keyPairGenerator.generateKeyPair();
+        X500Principal caName = new X500Principal("CN=CRL Hold CA");
+        X509Certificate caCert = createCertificate(caName, caName, BigInteger.ONE, caKeyPair, caKeyPair.getPrivate(), true);
+
+        X509Certificate cert = createCertificate(
+            caName, new X500Principal("CN=Five"), BigInteger.valueOf(5),
+            keyPairGenerator.generateKeyPair(), caKeyPair.getPrivate(), false);
+
+        // The older CRL puts 5 on hold, and the newer CRL releases it again
+        X509CRL heldCRL = createCRL(caName, caKeyPair.getPrivate(), BigInteger.ONE, null, 5, CRLReason.certificateHold);
+        X509CRL releasedCRL = createCRL(caName, caKeyPair.getPrivate(), BigInteger.valueOf(2), null);
+        // A delta CRL that is not newer than the complete CRL is superseded by it
+        X509CRL supersededDeltaCRL = createCRL(caName, caKeyPair.getPrivate(), BigInteger.valueOf(2), BigInteger.ONE,
+                                               5, CRLReason.certificateHold);
+
+        CRLIndex index = new CRLIndex(Arrays.asList(releasedCRL, heldCRL, supersededDeltaCRL));
+        assertNull(index.getRevokedEntry(caName, BigInteger.valueOf(5)));
+        assertEquals(0, index.getEntryCount());
+        validate(cert, index, Collections.singleton(new TrustAnchor(caCert, null)));
+    }
+
+    @Test
+    public void testSigningKeysIndexedSeparately() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        KeyPair oldKeyPair = keyPairGenerator.generateKeyPair();
+        KeyPair newKeyPair = keyPairGenerator.generateKeyPair();
+        X500Principal caName = new X500Principal("CN=CRL Key CA");
+
+        // The CRL of the old key is older than the CRL of the new key, but is not superseded by it
+        X509CRL oldKeyCRL = createCRL(caName, oldKeyPair.getPrivate(), oldKeyPair.getPublic(),
+                                      new Date(System.currentTimeMillis() - DAY), BigInteger.ONE, null,
+                                      8, CRLReason.keyCompromise);
+        X509CRL newKeyCRL = createCRL(caName, newKeyPair.getPrivate(), newKeyPair.getPublic(),
+                                      new Date(System.currentTimeMillis() - DAY), BigInteger.valueOf(2), null,
+                                      9, CRLReason.keyCompromise);
+
+        CRLIndex index = new CRLIndex(Arrays.asList(oldKeyCRL, newKeyCRL));
+        assertNotNull(index.getRevokedEntry(caName, BigInteger.valueOf(8)));
+        assertNotNull(index.getRevokedEntry(caName, BigInteger.valueOf(9)));
+        assertEquals(2, index.getEntryCount());
+    }
+
+    private static void validate(X509Certificate cert, CRLIndex index, Set<TrustAnchor> trustAnchors)
+        throws Exception {
+        PKIXParameters param = new PKIXParameters(trustAnchors);
+        param.setRevocationEnabled(false);
+        param.addCertPathChecker(new CRLRevocationChecker(index, trustAnchors));
+        CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+        CertPathValidator.getInstance("PKIX").validate(
+            certificateFactory.generateCertPath(Collections.singletonList(cert)), param);
+    }
+
+    private static X509Certificate createCertificate(
+        X500Principal issuer, X500Principal subject, BigInteger serial,
+        KeyPair keyPair, PrivateKey signingKey, boolean ca
+    ) throws Exception {
+        Date now = new Date();
+        JcaX509v3CertificateBuilder builder =
+            new JcaX509v3CertificateBuilder(issuer, serial, new Date(now.getTime() - DAY),
+                                            new Date(now.getTime() + DAY), subject, keyPair.getPublic());
+        if (ca) {
+            builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(true));
+        }
+        ContentSigner signer = new JcaContentSignerBuilder("SHA256withRSA").build(signingKey);
+        return new JcaX509CertificateConverter().getCertificate(builder.build(signer));
+    }
+
+    private static X509CRL createCRL(
+        X500Principal issuer, PrivateKey signingKey, BigInteger crlNumber, BigInteger baseCRLNumber,
+        int... serialsAndReasons
+    ) throws Exception {
+        return createCRL(issuer, signingKey, new Date(System.currentTimeMillis() - DAY), crlNumber, baseCRLNumber,
+                         serialsAndReasons);
+    }
+
+    private static X509CRL createCRL(
+        X500Principal issuer, PrivateKey signingKey, Date thisUpdate, BigInteger crlNumber,
+        BigInteger baseCRLNumber, int... serialsAndReasons
+    ) throws Exception {
+        return createCRL(issuer, signingKey, null, thisUpdate, crlNumber, baseCRLNumber, serialsAndReasons);
+    }
+
+    private static X509CRL createCRL(
+        X500Principal issuer, PrivateKey signingKey, PublicKey authorityKey, Date thisUpdate, BigInteger crlNumber,
+        BigInteger baseCRLNumber, int... serialsAndReasons
+    ) throws Exception {
+        X509v2CRLBuilder builder = new X509v2CRLBuilder(X500Name.getInstance(issuer.getEncoded()), thisUpdate);
+        builder.setNextUpdate(new Date(thisUpdate.getTime() + 2 * DAY));
+        for (int i = 0; i < serialsAndReasons.length; i += 2) {
+            builder.addCRLEntry(BigInteger.valueOf(serialsAndReasons[i]), thisUpdate,
+                                serialsAndReasons[i + 1]);
+        }
+        builder.addExtension(Extension.cRLNumber, false, new CRLNumber(crlNumber));
+        if (baseCRLNumber != null) {
+            builder.addExtension(Extension.deltaCRLIndicator, true, new CRLNumber(baseCRLNumber));
+        }
+        if (authorityKey != null) {
+            builder.addExtension(Extension.authorityKeyIdentifier, false,
+                                 new JcaX509ExtensionUtils().createAuthorityKeyIdentifier(authorityKey));
+        }
+        ContentSigner signer = new JcaContentSignerBuilder("SHA256withRSA").build(signingKey);
+        return new JcaX509CRLConverter().getCRL(builder.build(signer));
+    }
+
+    private static X509Certificate getCertificate(String location, String alias) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        ClassLoader loader = Loader.getClassLoader(CRLIndexTest.class);
+        try (InputStream input = Merlin.loadInputStream(loader, location)) {
+            keyStore.load(input, "security".toCharArray());
+        }
+        return (X509Certificate)keyStore.getCertificate(alias);
+    }
+}
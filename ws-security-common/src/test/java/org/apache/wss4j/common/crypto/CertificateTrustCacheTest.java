@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.cert.CertStore;
+import java.security.cert.CollectionCertStoreParameters;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.regex.Pattern;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.Loader;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Some tests for caching certificate trust decisions in Merlin.
+ */
+public class CertificateTrustCacheTest {
+
+    @Test
+    public void testCachedTrust() throws Exception {
+        Merlin crypto = new Merlin();
+        crypto.setTrustStore(loadKeyStore("keys/wss40CA.jks"));
+        CertificateTrustCache cache = new CertificateTrustCache(10, 60L);
+        crypto.setCertificateTrustCache(cache);
+
+        X509Certificate[] certs = new X509Certificate[] {getCertificate("keys/wss40.jks", "wss40")};
+
+        crypto.verifyTrust(certs, false, null, null);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.size());
+
+        crypto.verifyTrust(certs, false, null, null);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // Different constraints are not served from the cache
+        Pattern pattern = Pattern.compile(".*CN=Colm.*");
+        crypto.verifyTrust(certs, false, Collections.singletonList(pattern), null);
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.size());
+
+        Pattern nonMatchingPattern = Pattern.compile(".*CN=Bob.*");
+        assertThrows(WSSecurityException.class, () ->
+            crypto.verifyTrust(certs, false, null, Collections.singletonList(nonMatchingPattern)));
+        assertEquals(2, cache.size());
+
+        // Reloading the CRLs clears the cache
+        crypto.setCRLCertStore(
+            CertStore.getInstance("Collection", new CollectionCertStoreParameters(Collections.emptyList())));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testExpiredCertificateIsNotCached() throws Exception {
+        CertificateTrustCache cache = new CertificateTrustCache(10, 60L);
+        X509Certificate[] certs = new X509Certificate[] {getCertificate("keys/wss40exp.jks", "wss40exp")};
+
+        cache.addTrusted(certs, false, null, null);
+        assertEquals(0, cache.size());
+        assertFalse(cache.isTrusted(certs, false, null, null));
+    }
+
+    @Test
+    public void testMaxSize() throws Exception {
+        CertificateTrustCache cache = new CertificateTrustCache(1, 60L);
+        X509Certificate[] certs = new X509Certificate[] {getCertificate("keys/wss40.jks", "wss40")};
+
+        cache.addTrusted(certs, false, null, null);
+        cache.addTrusted(certs, true, null, null);
+        assertEquals(1, cache.size());
+    }
+
+    private static X509Certificate getCertificate(String location, String alias) throws Exception {
+        return (X509Certificate)loadKeyStore(location).getCertificate(alias);
+    }
+
+    private static KeyStore loadKeyStore(String location) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        ClassLoader loader = Loader.getClassLoader(CertificateTrustCacheTest.class);
+        try (InputStream input = Merlin.loadInputStream(loader, location)) {
+            keyStore.load(input, "security".toCharArray());
+        }
+        return keyStore;
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.Loader;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Some tests for validating several candidate issuing chains concurrently in Merlin.
+ */
+public class ConcurrentTrustVerificationTest {
+
+    @Test
+    public void testConcurrentCandidateChains() throws Exception {
+        // Two CA certificates with the same subject DN, only one of which issued the certificate
+        KeyStore trustStore = KeyStore.getInstance("JKS");
+        trustStore.load(null, null);
+        trustStore.setCertificateEntry("badca", getCertificate("keys/wss40badca.jks", "wss40ca"));
+        trustStore.setCertificateEntry("ca", getCertificate("keys/wss40CA.jks", "wss40ca"));
+
+        X509Certificate[] certs = new X509Certificate[] {getCertificate("keys/wss40.jks", "wss40")};
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Merlin crypto = new Merlin();
+            crypto.setTrustStore(trustStore);
+            crypto.setTrustVerificationExecutor(executor);
+            for (int i = 0; i < 10; i++) {
+                crypto.verifyTrust(certs, false, null, null);
+            }
+
+            // Only the wrong CA certificate is available
+            KeyStore badTrustStore = KeyStore.getInstance("JKS");
+            badTrustStore.load(null, null);
+            badTrustStore.setCertificateEntry("badca", getCertificate("keys/wss40badca.jks", "wss40ca"));
+            badTrustStore.setCertificateEntry("badca2", getCertificate("keys/wss40badca.jks", "wss40ca"));
+            crypto.setTrustStore(badTrustStore);
+            assertThrows(WSSecurityException.class, () -> crypto.verifyTrust(certs, false, null, null));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testExecutorConfiguration() throws Exception {
+        Properties properties = new Properties();
+        properties.put(Merlin.PREFIX + Merlin.TRUSTSTORE_FILE, "keys/wss40CA.jks");
+        properties.put(Merlin.PREFIX + Merlin.TRUSTSTORE_PASSWORD, "security");
+        properties.put(Merlin.PREFIX + Merlin.TRUST_VERIFY_THREADS, "2");
+
+        Merlin crypto = new Merlin(properties, Loader.getClassLoader(getClass()), null);
+        assertNotNull(crypto.getTrustVerificationExecutor());
+        crypto.verifyTrust(new X509Certificate[] {getCertificate("keys/wss40.jks", "wss40")}, false, null, null);
+
+        // The executor is shared, rather than created per Merlin instance or per reload
+        Merlin otherCrypto = new Merlin(properties, Loader.getClassLoader(getClass()), null);
+        assertSame(crypto.getTrustVerificationExecutor(), otherCrypto.getTrustVerificationExecutor());
+
+        properties.put(Merlin.PREFIX + ReloadableMerlin.RELOAD_INTERVAL, "0");
+        try (ReloadableMerlin reloadableCrypto =
+            new ReloadableMerlin(properties, Loader.getClassLoader(getClass()), null)) {
+            reloadableCrypto.reload();
+            assertSame(crypto.getTrustVerificationExecutor(), reloadableCrypto.getTrustVerificationExecutor());
+        }
+    }
+
+    private static X509Certificate getCertificate(String location, String alias) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        ClassLoader loader = Loader.getClassLoader(ConcurrentTrustVerificationTest.class);
+        try (InputStream input = Merlin.loadInputStream(loader, location)) {
+            keyStore.load(input, "security".toCharArray());
+        }
+        return (X509Certificate)keyStore.getCertificate(alias);
+    }
+}
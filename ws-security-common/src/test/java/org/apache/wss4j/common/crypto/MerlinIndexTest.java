@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.cert.X509Certificate;
+
+import org.apache.wss4j.common.util.Loader;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Some tests for the certificate index used by Merlin for lookups in the keystore and truststore.
+ */
+public class MerlinIndexTest {
+
+    @Test
+    public void testLookups() throws Exception {
+        Merlin crypto = new Merlin();
+        crypto.setKeyStore(loadKeyStore("keys/wss40.jks"));
+
+        X509Certificate cert = getCertificate(crypto, "wss40");
+
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ISSUER_SERIAL);
+        cryptoType.setIssuerSerial(cert.getIssuerX500Principal().getName(), cert.getSerialNumber());
+        assertEquals(cert, crypto.getX509Certificates(cryptoType)[0]);
+
+        cryptoType = new CryptoType(CryptoType.TYPE.SKI_BYTES);
+        cryptoType.setBytes(crypto.getSKIBytesFromCert(cert));
+        assertEquals(cert, crypto.getX509Certificates(cryptoType)[0]);
+
+        cryptoType = new CryptoType(CryptoType.TYPE.THUMBPRINT_SHA1);
+        cryptoType.setBytes(MessageDigest.getInstance("SHA-1").digest(cert.getEncoded()));
+        assertEquals(cert, crypto.getX509Certificates(cryptoType)[0]);
+
+        cryptoType = new CryptoType(CryptoType.TYPE.SUBJECT_DN);
+        cryptoType.setSubjectDN(cert.getSubjectX500Principal().getName());
+        assertNotNull(crypto.getX509Certificates(cryptoType));
+
+        assertEquals("wss40", crypto.getX509Identifier(cert));
+        crypto.verifyTrust(cert.getPublicKey());
+    }
+
+    @Test
+    public void testStoreChanges() throws Exception {
+        Merlin crypto = new Merlin();
+        KeyStore trustStore = loadKeyStore("keys/wss40CA.jks");
+        crypto.setTrustStore(trustStore);
+
+        Merlin keyCrypto = new Merlin();
+        keyCrypto.setKeyStore(loadKeyStore("keys/wss40.jks"));
+        X509Certificate cert = getCertificate(keyCrypto, "wss40");
+        X509Certificate serverCert = getCertificate(keyCrypto, "wss40ec");
+
+        assertNull(crypto.getX509Identifier(cert));
+
+        // A new entry is picked up automatically
+        trustStore.setCertificateEntry("partner", cert);
+        assertEquals("partner", crypto.getX509Identifier(cert));
+
+        // A replaced entry requires an explicit rebuild
+        trustStore.setCertificateEntry("partner", serverCert);
+        assertEquals("partner", crypto.getX509Identifier(cert));
+        crypto.rebuildIndex();
+        assertNull(crypto.getX509Identifier(cert));
+        assertEquals("partner", crypto.getX509Identifier(serverCert));
+
+        // Setting a new truststore discards the old index
+        crypto.setTrustStore(loadKeyStore("keys/wss40CA.jks"));
+        assertNull(crypto.getX509Identifier(serverCert));
+    }
+
+    private static X509Certificate getCertificate(Crypto crypto, String alias) throws Exception {
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ALIAS);
+        cryptoType.setAlias(alias);
+        return crypto.getX509Certificates(cryptoType)[0];
+    }
+
+    private static KeyStore loadKeyStore(String location) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        ClassLoader loader = Loader.getClassLoader(MerlinIndexTest.class);
+        try (InputStream input = Merlin.loadInputStream(loader, location)) {
+            keyStore.load(input, "security".toCharArray());
+        }
+        return keyStore;
+    }
+}
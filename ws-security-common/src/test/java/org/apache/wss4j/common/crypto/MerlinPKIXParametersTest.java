@@ -0,0 +1,71 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.InputStream;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyStore;
+import java.security.cert.PKIXParameters;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509Certificate;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.wss4j.common.util.Loader;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Some tests for the PKIXParameters that Merlin validates certificate paths with.
+ */
+public class MerlinPKIXParametersTest {
+
+    @Test
+    public void testOverriddenCreatePKIXParameters() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        Merlin crypto = new Merlin() {
+            @Override
+            protected PKIXParameters createPKIXParameters(Set<TrustAnchor> trustAnchors, boolean enableRevocation)
+                throws InvalidAlgorithmParameterException {
+                calls.incrementAndGet();
+                return super.createPKIXParameters(trustAnchors, enableRevocation);
+            }
+        };
+        crypto.setTrustStore(loadKeyStore("keys/wss40CA.jks"));
+
+        X509Certificate[] certs =
+            new X509Certificate[] {(X509Certificate)loadKeyStore("keys/wss40.jks").getCertificate("wss40")};
+
+        // An override is called for every verification
+        crypto.verifyTrust(certs, false, null, null);
+        crypto.verifyTrust(certs, false, null, null);
+        assertEquals(2, calls.get());
+    }
+
+    private static KeyStore loadKeyStore(String location) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        ClassLoader loader = Loader.getClassLoader(MerlinPKIXParametersTest.class);
+        try (InputStream input = Merlin.loadInputStream(loader, location)) {
+            keyStore.load(input, "security".toCharArray());
+        }
+        return keyStore;
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.Loader;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Some tests for caching the private keys recovered from the keystore in Merlin.
+ */
+public class PrivateKeyCacheTest {
+
+    @Test
+    public void testCachedPrivateKey() throws Exception {
+        Merlin crypto = new Merlin();
+        crypto.setKeyStore(loadKeyStore("keys/wss40.jks"));
+        // Private keys are not cached by default
+        assertNull(crypto.getPrivateKeyCache());
+        PrivateKeyCache cache = new PrivateKeyCache();
+        crypto.setPrivateKeyCache(cache);
+
+        PrivateKey privateKey = crypto.getPrivateKey("wss40", "security");
+        assertSame(privateKey, crypto.getPrivateKey("wss40", "security"));
+        assertEquals(1, cache.getLoadCount());
+        assertEquals(1, cache.getHitCount());
+
+        // The password is still checked for a cached key
+        assertThrows(WSSecurityException.class, () -> crypto.getPrivateKey("wss40", "wrong"));
+        assertEquals(1, cache.getHitCount());
+
+        // Setting a new keystore clears the cache
+        crypto.setKeyStore(loadKeyStore("keys/wss40.jks"));
+        assertEquals(0, cache.size());
+        crypto.getPrivateKey("wss40", "security");
+        assertEquals(2, cache.getLoadCount());
+    }
+
+    @Test
+    public void testMaxSize() throws Exception {
+        Merlin crypto = new Merlin();
+        crypto.setKeyStore(loadKeyStore("keys/wss40.jks"));
+        PrivateKeyCache cache = new PrivateKeyCache(1);
+        crypto.setPrivateKeyCache(cache);
+
+        crypto.getPrivateKey("wss40", "security");
+        crypto.getPrivateKey("wss40dsa", "security");
+        assertEquals(1, cache.size());
+    }
+
+    private static KeyStore loadKeyStore(String location) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        ClassLoader loader = Loader.getClassLoader(PrivateKeyCacheTest.class);
+        try (InputStream input = Merlin.loadInputStream(loader, location)) {
+            keyStore.load(input, "security".toCharArray());
+        }
+        return keyStore;
+    }
+}
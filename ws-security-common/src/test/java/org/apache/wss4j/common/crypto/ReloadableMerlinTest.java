@@ -0,0 +1,152 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.crypto;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Properties;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.Loader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Some tests for reloading the truststore of a ReloadableMerlin instance.
+ */
+public class ReloadableMerlinTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testReloadTrustStore() throws Exception {
+        Path trustStoreFile = tempDir.resolve("truststore.jks");
+        copyResource("keys/wss40CA.jks", trustStoreFile);
+
+        Properties properties = new Properties();
+        properties.put("org.apache.wss4j.crypto.provider", ReloadableMerlin.class.getName());
+        properties.put(Merlin.PREFIX + Merlin.TRUSTSTORE_FILE, trustStoreFile.toString());
+        properties.put(Merlin.PREFIX + Merlin.TRUSTSTORE_PASSWORD, "security");
+        properties.put(Merlin.PREFIX + ReloadableMerlin.RELOAD_INTERVAL, "0");
+
+        Crypto crypto = CryptoFactory.getInstance(properties);
+        assertTrue(crypto instanceof ReloadableMerlin);
+        ReloadableMerlin merlin = (ReloadableMerlin)crypto;
+
+        X509Certificate[] certs = new X509Certificate[] {getCertificate("keys/wss40.jks", "wss40")};
+        KeyStore trustStore = merlin.getTrustStore();
+        crypto.verifyTrust(certs, false, null, null);
+
+        // Replace the truststore with one that does not contain the CA
+        copyResource("keys/wss40badca.jks", trustStoreFile);
+        assertSame(trustStore, merlin.getTrustStore());
+        merlin.reload();
+        assertNotSame(trustStore, merlin.getTrustStore());
+        assertThrows(WSSecurityException.class, () -> crypto.verifyTrust(certs, false, null, null));
+
+        // A failed reload keeps the current material
+        trustStore = merlin.getTrustStore();
+        Files.delete(trustStoreFile);
+        assertThrows(WSSecurityException.class, merlin::reload);
+        assertSame(trustStore, merlin.getTrustStore());
+
+        merlin.close();
+    }
+
+    @Test
+    public void testPollingReload() throws Exception {
+        Path trustStoreFile = tempDir.resolve("truststore.jks");
+        copyResource("keys/wss40CA.jks", trustStoreFile);
+
+        Properties properties = new Properties();
+        properties.put(Merlin.PREFIX + Merlin.TRUSTSTORE_FILE, trustStoreFile.toString());
+        properties.put(Merlin.PREFIX + Merlin.TRUSTSTORE_PASSWORD, "security");
+        properties.put(Merlin.PREFIX + ReloadableMerlin.RELOAD_INTERVAL, "1");
+
+        try (ReloadableMerlin merlin = new ReloadableMerlin(properties, Loader.getClassLoader(getClass()), null)) {
+            X509Certificate[] certs = new X509Certificate[] {getCertificate("keys/wss40.jks", "wss40")};
+            KeyStore trustStore = merlin.getTrustStore();
+            merlin.verifyTrust(certs, false, null, null);
+
+            copyResource("keys/wss40badca.jks", trustStoreFile);
+            long deadline = System.currentTimeMillis() + 10000L;
+            while (merlin.getTrustStore() == trustStore && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100L);
+            }
+            assertNotSame(trustStore, merlin.getTrustStore());
+            assertThrows(WSSecurityException.class, () -> merlin.verifyTrust(certs, false, null, null));
+        }
+    }
+
+    @Test
+    public void testSettingsAreKeptAcrossReloads() throws Exception {
+        Properties properties = new Properties();
+        properties.put(Merlin.PREFIX + Merlin.TRUSTSTORE_FILE, "keys/wss40badca.jks");
+        properties.put(Merlin.PREFIX + Merlin.TRUSTSTORE_PASSWORD, "security");
+
+        try (ReloadableMerlin merlin = new ReloadableMerlin(properties, Loader.getClassLoader(getClass()), null)) {
+            KeyStore trustStore = getKeyStore("keys/wss40CA.jks");
+            merlin.setTrustStore(trustStore);
+            PrivateKeyCache privateKeyCache = new PrivateKeyCache(10);
+            merlin.setPrivateKeyCache(privateKeyCache);
+            merlin.setDefaultX509Identifier("wss40");
+
+            X509Certificate[] certs = new X509Certificate[] {getCertificate("keys/wss40.jks", "wss40")};
+            merlin.verifyTrust(certs, false, null, null);
+
+            merlin.reload();
+            assertSame(trustStore, merlin.getTrustStore());
+            assertSame(privateKeyCache, merlin.getPrivateKeyCache());
+            assertEquals("wss40", merlin.getDefaultX509Identifier());
+            merlin.verifyTrust(certs, false, null, null);
+        }
+    }
+
+    private void copyResource(String location, Path target) throws Exception {
+        ClassLoader loader = Loader.getClassLoader(ReloadableMerlinTest.class);
+        try (InputStream input = Merlin.loadInputStream(loader, location)) {
+            Files.copy(input, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static X509Certificate getCertificate(String location, String alias) throws Exception {
+        return (X509Certificate)getKeyStore(location).getCertificate(alias);
+    }
+
+    private static KeyStore getKeyStore(String location) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        ClassLoader loader = Loader.getClassLoader(ReloadableMerlinTest.class);
+        try (InputStream input = Merlin.loadInputStream(loader, location)) {
+            keyStore.load(input, "security".toCharArray());
+        }
+        return keyStore;
+    }
+}
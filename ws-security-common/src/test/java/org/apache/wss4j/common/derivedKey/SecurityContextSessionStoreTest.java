@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.derivedKey;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Some tests for storing the secrets of security contexts, and memoizing the keys derived from them.
+ */
+public class SecurityContextSessionStoreTest {
+
+    private static final byte[] SECRET = "01234567890123456789012345678901".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NONCE = "nonce-value-1234".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void testStoredSecret() throws Exception {
+        SecurityContextSessionStore store = new SecurityContextSessionStore();
+        assertNull(store.getSecret("urn:sct:1"));
+
+        byte[] secret = SECRET.clone();
+        store.putSession("urn:sct:1", secret);
+        // The store keeps its own copy
+        secret[0] = 0;
+        byte[] storedSecret = store.getSecret("urn:sct:1");
+        assertArrayEquals(SECRET, storedSecret);
+        storedSecret[0] = 0;
+        assertArrayEquals(SECRET, store.getSecret("urn:sct:1"));
+
+        assertEquals(2, store.getSecretHitCount());
+        assertEquals(1, store.getSecretMissCount());
+
+        store.removeSession("urn:sct:1");
+        assertNull(store.getSecret("urn:sct:1"));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testMemoizedDerivedKey() throws Exception {
+        SecurityContextSessionStore store = new SecurityContextSessionStore();
+        store.putSession("urn:sct:1", SECRET);
+
+        byte[] expected =
+            DerivedKeyUtils.deriveKey(ConversationConstants.DerivationAlgorithm.P_SHA_1, null, 32, SECRET, NONCE, 0);
+        byte[] derivedKey =
+            store.deriveKey(ConversationConstants.DerivationAlgorithm.P_SHA_1, null, 32, SECRET, NONCE, 0);
+        assertArrayEquals(expected, derivedKey);
+        assertEquals(0, store.getDerivedKeyHitCount());
+        assertEquals(1, store.getDerivedKeyMissCount());
+
+        derivedKey[0] = 0;
+        assertArrayEquals(expected,
+            store.deriveKey(ConversationConstants.DerivationAlgorithm.P_SHA_1, null, 32, SECRET, NONCE, 0));
+        assertEquals(1, store.getDerivedKeyHitCount());
+
+        // A different offset or length is derived separately
+        assertArrayEquals(
+            DerivedKeyUtils.deriveKey(ConversationConstants.DerivationAlgorithm.P_SHA_1, null, 16, SECRET, NONCE, 32),
+            store.deriveKey(ConversationConstants.DerivationAlgorithm.P_SHA_1, null, 16, SECRET, NONCE, 32));
+        assertEquals(2, store.getDerivedKeyMissCount());
+
+        // Keys derived from a secret that is not stored are not memoized
+        byte[] otherSecret = "another-secret-of-thirty-two-byt".getBytes(StandardCharsets.UTF_8);
+        store.deriveKey(ConversationConstants.DerivationAlgorithm.P_SHA_1, null, 32, otherSecret, NONCE, 0);
+        assertEquals(1, store.getDerivedKeyHitCount());
+        assertEquals(2, store.getDerivedKeyMissCount());
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        SecurityContextSessionStore store = new SecurityContextSessionStore();
+        store.putSession("urn:sct:1", SECRET, Instant.now().minusSeconds(1L));
+        assertNull(store.getSecret("urn:sct:1"));
+
+        store.putSession("urn:sct:1", SECRET, Instant.now().plusMillis(50L));
+        store.deriveKey(ConversationConstants.DerivationAlgorithm.P_SHA_1, null, 32, SECRET, NONCE, 0);
+        assertEquals(1, store.getDerivedKeyMissCount());
+        Thread.sleep(100L);
+
+        // The derived keys expire with the session
+        assertNull(store.getSecret("urn:sct:1"));
+        store.deriveKey(ConversationConstants.DerivationAlgorithm.P_SHA_1, null, 32, SECRET, NONCE, 0);
+        assertEquals(0, store.getDerivedKeyHitCount());
+        assertEquals(1, store.getDerivedKeyMissCount());
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testConcurrentRemoval() throws Exception {
+        SecurityContextSessionStore store = new SecurityContextSessionStore();
+        byte[] expected =
+            DerivedKeyUtils.deriveKey(ConversationConstants.DerivationAlgorithm.P_SHA_1, null, 32, SECRET, NONCE, 0);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> lookups = executor.submit(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    // A session that is removed concurrently is either not found, or handed out intact
+                    byte[] secret = store.getSecret("urn:sct:1");
+                    if (secret != null) {
+                        assertArrayEquals(SECRET, secret);
+                    }
+                    assertArrayEquals(expected,
+                        store.deriveKey(ConversationConstants.DerivationAlgorithm.P_SHA_1, null, 32, SECRET, NONCE, 0));
+                }
+                return null;
+            });
+            while (!lookups.isDone()) {
+                store.putSession("urn:sct:1", SECRET);
+                store.removeSession("urn:sct:1");
+            }
+            lookups.get(30L, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testMaxSize() throws Exception {
+        SecurityContextSessionStore store = new SecurityContextSessionStore(1, 1, Duration.ofMinutes(5L));
+        store.putSession("urn:sct:1", SECRET);
+        store.putSession("urn:sct:2", SECRET);
+        assertEquals(1, store.size());
+        assertArrayEquals(SECRET, store.getSecret("urn:sct:2"));
+
+        byte[] otherNonce = "nonce-value-5678".getBytes(StandardCharsets.UTF_8);
+        store.deriveKey(ConversationConstants.DerivationAlgorithm.P_SHA_1, null, 32, SECRET, NONCE, 0);
+        store.deriveKey(ConversationConstants.DerivationAlgorithm.P_SHA_1, null, 32, SECRET, otherNonce, 0);
+        store.deriveKey(ConversationConstants.DerivationAlgorithm.P_SHA_1, null, 32, SECRET, NONCE, 0);
+        assertEquals(0, store.getDerivedKeyHitCount());
+        assertEquals(3, store.getDerivedKeyMissCount());
+    }
+}
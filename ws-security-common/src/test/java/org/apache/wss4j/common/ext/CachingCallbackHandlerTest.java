@@ -0,0 +1,201 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.ext;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.UnsupportedCallbackException;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Some tests for caching the passwords and keys that a CallbackHandler supplies.
+ */
+public class CachingCallbackHandlerTest {
+
+    @Test
+    public void testCachedPassword() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CachingCallbackHandler handler = new CachingCallbackHandler(callbacks -> {
+            calls.incrementAndGet();
+            WSPasswordCallback callback = (WSPasswordCallback)callbacks[0];
+            if ("wss40".equals(callback.getIdentifier())) {
+                callback.setPassword("security");
+            } else if ("sct".equals(callback.getIdentifier())) {
+                callback.setKey(new byte[] {1, 2, 3});
+            }
+        });
+
+        assertEquals("security", getPassword(handler, "wss40", WSPasswordCallback.DECRYPT));
+        assertEquals("security", getPassword(handler, "wss40", WSPasswordCallback.DECRYPT));
+        assertEquals(1, calls.get());
+        assertEquals(1, handler.getHitCount());
+
+        // A different usage is a different key
+        assertEquals("security", getPassword(handler, "wss40", WSPasswordCallback.SIGNATURE));
+        assertEquals(2, calls.get());
+
+        // Keys are cached as well
+        WSPasswordCallback keyCallback = new WSPasswordCallback("sct", WSPasswordCallback.SECURITY_CONTEXT_TOKEN);
+        handler.handle(new Callback[] {keyCallback});
+        keyCallback.getKey()[0] = 0;
+        keyCallback = new WSPasswordCallback("sct", WSPasswordCallback.SECURITY_CONTEXT_TOKEN);
+        handler.handle(new Callback[] {keyCallback});
+        assertArrayEquals(new byte[] {1, 2, 3}, keyCallback.getKey());
+        assertEquals(3, calls.get());
+
+        // The absence of a password is cached
+        assertNull(getPassword(handler, "unknown", WSPasswordCallback.USERNAME_TOKEN));
+        assertNull(getPassword(handler, "unknown", WSPasswordCallback.USERNAME_TOKEN));
+        assertEquals(4, calls.get());
+        assertEquals(1, handler.getNegativeHitCount());
+
+        // A callback that carries a password is not cached
+        WSPasswordCallback callback =
+            new WSPasswordCallback("wss40", "password", null, WSPasswordCallback.USERNAME_TOKEN);
+        handler.handle(new Callback[] {callback});
+        handler.handle(new Callback[] {callback});
+        assertEquals(6, calls.get());
+
+        handler.remove("wss40");
+        assertEquals("security", getPassword(handler, "wss40", WSPasswordCallback.DECRYPT));
+        assertEquals(7, calls.get());
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CachingCallbackHandler handler = new CachingCallbackHandler(callbacks -> {
+            calls.incrementAndGet();
+            ((WSPasswordCallback)callbacks[0]).setPassword("security");
+        }, Duration.ofMillis(100L), Duration.ZERO, 1);
+
+        getPassword(handler, "wss40", WSPasswordCallback.DECRYPT);
+        Thread.sleep(150L);
+        getPassword(handler, "wss40", WSPasswordCallback.DECRYPT);
+        assertEquals(2, calls.get());
+
+        // The cache is bounded
+        getPassword(handler, "wss86", WSPasswordCallback.DECRYPT);
+        assertEquals(1, handler.size());
+        assertEquals(1, handler.getEvictionCount());
+    }
+
+    @Test
+    public void testSharedCache() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CallbackHandler delegate = callbacks -> {
+            calls.incrementAndGet();
+            ((WSPasswordCallback)callbacks[0]).setPassword("security");
+        };
+        CachingCallbackHandler.Cache cache =
+            new CachingCallbackHandler.Cache(Duration.ofMinutes(1L), Duration.ZERO, 10);
+
+        // A CallbackHandler that is created for every request can share the cached results
+        CachingCallbackHandler handler = new CachingCallbackHandler(delegate, cache);
+        assertEquals("security", getPassword(handler, "wss40", WSPasswordCallback.DECRYPT));
+        CachingCallbackHandler otherHandler = new CachingCallbackHandler(delegate, cache);
+        assertEquals("security", getPassword(otherHandler, "wss40", WSPasswordCallback.DECRYPT));
+        assertEquals(1, calls.get());
+        assertEquals(1, handler.getHitCount());
+        assertEquals(1, otherHandler.size());
+    }
+
+    @Test
+    public void testFailureIsNotCached() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CachingCallbackHandler handler = new CachingCallbackHandler(callbacks -> {
+            calls.incrementAndGet();
+            throw new IOException("The directory is not available");
+        });
+
+        assertThrows(IOException.class, () -> getPassword(handler, "wss40", WSPasswordCallback.DECRYPT));
+        assertThrows(IOException.class, () -> getPassword(handler, "wss40", WSPasswordCallback.DECRYPT));
+        assertEquals(2, calls.get());
+        assertEquals(2, handler.getLoadFailureCount());
+        assertEquals(0, handler.size());
+    }
+
+    @Test
+    public void testConcurrentLookups() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CallbackHandler slowHandler = callbacks -> {
+            calls.incrementAndGet();
+            started.countDown();
+            try {
+                release.await(10L, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            ((WSPasswordCallback)callbacks[0]).setPassword("security");
+        };
+        CachingCallbackHandler handler = new CachingCallbackHandler(slowHandler);
+
+        List<Thread> threads = new ArrayList<>();
+        List<String> passwords = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    String password = getPassword(handler, "wss40", WSPasswordCallback.DECRYPT);
+                    synchronized (passwords) {
+                        passwords.add(password);
+                    }
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        assertTrue(started.await(10L, TimeUnit.SECONDS));
+        Thread.sleep(100L);
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, calls.get());
+        assertEquals(8, passwords.size());
+        assertTrue(passwords.stream().allMatch("security"::equals));
+    }
+
+    private static String getPassword(CallbackHandler handler, String identifier, int usage)
+        throws IOException, UnsupportedCallbackException {
+        WSPasswordCallback callback = new WSPasswordCallback(identifier, usage);
+        handler.handle(new Callback[] {callback});
+        return callback.getPassword();
+    }
+}
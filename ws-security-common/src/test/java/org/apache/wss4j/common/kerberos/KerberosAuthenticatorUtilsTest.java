@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.kerberos;
+
+import java.io.ByteArrayOutputStream;
+import java.time.Duration;
+
+import org.apache.wss4j.common.cache.MemoryReplayCache;
+import org.apache.wss4j.common.cache.ReplayCache;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Some tests for detecting replayed Kerberos tokens.
+ */
+public class KerberosAuthenticatorUtilsTest {
+
+    private static final byte[] KRB5_OID = {0x06, 0x09, 0x2a, (byte)0x86, 0x48, (byte)0x86, (byte)0xf7, 0x12, 0x01, 0x02, 0x02};
+    private static final byte[] SPNEGO_OID = {0x06, 0x06, 0x2b, 0x06, 0x01, 0x05, 0x05, 0x02};
+
+    @Test
+    public void testAuthenticatorCipher() throws Exception {
+        byte[] cipher = new byte[200];
+        for (int i = 0; i < cipher.length; i++) {
+            cipher[i] = (byte)i;
+        }
+        byte[] gssToken = gssToken(apReq(cipher));
+        assertArrayEquals(cipher, KerberosAuthenticatorUtils.getAuthenticatorCipher(gssToken));
+
+        // The same Authenticator wrapped in a SPNEGO token has the same identifier
+        byte[] spnegoToken = spnegoToken(gssToken);
+        assertArrayEquals(cipher, KerberosAuthenticatorUtils.getAuthenticatorCipher(spnegoToken));
+        assertEquals(KerberosAuthenticatorUtils.getReplayIdentifier(gssToken),
+                     KerberosAuthenticatorUtils.getReplayIdentifier(spnegoToken));
+
+        cipher[0] = 1;
+        assertNotEquals(KerberosAuthenticatorUtils.getReplayIdentifier(gssToken),
+                        KerberosAuthenticatorUtils.getReplayIdentifier(gssToken(apReq(cipher))));
+
+        // A malformed token is identified by the whole token
+        byte[] malformed = new byte[] {0x60, 0x7F, 0x06};
+        assertNull(KerberosAuthenticatorUtils.getAuthenticatorCipher(malformed));
+        assertNotEquals(KerberosAuthenticatorUtils.getReplayIdentifier(gssToken),
+                        KerberosAuthenticatorUtils.getReplayIdentifier(malformed));
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        byte[] token = gssToken(apReq(new byte[] {1, 2, 3, 4}));
+        try (ReplayCache replayCache = new MemoryReplayCache()) {
+            KerberosAuthenticatorUtils.checkReplay(replayCache, token, Duration.ofMinutes(1L));
+            WSSecurityException ex = assertThrows(WSSecurityException.class, () ->
+                KerberosAuthenticatorUtils.checkReplay(replayCache, spnegoToken(token), Duration.ofMinutes(1L)));
+            assertEquals(WSSecurityException.ErrorCode.INVALID_SECURITY_TOKEN, ex.getErrorCode());
+        }
+    }
+
+    private static byte[] apReq(byte[] cipher) throws Exception {
+        byte[] encryptedData = tlv(0x30, concat(
+            tlv(0xA0, tlv(0x02, new byte[] {0x12})),
+            tlv(0xA2, tlv(0x04, cipher))));
+        byte[] ticket = tlv(0xA3, tlv(0x61, tlv(0x30, tlv(0xA0, tlv(0x02, new byte[] {0x05})))));
+        return tlv(0x6E, tlv(0x30, concat(
+            tlv(0xA0, tlv(0x02, new byte[] {0x05})),
+            tlv(0xA1, tlv(0x02, new byte[] {0x0E})),
+            tlv(0xA2, tlv(0x03, new byte[] {0x07, 0x00, 0x00, 0x00, 0x00})),
+            ticket,
+            tlv(0xA4, encryptedData))));
+    }
+
+    private static byte[] gssToken(byte[] apReq) throws Exception {
+        return tlv(0x60, concat(KRB5_OID, new byte[] {0x01, 0x00}, apReq));
+    }
+
+    private static byte[] spnegoToken(byte[] mechToken) throws Exception {
+        byte[] negTokenInit = tlv(0x30, concat(
+            tlv(0xA0, tlv(0x30, KRB5_OID)),
+            tlv(0xA2, tlv(0x04, mechToken))));
+        return tlv(0x60, concat(SPNEGO_OID, tlv(0xA0, negTokenInit)));
+    }
+
+    private static byte[] tlv(int tag, byte[] content) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(tag);
+        if (content.length < 0x80) {
+            output.write(content.length);
+        } else if (content.length < 0x100) {
+            output.write(0x81);
+            output.write(content.length);
+        } else {
+            output.write(0x82);
+            output.write(content.length >> 8);
+            output.write(content.length & 0xFF);
+        }
+        output.write(content, 0, content.length);
+        return output.toByteArray();
+    }
+
+    private static byte[] concat(byte[]... parts) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            output.write(part);
+        }
+        return output.toByteArray();
+    }
+}
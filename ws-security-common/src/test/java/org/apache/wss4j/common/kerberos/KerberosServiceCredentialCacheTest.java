@@ -0,0 +1,170 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.kerberos;
+
+import java.security.Principal;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.security.auth.Subject;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.login.AppConfigurationEntry;
+import javax.security.auth.login.Configuration;
+import javax.security.auth.login.LoginException;
+import javax.security.auth.spi.LoginModule;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Some tests for caching the Subjects that a service logs in with.
+ */
+public class KerberosServiceCredentialCacheTest {
+
+    private static final Configuration CONFIGURATION = new Configuration() {
+        @Override
+        public AppConfigurationEntry[] getAppConfigurationEntry(String name) {
+            if (!"service".equals(name)) {
+                return null;
+            }
+            return new AppConfigurationEntry[] {
+                new AppConfigurationEntry(TestLoginModule.class.getName(),
+                                          AppConfigurationEntry.LoginModuleControlFlag.REQUIRED,
+                                          Collections.emptyMap())
+            };
+        }
+    };
+
+    @Test
+    public void testCachedSubject() throws Exception {
+        KerberosServiceCredentialCache cache =
+            new KerberosServiceCredentialCache(Duration.ofHours(1L), Duration.ofMinutes(5L), CONFIGURATION);
+
+        Subject subject = cache.getSubject("service", "bob@service.ws.apache.org", null);
+        assertEquals(1, subject.getPrincipals().size());
+        assertSame(subject, cache.getSubject("service", "bob@service.ws.apache.org", null));
+        assertEquals(1, cache.getLoginCount());
+
+        // A different service has its own Subject
+        assertNotSame(subject, cache.getSubject("service", null, null));
+        assertEquals(2, cache.getLoginCount());
+        assertEquals(2, cache.size());
+
+        cache.remove("service", null);
+        assertEquals(1, cache.size());
+
+        assertThrows(LoginException.class, () -> cache.getSubject("unknown", null, null));
+    }
+
+    @Test
+    public void testRefresh() throws Exception {
+        KerberosServiceCredentialCache cache =
+            new KerberosServiceCredentialCache(Duration.ofMillis(200L), Duration.ofMillis(100L), CONFIGURATION);
+
+        Subject subject = cache.getSubject("service", null, null);
+        Thread.sleep(120L);
+        // The Subject is refreshed before it expires
+        Subject refreshedSubject = cache.getSubject("service", null, null);
+        assertNotSame(subject, refreshedSubject);
+        assertEquals(2, cache.getLoginCount());
+
+        Thread.sleep(250L);
+        assertNotSame(refreshedSubject, cache.getSubject("service", null, null));
+        assertEquals(3, cache.getLoginCount());
+    }
+
+    @Test
+    public void testSubjectInitializer() throws Exception {
+        KerberosServiceCredentialCache cache =
+            new KerberosServiceCredentialCache(Duration.ofHours(1L), Duration.ofMinutes(5L), CONFIGURATION);
+        AtomicInteger initializations = new AtomicInteger();
+
+        Subject subject = cache.getSubject("service", "bob", null, s -> initializations.incrementAndGet());
+        assertSame(subject, cache.getSubject("service", "bob", null, s -> initializations.incrementAndGet()));
+        assertEquals(1, initializations.get());
+
+        // A Subject that fails to initialize is not cached
+        assertThrows(LoginException.class, () ->
+            cache.getSubject("service", "alice", null, s -> {
+                throw new IllegalStateException("No service ticket");
+            }));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testInitializerIsNotPartOfTheKey() throws Exception {
+        KerberosServiceCredentialCache cache =
+            new KerberosServiceCredentialCache(Duration.ofHours(1L), Duration.ofMinutes(5L), CONFIGURATION);
+        Principal decoration = () -> "decoration";
+
+        // Only the initializer of the request that logs in is applied to the cached Subject, so
+        // clients that decorate the Subject differently must not share a cache
+        Subject subject = cache.getSubject("service", "bob", null, s -> s.getPrincipals().add(decoration));
+        Subject otherSubject = cache.getSubject("service", "bob", null, s -> s.getPrincipals().clear());
+        assertSame(subject, otherSubject);
+        assertTrue(otherSubject.getPrincipals().contains(decoration));
+
+        KerberosServiceCredentialCache otherCache =
+            new KerberosServiceCredentialCache(Duration.ofHours(1L), Duration.ofMinutes(5L), CONFIGURATION);
+        assertFalse(otherCache.getSubject("service", "bob", null).getPrincipals().contains(decoration));
+    }
+
+    public static class TestLoginModule implements LoginModule {
+
+        private Subject subject;
+
+        @Override
+        public void initialize(Subject loginSubject, CallbackHandler callbackHandler,
+                               Map<String, ?> sharedState, Map<String, ?> options) {
+            this.subject = loginSubject;
+        }
+
+        @Override
+        public boolean login() {
+            return true;
+        }
+
+        @Override
+        public boolean commit() {
+            Principal principal = () -> "bob";
+            subject.getPrincipals().add(principal);
+            return true;
+        }
+
+        @Override
+        public boolean abort() {
+            return true;
+        }
+
+        @Override
+        public boolean logout() {
+            subject.getPrincipals().clear();
+            return true;
+        }
+    }
+}
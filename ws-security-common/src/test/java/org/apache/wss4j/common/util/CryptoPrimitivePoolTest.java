@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.util;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.wss4j.common.crypto.WSProviderConfig;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.xml.security.encryption.XMLCipher;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Some tests for the per-thread pool of JCA primitives.
+ */
+public class CryptoPrimitivePoolTest {
+
+    public CryptoPrimitivePoolTest() {
+        WSProviderConfig.init();
+    }
+
+    @AfterEach
+    public void clearPool() {
+        CryptoPrimitivePool.clear();
+    }
+
+    @Test
+    public void testReleasedCipherIsReused() throws Exception {
+        Cipher cipher = CryptoPrimitivePool.getCipher(XMLCipher.RSA_OAEP, null);
+        // A Cipher that is in use is not handed out again
+        Cipher nestedCipher = CryptoPrimitivePool.getCipher(XMLCipher.RSA_OAEP, null);
+        assertNotSame(cipher, nestedCipher);
+
+        CryptoPrimitivePool.releaseCipher(XMLCipher.RSA_OAEP, null, cipher);
+        assertSame(cipher, CryptoPrimitivePool.getCipher(XMLCipher.RSA_OAEP, null));
+
+        // A different algorithm gets a different instance
+        CryptoPrimitivePool.releaseCipher(XMLCipher.RSA_OAEP, null, cipher);
+        assertNotSame(cipher, CryptoPrimitivePool.getCipher(XMLCipher.RSA_v1dot5, null));
+    }
+
+    @Test
+    public void testReleasedMacAndDigestAreReset() throws Exception {
+        MessageDigest digest = CryptoPrimitivePool.getMessageDigest("SHA-256", null);
+        digest.update(new byte[] {1, 2, 3});
+        CryptoPrimitivePool.releaseMessageDigest("SHA-256", null, digest);
+
+        MessageDigest reusedDigest = CryptoPrimitivePool.getMessageDigest("SHA-256", null);
+        assertSame(digest, reusedDigest);
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(), reusedDigest.digest());
+
+        Mac mac = CryptoPrimitivePool.getMac("HmacSHA1", null);
+        CryptoPrimitivePool.releaseMac("HmacSHA1", null, mac);
+        assertSame(mac, CryptoPrimitivePool.getMac("HmacSHA1", null));
+    }
+
+    @Test
+    public void testReleasedMacDoesNotKeepTheKey() throws Exception {
+        byte[] secret = new byte[] {1, 2, 3, 4, 5, 6, 7, 8};
+        byte[] data = new byte[] {9, 8, 7};
+        Mac mac = CryptoPrimitivePool.getMac("HmacSHA1", null);
+        mac.init(new SecretKeySpec(secret, "HmacSHA1"));
+        byte[] expected = mac.doFinal(data);
+        CryptoPrimitivePool.releaseMac("HmacSHA1", null, mac);
+
+        // The pooled Mac has been re-initialized with a different key
+        Mac reusedMac = CryptoPrimitivePool.getMac("HmacSHA1", null);
+        assertSame(mac, reusedMac);
+        assertFalse(Arrays.equals(expected, reusedMac.doFinal(data)));
+    }
+
+    @Test
+    public void testReleasedKeyWrapCipherIsReused() throws Exception {
+        Cipher cipher = CryptoPrimitivePool.getCipher(XMLCipher.AES_128_KeyWrap, null);
+        cipher.init(Cipher.WRAP_MODE, new SecretKeySpec(new byte[16], "AES"));
+        CryptoPrimitivePool.releaseCipher(XMLCipher.AES_128_KeyWrap, null, cipher);
+        assertSame(cipher, CryptoPrimitivePool.getCipher(XMLCipher.AES_128_KeyWrap, null));
+    }
+
+    @Test
+    public void testUnknownAlgorithm() {
+        assertThrows(WSSecurityException.class, () -> CryptoPrimitivePool.getMac("HmacUnknown", null));
+        assertThrows(WSSecurityException.class, () -> CryptoPrimitivePool.getCipher("urn:unknown", null));
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Some tests for generating digests via KeyUtils.
+ */
+public class KeyUtilsTest {
+
+    @Test
+    public void testGenerateDigest() throws Exception {
+        byte[] input = "This is a test".getBytes(StandardCharsets.UTF_8);
+
+        byte[] digest = KeyUtils.generateDigest(input);
+        assertEquals(20, digest.length);
+        assertArrayEquals(MessageDigest.getInstance("SHA-1").digest(input), digest);
+        assertArrayEquals(digest, KeyUtils.generateDigest(input));
+
+        byte[] sha256Digest = KeyUtils.generateDigestSHA256(input);
+        assertEquals(32, sha256Digest.length);
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(input), sha256Digest);
+    }
+
+    @Test
+    public void testConcurrentDigests() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                final byte[] input = ("input-" + i).getBytes(StandardCharsets.UTF_8);
+                final byte[] expected = MessageDigest.getInstance("SHA-1").digest(input);
+                Callable<Boolean> task = () -> {
+                    for (int j = 0; j < 500; j++) {
+                        if (!MessageDigest.isEqual(expected, KeyUtils.generateDigest(input))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                };
+                results.add(executor.submit(task));
+            }
+            for (Future<Boolean> result : results) {
+                assertEquals(Boolean.TRUE, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
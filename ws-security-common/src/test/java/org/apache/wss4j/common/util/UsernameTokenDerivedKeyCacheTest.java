@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.wss4j.common.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Some tests for deriving and caching keys from UsernameToken passwords.
+ */
+public class UsernameTokenDerivedKeyCacheTest {
+
+    private static final byte[] PASSWORD = "security".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void testDerivedKey() throws Exception {
+        byte[] salt = UsernameTokenUtil.generateSalt(true);
+        assertArrayEquals(deriveKey(PASSWORD, salt, 1000),
+                          UsernameTokenUtil.generateDerivedKey(PASSWORD, salt, 0, null));
+        assertArrayEquals(deriveKey(PASSWORD, salt, 1),
+                          UsernameTokenUtil.generateDerivedKey(PASSWORD, salt, 1, null));
+    }
+
+    @Test
+    public void testCachedDerivedKey() throws Exception {
+        UsernameTokenDerivedKeyCache cache = new UsernameTokenDerivedKeyCache();
+        byte[] salt = UsernameTokenUtil.generateSalt(false);
+
+        byte[] derivedKey = UsernameTokenUtil.generateDerivedKey(PASSWORD, salt, 1000, cache);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // The default iteration count is the same key
+        byte[] cachedKey = UsernameTokenUtil.generateDerivedKey(PASSWORD, salt, 0, cache);
+        assertArrayEquals(derivedKey, cachedKey);
+        assertEquals(1, cache.getHitCount());
+
+        // Modifying a returned key does not modify the cached key
+        cachedKey[0]++;
+        assertArrayEquals(derivedKey, UsernameTokenUtil.generateDerivedKey(PASSWORD, salt, 1000, cache));
+
+        // A different password is a different key
+        byte[] otherPassword = "secret".getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(deriveKey(otherPassword, salt, 1000),
+                          UsernameTokenUtil.generateDerivedKey(otherPassword, salt, 1000, cache));
+        assertEquals(2, cache.size());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testBoundsAndExpiry() throws Exception {
+        UsernameTokenDerivedKeyCache cache = new UsernameTokenDerivedKeyCache(2, Duration.ofMillis(100L));
+        for (int i = 0; i < 5; i++) {
+            cache.put(PASSWORD, UsernameTokenUtil.generateSalt(true), 1000, new byte[20]);
+        }
+        assertEquals(2, cache.size());
+
+        byte[] salt = UsernameTokenUtil.generateSalt(true);
+        cache.put(PASSWORD, salt, 1000, new byte[20]);
+        Thread.sleep(150L);
+        assertNull(cache.get(PASSWORD, salt, 1000));
+    }
+
+    @Test
+    public void testConcurrentRemoval() throws Exception {
+        UsernameTokenDerivedKeyCache cache = new UsernameTokenDerivedKeyCache();
+        byte[] salt = UsernameTokenUtil.generateSalt(true);
+        byte[] derivedKey = deriveKey(PASSWORD, salt, 1000);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> lookups = executor.submit(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    // A key that is removed concurrently is either not found, or handed out intact
+                    byte[] cachedKey = cache.get(PASSWORD, salt, 1000);
+                    if (cachedKey != null) {
+                        assertArrayEquals(derivedKey, cachedKey);
+                    }
+                }
+                return null;
+            });
+            while (!lookups.isDone()) {
+                cache.put(PASSWORD, salt, 1000, derivedKey);
+                cache.clear();
+            }
+            lookups.get(30L, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static byte[] deriveKey(byte[] password, byte[] salt, int iteration) throws Exception {
+        MessageDigest sha = MessageDigest.getInstance("SHA-1");
+        byte[] pwSalt = new byte[password.length + salt.length];
+        System.arraycopy(password, 0, pwSalt, 0, password.length);
+        System.arraycopy(salt, 0, pwSalt, password.length, salt.length);
+        byte[] k = sha.digest(pwSalt);
+        for (int i = 1; i < iteration; i++) {
+            k = sha.digest(k);
+        }
+        return k;
+    }
+}
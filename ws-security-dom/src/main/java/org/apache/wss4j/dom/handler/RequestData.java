@@ -36,10 +36,13 @@ import org.apache.wss4j.common.EncryptionActionToken;
 import org.apache.wss4j.common.SignatureActionToken;
 import org.apache.wss4j.common.bsp.BSPEnforcer;
 import org.apache.wss4j.common.bsp.BSPRule;
+import org.apache.wss4j.common.cache.MonitoredReplayCache;
 import org.apache.wss4j.common.cache.ReplayCache;
+import org.apache.wss4j.common.cache.ReplayCacheListener;
 import org.apache.wss4j.common.crypto.AlgorithmSuite;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.PasswordEncryptor;
+import org.apache.wss4j.common.derivedKey.SecurityContextSessionStore;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.dom.SOAPConstants;
 import org.apache.wss4j.dom.WSConstants;
@@ -75,6 +78,9 @@ public class RequestData {
     private ReplayCache timestampReplayCache;
     private ReplayCache nonceReplayCache;
     private ReplayCache samlOneTimeUseReplayCache;
+    private ReplayCache kerberosReplayCache;
+    private ReplayCacheListener replayCacheListener;
+    private SecurityContextSessionStore securityContextSessionStore;
     private Collection<Pattern> subjectDNPatterns = new ArrayList<>();
     private Collection<Pattern> issuerDNPatterns = new ArrayList<>();
     private final List<BSPRule> ignoredBSPRules = new LinkedList<>();
@@ -405,7 +411,8 @@ public class RequestData {
      * Set the replay cache for Timestamps
      */
     public void setTimestampReplayCache(ReplayCache newCache) {
-        timestampReplayCache = newCache;
+        timestampReplayCache =
+            MonitoredReplayCache.monitor(newCache, ReplayCacheListener.ROLE_TIMESTAMP, replayCacheListener);
     }
 
     /**
@@ -420,7 +427,8 @@ public class RequestData {
      * Set the replay cache for Nonces
      */
     public void setNonceReplayCache(ReplayCache newCache) {
-        nonceReplayCache = newCache;
+        nonceReplayCache =
+            MonitoredReplayCache.monitor(newCache, ReplayCacheListener.ROLE_NONCE, replayCacheListener);
     }
 
     /**
@@ -435,7 +443,8 @@ public class RequestData {
      * Set the replay cache for SAML2 OneTimeUse Assertions
      */
     public void setSamlOneTimeUseReplayCache(ReplayCache newCache) {
-        samlOneTimeUseReplayCache = newCache;
+        samlOneTimeUseReplayCache =
+            MonitoredReplayCache.monitor(newCache, ReplayCacheListener.ROLE_SAML_ONE_TIME_USE, replayCacheListener);
     }
 
     /**
@@ -446,6 +455,61 @@ public class RequestData {
         return samlOneTimeUseReplayCache;
     }
 
+    /**
+     * Set the replay cache for the Authenticators of Kerberos tokens. If it is null (the default),
+     * then received Kerberos tokens are not checked for replay.
+     */
+    public void setKerberosReplayCache(ReplayCache newCache) {
+        kerberosReplayCache =
+            MonitoredReplayCache.monitor(newCache, ReplayCacheListener.ROLE_KERBEROS, replayCacheListener);
+    }
+
+    /**
+     * Get the replay cache for the Authenticators of Kerberos tokens
+     */
+    public ReplayCache getKerberosReplayCache() {
+        return kerberosReplayCache;
+    }
+
+    /**
+     * Set the listener to report the behaviour of the replay caches to. The events of each cache are
+     * labelled with its role, i.e. ReplayCacheListener.ROLE_TIMESTAMP, ROLE_NONCE,
+     * ROLE_SAML_ONE_TIME_USE or ROLE_KERBEROS. Only the operations on the caches are reported; to
+     * also report their internal events, such as expiry sweeps, wrap each cache in a
+     * MonitoredReplayCache once when it is created.
+     */
+    public void setReplayCacheListener(ReplayCacheListener listener) {
+        replayCacheListener = listener;
+        timestampReplayCache =
+            MonitoredReplayCache.monitor(timestampReplayCache, ReplayCacheListener.ROLE_TIMESTAMP, listener);
+        nonceReplayCache =
+            MonitoredReplayCache.monitor(nonceReplayCache, ReplayCacheListener.ROLE_NONCE, listener);
+        samlOneTimeUseReplayCache =
+            MonitoredReplayCache.monitor(samlOneTimeUseReplayCache, ReplayCacheListener.ROLE_SAML_ONE_TIME_USE,
+                                         listener);
+        kerberosReplayCache =
+            MonitoredReplayCache.monitor(kerberosReplayCache, ReplayCacheListener.ROLE_KERBEROS, listener);
+    }
+
+    public ReplayCacheListener getReplayCacheListener() {
+        return replayCacheListener;
+    }
+
+    /**
+     * Set the store for the secrets of received SecurityContextTokens, and the keys derived from
+     * them. If it is null (the default), then the CallbackHandler is asked for the secret of each
+     * SecurityContextToken, and each DerivedKeyToken is derived from scratch. A stored secret is
+     * confirmed with the CallbackHandler once the default lifetime of the store has passed. The
+     * application should remove a security context from the store when it is cancelled.
+     */
+    public void setSecurityContextSessionStore(SecurityContextSessionStore securityContextSessionStore) {
+        this.securityContextSessionStore = securityContextSessionStore;
+    }
+
+    public SecurityContextSessionStore getSecurityContextSessionStore() {
+        return securityContextSessionStore;
+    }
+
     /**
      * Set the Signature Subject Cert Constraints
      */
@@ -20,15 +20,18 @@
 package org.apache.wss4j.dom.handler;
 
 import java.security.cert.X509Certificate;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -44,11 +47,14 @@ import org.apache.wss4j.common.EncryptionActionToken;
 import org.apache.wss4j.common.SignatureActionToken;
 import org.apache.wss4j.common.SignatureEncryptionActionToken;
 import org.apache.wss4j.common.WSEncryptionPart;
+import org.apache.wss4j.common.cache.ReplayCacheListener;
 import org.apache.wss4j.common.crypto.AlgorithmSuite;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.CryptoFactory;
 import org.apache.wss4j.common.crypto.JasyptPasswordEncryptor;
 import org.apache.wss4j.common.crypto.PasswordEncryptor;
+import org.apache.wss4j.common.derivedKey.SecurityContextSessionStore;
+import org.apache.wss4j.common.ext.CachingCallbackHandler;
 import org.apache.wss4j.common.ext.WSPasswordCallback;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.util.Loader;
@@ -65,6 +71,8 @@ public abstract class WSHandler {
     private static final org.slf4j.Logger LOG =
         org.slf4j.LoggerFactory.getLogger(WSHandler.class);
     protected Map<String, Crypto> cryptos = new ConcurrentHashMap<>();
+    protected Map<Object, Map<List<Long>, CachingCallbackHandler.Cache>> callbackHandlerCaches =
+        Collections.synchronizedMap(new WeakHashMap<>());
 
     /**
      * Performs all defined security actions to set-up the SOAP request.
@@ -345,6 +353,22 @@ public abstract class WSHandler {
             reqData.setCallbackHandler(passwordCallbackHandler);
         }
 
+        if (reqData.getReplayCacheListener() == null) {
+            Object replayCacheListener =
+                getProperty(mc, WSHandlerConstants.REPLAY_CACHE_LISTENER_INSTANCE);
+            if (replayCacheListener instanceof ReplayCacheListener) {
+                reqData.setReplayCacheListener((ReplayCacheListener)replayCacheListener);
+            }
+        }
+
+        if (reqData.getSecurityContextSessionStore() == null) {
+            Object sessionStore =
+                getProperty(mc, WSHandlerConstants.SECURITY_CONTEXT_SESSION_STORE_INSTANCE);
+            if (sessionStore instanceof SecurityContextSessionStore) {
+                reqData.setSecurityContextSessionStore((SecurityContextSessionStore)sessionStore);
+            }
+        }
+
         if (actions.contains(WSConstants.SIGN) || actions.contains(WSConstants.ST_SIGNED)
             || actions.contains(WSConstants.ST_UNSIGNED)) {
             decodeSignatureParameter2(reqData);
@@ -1048,12 +1072,69 @@ public abstract class WSHandler {
      */
     public CallbackHandler getPasswordCallbackHandler(RequestData reqData)
         throws WSSecurityException {
-        return
+        CallbackHandler cbHandler =
             getCallbackHandler(
                 WSHandlerConstants.PW_CALLBACK_CLASS,
                 WSHandlerConstants.PW_CALLBACK_REF,
                 reqData
             );
+        Object mc = reqData.getMsgContext();
+        if (cbHandler == null || cbHandler instanceof CachingCallbackHandler
+            || !decodeBooleanConfigValue(mc, WSHandlerConstants.PW_CALLBACK_CACHE, false)) {
+            return cbHandler;
+        }
+
+        // Share the cache between requests - a CallbackHandler that is loaded by class name is a
+        // new instance for every request. The caches are weakly keyed by the CallbackHandler (or its
+        // class), and don't reference it, so that they are discarded together with it.
+        Object cacheKey = cbHandler;
+        String callbackHandlerClass = getString(WSHandlerConstants.PW_CALLBACK_CLASS, mc);
+        if (cbHandler.getClass().getName().equals(callbackHandlerClass)) {
+            cacheKey = cbHandler.getClass();
+        }
+        long ttl = decodeCallbackCacheValue(mc, WSHandlerConstants.PW_CALLBACK_CACHE_TTL,
+            CachingCallbackHandler.DEFAULT_TTL.getSeconds());
+        long negativeTtl = decodeCallbackCacheValue(mc, WSHandlerConstants.PW_CALLBACK_CACHE_NEGATIVE_TTL,
+            CachingCallbackHandler.DEFAULT_NEGATIVE_TTL.getSeconds());
+        int maxSize = decodeCallbackCacheMaxSize(mc);
+        List<Long> settings = Arrays.asList(ttl, negativeTtl, (long)maxSize);
+
+        CachingCallbackHandler.Cache cache;
+        synchronized (callbackHandlerCaches) {
+            cache = callbackHandlerCaches.computeIfAbsent(cacheKey, k -> new HashMap<>())
+                .computeIfAbsent(settings, k ->
+                    new CachingCallbackHandler.Cache(
+                        Duration.ofSeconds(ttl), Duration.ofSeconds(negativeTtl), maxSize
+                    )
+                );
+        }
+        return new CachingCallbackHandler(cbHandler, cache);
+    }
+
+    private int decodeCallbackCacheMaxSize(Object mc) {
+        long maxSize = decodeCallbackCacheValue(mc, WSHandlerConstants.PW_CALLBACK_CACHE_MAX_SIZE,
+            CachingCallbackHandler.DEFAULT_MAX_SIZE);
+        if (maxSize <= 0 || maxSize > Integer.MAX_VALUE) {
+            LOG.warn("Invalid {} value {}, using the default of {}", WSHandlerConstants.PW_CALLBACK_CACHE_MAX_SIZE,
+                maxSize, CachingCallbackHandler.DEFAULT_MAX_SIZE);
+            return CachingCallbackHandler.DEFAULT_MAX_SIZE;
+        }
+        return (int)maxSize;
+    }
+
+    private long decodeCallbackCacheValue(Object mc, String tag, long defaultValue) {
+        String value = getString(tag, mc);
+        if (value != null) {
+            try {
+                long parsedValue = Long.parseLong(value);
+                if (parsedValue >= 0) {
+                    return parsedValue;
+                }
+            } catch (NumberFormatException e) {
+                LOG.debug(e.getMessage(), e);
+            }
+        }
+        return defaultValue;
     }
 
     /**
@@ -49,6 +49,7 @@ import org.apache.wss4j.common.token.DOMX509IssuerSerial;
 import org.apache.wss4j.common.token.Reference;
 import org.apache.wss4j.common.token.SecurityTokenReference;
 import org.apache.wss4j.common.token.X509Security;
+import org.apache.wss4j.common.util.CryptoPrimitivePool;
 import org.apache.wss4j.common.util.KeyUtils;
 import org.apache.wss4j.dom.WSConstants;
 import org.apache.wss4j.dom.util.WSSecurityUtil;
@@ -499,7 +500,16 @@ public class WSSecEncryptedKey extends WSSecBase {
 
     protected byte[] encryptSymmetricKey(PublicKey encryptingKey, SecretKey keyToBeEncrypted)
         throws WSSecurityException {
-        Cipher cipher = KeyUtils.getCipherInstance(keyEncAlgo);
+        Cipher cipher = CryptoPrimitivePool.getCipher(keyEncAlgo, null);
+        try {
+            return encryptSymmetricKey(cipher, encryptingKey, keyToBeEncrypted);
+        } finally {
+            CryptoPrimitivePool.releaseCipher(keyEncAlgo, null, cipher);
+        }
+    }
+
+    private byte[] encryptSymmetricKey(Cipher cipher, PublicKey encryptingKey, SecretKey keyToBeEncrypted)
+        throws WSSecurityException {
         try {
             OAEPParameterSpec oaepParameterSpec = null;
             if (WSConstants.KEYTRANSPORT_RSAOAEP.equals(keyEncAlgo)
@@ -31,6 +31,7 @@ import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.bsp.BSPEnforcer;
 import org.apache.wss4j.common.derivedKey.ConversationConstants;
 import org.apache.wss4j.common.derivedKey.DerivedKeyUtils;
+import org.apache.wss4j.common.derivedKey.SecurityContextSessionStore;
 import org.apache.wss4j.common.principal.WSDerivedKeyTokenPrincipal;
 import org.apache.wss4j.common.token.SecurityTokenReference;
 import org.apache.wss4j.common.util.DOM2Writer;
@@ -539,8 +540,24 @@ public class DerivedKeyToken {
      * @throws WSSecurityException
      */
     public byte[] deriveKey(int length, byte[] secret) throws WSSecurityException {
+        return deriveKey(length, secret, null);
+    }
+
+    /**
+     * Derive a key from this DerivedKeyToken instance, using the given store to memoize the key if
+     * the secret belongs to a stored security context.
+     * @param length
+     * @param secret
+     * @param sessionStore the SecurityContextSessionStore to use, or null to always derive the key
+     * @throws WSSecurityException
+     */
+    public byte[] deriveKey(int length, byte[] secret, SecurityContextSessionStore sessionStore)
+        throws WSSecurityException {
         try {
             byte[] nonce = org.apache.xml.security.utils.XMLUtils.decode(getNonce());
+            if (sessionStore != null) {
+                return sessionStore.deriveKey(getAlgorithm(), getLabel(), length, secret, nonce, getOffset());
+            }
             return DerivedKeyUtils.deriveKey(getAlgorithm(), getLabel(), length, secret, nonce, getOffset());
         } catch (Exception e) {
             throw new WSSecurityException(
@@ -42,6 +42,8 @@ import org.apache.wss4j.common.ext.WSSecurityException.ErrorCode;
 import org.apache.wss4j.common.kerberos.KerberosClientExceptionAction;
 import org.apache.wss4j.common.kerberos.KerberosContext;
 import org.apache.wss4j.common.kerberos.KerberosContextAndServiceNameCallback;
+import org.apache.wss4j.common.kerberos.KerberosServiceCredentialCache;
+import org.apache.wss4j.common.kerberos.KerberosServiceCredentialCache.SubjectInitializer;
 import org.apache.wss4j.common.token.BinarySecurity;
 import org.apache.wss4j.dom.WSConstants;
 import org.ietf.jgss.GSSCredential;
@@ -56,6 +58,7 @@ public class KerberosSecurity extends BinarySecurity {
     private static final org.slf4j.Logger LOG =
         org.slf4j.LoggerFactory.getLogger(KerberosSecurity.class);
     private SecretKey secretKey;
+    private KerberosServiceCredentialCache credentialCache;
 
     /**
      * This constructor creates a new Kerberos token object and initializes
@@ -185,15 +188,27 @@ public class KerberosSecurity extends BinarySecurity {
         boolean requestCredDeleg,
         GSSCredential delegatedCredential
     ) throws WSSecurityException {
-        // Get a TGT from the KDC using JAAS
-        LoginContext loginContext = null;
+        // Get a TGT from the KDC using JAAS, or reuse the cached TGT and service ticket
+        Subject clientSubject = null;
         try {
-            if (callbackHandler == null) {
-                loginContext = new LoginContext(jaasLoginModuleName);
+            if (credentialCache != null) {
+                SubjectInitializer serviceTicketInitializer =
+                    KerberosServiceCredentialCache.serviceTicketInitializer(serviceName, isUsernameServiceNameForm);
+                clientSubject =
+                    credentialCache.getSubject(jaasLoginModuleName, serviceName, callbackHandler, subject -> {
+                        decorateSubject(subject);
+                        serviceTicketInitializer.initialize(subject);
+                    });
             } else {
-                loginContext = new LoginContext(jaasLoginModuleName, callbackHandler);
+                LoginContext loginContext = null;
+                if (callbackHandler == null) {
+                    loginContext = new LoginContext(jaasLoginModuleName);
+                } else {
+                    loginContext = new LoginContext(jaasLoginModuleName, callbackHandler);
+                }
+                loginContext.login();
+                clientSubject = loginContext.getSubject();
             }
-            loginContext.login();
         } catch (LoginException ex) {
             LOG.debug(ex.getMessage(), ex);
             throw new WSSecurityException(
@@ -204,7 +219,6 @@ public class KerberosSecurity extends BinarySecurity {
         }
         LOG.debug("Successfully authenticated to the TGT");
 
-        Subject clientSubject = loginContext.getSubject();
         Set<Principal> clientPrincipals = clientSubject.getPrincipals();
         if (clientPrincipals.isEmpty()) {
             throw new WSSecurityException(
@@ -215,7 +229,9 @@ public class KerberosSecurity extends BinarySecurity {
         // Store the TGT
         KerberosTicket tgt = getKerberosTicket(clientSubject, null);
 
-        decorateSubject(clientSubject);
+        if (credentialCache == null) {
+            decorateSubject(clientSubject);
+        }
 
         // Get the service ticket
         KerberosClientExceptionAction action =
@@ -265,7 +281,32 @@ public class KerberosSecurity extends BinarySecurity {
         }
     }
 
-    // Allow subclasses to decorate the Subject if required.
+    /**
+     * Get the cache of the Subjects (holding the TGT and service ticket) that are used to retrieve
+     * service tickets.
+     * @return the cache of the Subjects that are used to retrieve service tickets
+     */
+    public KerberosServiceCredentialCache getCredentialCache() {
+        return credentialCache;
+    }
+
+    /**
+     * Set the cache of the Subjects (holding the TGT and service ticket) that are used to retrieve
+     * service tickets, keyed by JAAS login context name and service name. The default is null, i.e.
+     * every call to retrieveServiceTicket logs in and obtains a new service ticket from the KDC.
+     *
+     * The CallbackHandler is not part of the key, so a cache must only be shared by clients that log
+     * in with the same credentials. A cached Subject is decorated (see decorateSubject) once, by the
+     * instance that logs in, so a cache must also not be shared between subclasses that decorate the
+     * Subject differently.
+     * @param credentialCache the cache of the Subjects that are used to retrieve service tickets
+     */
+    public void setCredentialCache(KerberosServiceCredentialCache credentialCache) {
+        this.credentialCache = credentialCache;
+    }
+
+    // Allow subclasses to decorate the Subject if required. A cached Subject is only decorated once,
+    // when it is created, by the instance that logs in - see setCredentialCache.
     protected void decorateSubject(Subject subject) {
 
     }
@@ -77,7 +77,7 @@ public class DerivedKeyTokenProcessor implements Processor {
                                           new Object[] {"Missing wsc:Nonce value"});
         }
         int length = dkt.getLength();
-        byte[] keyBytes = dkt.deriveKey(length, secret);
+        byte[] keyBytes = dkt.deriveKey(length, secret, data.getSecurityContextSessionStore());
         WSSecurityEngineResult result =
             new WSSecurityEngineResult(WSConstants.DKT, null, keyBytes, null);
         data.getWsDocInfo().addTokenElement(elem);
@@ -51,6 +51,7 @@ import org.apache.wss4j.common.crypto.CryptoType;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.token.DOMX509IssuerSerial;
 import org.apache.wss4j.common.token.SecurityTokenReference;
+import org.apache.wss4j.common.util.CryptoPrimitivePool;
 import org.apache.wss4j.common.util.KeyUtils;
 import org.apache.wss4j.common.util.XMLUtils;
 import org.apache.wss4j.dom.WSConstants;
@@ -308,7 +309,26 @@ public class EncryptedKeyProcessor implements Processor {
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, "noDecCryptoFile");
         }
         String cryptoProvider = data.getDecCrypto().getCryptoProvider();
-        Cipher cipher = KeyUtils.getCipherInstance(encryptedKeyTransportMethod, cryptoProvider);
+        Cipher cipher = CryptoPrimitivePool.getCipher(encryptedKeyTransportMethod, cryptoProvider);
+        try {
+            return getAsymmetricDecryptedBytes(
+                cipher, wsDocInfo, encryptedKeyTransportMethod, encryptedEphemeralKey, refList,
+                encryptedKeyElement, privateKey
+            );
+        } finally {
+            CryptoPrimitivePool.releaseCipher(encryptedKeyTransportMethod, cryptoProvider, cipher);
+        }
+    }
+
+    private static byte[] getAsymmetricDecryptedBytes(
+        Cipher cipher,
+        WSDocInfo wsDocInfo,
+        String encryptedKeyTransportMethod,
+        byte[] encryptedEphemeralKey,
+        Element refList,
+        Element encryptedKeyElement,
+        PrivateKey privateKey
+    ) throws WSSecurityException {
         try {
             OAEPParameterSpec oaepParameterSpec = null;
             if (WSConstants.KEYTRANSPORT_RSAOAEP.equals(encryptedKeyTransportMethod)
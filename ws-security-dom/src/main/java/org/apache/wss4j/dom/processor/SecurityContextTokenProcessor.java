@@ -21,6 +21,7 @@ package org.apache.wss4j.dom.processor;
 
 import org.apache.wss4j.dom.WSConstants;
 import org.apache.wss4j.dom.engine.WSSecurityEngineResult;
+import org.apache.wss4j.common.derivedKey.SecurityContextSessionStore;
 import org.apache.wss4j.common.ext.WSPasswordCallback;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.util.XMLUtils;
@@ -70,14 +71,28 @@ public class SecurityContextTokenProcessor implements Processor {
             String id = sct.getID();
             id = XMLUtils.getIDFromReference(id);
 
+            SecurityContextSessionStore sessionStore = data.getSecurityContextSessionStore();
             byte[] secret = null;
-            try {
-                secret = getSecret(data.getCallbackHandler(), sct.getIdentifier());
-            } catch (WSSecurityException ex) {
-                secret = getSecret(data.getCallbackHandler(), id);
+            if (sessionStore != null) {
+                secret = sessionStore.getSecret(sct.getIdentifier());
             }
-            if (secret == null || secret.length == 0) {
-                secret = getSecret(data.getCallbackHandler(), id);
+            if (secret == null) {
+                boolean resolvedForIdentifier = true;
+                try {
+                    secret = getSecret(data.getCallbackHandler(), sct.getIdentifier());
+                } catch (WSSecurityException ex) {
+                    secret = getSecret(data.getCallbackHandler(), id);
+                    resolvedForIdentifier = false;
+                }
+                if (secret == null || secret.length == 0) {
+                    secret = getSecret(data.getCallbackHandler(), id);
+                    resolvedForIdentifier = false;
+                }
+                // Only store a secret that the CallbackHandler supplied for the Identifier of the
+                // token, and not one that it supplied for the (sender-chosen) wsu:Id
+                if (sessionStore != null && resolvedForIdentifier) {
+                    sessionStore.putSession(sct.getIdentifier(), secret);
+                }
             }
             result.put(WSSecurityEngineResult.TAG_ID, sct.getID());
             result.put(WSSecurityEngineResult.TAG_SECRET, secret);
@@ -49,6 +49,7 @@ import javax.xml.crypto.dsig.spec.HMACParameterSpec;
 import org.apache.wss4j.common.bsp.BSPEnforcer;
 import org.apache.wss4j.common.bsp.BSPRule;
 import org.apache.wss4j.common.cache.ReplayCache;
+import org.apache.wss4j.common.cache.ReplayCacheFullException;
 import org.apache.wss4j.common.crypto.AlgorithmSuite;
 import org.apache.wss4j.common.crypto.AlgorithmSuiteValidator;
 import org.apache.wss4j.common.crypto.Crypto;
@@ -664,19 +665,19 @@ public class SignatureProcessor implements Processor {
         String identifier = timeStamp.getCreatedString() + "" + Arrays.hashCode(signatureValue)
             + "" + Arrays.hashCode(key.getEncoded());
 
-        if (replayCache.contains(identifier)) {
+        // Store the Timestamp/SignatureValue/Key combination in the cache, unless it is already there
+        boolean added;
+        try {
+            added = replayCache.addIfAbsent(identifier, timeStamp.getExpires());
+        } catch (ReplayCacheFullException ex) {
+            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, ex, "replayCacheFull");
+        }
+        if (!added) {
             throw new WSSecurityException(
                 WSSecurityException.ErrorCode.INVALID_SECURITY,
                 "invalidTimestamp",
                 new Object[] {"A replay attack has been detected"});
         }
-
-        // Store the Timestamp/SignatureValue/Key combination in the cache
-        if (timeStamp.getExpires() != null) {
-            replayCache.add(identifier, timeStamp.getExpires());
-        } else {
-            replayCache.add(identifier);
-        }
     }
 
     /**
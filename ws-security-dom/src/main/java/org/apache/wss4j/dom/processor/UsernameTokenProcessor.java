@@ -27,6 +27,7 @@ import org.apache.wss4j.common.principal.WSUsernameTokenPrincipalImpl;
 import org.apache.wss4j.common.util.UsernameTokenUtil;
 import org.w3c.dom.Element;
 import org.apache.wss4j.common.cache.ReplayCache;
+import org.apache.wss4j.common.cache.ReplayCacheFullException;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.dom.WSConstants;
 import org.apache.wss4j.dom.engine.WSSecurityEngineResult;
@@ -147,23 +148,27 @@ public class UsernameTokenProcessor implements Processor {
         // Test for replay attacks
         ReplayCache replayCache = data.getNonceReplayCache();
         if (replayCache != null && ut.getNonce() != null) {
-            if (replayCache.contains(ut.getNonce())) {
+            // If no Created, then just cache for the default time
+            // Otherwise, cache for the configured TTL of the UsernameToken Created time, as any
+            // older token will just get rejected anyway
+            Instant created = ut.getCreatedDate();
+            Instant expiry = null;
+            if (created != null && utTTL > 0) {
+                expiry = Instant.now().plusSeconds(utTTL);
+            }
+            boolean added;
+            try {
+                added = replayCache.addIfAbsent(ut.getNonce(), expiry);
+            } catch (ReplayCacheFullException ex) {
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, ex, "replayCacheFull");
+            }
+            if (!added) {
                 throw new WSSecurityException(
                     WSSecurityException.ErrorCode.INVALID_SECURITY,
                     "badUsernameToken",
                     new Object[] {"A replay attack has been detected"}
                 );
             }
-
-            // If no Created, then just cache for the default time
-            // Otherwise, cache for the configured TTL of the UsernameToken Created time, as any
-            // older token will just get rejected anyway
-            Instant created = ut.getCreatedDate();
-            if (created == null || utTTL <= 0) {
-                replayCache.add(ut.getNonce());
-            } else {
-                replayCache.add(ut.getNonce(), Instant.now().plusSeconds(utTTL));
-            }
         }
 
         Credential credential = new Credential();
@@ -24,6 +24,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.derivedKey.SecurityContextSessionStore;
 import org.apache.wss4j.common.ext.WSPasswordCallback;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.saml.SAMLKeyInfo;
@@ -134,13 +135,24 @@ public class DerivedKeyTokenSTRParser implements STRParser {
         RequestData data = parameters.getData();
 
         if (secRef.containsReference()) {
-            // Now use the callback and get it
-            byte[] secretKey =
-                STRParserUtil.getSecretKeyFromToken(uri, null, WSPasswordCallback.SECURITY_CONTEXT_TOKEN, data);
+            // Check the session store first, then use the callback and get it
+            SecurityContextSessionStore sessionStore = data.getSecurityContextSessionStore();
+            String identifier = XMLUtils.getIDFromReference(uri);
+            byte[] secretKey = null;
+            if (sessionStore != null) {
+                secretKey = sessionStore.getSecret(identifier);
+            }
             if (secretKey == null) {
-                throw new WSSecurityException(
-                    WSSecurityException.ErrorCode.FAILED_CHECK, "unsupportedKeyId",
-                    new Object[] {uri});
+                secretKey =
+                    STRParserUtil.getSecretKeyFromToken(uri, null, WSPasswordCallback.SECURITY_CONTEXT_TOKEN, data);
+                if (secretKey == null) {
+                    throw new WSSecurityException(
+                        WSSecurityException.ErrorCode.FAILED_CHECK, "unsupportedKeyId",
+                        new Object[] {uri});
+                }
+                if (sessionStore != null) {
+                    sessionStore.putSession(identifier, secretKey);
+                }
             }
             parserResult.setSecretKey(secretKey);
         } else if (secRef.containsKeyIdentifier()) {
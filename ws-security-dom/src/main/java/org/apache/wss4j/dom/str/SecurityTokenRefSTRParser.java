@@ -131,7 +131,7 @@ public class SecurityTokenRefSTRParser implements STRParser {
                 keyLength = parameters.getDerivationKeyLength();
             }
             byte[] secret = (byte[])result.get(WSSecurityEngineResult.TAG_SECRET);
-            parserResult.setSecretKey(dkt.deriveKey(keyLength, secret));
+            parserResult.setSecretKey(dkt.deriveKey(keyLength, secret, data.getSecurityContextSessionStore()));
             parserResult.setPrincipal(dkt.createPrincipal());
         } else if (action != null
             && (WSConstants.ST_UNSIGNED == action.intValue() || WSConstants.ST_SIGNED == action.intValue())) {
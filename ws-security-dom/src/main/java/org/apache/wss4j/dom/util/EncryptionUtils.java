@@ -395,11 +395,15 @@ public final class EncryptionUtils {
         Document document = null;
         try {
             document = org.apache.xml.security.utils.XMLUtils.read(new ByteArrayInputStream(bytes), true);
-        } catch (SAXException ex) {
+        } catch (org.apache.xml.security.parser.XMLParserException ex) {
             // A prefix may not have been bound, try to fix the DOM Element in this case.
             String fixedElementStr = setParentPrefixes(encData, new String(bytes));
+            try {
             document = org.apache.xml.security.utils.XMLUtils.read(
                 new ByteArrayInputStream(fixedElementStr.getBytes()), true);
+            } catch (org.apache.xml.security.parser.XMLParserException e) {
+                throw new RuntimeException(e);
+            }
         }
 
         Node decryptedNode =
@@ -22,6 +22,7 @@ package org.apache.wss4j.dom.validate;
 import java.security.Key;
 import java.security.Principal;
 import java.security.PrivilegedActionException;
+import java.time.Duration;
 import java.util.Set;
 
 import javax.security.auth.Subject;
@@ -29,9 +30,12 @@ import javax.security.auth.callback.CallbackHandler;
 import javax.security.auth.login.LoginContext;
 import javax.security.auth.login.LoginException;
 
+import org.apache.wss4j.common.cache.ReplayCache;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.ext.WSSecurityException.ErrorCode;
+import org.apache.wss4j.common.kerberos.KerberosAuthenticatorUtils;
 import org.apache.wss4j.common.kerberos.KerberosServiceContext;
+import org.apache.wss4j.common.kerberos.KerberosServiceCredentialCache;
 import org.apache.wss4j.common.kerberos.KerberosServiceExceptionAction;
 import org.apache.wss4j.common.kerberos.KerberosTokenDecoder;
 import org.apache.wss4j.common.kerberos.KerberosTokenDecoderException;
@@ -52,6 +56,8 @@ public class KerberosTokenValidator implements Validator {
     private KerberosTokenDecoder kerberosTokenDecoder;
     private boolean isUsernameServiceNameForm;
     private boolean spnego;
+    private KerberosServiceCredentialCache credentialCache = KerberosServiceCredentialCache.getInstance();
+    private Duration replayWindow = KerberosAuthenticatorUtils.DEFAULT_REPLAY_WINDOW;
 
     /**
      * Get the JAAS Login context name to use.
@@ -121,6 +127,46 @@ public class KerberosTokenValidator implements Validator {
         this.kerberosTokenDecoder = kerberosTokenDecoder;
     }
 
+    /**
+     * Get the cache of the Subjects that the service logs in with.
+     * @return the cache of the Subjects that the service logs in with
+     */
+    public KerberosServiceCredentialCache getCredentialCache() {
+        return credentialCache;
+    }
+
+    /**
+     * Set the cache of the Subjects that the service logs in with. The default is the shared
+     * KerberosServiceCredentialCache instance. If it is null, then the service logs in for every
+     * token that is validated.
+     * The Subjects are keyed by JAAS login context name and service name only, so a cached Subject
+     * is shared by every validator that uses the same cache, login context and service name,
+     * whatever CallbackHandler it logs in with. Use a separate cache for validators that must
+     * log in with different credentials under the same login context name.
+     * @param credentialCache the cache of the Subjects that the service logs in with
+     */
+    public void setCredentialCache(KerberosServiceCredentialCache credentialCache) {
+        this.credentialCache = credentialCache;
+    }
+
+    /**
+     * Get the time to remember the Authenticator of a validated ticket for, to detect replays.
+     * @return the time to remember the Authenticator of a validated ticket for
+     */
+    public Duration getReplayWindow() {
+        return replayWindow;
+    }
+
+    /**
+     * Set the time to remember the Authenticator of a validated ticket for, to detect replays. It is
+     * only used if a Kerberos ReplayCache is configured on the RequestData. The default is ten
+     * minutes, i.e. twice the default Kerberos clock skew.
+     * @param replayWindow the time to remember the Authenticator of a validated ticket for
+     */
+    public void setReplayWindow(Duration replayWindow) {
+        this.replayWindow = replayWindow;
+    }
+
     /**
      * Validate the credential argument. It must contain a non-null BinarySecurityToken.
      *
@@ -150,16 +196,22 @@ public class KerberosTokenValidator implements Validator {
         }
 
         // Get a TGT from the KDC using JAAS
-        LoginContext loginContext = null;
+        CallbackHandler loginCallbackHandler =
+            callbackHandler != null ? callbackHandler : data.getCallbackHandler();
+        Subject subject = null;
         try {
-            if (callbackHandler != null) {
-                loginContext = new LoginContext(getContextName(), callbackHandler);
-            } else if (data.getCallbackHandler() != null) {
-                loginContext = new LoginContext(getContextName(), data.getCallbackHandler());
+            if (credentialCache != null) {
+                subject = credentialCache.getSubject(getContextName(), serviceName, loginCallbackHandler);
             } else {
-                loginContext = new LoginContext(getContextName());
+                LoginContext loginContext = null;
+                if (loginCallbackHandler != null) {
+                    loginContext = new LoginContext(getContextName(), loginCallbackHandler);
+                } else {
+                    loginContext = new LoginContext(getContextName());
+                }
+                loginContext.login();
+                subject = loginContext.getSubject();
             }
-            loginContext.login();
         } catch (LoginException ex) {
             LOG.debug(ex.getMessage(), ex);
             throw new WSSecurityException(
@@ -173,7 +225,6 @@ public class KerberosTokenValidator implements Validator {
         byte[] token = binarySecurity.getToken();
 
         // Get the service name to use - fall back on the principal
-        Subject subject = loginContext.getSubject();
         String service = serviceName;
         if (service == null) {
             Set<Principal> principals = subject.getPrincipals();
@@ -204,6 +255,12 @@ public class KerberosTokenValidator implements Validator {
             }
         }
 
+        // Reject a replayed ticket, now that it is known to be valid
+        ReplayCache replayCache = data.getKerberosReplayCache();
+        if (replayCache != null) {
+            KerberosAuthenticatorUtils.checkReplay(replayCache, token, replayWindow);
+        }
+
         credential.setPrincipal(krbServiceCtx.getPrincipal());
         credential.setDelegationCredential(krbServiceCtx.getDelegationCredential());
 
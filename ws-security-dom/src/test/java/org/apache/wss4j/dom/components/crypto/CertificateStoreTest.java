@@ -41,13 +41,16 @@ import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.Test;
 import org.w3c.dom.Document;
 
+import java.security.MessageDigest;
 import java.security.cert.X509Certificate;
 import java.util.Collections;
 import java.util.List;
 
 import javax.security.auth.callback.CallbackHandler;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
@@ -280,6 +283,41 @@ public class CertificateStoreTest {
         }
     }
 
+    /**
+     * Test the lookups of the certificates of a CertificateStore.
+     */
+    @Test
+    public void testCertificateLookups() throws Exception {
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ALIAS);
+        cryptoType.setAlias("wss40");
+        X509Certificate cert = senderCrypto.getX509Certificates(cryptoType)[0];
+        CertificateStore certificateStore = (CertificateStore)receiverCrypto;
+
+        cryptoType = new CryptoType(CryptoType.TYPE.ISSUER_SERIAL);
+        cryptoType.setIssuerSerial(cert.getIssuerX500Principal().getName(), cert.getSerialNumber());
+        assertEquals(cert, certificateStore.getX509Certificates(cryptoType)[0]);
+
+        cryptoType = new CryptoType(CryptoType.TYPE.THUMBPRINT_SHA1);
+        cryptoType.setBytes(MessageDigest.getInstance("SHA-1").digest(cert.getEncoded()));
+        assertEquals(cert, certificateStore.getX509Certificates(cryptoType)[0]);
+
+        byte[] sha256Thumbprint = MessageDigest.getInstance("SHA-256").digest(cert.getEncoded());
+        assertEquals(cert, certificateStore.getX509CertificatesSHA256Thumbprint(sha256Thumbprint)[0]);
+
+        cryptoType = new CryptoType(CryptoType.TYPE.SKI_BYTES);
+        cryptoType.setBytes(certificateStore.getSKIBytesFromCert(cert));
+        assertEquals(cert, certificateStore.getX509Certificates(cryptoType)[0]);
+
+        cryptoType = new CryptoType(CryptoType.TYPE.SUBJECT_DN);
+        cryptoType.setSubjectDN(cert.getSubjectX500Principal().getName());
+        assertEquals(cert, certificateStore.getX509Certificates(cryptoType)[0]);
+
+        cryptoType.setSubjectDN("CN=Unknown");
+        assertNull(certificateStore.getX509Certificates(cryptoType));
+
+        certificateStore.verifyTrust(cert.getPublicKey());
+    }
+
     /**
      * Verifies the soap envelope
      * <p/>
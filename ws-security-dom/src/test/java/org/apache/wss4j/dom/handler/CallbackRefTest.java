@@ -29,11 +29,15 @@ import org.apache.wss4j.dom.common.UsernamePasswordCallbackHandler;
 import org.apache.wss4j.dom.engine.WSSConfig;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.Test;
+import org.apache.wss4j.common.ext.CachingCallbackHandler;
 import org.apache.wss4j.common.util.XMLUtils;
 import org.w3c.dom.Document;
 
 import javax.security.auth.callback.CallbackHandler;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
@@ -129,4 +133,79 @@ public class CallbackRefTest {
         assertTrue(outputString.contains("securityPassword"));
     }
 
-}
\ No newline at end of file
+    /**
+     * A test for caching the passwords that the Callback Handler supplies, which is configured
+     * via the handler options.
+     */
+    @Test
+    public void
+    testCachingCallbackHandler() throws Exception {
+
+        final WSSConfig cfg = WSSConfig.getNewInstance();
+        final RequestData reqData = new RequestData();
+        reqData.setWssConfig(cfg);
+        reqData.setUsername("alice");
+        reqData.setPwType(WSConstants.PASSWORD_TEXT);
+        reqData.setMsgContext(new java.util.TreeMap<String, String>());
+
+        CustomHandler handler = new CustomHandler();
+        handler.setOption(WSHandlerConstants.PW_CALLBACK_REF, callbackHandler);
+        handler.setOption(WSHandlerConstants.PW_CALLBACK_CACHE, "true");
+        handler.setOption(WSHandlerConstants.PW_CALLBACK_CACHE_TTL, "60");
+
+        CallbackHandler cachingCallbackHandler = handler.getPasswordCallbackHandler(reqData);
+        assertTrue(cachingCallbackHandler instanceof CachingCallbackHandler);
+        assertSame(callbackHandler, ((CachingCallbackHandler)cachingCallbackHandler).getDelegate());
+        CallbackHandler sameCachingCallbackHandler = handler.getPasswordCallbackHandler(reqData);
+        assertSame(((CachingCallbackHandler)cachingCallbackHandler).getCache(),
+                   ((CachingCallbackHandler)sameCachingCallbackHandler).getCache());
+
+        // A different configuration gets a different cache
+        handler.setOption(WSHandlerConstants.PW_CALLBACK_CACHE_TTL, "120");
+        CallbackHandler otherCachingCallbackHandler = handler.getPasswordCallbackHandler(reqData);
+        assertNotSame(((CachingCallbackHandler)cachingCallbackHandler).getCache(),
+                      ((CachingCallbackHandler)otherCachingCallbackHandler).getCache());
+        handler.setOption(WSHandlerConstants.PW_CALLBACK_CACHE_TTL, "60");
+
+        Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+        HandlerAction action = new HandlerAction(WSConstants.UT);
+        handler.send(
+            doc,
+            reqData,
+            Collections.singletonList(action),
+            true
+        );
+
+        String outputString =
+            XMLUtils.prettyDocumentToString(doc);
+        assertTrue(outputString.contains("alice"));
+        assertTrue(outputString.contains("securityPassword"));
+    }
+
+    /**
+     * An invalid maximum size for the password cache falls back to the default.
+     */
+    @Test
+    public void
+    testCachingCallbackHandlerMaxSize() throws Exception {
+        final RequestData reqData = new RequestData();
+        reqData.setMsgContext(new java.util.TreeMap<String, String>());
+
+        CustomHandler handler = new CustomHandler();
+        handler.setOption(WSHandlerConstants.PW_CALLBACK_REF, callbackHandler);
+        handler.setOption(WSHandlerConstants.PW_CALLBACK_CACHE, "true");
+
+        for (String maxSize : new String[] {"0", "-1", "4294967296", "abc"}) {
+            handler.setOption(WSHandlerConstants.PW_CALLBACK_CACHE_MAX_SIZE, maxSize);
+            CachingCallbackHandler cachingCallbackHandler =
+                (CachingCallbackHandler)handler.getPasswordCallbackHandler(reqData);
+            assertEquals(CachingCallbackHandler.DEFAULT_MAX_SIZE, cachingCallbackHandler.getCache().getMaxSize());
+        }
+
+        handler.setOption(WSHandlerConstants.PW_CALLBACK_CACHE_MAX_SIZE, "1");
+        CachingCallbackHandler cachingCallbackHandler =
+            (CachingCallbackHandler)handler.getPasswordCallbackHandler(reqData);
+        assertEquals(1, cachingCallbackHandler.getCache().getMaxSize());
+    }
+
+}
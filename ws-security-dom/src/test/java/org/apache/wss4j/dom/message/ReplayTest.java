@@ -34,6 +34,7 @@ import org.apache.wss4j.dom.engine.WSSecurityEngine;
 import org.apache.wss4j.common.WSEncryptionPart;
 import org.apache.wss4j.common.cache.MemoryReplayCache;
 import org.apache.wss4j.common.cache.ReplayCache;
+import org.apache.wss4j.common.cache.ReplayCacheFullException;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.CryptoFactory;
 import org.apache.wss4j.common.ext.WSSecurityException;
@@ -414,6 +415,36 @@ public class ReplayTest {
         }
     }
 
+    @Test
+    public void testFullReplayCache() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+        WSSecHeader secHeader = new WSSecHeader(doc);
+        secHeader.insertSecurityHeader();
+
+        WSSecUsernameToken builder = new WSSecUsernameToken(secHeader);
+        builder.setUserInfo("wernerd", "verySecret");
+
+        Document signedDoc = builder.build();
+
+        WSSConfig wssConfig = WSSConfig.getNewInstance();
+        RequestData data = new RequestData();
+        data.setCallbackHandler(new UsernamePasswordCallbackHandler());
+        data.setWssConfig(wssConfig);
+        MemoryReplayCache replayCache = new MemoryReplayCache(1, MemoryReplayCache.OverloadPolicy.REJECT);
+        replayCache.add("some-other-nonce");
+        data.setNonceReplayCache(replayCache);
+
+        // A full cache rejects the message with a WSSecurityException, rather than a RuntimeException
+        try {
+            verify(signedDoc, wssConfig, data);
+            fail("Expected failure on a full replay cache");
+        } catch (WSSecurityException ex) {
+            assertTrue(ex.getErrorCode() == WSSecurityException.ErrorCode.FAILURE);
+            assertTrue(ex.getCause() instanceof ReplayCacheFullException);
+        }
+        replayCache.close();
+    }
+
     @Test
     public void testEhCacheReplayedUsernameToken() throws Exception {
         Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
@@ -27,10 +27,12 @@ import org.apache.wss4j.dom.common.SOAPUtil;
 import org.apache.wss4j.dom.common.SecurityTestUtil;
 import org.apache.wss4j.dom.engine.WSSecurityEngine;
 import org.apache.wss4j.dom.engine.WSSecurityEngineResult;
+import org.apache.wss4j.dom.handler.RequestData;
 import org.apache.wss4j.dom.handler.WSHandlerResult;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.CryptoFactory;
 import org.apache.wss4j.common.derivedKey.ConversationConstants;
+import org.apache.wss4j.common.derivedKey.SecurityContextSessionStore;
 import org.apache.wss4j.common.util.XMLUtils;
 import org.apache.wss4j.dom.message.token.SecurityContextToken;
 import org.apache.wss4j.dom.util.WSSecurityUtil;
@@ -38,7 +40,9 @@ import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.Test;
 import org.w3c.dom.Document;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
@@ -194,6 +198,83 @@ public class SecurityContextTokenTest {
         }
     }
 
+    @Test
+    public void testSCTKDKTSignWithSessionStore() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+        WSSecHeader secHeader = new WSSecHeader(doc);
+        secHeader.insertSecurityHeader();
+
+        WSSecSecurityContextToken sctBuilder = new WSSecSecurityContextToken(secHeader, null);
+        sctBuilder.setWscVersion(ConversationConstants.VERSION_05_12);
+        sctBuilder.prepare(crypto);
+
+        byte[] tempSecret = WSSecurityUtil.generateNonce(16);
+        SecretKeyCallbackHandler secretKeyCallbackHandler = new SecretKeyCallbackHandler();
+        secretKeyCallbackHandler.addSecretKey(sctBuilder.getIdentifier(), tempSecret);
+
+        // Derived key signature
+        WSSecDKSign sigBuilder = new WSSecDKSign(secHeader);
+        sigBuilder.setTokenIdentifier(sctBuilder.getSctId());
+        sigBuilder.setSignatureAlgorithm(WSConstants.HMAC_SHA1);
+        sigBuilder.build(tempSecret);
+
+        sctBuilder.prependSCTElementToHeader();
+
+        SecurityContextSessionStore sessionStore = new SecurityContextSessionStore();
+        RequestData data = new RequestData();
+        data.setCallbackHandler(secretKeyCallbackHandler);
+        data.setSigVerCrypto(crypto);
+        data.setSecurityContextSessionStore(sessionStore);
+        secEngine.processSecurityHeader(doc, data);
+        assertEquals(1, sessionStore.size());
+        assertEquals(1, sessionStore.getSecretMissCount());
+        assertEquals(1, sessionStore.getDerivedKeyMissCount());
+        long derivedKeyHits = sessionStore.getDerivedKeyHitCount();
+
+        // The secret and the derived key now come from the store, not the CallbackHandler
+        data = new RequestData();
+        data.setCallbackHandler(new SecretKeyCallbackHandler());
+        data.setSigVerCrypto(crypto);
+        data.setSecurityContextSessionStore(sessionStore);
+        secEngine.processSecurityHeader(doc, data);
+        assertEquals(1, sessionStore.getSecretHitCount());
+        assertEquals(1, sessionStore.getDerivedKeyMissCount());
+        assertTrue(sessionStore.getDerivedKeyHitCount() > derivedKeyHits);
+    }
+
+    @Test
+    public void testSessionStoreIgnoresSecretForWsuId() throws Exception {
+        Document doc = SOAPUtil.toSOAPPart(SOAPUtil.SAMPLE_SOAP_MSG);
+        WSSecHeader secHeader = new WSSecHeader(doc);
+        secHeader.insertSecurityHeader();
+
+        WSSecSecurityContextToken sctBuilder = new WSSecSecurityContextToken(secHeader, null);
+        sctBuilder.setWscVersion(ConversationConstants.VERSION_05_12);
+        sctBuilder.prepare(crypto);
+
+        // The CallbackHandler only knows the secret by the wsu:Id of the token
+        byte[] tempSecret = WSSecurityUtil.generateNonce(16);
+        SecretKeyCallbackHandler secretKeyCallbackHandler = new SecretKeyCallbackHandler();
+        secretKeyCallbackHandler.addSecretKey(sctBuilder.getSctId(), tempSecret);
+
+        WSSecDKSign sigBuilder = new WSSecDKSign(secHeader);
+        sigBuilder.setTokenIdentifier(sctBuilder.getSctId());
+        sigBuilder.setSignatureAlgorithm(WSConstants.HMAC_SHA1);
+        sigBuilder.build(tempSecret);
+
+        sctBuilder.prependSCTElementToHeader();
+
+        SecurityContextSessionStore sessionStore = new SecurityContextSessionStore();
+        RequestData data = new RequestData();
+        data.setCallbackHandler(secretKeyCallbackHandler);
+        data.setSigVerCrypto(crypto);
+        data.setSecurityContextSessionStore(sessionStore);
+        secEngine.processSecurityHeader(doc, data);
+
+        // The secret is not stored under the wsc:Identifier, which the CallbackHandler didn't vouch for
+        assertNull(sessionStore.getSecret(sctBuilder.getIdentifier()));
+    }
+
     /**
      * Test for WSS-217:
      * "Add ability to specify a reference to an absolute URI in the derived key functionality".
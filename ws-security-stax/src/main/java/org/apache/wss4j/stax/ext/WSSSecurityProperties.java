@@ -24,6 +24,7 @@ import java.security.cert.CertStore;
 import java.security.cert.CertificateFactory;
 import java.security.cert.CollectionCertStoreParameters;
 import java.security.cert.X509CRL;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -38,11 +39,15 @@ import javax.security.auth.callback.CallbackHandler;
 import javax.xml.namespace.QName;
 
 import org.apache.wss4j.common.bsp.BSPRule;
+import org.apache.wss4j.common.cache.MonitoredReplayCache;
 import org.apache.wss4j.common.cache.ReplayCache;
+import org.apache.wss4j.common.cache.ReplayCacheListener;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.Merlin;
 import org.apache.wss4j.common.crypto.PasswordEncryptor;
+import org.apache.wss4j.common.derivedKey.SecurityContextSessionStore;
 import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.kerberos.KerberosAuthenticatorUtils;
 import org.apache.wss4j.stax.securityToken.WSSecurityTokenConstants;
 import org.apache.wss4j.stax.validate.Validator;
 import org.apache.xml.security.stax.ext.XMLSecurityProperties;
@@ -108,6 +113,10 @@ public class WSSSecurityProperties extends XMLSecurityProperties {
     private ReplayCache timestampReplayCache;
     private ReplayCache nonceReplayCache;
     private ReplayCache samlOneTimeUseReplayCache;
+    private ReplayCache kerberosReplayCache;
+    private Duration kerberosReplayWindow = KerberosAuthenticatorUtils.DEFAULT_REPLAY_WINDOW;
+    private ReplayCacheListener replayCacheListener;
+    private SecurityContextSessionStore securityContextSessionStore;
     private boolean validateSamlSubjectConfirmation = true;
     private Collection<Pattern> subjectDNPatterns = new ArrayList<>();
     private Collection<Pattern> issuerDNPatterns = new ArrayList<>();
@@ -164,6 +173,10 @@ public class WSSSecurityProperties extends XMLSecurityProperties {
         this.timestampReplayCache = wssSecurityProperties.timestampReplayCache;
         this.nonceReplayCache = wssSecurityProperties.nonceReplayCache;
         this.samlOneTimeUseReplayCache = wssSecurityProperties.samlOneTimeUseReplayCache;
+        this.kerberosReplayCache = wssSecurityProperties.kerberosReplayCache;
+        this.kerberosReplayWindow = wssSecurityProperties.kerberosReplayWindow;
+        this.replayCacheListener = wssSecurityProperties.replayCacheListener;
+        this.securityContextSessionStore = wssSecurityProperties.securityContextSessionStore;
         this.allowRSA15KeyTransportAlgorithm = wssSecurityProperties.allowRSA15KeyTransportAlgorithm;
         this.derivedKeyIterations = wssSecurityProperties.derivedKeyIterations;
         this.useDerivedKeyForMAC = wssSecurityProperties.useDerivedKeyForMAC;
@@ -723,7 +736,8 @@ public class WSSSecurityProperties extends XMLSecurityProperties {
      * Set the replay cache for Timestamps
      */
     public void setTimestampReplayCache(ReplayCache newCache) {
-        timestampReplayCache = newCache;
+        timestampReplayCache =
+            MonitoredReplayCache.monitor(newCache, ReplayCacheListener.ROLE_TIMESTAMP, replayCacheListener);
     }
 
     /**
@@ -738,7 +752,8 @@ public class WSSSecurityProperties extends XMLSecurityProperties {
      * Set the replay cache for Nonces
      */
     public void setNonceReplayCache(ReplayCache newCache) {
-        nonceReplayCache = newCache;
+        nonceReplayCache =
+            MonitoredReplayCache.monitor(newCache, ReplayCacheListener.ROLE_NONCE, replayCacheListener);
     }
 
     /**
@@ -753,7 +768,8 @@ public class WSSSecurityProperties extends XMLSecurityProperties {
      * Set the replay cache for SAML2 OneTimeUse Assertions
      */
     public void setSamlOneTimeUseReplayCache(ReplayCache newCache) {
-        samlOneTimeUseReplayCache = newCache;
+        samlOneTimeUseReplayCache =
+            MonitoredReplayCache.monitor(newCache, ReplayCacheListener.ROLE_SAML_ONE_TIME_USE, replayCacheListener);
     }
 
     /**
@@ -764,6 +780,77 @@ public class WSSSecurityProperties extends XMLSecurityProperties {
         return samlOneTimeUseReplayCache;
     }
 
+    /**
+     * Set the replay cache for the Authenticators of Kerberos tokens. If it is null (the default),
+     * then received Kerberos tokens are not checked for replay.
+     */
+    public void setKerberosReplayCache(ReplayCache newCache) {
+        kerberosReplayCache =
+            MonitoredReplayCache.monitor(newCache, ReplayCacheListener.ROLE_KERBEROS, replayCacheListener);
+    }
+
+    /**
+     * Get the replay cache for the Authenticators of Kerberos tokens
+     */
+    public ReplayCache getKerberosReplayCache() {
+        return kerberosReplayCache;
+    }
+
+    /**
+     * Get the time to remember the Authenticator of a received Kerberos token for, to detect replays
+     */
+    public Duration getKerberosReplayWindow() {
+        return kerberosReplayWindow;
+    }
+
+    /**
+     * Set the time to remember the Authenticator of a received Kerberos token for, to detect replays.
+     * It is only used if a Kerberos ReplayCache is configured. The default is ten minutes, i.e. twice
+     * the default Kerberos clock skew.
+     */
+    public void setKerberosReplayWindow(Duration kerberosReplayWindow) {
+        this.kerberosReplayWindow = kerberosReplayWindow;
+    }
+
+    /**
+     * Set the listener to report the behaviour of the replay caches to. The events of each cache are
+     * labelled with its role, i.e. ReplayCacheListener.ROLE_TIMESTAMP, ROLE_NONCE,
+     * ROLE_SAML_ONE_TIME_USE or ROLE_KERBEROS. Only the operations on the caches are reported; to
+     * also report their internal events, such as expiry sweeps, wrap each cache in a
+     * MonitoredReplayCache once when it is created.
+     */
+    public void setReplayCacheListener(ReplayCacheListener listener) {
+        replayCacheListener = listener;
+        timestampReplayCache =
+            MonitoredReplayCache.monitor(timestampReplayCache, ReplayCacheListener.ROLE_TIMESTAMP, listener);
+        nonceReplayCache =
+            MonitoredReplayCache.monitor(nonceReplayCache, ReplayCacheListener.ROLE_NONCE, listener);
+        samlOneTimeUseReplayCache =
+            MonitoredReplayCache.monitor(samlOneTimeUseReplayCache, ReplayCacheListener.ROLE_SAML_ONE_TIME_USE,
+                                         listener);
+        kerberosReplayCache =
+            MonitoredReplayCache.monitor(kerberosReplayCache, ReplayCacheListener.ROLE_KERBEROS, listener);
+    }
+
+    public ReplayCacheListener getReplayCacheListener() {
+        return replayCacheListener;
+    }
+
+    /**
+     * Set the store for the secrets of received SecurityContextTokens, and the keys derived from
+     * them. If it is null (the default), then the CallbackHandler is asked for the secret of each
+     * SecurityContextToken, and each DerivedKeyToken is derived from scratch. A stored secret is
+     * confirmed with the CallbackHandler once the default lifetime of the store has passed. The
+     * application should remove a security context from the store when it is cancelled.
+     */
+    public void setSecurityContextSessionStore(SecurityContextSessionStore securityContextSessionStore) {
+        this.securityContextSessionStore = securityContextSessionStore;
+    }
+
+    public SecurityContextSessionStore getSecurityContextSessionStore() {
+        return securityContextSessionStore;
+    }
+
     public boolean isDisableBSPEnforcement() {
         return disableBSPEnforcement;
     }
@@ -28,6 +28,7 @@ import javax.xml.namespace.QName;
 
 import org.apache.wss4j.binding.wssc.AbstractDerivedKeyTokenType;
 import org.apache.wss4j.common.derivedKey.DerivedKeyUtils;
+import org.apache.wss4j.common.derivedKey.SecurityContextSessionStore;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.stax.ext.WSInboundSecurityContext;
 import org.apache.wss4j.stax.ext.WSSConstants;
@@ -130,14 +131,28 @@ public class DerivedKeyTokenInputHandler extends AbstractInputSecurityHeaderHand
                         if (derivedKeyAlgorithm == null) {
                             derivedKeyAlgorithm = WSSConstants.P_SHA_1;
                         }
-                        byte[] keyBytes = DerivedKeyUtils.deriveKey(
-                                derivedKeyAlgorithm,
-                                derivedKeyTokenType.getLabel(),
-                                derivedKeyTokenType.getLength().intValue(),
-                                secret,
-                                nonce,
-                                derivedKeyTokenType.getOffset().intValue()
-                        );
+                        SecurityContextSessionStore sessionStore =
+                                ((WSSSecurityProperties) securityProperties).getSecurityContextSessionStore();
+                        byte[] keyBytes;
+                        if (sessionStore != null) {
+                            keyBytes = sessionStore.deriveKey(
+                                    derivedKeyAlgorithm,
+                                    derivedKeyTokenType.getLabel(),
+                                    derivedKeyTokenType.getLength().intValue(),
+                                    secret,
+                                    nonce,
+                                    derivedKeyTokenType.getOffset().intValue()
+                            );
+                        } else {
+                            keyBytes = DerivedKeyUtils.deriveKey(
+                                    derivedKeyAlgorithm,
+                                    derivedKeyTokenType.getLabel(),
+                                    derivedKeyTokenType.getLength().intValue(),
+                                    secret,
+                                    nonce,
+                                    derivedKeyTokenType.getOffset().intValue()
+                            );
+                        }
                         XMLSecurityConstants.AlgorithmUsage derivedKeyAlgorithmUsage;
                         if (WSSConstants.Enc.equals(algorithmUsage)) {
                             derivedKeyAlgorithmUsage = WSSConstants.ENC_KD;
@@ -24,6 +24,7 @@ import org.apache.wss4j.binding.wss10.UsernameTokenType;
 import org.apache.wss4j.binding.wsu10.AttributedDateTime;
 import org.apache.wss4j.common.bsp.BSPRule;
 import org.apache.wss4j.common.cache.ReplayCache;
+import org.apache.wss4j.common.cache.ReplayCacheFullException;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.util.DateUtil;
 import org.apache.wss4j.stax.ext.WSInboundSecurityContext;
@@ -82,18 +83,22 @@ public class UsernameTokenInputHandler extends AbstractInputSecurityHeaderHandle
         if (encodedNonce != null && replayCache != null) {
             // Check for replay attacks
             String nonce = encodedNonce.getValue();
-            if (replayCache.contains(nonce)) {
-                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_AUTHENTICATION);
-            }
-
             // If no Created, then just cache for the default time
             // Otherwise, cache for the configured TTL of the UsernameToken Created time, as any
             // older token will just get rejected anyway
             int utTTL = wssSecurityProperties.getUtTTL();
-            if (created == null || utTTL <= 0) {
-                replayCache.add(nonce);
-            } else {
-                replayCache.add(nonce, Instant.now().plusSeconds(utTTL));
+            Instant expiry = null;
+            if (created != null && utTTL > 0) {
+                expiry = Instant.now().plusSeconds(utTTL);
+            }
+            boolean added;
+            try {
+                added = replayCache.addIfAbsent(nonce, expiry);
+            } catch (ReplayCacheFullException ex) {
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, ex, "replayCacheFull");
+            }
+            if (!added) {
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILED_AUTHENTICATION);
             }
         }
 
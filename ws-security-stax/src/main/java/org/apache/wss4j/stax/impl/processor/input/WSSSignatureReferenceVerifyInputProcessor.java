@@ -22,7 +22,6 @@ import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.time.Instant;
 import java.time.temporal.ChronoField;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -38,6 +37,7 @@ import javax.xml.stream.XMLStreamException;
 import org.apache.wss4j.binding.wss10.TransformationParametersType;
 import org.apache.wss4j.common.bsp.BSPRule;
 import org.apache.wss4j.common.cache.ReplayCache;
+import org.apache.wss4j.common.cache.ReplayCacheFullException;
 import org.apache.wss4j.common.ext.Attachment;
 import org.apache.wss4j.common.ext.AttachmentRequestCallback;
 import org.apache.wss4j.common.ext.AttachmentResultCallback;
@@ -316,16 +316,15 @@ public class WSSSignatureReferenceVerifyInputProcessor extends AbstractSignature
             final String cacheKey =
                     timestampSecurityEvent.getCreated().get(ChronoField.MILLI_OF_SECOND)
                     + "" + Arrays.hashCode(getSignatureType().getSignatureValue().getValue());
-            if (replayCache.contains(cacheKey)) {
-                throw new WSSecurityException(WSSecurityException.ErrorCode.MESSAGE_EXPIRED);
+            // Store the Timestamp/SignatureValue combination in the cache, unless it is already there
+            boolean added;
+            try {
+                added = replayCache.addIfAbsent(cacheKey, timestampSecurityEvent.getExpires());
+            } catch (ReplayCacheFullException ex) {
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, ex, "replayCacheFull");
             }
-
-            // Store the Timestamp/SignatureValue combination in the cache
-            Instant expires = timestampSecurityEvent.getExpires();
-            if (expires != null) {
-                replayCache.add(cacheKey, expires);
-            } else {
-                replayCache.add(cacheKey);
+            if (!added) {
+                throw new WSSecurityException(WSSecurityException.ErrorCode.MESSAGE_EXPIRED);
             }
         }
     }
@@ -22,7 +22,6 @@ import java.io.IOException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.Key;
-import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.cert.X509Certificate;
 import java.security.spec.AlgorithmParameterSpec;
@@ -32,7 +31,6 @@ import java.util.List;
 
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.OAEPParameterSpec;
 import javax.crypto.spec.PSource;
 import javax.security.auth.callback.Callback;
@@ -42,6 +40,7 @@ import javax.xml.stream.XMLStreamException;
 
 import org.apache.wss4j.common.ext.WSPasswordCallback;
 import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.CryptoPrimitivePool;
 import org.apache.wss4j.stax.ext.WSSConstants;
 import org.apache.wss4j.stax.ext.WSSSecurityProperties;
 import org.apache.wss4j.stax.securityToken.WSSecurityTokenConstants;
@@ -274,10 +273,10 @@ public class EncryptedKeyOutputProcessor extends AbstractOutputProcessor {
                 createStartElementAndOutputAsEvent(subOutputProcessorChain, WSSConstants.TAG_xenc_CipherData, false, null);
                 createStartElementAndOutputAsEvent(subOutputProcessorChain, WSSConstants.TAG_xenc_CipherValue, false, null);
 
+                Cipher cipher = null;
                 try {
                     //encrypt the symmetric session key with the public key from the receiver:
-                    String jceid = JCEAlgorithmMapper.translateURItoJCEID(encryptionKeyTransportAlgorithm);
-                    Cipher cipher = Cipher.getInstance(jceid);
+                    cipher = CryptoPrimitivePool.getCipher(encryptionKeyTransportAlgorithm, null);
 
                     AlgorithmParameterSpec algorithmParameterSpec = null;
                     if (XMLSecurityConstants.NS_XENC11_RSAOAEP.equals(encryptionKeyTransportAlgorithm)
@@ -333,10 +332,11 @@ public class EncryptedKeyOutputProcessor extends AbstractOutputProcessor {
                     createCharactersAndOutputAsEvent(subOutputProcessorChain,
                                                      XMLUtils.encodeToString(encryptedEphemeralKey));
 
-                } catch (NoSuchPaddingException | NoSuchAlgorithmException
-                    | InvalidKeyException | IllegalBlockSizeException
+                } catch (InvalidKeyException | IllegalBlockSizeException
                     | InvalidAlgorithmParameterException e) {
                     throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e);
+                } finally {
+                    CryptoPrimitivePool.releaseCipher(encryptionKeyTransportAlgorithm, null, cipher);
                 }
 
                 createEndElementAndOutputAsEvent(subOutputProcessorChain, WSSConstants.TAG_xenc_CipherValue);
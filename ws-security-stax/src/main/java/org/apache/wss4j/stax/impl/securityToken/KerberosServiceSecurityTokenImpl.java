@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.security.Key;
 import java.security.Principal;
 import java.security.PrivilegedActionException;
+import java.time.Duration;
 import java.util.Set;
 
 import javax.security.auth.Subject;
@@ -31,10 +32,13 @@ import javax.security.auth.callback.UnsupportedCallbackException;
 import javax.security.auth.login.LoginContext;
 import javax.security.auth.login.LoginException;
 
+import org.apache.wss4j.common.cache.ReplayCache;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.ext.WSSecurityException.ErrorCode;
+import org.apache.wss4j.common.kerberos.KerberosAuthenticatorUtils;
 import org.apache.wss4j.common.kerberos.KerberosContextAndServiceNameCallback;
 import org.apache.wss4j.common.kerberos.KerberosServiceContext;
+import org.apache.wss4j.common.kerberos.KerberosServiceCredentialCache;
 import org.apache.wss4j.common.kerberos.KerberosServiceExceptionAction;
 import org.apache.wss4j.common.kerberos.KerberosTokenDecoder;
 import org.apache.wss4j.common.kerberos.KerberosTokenDecoderException;
@@ -56,6 +60,9 @@ public class KerberosServiceSecurityTokenImpl extends AbstractInboundSecurityTok
     private Subject subject;
     private Principal principal;
     private byte[] sessionKey;
+    private KerberosServiceCredentialCache credentialCache = KerberosServiceCredentialCache.getInstance();
+    private ReplayCache replayCache;
+    private Duration replayWindow = KerberosAuthenticatorUtils.DEFAULT_REPLAY_WINDOW;
 
     public KerberosServiceSecurityTokenImpl(WSInboundSecurityContext wsInboundSecurityContext, CallbackHandler callbackHandler,
                                             byte[] binaryContent, String kerberosTokenValueType, String id,
@@ -91,11 +98,18 @@ public class KerberosServiceSecurityTokenImpl extends AbstractInboundSecurityTok
                 throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, "kerberosCallbackServiceNameNotSupplied");
             }
 
-            LoginContext loginContext = new LoginContext(contextAndServiceNameCallback.getContextName(), callbackHandler);
-            loginContext.login();
+            if (credentialCache != null) {
+                this.subject =
+                    credentialCache.getSubject(contextAndServiceNameCallback.getContextName(),
+                                               contextAndServiceNameCallback.getServiceName(), callbackHandler);
+            } else {
+                LoginContext loginContext =
+                    new LoginContext(contextAndServiceNameCallback.getContextName(), callbackHandler);
+                loginContext.login();
+                this.subject = loginContext.getSubject();
+            }
 
             // Get the service name to use - fall back on the principal
-            this.subject = loginContext.getSubject();
 
             String service = contextAndServiceNameCallback.getServiceName();
             if (service == null) {
@@ -129,6 +143,11 @@ public class KerberosServiceSecurityTokenImpl extends AbstractInboundSecurityTok
                 }
             }
 
+            // Reject a replayed ticket, now that it is known to be valid
+            if (replayCache != null) {
+                KerberosAuthenticatorUtils.checkReplay(replayCache, binaryContent, replayWindow);
+            }
+
             this.principal = krbServiceCtx.getPrincipal();
 
             Key key = krbServiceCtx.getSessionKey();
@@ -200,4 +219,44 @@ public class KerberosServiceSecurityTokenImpl extends AbstractInboundSecurityTok
     public void setKerberosTokenDecoder(KerberosTokenDecoder kerberosTokenDecoder) {
         this.kerberosTokenDecoder = kerberosTokenDecoder;
     }
+
+    /**
+     * Get the cache of the Subjects that the service logs in with.
+     * @return the cache of the Subjects that the service logs in with
+     */
+    public KerberosServiceCredentialCache getCredentialCache() {
+        return credentialCache;
+    }
+
+    /**
+     * Set the cache of the Subjects that the service logs in with. The default is the shared
+     * KerberosServiceCredentialCache instance. If it is null, then the service logs in for every
+     * token.
+     * The Subjects are keyed by JAAS login context name and service name only, so a cached Subject
+     * is shared by every validator that uses the same cache, login context and service name,
+     * whatever CallbackHandler it logs in with. Use a separate cache for validators that must
+     * log in with different credentials under the same login context name.
+     * @param credentialCache the cache of the Subjects that the service logs in with
+     */
+    public void setCredentialCache(KerberosServiceCredentialCache credentialCache) {
+        this.credentialCache = credentialCache;
+    }
+
+    /**
+     * Set the cache of the Authenticators of received Kerberos tokens. If it is null (the default),
+     * then the token is not checked for replay.
+     * @param replayCache the cache of the Authenticators of received Kerberos tokens
+     */
+    public void setReplayCache(ReplayCache replayCache) {
+        this.replayCache = replayCache;
+    }
+
+    /**
+     * Set the time to remember the Authenticator of a validated ticket for, to detect replays. The
+     * default is KerberosAuthenticatorUtils.DEFAULT_REPLAY_WINDOW.
+     * @param replayWindow the time to remember the Authenticator of a validated ticket for
+     */
+    public void setReplayWindow(Duration replayWindow) {
+        this.replayWindow = replayWindow;
+    }
 }
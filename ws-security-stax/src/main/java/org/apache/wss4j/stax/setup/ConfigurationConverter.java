@@ -18,6 +18,7 @@
  */
 package org.apache.wss4j.stax.setup;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -32,10 +33,13 @@ import javax.xml.namespace.QName;
 
 import org.apache.wss4j.common.ConfigurationConstants;
 import org.apache.wss4j.common.cache.ReplayCache;
+import org.apache.wss4j.common.cache.ReplayCacheListener;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.crypto.CryptoFactory;
 import org.apache.wss4j.common.crypto.JasyptPasswordEncryptor;
 import org.apache.wss4j.common.crypto.PasswordEncryptor;
+import org.apache.wss4j.common.derivedKey.SecurityContextSessionStore;
+import org.apache.wss4j.common.ext.CachingCallbackHandler;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.util.Loader;
 import org.apache.wss4j.stax.ext.WSSConstants;
@@ -324,6 +328,21 @@ public final class ConfigurationConverter {
             }
         }
 
+        CallbackHandler pwCallbackHandler = properties.getCallbackHandler();
+        if (pwCallbackHandler != null && !(pwCallbackHandler instanceof CachingCallbackHandler)
+            && decodeBooleanConfigValue(ConfigurationConstants.PW_CALLBACK_CACHE, false, config)) {
+            properties.setCallbackHandler(
+                new CachingCallbackHandler(
+                    pwCallbackHandler,
+                    Duration.ofSeconds(decodeLongConfigValue(ConfigurationConstants.PW_CALLBACK_CACHE_TTL,
+                        CachingCallbackHandler.DEFAULT_TTL.getSeconds(), config)),
+                    Duration.ofSeconds(decodeLongConfigValue(ConfigurationConstants.PW_CALLBACK_CACHE_NEGATIVE_TTL,
+                        CachingCallbackHandler.DEFAULT_NEGATIVE_TTL.getSeconds(), config)),
+                    decodeCallbackCacheMaxSize(config)
+                )
+            );
+        }
+
         Object samlPropRef = config.get(ConfigurationConstants.SAML_CALLBACK_REF);
         if (samlPropRef instanceof CallbackHandler) {
             properties.setSamlCallbackHandler((CallbackHandler)samlPropRef);
@@ -573,6 +592,25 @@ public final class ConfigurationConverter {
             }
         }
 
+        // Set the listener first, so that the caches are monitored
+        ReplayCacheListener replayCacheListener =
+            (ReplayCacheListener)config.get(ConfigurationConstants.REPLAY_CACHE_LISTENER_INSTANCE);
+        if (replayCacheListener != null) {
+            properties.setReplayCacheListener(replayCacheListener);
+        }
+
+        ReplayCache kerberosCache =
+            (ReplayCache)config.get(ConfigurationConstants.KERBEROS_CACHE_INSTANCE);
+        if (kerberosCache != null) {
+            properties.setKerberosReplayCache(kerberosCache);
+        }
+
+        SecurityContextSessionStore sessionStore =
+            (SecurityContextSessionStore)config.get(ConfigurationConstants.SECURITY_CONTEXT_SESSION_STORE_INSTANCE);
+        if (sessionStore != null) {
+            properties.setSecurityContextSessionStore(sessionStore);
+        }
+
         ReplayCache nonceCache =
             (ReplayCache)config.get(ConfigurationConstants.NONCE_CACHE_INSTANCE);
         if (nonceCache != null) {
@@ -753,6 +791,32 @@ public final class ConfigurationConverter {
         return null;
     }
 
+    private static long decodeLongConfigValue(String tag, long defaultValue, Map<String, Object> config) {
+        String value = getString(tag, config);
+        if (value != null) {
+            try {
+                long parsedValue = Long.parseLong(value);
+                if (parsedValue >= 0) {
+                    return parsedValue;
+                }
+            } catch (NumberFormatException e) {
+                LOG.debug(e.getMessage(), e);
+            }
+        }
+        return defaultValue;
+    }
+
+    private static int decodeCallbackCacheMaxSize(Map<String, Object> config) {
+        long maxSize = decodeLongConfigValue(ConfigurationConstants.PW_CALLBACK_CACHE_MAX_SIZE,
+            CachingCallbackHandler.DEFAULT_MAX_SIZE, config);
+        if (maxSize <= 0 || maxSize > Integer.MAX_VALUE) {
+            LOG.warn("Invalid {} value {}, using the default of {}", ConfigurationConstants.PW_CALLBACK_CACHE_MAX_SIZE,
+                maxSize, CachingCallbackHandler.DEFAULT_MAX_SIZE);
+            return CachingCallbackHandler.DEFAULT_MAX_SIZE;
+        }
+        return (int)maxSize;
+    }
+
     private static boolean decodeBooleanConfigValue(
         String tag, boolean defaultToTrue, Map<String, Object> config
     ) {
@@ -20,8 +20,6 @@ package org.apache.wss4j.stax.utils;
 
 import java.io.IOException;
 import java.security.Key;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
@@ -40,6 +38,7 @@ import javax.xml.stream.events.Attribute;
 
 import org.apache.wss4j.common.crypto.Merlin;
 import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.KeyUtils;
 import org.apache.wss4j.stax.ext.WSSConstants;
 import org.apache.wss4j.stax.ext.WSSSecurityProperties;
 import org.apache.wss4j.stax.securityEvent.DerivedKeyTokenSecurityEvent;
@@ -307,11 +306,10 @@ public class WSSUtils extends XMLSecurityUtils {
                                                                    WSSConstants.TAG_WSSE_KEY_IDENTIFIER,
                                                                    false, attributes);
         try {
-            MessageDigest sha = MessageDigest.getInstance("SHA-1");
-            byte[] data = sha.digest(x509Certificates[0].getEncoded());
+            byte[] data = KeyUtils.generateDigest(x509Certificates[0].getEncoded());
             abstractOutputProcessor.createCharactersAndOutputAsEvent(outputProcessorChain,
                                                                      XMLUtils.encodeToString(data));
-        } catch (CertificateEncodingException | NoSuchAlgorithmException e) {
+        } catch (CertificateEncodingException e) {
             throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e);
         }
         abstractOutputProcessor.createEndElementAndOutputAsEvent(outputProcessorChain, WSSConstants.TAG_WSSE_KEY_IDENTIFIER);
@@ -321,14 +319,9 @@ public class WSSUtils extends XMLSecurityUtils {
                                                                  OutputProcessorChain outputProcessorChain, Key key)
             throws XMLStreamException, XMLSecurityException {
 
-        try {
-            MessageDigest sha = MessageDigest.getInstance("SHA-1");
-            byte[] data = sha.digest(key.getEncoded());
-            createEncryptedKeySha1IdentifierStructure(abstractOutputProcessor, outputProcessorChain,
-                                                      XMLUtils.encodeToString(data));
-        } catch (NoSuchAlgorithmException e) {
-            throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, e);
-        }
+        byte[] data = KeyUtils.generateDigest(key.getEncoded());
+        createEncryptedKeySha1IdentifierStructure(abstractOutputProcessor, outputProcessorChain,
+                                                  XMLUtils.encodeToString(data));
     }
 
     public static void createEncryptedKeySha1IdentifierStructure(AbstractOutputProcessor abstractOutputProcessor,
@@ -92,6 +92,10 @@ public class BinarySecurityTokenValidatorImpl implements BinarySecurityTokenVali
                         binarySecurityTokenType.getId(),
                         WSSecurityTokenConstants.KEYIDENTIFIER_SECURITY_TOKEN_DIRECT_REFERENCE
                 );
+                kerberosServiceSecurityToken.setReplayCache(
+                        tokenContext.getWssSecurityProperties().getKerberosReplayCache());
+                kerberosServiceSecurityToken.setReplayWindow(
+                        tokenContext.getWssSecurityProperties().getKerberosReplayWindow());
                 kerberosServiceSecurityToken.setElementPath(tokenContext.getElementPath());
                 kerberosServiceSecurityToken.setXMLSecEvent(tokenContext.getFirstXMLSecEvent());
                 return kerberosServiceSecurityToken;
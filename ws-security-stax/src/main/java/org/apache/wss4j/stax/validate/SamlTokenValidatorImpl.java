@@ -22,6 +22,7 @@ import java.time.Instant;
 import java.util.List;
 
 import org.apache.wss4j.common.cache.ReplayCache;
+import org.apache.wss4j.common.cache.ReplayCacheFullException;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.saml.OpenSAMLUtil;
@@ -252,20 +253,23 @@ public class SamlTokenValidatorImpl extends SignatureTokenValidatorImpl implemen
             && samlAssertion.getSaml2().getConditions().getOneTimeUse() != null) {
             String identifier = samlAssertion.getId();
 
-            if (replayCache.contains(identifier)) {
+            DateTime expires = samlAssertion.getSaml2().getConditions().getNotOnOrAfter();
+            Instant zonedExpires = null;
+            if (expires != null) {
+                zonedExpires = Instant.ofEpochMilli(expires.getMillis());
+            }
+            boolean added;
+            try {
+                added = replayCache.addIfAbsent(identifier, zonedExpires);
+            } catch (ReplayCacheFullException ex) {
+                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, ex, "replayCacheFull");
+            }
+            if (!added) {
                 throw new WSSecurityException(
                     WSSecurityException.ErrorCode.INVALID_SECURITY,
                     "badSamlToken",
                     new Object[] {"A replay attack has been detected"});
             }
-
-            DateTime expires = samlAssertion.getSaml2().getConditions().getNotOnOrAfter();
-            if (expires != null) {
-                Instant zonedExpires = Instant.ofEpochMilli(expires.getMillis());
-                replayCache.add(identifier, zonedExpires);
-            } else {
-                replayCache.add(identifier);
-            }
         }
     }
 
@@ -19,6 +19,7 @@
 package org.apache.wss4j.stax.validate;
 
 import org.apache.wss4j.binding.wssc.AbstractSecurityContextTokenType;
+import org.apache.wss4j.common.derivedKey.SecurityContextSessionStore;
 import org.apache.wss4j.common.ext.WSPasswordCallback;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.stax.securityToken.WSSecurityTokenConstants;
@@ -58,16 +59,28 @@ public class SecurityContextTokenValidatorImpl implements SecurityContextTokenVa
                     return key;
                 }
 
-                WSPasswordCallback passwordCallback = new WSPasswordCallback(
-                        identifier, WSPasswordCallback.SECURITY_CONTEXT_TOKEN);
-                WSSUtils.doSecretKeyCallback(
-                        tokenContext.getWssSecurityProperties().getCallbackHandler(), passwordCallback, null);
-                if (passwordCallback.getKey() == null) {
-                    throw new WSSecurityException(WSSecurityException.ErrorCode.SECURITY_TOKEN_UNAVAILABLE,
-                            "noKey", new Object[] {securityContextTokenType.getId()});
+                SecurityContextSessionStore sessionStore =
+                        tokenContext.getWssSecurityProperties().getSecurityContextSessionStore();
+                byte[] secret = null;
+                if (sessionStore != null) {
+                    secret = sessionStore.getSecret(identifier);
+                }
+                if (secret == null) {
+                    WSPasswordCallback passwordCallback = new WSPasswordCallback(
+                            identifier, WSPasswordCallback.SECURITY_CONTEXT_TOKEN);
+                    WSSUtils.doSecretKeyCallback(
+                            tokenContext.getWssSecurityProperties().getCallbackHandler(), passwordCallback, null);
+                    secret = passwordCallback.getKey();
+                    if (secret == null) {
+                        throw new WSSecurityException(WSSecurityException.ErrorCode.SECURITY_TOKEN_UNAVAILABLE,
+                                "noKey", new Object[] {securityContextTokenType.getId()});
+                    }
+                    if (sessionStore != null) {
+                        sessionStore.putSession(identifier, secret);
+                    }
                 }
                 String keyAlgorithm = JCEMapper.getJCEKeyAlgorithmFromURI(algorithmURI);
-                key = new SecretKeySpec(passwordCallback.getKey(), keyAlgorithm);
+                key = new SecretKeySpec(secret, keyAlgorithm);
                 setSecretKey(algorithmURI, key);
                 return key;
             }
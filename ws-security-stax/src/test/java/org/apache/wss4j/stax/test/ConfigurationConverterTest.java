@@ -22,6 +22,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.wss4j.common.ConfigurationConstants;
+import org.apache.wss4j.common.ext.CachingCallbackHandler;
 import org.apache.wss4j.stax.ext.WSSConstants;
 import org.apache.wss4j.stax.ext.WSSConstants.UsernameTokenPasswordType;
 import org.apache.wss4j.stax.ext.WSSSecurityProperties;
@@ -212,4 +213,23 @@ public class ConfigurationConverterTest extends AbstractTestBase {
         WSSec.validateAndApplyDefaultsToInboundSecurityProperties(properties);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testCachingCallbackHandlerMaxSize() throws Exception {
+        Map<String, Object> config = new HashMap<>();
+        config.put(ConfigurationConstants.PW_CALLBACK_REF, new CallbackHandlerImpl());
+        config.put(ConfigurationConstants.PW_CALLBACK_CACHE, "true");
+
+        // An invalid maximum size falls back to the default
+        for (String maxSize : new String[] {"0", "-1", "4294967296", "abc"}) {
+            config.put(ConfigurationConstants.PW_CALLBACK_CACHE_MAX_SIZE, maxSize);
+            WSSSecurityProperties properties = ConfigurationConverter.convert(config);
+            assertEquals(CachingCallbackHandler.DEFAULT_MAX_SIZE,
+                ((CachingCallbackHandler)properties.getCallbackHandler()).getCache().getMaxSize());
+        }
+
+        config.put(ConfigurationConstants.PW_CALLBACK_CACHE_MAX_SIZE, "1");
+        WSSSecurityProperties properties = ConfigurationConverter.convert(config);
+        assertEquals(1, ((CachingCallbackHandler)properties.getCallbackHandler()).getCache().getMaxSize());
+    }
+
+}